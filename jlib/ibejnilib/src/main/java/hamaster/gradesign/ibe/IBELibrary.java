@@ -1,5 +1,7 @@
 package hamaster.gradesign.ibe;
 
+import java.nio.ByteBuffer;
+
 import hamaster.gradesign.ibe.jni.IBENative;
 
 /**
@@ -9,6 +11,7 @@ import hamaster.gradesign.ibe.jni.IBENative;
 public final class IBELibrary {
     public final static int PBC_G_SIZE = 128;
     public final static int PBC_ZR_SIZE = 20;
+    public final static int ENCRYPT_RANDOMNESS_SIZE = 4 * PBC_G_SIZE;
 
     private IBELibrary() {
     }
@@ -77,6 +80,414 @@ public final class IBELibrary {
         return IBENative.decrypt_str(plainBufferOut, cipherIn, rIDIn, hIDIn, pairingIn);
     }
 
+    /**
+     * 解析椭圆曲线参数，返回的句柄可在多次运算中复用，避免每次调用重新解析
+     * @param pairingIn 椭圆曲线参数
+     * @return 本地句柄，解析失败时返回0
+     */
+    public final static long openPairing(byte[] pairingIn) {
+        if (pairingIn == null || pairingIn.length == 0)
+            return 0L;
+        return IBENative.pairing_open(pairingIn);
+    }
+
+    /**
+     * 释放椭圆曲线参数句柄，调用后该句柄不可再使用
+     * @param pairing 由openPairing返回的句柄
+     */
+    public final static void closePairing(long pairing) {
+        if (pairing != 0L)
+            IBENative.pairing_close(pairing);
+    }
+
+    /**
+     * 使用已解析的椭圆曲线参数生成系统参数
+     * @param alphaOut 系统主密钥，长度20字节
+     * @param gOut 参数g，长度128字节
+     * @param g1Out 参数g1，长度128字节
+     * @param hOut 参数h，长度128字节
+     * @param pairing 椭圆曲线参数句柄
+     * @return
+     */
+    public final static int setup(byte[] alphaOut, byte[] gOut, byte[] g1Out, byte[] hOut, long pairing) {
+        ensureArrayCapacity(alphaOut, PBC_ZR_SIZE);
+        ensureArrayCapacity(gOut, PBC_G_SIZE);
+        ensureArrayCapacity(g1Out, PBC_G_SIZE);
+        ensureArrayCapacity(hOut, PBC_G_SIZE);
+        ensureHandle(pairing);
+        return IBENative.setup_handle(alphaOut, gOut, g1Out, hOut, pairing);
+    }
+
+    /**
+     * 使用已解析的椭圆曲线参数为用户生成私钥
+     * @param hIDOut 私钥hID参数，长度128字节
+     * @param rIDOut 私钥rID参数，长度20字节
+     * @param userIn 用户身份，如电子邮件地址
+     * @param alphaIn 系统主密钥，长度20字节
+     * @param gIn 参数g，长度128字节
+     * @param hIn 参数h，长度128字节
+     * @param pairing 椭圆曲线参数句柄
+     * @return
+     */
+    public final static int keygen(byte[] hIDOut, byte[] rIDOut, byte[] userIn, byte[] alphaIn, byte[] gIn, byte[] hIn, long pairing) {
+        ensureArrayCapacity(rIDOut, PBC_ZR_SIZE);
+        ensureArrayCapacity(hIDOut, PBC_G_SIZE);
+        ensureArrayCapacity(alphaIn, PBC_ZR_SIZE);
+        ensureArrayCapacity(gIn, PBC_G_SIZE);
+        ensureArrayCapacity(hIn, PBC_G_SIZE);
+        ensureHandle(pairing);
+        return IBENative.keygen_handle(hIDOut, rIDOut, userIn, alphaIn, gIn, hIn, pairing, true);
+    }
+
+    /**
+     * 使用已解析的椭圆曲线参数加密数据
+     * @param cipherBufferOut 输出密文，长度384字节，按照uvw顺序排列
+     * @param plainIn 明文，长度128字节
+     * @param gIn 接收方参数g，长度128字节
+     * @param g1In 接收方参数g1，长度128字节
+     * @param hIn 接收方参数h，长度128字节
+     * @param aliceIn 接收方身份
+     * @param pairing 椭圆曲线参数句柄
+     * @return
+     */
+    public final static int encrypt(byte[] cipherBufferOut, byte[] plainIn, byte[] gIn, byte[] g1In, byte[] hIn, byte[] aliceIn, long pairing) {
+        ensureArrayCapacity(cipherBufferOut, 3 * PBC_G_SIZE);
+        ensureArrayCapacity(gIn, PBC_G_SIZE);
+        ensureArrayCapacity(g1In, PBC_G_SIZE);
+        ensureArrayCapacity(hIn, PBC_G_SIZE);
+        ensureHandle(pairing);
+        return IBENative.encrypt_handle(cipherBufferOut, plainIn, gIn, g1In, hIn, aliceIn, pairing);
+    }
+
+    /**
+     * 使用已解析的椭圆曲线参数解密数据
+     * @param plainBufferOut 输出明文，长度128字节
+     * @param cipherIn 输入密文，长度384字节，按照uvw顺序排列
+     * @param rIDIn 接收方私钥rID，长度20字节
+     * @param hIDIn 接收方私钥hID，长度128字节
+     * @param pairing 椭圆曲线参数句柄
+     * @return
+     */
+    public final static int decrypt(byte[] plainBufferOut, byte[] cipherIn, byte[] rIDIn, byte[] hIDIn, long pairing) {
+        ensureArrayCapacity(plainBufferOut, PBC_G_SIZE);
+        ensureArrayCapacity(cipherIn, 3 * PBC_G_SIZE);
+        ensureArrayCapacity(rIDIn, PBC_ZR_SIZE);
+        ensureArrayCapacity(hIDIn, PBC_G_SIZE);
+        ensureHandle(pairing);
+        return IBENative.decrypt_handle(plainBufferOut, cipherIn, rIDIn, hIDIn, pairing);
+    }
+
+    /**
+     * 预处理系统公共参数，缓存e(g,g)和e(g,h)，使用返回的句柄加密时不再计算配对
+     * @param gIn 参数g，长度128字节
+     * @param g1In 参数g1，长度128字节
+     * @param hIn 参数h，长度128字节
+     * @param fixedBase 是否建立固定底数幂运算表，建立后加密更快但每个系统多占用数百KB内存
+     * @param pairing 椭圆曲线参数句柄，在预处理参数释放前不能关闭
+     * @return 本地句柄，失败时返回0
+     */
+    public final static long preparePublicParameter(byte[] gIn, byte[] g1In, byte[] hIn, boolean fixedBase, long pairing) {
+        ensureArrayCapacity(gIn, PBC_G_SIZE);
+        ensureArrayCapacity(g1In, PBC_G_SIZE);
+        ensureArrayCapacity(hIn, PBC_G_SIZE);
+        ensureHandle(pairing);
+        return IBENative.public_prepare(gIn, g1In, hIn, fixedBase, pairing);
+    }
+
+    /**
+     * 预处理系统公共参数占用本地内存的估计值
+     * @param prepared 由preparePublicParameter返回的句柄
+     * @return 字节数
+     */
+    public final static long publicParameterMemory(long prepared) {
+        ensureHandle(prepared);
+        return IBENative.public_memory(prepared);
+    }
+
+    /**
+     * 释放预处理的系统公共参数，调用后该句柄不可再使用
+     * @param prepared 由preparePublicParameter返回的句柄
+     */
+    public final static void releasePublicParameter(long prepared) {
+        if (prepared != 0L)
+            IBENative.public_release(prepared);
+    }
+
+    /**
+     * 使用预处理的系统公共参数加密数据
+     * @param cipherBufferOut 输出密文，长度384字节，按照uvw顺序排列
+     * @param plainIn 明文，长度128字节
+     * @param aliceIn 接收方身份
+     * @param prepared 预处理的系统公共参数句柄
+     * @return
+     */
+    public final static int encryptPrepared(byte[] cipherBufferOut, byte[] plainIn, byte[] aliceIn, long prepared) {
+        ensureArrayCapacity(cipherBufferOut, 3 * PBC_G_SIZE);
+        ensureHandle(prepared);
+        return IBENative.encrypt_prepared(cipherBufferOut, plainIn, aliceIn, prepared);
+    }
+
+    /**
+     * 预先生成一次加密所需的随机量，与明文和接收方无关，可以在后台线程中提前计算
+     * @param randomnessOut 输出随机量，长度512字节，依次为g1^s、g^s、e(g,g)^s和e(g,h)^-s
+     * @param prepared 预处理的系统公共参数句柄
+     * @return 0表示成功
+     */
+    public final static int encryptionRandomness(byte[] randomnessOut, long prepared) {
+        ensureArrayCapacity(randomnessOut, ENCRYPT_RANDOMNESS_SIZE);
+        ensureHandle(prepared);
+        return IBENative.encrypt_randomness(randomnessOut, prepared);
+    }
+
+    /**
+     * 使用预先生成的随机量加密数据，每份随机量只能使用一次
+     * @param cipherBufferOut 输出密文，长度384字节，按照uvw顺序排列
+     * @param plainIn 明文，长度128字节
+     * @param aliceIn 接收方身份
+     * @param randomnessIn encryptionRandomness的输出，长度512字节
+     * @param prepared 生成随机量时使用的预处理系统公共参数句柄
+     * @return 0表示成功
+     */
+    public final static int encryptWithRandomness(byte[] cipherBufferOut, byte[] plainIn, byte[] aliceIn, byte[] randomnessIn, long prepared) {
+        ensureArrayCapacity(cipherBufferOut, 3 * PBC_G_SIZE);
+        ensureArrayCapacity(randomnessIn, ENCRYPT_RANDOMNESS_SIZE);
+        ensureHandle(prepared);
+        return IBENative.encrypt_with_randomness(cipherBufferOut, plainIn, aliceIn, randomnessIn, prepared);
+    }
+
+    /**
+     * 预处理用户私钥，以hID为固定参数预先计算配对，适用于用同一私钥解密大量密文的场景
+     * @param rIDIn 私钥rID，长度20字节
+     * @param hIDIn 私钥hID，长度128字节
+     * @param pairing 椭圆曲线参数句柄，在预处理私钥释放前不能关闭
+     * @return 本地句柄，失败时返回0
+     */
+    public final static long preparePrivateKey(byte[] rIDIn, byte[] hIDIn, long pairing) {
+        ensureArrayCapacity(rIDIn, PBC_ZR_SIZE);
+        ensureArrayCapacity(hIDIn, PBC_G_SIZE);
+        ensureHandle(pairing);
+        return IBENative.private_prepare(rIDIn, hIDIn, pairing);
+    }
+
+    /**
+     * 释放预处理的用户私钥，调用后该句柄不可再使用
+     * @param prepared 由preparePrivateKey返回的句柄
+     */
+    public final static void releasePrivateKey(long prepared) {
+        if (prepared != 0L)
+            IBENative.private_release(prepared);
+    }
+
+    /**
+     * 使用预处理的用户私钥解密数据
+     * @param plainBufferOut 输出明文，长度128字节
+     * @param cipherIn 输入密文，长度384字节，按照uvw顺序排列
+     * @param prepared 预处理的用户私钥句柄
+     * @return
+     */
+    public final static int decryptPrepared(byte[] plainBufferOut, byte[] cipherIn, long prepared) {
+        ensureArrayCapacity(plainBufferOut, PBC_G_SIZE);
+        ensureArrayCapacity(cipherIn, 3 * PBC_G_SIZE);
+        ensureHandle(prepared);
+        return IBENative.decrypt_prepared(plainBufferOut, cipherIn, prepared);
+    }
+
+    /**
+     * 使用预处理的系统公共参数加密直接缓冲区中的数据，明文取自plainIn的position到limit，
+     * 密文写入cipherBufferOut的position处；成功后两个缓冲区的position均前移
+     * @param cipherBufferOut 输出密文，直接缓冲区，剩余空间至少384字节
+     * @param plainIn 明文，直接缓冲区，剩余长度不超过128字节
+     * @param aliceIn 接收方身份
+     * @param prepared 预处理的系统公共参数句柄
+     * @return 0表示成功
+     */
+    public final static int encryptPrepared(ByteBuffer cipherBufferOut, ByteBuffer plainIn, byte[] aliceIn, long prepared) {
+        ensureDirectCapacity(cipherBufferOut, 3 * PBC_G_SIZE, true);
+        ensureDirectCapacity(plainIn, 0, false);
+        if (plainIn.remaining() > PBC_G_SIZE)
+            throw new InvalidKeySizeException(new StringBuilder("plain text size must be at most:").append(PBC_G_SIZE).append(",actural:").append(plainIn.remaining()).toString());
+        ensureHandle(prepared);
+        int result = IBENative.encrypt_direct(cipherBufferOut, cipherBufferOut.position(), plainIn, plainIn.position(), plainIn.remaining(), aliceIn, prepared);
+        if (result == 0) {
+            cipherBufferOut.position(cipherBufferOut.position() + 3 * PBC_G_SIZE);
+            plainIn.position(plainIn.limit());
+        }
+        return result;
+    }
+
+    /**
+     * 使用预处理的用户私钥解密直接缓冲区中的数据，密文取自cipherIn的position处，
+     * 明文写入plainBufferOut的position处；成功后两个缓冲区的position均前移
+     * @param plainBufferOut 输出明文，直接缓冲区，剩余空间至少128字节
+     * @param cipherIn 输入密文，直接缓冲区，剩余长度至少384字节
+     * @param prepared 预处理的用户私钥句柄
+     * @return 0表示成功
+     */
+    public final static int decryptPrepared(ByteBuffer plainBufferOut, ByteBuffer cipherIn, long prepared) {
+        ensureDirectCapacity(plainBufferOut, PBC_G_SIZE, true);
+        ensureDirectCapacity(cipherIn, 3 * PBC_G_SIZE, false);
+        ensureHandle(prepared);
+        int result = IBENative.decrypt_direct(plainBufferOut, plainBufferOut.position(), cipherIn, cipherIn.position(), prepared);
+        if (result == 0) {
+            plainBufferOut.position(plainBufferOut.position() + PBC_G_SIZE);
+            cipherIn.position(cipherIn.position() + 3 * PBC_G_SIZE);
+        }
+        return result;
+    }
+
+    /**
+     * 批量为用户生成私钥
+     * @param hIDOut 私钥hID参数，每个长度128字节
+     * @param rIDOut 私钥rID参数，每个长度20字节
+     * @param usersIn 用户身份
+     * @param alphaIn 系统主密钥，长度20字节
+     * @param gIn 参数g，长度128字节
+     * @param hIn 参数h，长度128字节
+     * @param pairing 椭圆曲线参数句柄
+     * @param resultOut 每个用户的结果，0表示成功
+     * @return 失败的数量
+     */
+    public final static int keygenBatch(byte[][] hIDOut, byte[][] rIDOut, byte[][] usersIn, byte[] alphaIn, byte[] gIn, byte[] hIn, long pairing, int[] resultOut) {
+        int count = ensureBatch(usersIn, resultOut);
+        ensureBatchCapacity(hIDOut, count, PBC_G_SIZE);
+        ensureBatchCapacity(rIDOut, count, PBC_ZR_SIZE);
+        ensureArrayCapacity(alphaIn, PBC_ZR_SIZE);
+        ensureArrayCapacity(gIn, PBC_G_SIZE);
+        ensureArrayCapacity(hIn, PBC_G_SIZE);
+        ensureHandle(pairing);
+        return IBENative.keygen_batch(hIDOut, rIDOut, usersIn, alphaIn, gIn, hIn, pairing, resultOut);
+    }
+
+    /**
+     * 使用预处理的系统公共参数批量加密数据
+     * @param cipherBufferOut 输出密文，每个长度384字节
+     * @param plainsIn 明文，每个长度不超过128字节
+     * @param alicesIn 接收方身份，数量必须与明文相同
+     * @param prepared 预处理的系统公共参数句柄
+     * @param resultOut 每条数据的结果，0表示成功
+     * @return 失败的数量
+     */
+    public final static int encryptBatch(byte[][] cipherBufferOut, byte[][] plainsIn, byte[][] alicesIn, long prepared, int[] resultOut) {
+        int count = ensureBatch(plainsIn, resultOut);
+        if (ensureBatch(alicesIn, resultOut) != count)
+            throw new IllegalArgumentException(new StringBuilder("receiver count must be:").append(count).append(",actural:").append(alicesIn.length).toString());
+        ensureBatchCapacity(cipherBufferOut, count, 3 * PBC_G_SIZE);
+        ensureHandle(prepared);
+        return IBENative.encrypt_batch(cipherBufferOut, plainsIn, alicesIn, prepared, resultOut);
+    }
+
+    /**
+     * 使用预处理的用户私钥批量解密数据
+     * @param plainBufferOut 输出明文，每个长度128字节
+     * @param ciphersIn 输入密文，每个长度384字节
+     * @param prepared 预处理的用户私钥句柄
+     * @param resultOut 每条数据的结果，0表示成功
+     * @return 失败的数量
+     */
+    public final static int decryptBatch(byte[][] plainBufferOut, byte[][] ciphersIn, long prepared, int[] resultOut) {
+        int count = ensureBatch(ciphersIn, resultOut);
+        ensureBatchCapacity(plainBufferOut, count, PBC_G_SIZE);
+        ensureHandle(prepared);
+        return IBENative.decrypt_batch(plainBufferOut, ciphersIn, prepared, resultOut);
+    }
+
+    /**
+     * 由已有系统派生新的系统参数，g和h沿用原系统
+     * @param alphaOut 新系统主密钥，长度20字节
+     * @param g1Out 新系统参数g1，长度128字节
+     * @param gIn 原系统参数g，长度128字节
+     * @param pairing 椭圆曲线参数句柄
+     * @return 0表示成功
+     */
+    public final static int derive(byte[] alphaOut, byte[] g1Out, byte[] gIn, long pairing) {
+        ensureArrayCapacity(alphaOut, PBC_ZR_SIZE);
+        ensureArrayCapacity(g1Out, PBC_G_SIZE);
+        ensureArrayCapacity(gIn, PBC_G_SIZE);
+        ensureHandle(pairing);
+        return IBENative.derive_handle(alphaOut, g1Out, gIn, pairing);
+    }
+
+    /**
+     * 使用预处理的原系统公共参数派生新的系统参数
+     * @param alphaOut 新系统主密钥，长度20字节
+     * @param g1Out 新系统参数g1，长度128字节
+     * @param prepared 预处理的原系统公共参数句柄
+     * @return 0表示成功
+     */
+    public final static int derivePrepared(byte[] alphaOut, byte[] g1Out, long prepared) {
+        ensureArrayCapacity(alphaOut, PBC_ZR_SIZE);
+        ensureArrayCapacity(g1Out, PBC_G_SIZE);
+        ensureHandle(prepared);
+        return IBENative.derive_prepared(alphaOut, g1Out, prepared);
+    }
+
+    /**
+     * 基于配对的短签名
+     * @param sigmaOut 输出签名，长度128字节
+     * @param messageIn 待签名的消息哈希，长度不超过512字节
+     * @param alphaIn 签名者的系统主密钥，长度20字节
+     * @param pairing 椭圆曲线参数句柄
+     * @return 0表示成功
+     */
+    public final static int sign(byte[] sigmaOut, byte[] messageIn, byte[] alphaIn, long pairing) {
+        ensureArrayCapacity(sigmaOut, PBC_G_SIZE);
+        ensureArrayCapacity(messageIn, 1);
+        ensureArrayCapacity(alphaIn, PBC_ZR_SIZE);
+        ensureHandle(pairing);
+        return IBENative.sign_handle(sigmaOut, messageIn, alphaIn, pairing);
+    }
+
+    /**
+     * 验证短签名
+     * @param sigmaIn 签名，长度128字节
+     * @param messageIn 消息哈希，长度不超过512字节
+     * @param gIn 签名者参数g，长度128字节
+     * @param g1In 签名者参数g1，长度128字节
+     * @param pairing 椭圆曲线参数句柄
+     * @return 0表示签名有效，1表示签名无效，其它值表示参数错误
+     */
+    public final static int verify(byte[] sigmaIn, byte[] messageIn, byte[] gIn, byte[] g1In, long pairing) {
+        ensureArrayCapacity(sigmaIn, PBC_G_SIZE);
+        ensureArrayCapacity(messageIn, 1);
+        ensureArrayCapacity(gIn, PBC_G_SIZE);
+        ensureArrayCapacity(g1In, PBC_G_SIZE);
+        ensureHandle(pairing);
+        return IBENative.verify_handle(sigmaIn, messageIn, gIn, g1In, pairing);
+    }
+
+    private final static int ensureBatch(byte[][] batch, int[] results) {
+        if (batch == null || results == null)
+            throw new IllegalArgumentException("batch must not be null");
+        for (byte[] item : batch) {
+            if (item == null)
+                throw new IllegalArgumentException("batch must not contain null elements");
+        }
+        if (results.length < batch.length)
+            throw new IllegalArgumentException(new StringBuilder("result array size must be at least:").append(batch.length).append(",actural:").append(results.length).toString());
+        return batch.length;
+    }
+
+    private final static void ensureBatchCapacity(byte[][] batch, int count, int min) {
+        if (batch == null || batch.length < count)
+            throw new IllegalArgumentException(new StringBuilder("batch size must be at least:").append(count).toString());
+        for (int i = 0; i < count; i++)
+            ensureArrayCapacity(batch[i], min);
+    }
+
+    private final static void ensureDirectCapacity(ByteBuffer buffer, int min, boolean output) {
+        if (buffer == null || !buffer.isDirect())
+            throw new IllegalArgumentException("buffer must be a direct buffer");
+        if (output && buffer.isReadOnly())
+            throw new IllegalArgumentException("buffer must be writable");
+        if (buffer.remaining() < min)
+            throw new InvalidKeySizeException(new StringBuilder("buffer size must be at least:").append(min).append(",actural:").append(buffer.remaining()).toString());
+    }
+
+    private final static void ensureHandle(long handle) {
+        if (handle == 0L)
+            throw new IllegalArgumentException("native handle must not be null");
+    }
+
     private final static void ensureArrayCapacity(byte[] array, int min) {
         if (array == null)
             throw new InvalidKeySizeException(new StringBuilder("array size must be at least:").append(min).append(",actural:0").toString());
@@ -1,7 +1,18 @@
 package hamaster.gradesign.ibe.jni;
 
+import java.nio.ByteBuffer;
+
 /**
  * 底层的JNI接口类，提供对本地IBE库的访问
+ * <p>
+ * 并发约定：本地库加载时将PBC的随机数来源替换为线程安全的系统随机数，此后
+ * <ul>
+ * <li>所有*_str函数不共享任何状态，可以被任意多个线程同时调用</li>
+ * <li>同一个椭圆曲线参数句柄可以被多个线程同时用于setup、keygen、encrypt和decrypt，
+ * 也可以每个线程使用各自的句柄以避免共享</li>
+ * <li>预处理的公共参数和私钥在建立后只读，可以被多个线程同时使用</li>
+ * <li>*_close和*_release不能与使用同一句柄的其它调用并发执行，由调用方保证</li>
+ * </ul>
  * @author <a href="mailto:wangyeee@gmail.com">王烨</a>
  */
 public final class IBENative {
@@ -63,6 +74,248 @@ public final class IBENative {
      */
     public static native int decrypt_str(byte[] plain_buffer_out, byte[] cipher_in, byte[] rID_in, byte[] hID_in, byte[] pairing_str_in);
 
+    /**
+     * 解析椭圆曲线参数并返回可复用的本地句柄
+     * @param pairing_str_in 椭圆曲线参数
+     * @return 本地句柄，解析失败时返回0
+     */
+    public static native long pairing_open(byte[] pairing_str_in);
+
+    /**
+     * 释放椭圆曲线参数句柄
+     * @param pairing 由pairing_open返回的句柄
+     */
+    public static native void pairing_close(long pairing);
+
+    /**
+     * 使用已解析的椭圆曲线参数生成系统参数
+     * @param alpha_out 系统主密钥，长度20字节
+     * @param g_out 参数g，长度128字节
+     * @param g1_out 参数g1，长度128字节
+     * @param h_out 参数h，长度128字节
+     * @param pairing 椭圆曲线参数句柄
+     * @return
+     */
+    public static native int setup_handle(byte[] alpha_out, byte[] g_out, byte[] g1_out, byte[] h_out, long pairing);
+
+    /**
+     * 使用已解析的椭圆曲线参数为用户生成私钥
+     * @param hID_out 私钥hID参数，长度128字节
+     * @param rID_out 私钥rID参数，长度20字节
+     * @param user_in 用户身份，如电子邮件地址
+     * @param alpha_in 系统主密钥，长度20字节
+     * @param g_in 参数g，长度128字节
+     * @param h_in 参数h，长度128字节
+     * @param pairing 椭圆曲线参数句柄
+     * @param random_rID 是否随即生成rID
+     * @return
+     */
+    public static native int keygen_handle(byte[] hID_out, byte[] rID_out, byte[] user_in, byte[] alpha_in, byte[] g_in, byte[] h_in, long pairing,
+                                           boolean random_rID);
+
+    /**
+     * 使用已解析的椭圆曲线参数加密数据
+     * @param cipher_buffer_out 输出密文，长度384字节，按照uvw顺序排列
+     * @param plain_in 明文，长度128字节
+     * @param g_in 接收方参数g，长度128字节
+     * @param g1_in 接收方参数g1，长度128字节
+     * @param h_in 接收方参数h，长度128字节
+     * @param alice_in 接收方身份
+     * @param pairing 椭圆曲线参数句柄
+     * @return
+     */
+    public static native int encrypt_handle(byte[] cipher_buffer_out, byte[] plain_in, byte[] g_in, byte[] g1_in, byte[] h_in, byte[] alice_in,
+                                            long pairing);
+
+    /**
+     * 使用已解析的椭圆曲线参数解密数据
+     * @param plain_buffer_out 输出明文，长度128字节
+     * @param cipher_in 输入密文，长度384字节，按照uvw顺序排列
+     * @param rID_in 接收方私钥rID，长度20字节
+     * @param hID_in 接收方私钥hID，长度128字节
+     * @param pairing 椭圆曲线参数句柄
+     * @return
+     */
+    public static native int decrypt_handle(byte[] plain_buffer_out, byte[] cipher_in, byte[] rID_in, byte[] hID_in, long pairing);
+
+    /**
+     * 预处理系统公共参数，缓存加密时与接收方无关的配对结果
+     * @param g_in 参数g，长度128字节
+     * @param g1_in 参数g1，长度128字节
+     * @param h_in 参数h，长度128字节
+     * @param fixed_base 是否为g、g1、e(g,g)和e(g,h)建立固定底数幂运算表
+     * @param pairing 椭圆曲线参数句柄，在预处理参数释放前不能关闭
+     * @return 本地句柄，失败时返回0
+     */
+    public static native long public_prepare(byte[] g_in, byte[] g1_in, byte[] h_in, boolean fixed_base, long pairing);
+
+    /**
+     * 预处理系统公共参数占用内存的估计值
+     * @param prepared 由public_prepare返回的句柄
+     * @return 字节数
+     */
+    public static native long public_memory(long prepared);
+
+    /**
+     * 释放预处理的系统公共参数
+     * @param prepared 由public_prepare返回的句柄
+     */
+    public static native void public_release(long prepared);
+
+    /**
+     * 使用预处理的系统公共参数加密数据
+     * @param cipher_buffer_out 输出密文，长度384字节，按照uvw顺序排列
+     * @param plain_in 明文，长度128字节
+     * @param alice_in 接收方身份
+     * @param prepared 预处理的系统公共参数句柄
+     * @return
+     */
+    public static native int encrypt_prepared(byte[] cipher_buffer_out, byte[] plain_in, byte[] alice_in, long prepared);
+
+    /**
+     * 预先生成一次加密所需的随机量，输出依次为g1^s、g^s、e(g,g)^s和e(g,h)^-s
+     * @param randomness_out 输出随机量，长度512字节
+     * @param prepared 预处理的系统公共参数句柄
+     * @return
+     */
+    public static native int encrypt_randomness(byte[] randomness_out, long prepared);
+
+    /**
+     * 使用预先生成的随机量加密数据，每份随机量只能使用一次
+     * @param cipher_buffer_out 输出密文，长度384字节，按照uvw顺序排列
+     * @param plain_in 明文，长度128字节
+     * @param alice_in 接收方身份
+     * @param randomness_in encrypt_randomness的输出，长度512字节
+     * @param prepared 生成随机量时使用的预处理系统公共参数句柄
+     * @return
+     */
+    public static native int encrypt_with_randomness(byte[] cipher_buffer_out, byte[] plain_in, byte[] alice_in, byte[] randomness_in, long prepared);
+
+    /**
+     * 预处理用户私钥，以hID为固定参数预先计算配对，用同一私钥多次解密时更快
+     * @param rID_in 私钥rID，长度20字节
+     * @param hID_in 私钥hID，长度128字节
+     * @param pairing 椭圆曲线参数句柄，在预处理私钥释放前不能关闭
+     * @return 本地句柄，失败时返回0
+     */
+    public static native long private_prepare(byte[] rID_in, byte[] hID_in, long pairing);
+
+    /**
+     * 释放预处理的用户私钥
+     * @param prepared 由private_prepare返回的句柄
+     */
+    public static native void private_release(long prepared);
+
+    /**
+     * 使用预处理的用户私钥解密数据
+     * @param plain_buffer_out 输出明文，长度128字节
+     * @param cipher_in 输入密文，长度384字节，按照uvw顺序排列
+     * @param prepared 预处理的用户私钥句柄
+     * @return
+     */
+    public static native int decrypt_prepared(byte[] plain_buffer_out, byte[] cipher_in, long prepared);
+
+    /**
+     * 批量为用户生成私钥，整批只进入本地代码一次，系统参数只解码一次
+     * @param hID_out 私钥hID参数，每个长度128字节
+     * @param rID_out 私钥rID参数，每个长度20字节
+     * @param users_in 用户身份
+     * @param alpha_in 系统主密钥，长度20字节
+     * @param g_in 参数g，长度128字节
+     * @param h_in 参数h，长度128字节
+     * @param pairing 椭圆曲线参数句柄
+     * @param result_out 每个用户的结果，0表示成功
+     * @return 失败的数量，参数错误时返回-1
+     */
+    public static native int keygen_batch(byte[][] hID_out, byte[][] rID_out, byte[][] users_in, byte[] alpha_in, byte[] g_in, byte[] h_in, long pairing,
+                                          int[] result_out);
+
+    /**
+     * 使用预处理的系统公共参数批量加密数据
+     * @param cipher_buffer_out 输出密文，每个长度384字节
+     * @param plains_in 明文，每个长度不超过128字节
+     * @param alices_in 接收方身份
+     * @param prepared 预处理的系统公共参数句柄
+     * @param result_out 每条数据的结果，0表示成功
+     * @return 失败的数量，参数错误时返回-1
+     */
+    public static native int encrypt_batch(byte[][] cipher_buffer_out, byte[][] plains_in, byte[][] alices_in, long prepared, int[] result_out);
+
+    /**
+     * 使用预处理的用户私钥批量解密数据
+     * @param plain_buffer_out 输出明文，每个长度128字节
+     * @param ciphers_in 输入密文，每个长度384字节
+     * @param prepared 预处理的用户私钥句柄
+     * @param result_out 每条数据的结果，0表示成功
+     * @return 失败的数量，参数错误时返回-1
+     */
+    public static native int decrypt_batch(byte[][] plain_buffer_out, byte[][] ciphers_in, long prepared, int[] result_out);
+
+    /**
+     * 使用预处理的系统公共参数加密直接缓冲区中的数据，不复制明文和密文
+     * @param cipher_buffer_out 输出密文，直接缓冲区，从cipher_offset开始写入384字节
+     * @param cipher_offset 密文偏移
+     * @param plain_in 明文，直接缓冲区
+     * @param plain_offset 明文偏移
+     * @param plain_length 明文长度，不超过128字节
+     * @param alice_in 接收方身份
+     * @param prepared 预处理的系统公共参数句柄
+     * @return 0表示成功
+     */
+    public static native int encrypt_direct(ByteBuffer cipher_buffer_out, int cipher_offset, ByteBuffer plain_in, int plain_offset, int plain_length,
+                                            byte[] alice_in, long prepared);
+
+    /**
+     * 使用预处理的用户私钥解密直接缓冲区中的数据，不复制明文和密文
+     * @param plain_buffer_out 输出明文，直接缓冲区，从plain_offset开始写入128字节
+     * @param plain_offset 明文偏移
+     * @param cipher_in 输入密文，直接缓冲区，从cipher_offset开始读取384字节
+     * @param cipher_offset 密文偏移
+     * @param prepared 预处理的用户私钥句柄
+     * @return 0表示成功
+     */
+    public static native int decrypt_direct(ByteBuffer plain_buffer_out, int plain_offset, ByteBuffer cipher_in, int cipher_offset, long prepared);
+
+    /**
+     * 基于配对的短签名 sigma = H(message)^alpha
+     * @param sigma_out 输出签名，长度128字节
+     * @param message_in 待签名的消息哈希
+     * @param alpha_in 签名者的系统主密钥，长度20字节
+     * @param pairing 椭圆曲线参数句柄
+     * @return 0表示成功
+     */
+    public static native int sign_handle(byte[] sigma_out, byte[] message_in, byte[] alpha_in, long pairing);
+
+    /**
+     * 验证sign_handle生成的签名 e(g, sigma) == e(g1, H(message))
+     * @param sigma_in 签名，长度128字节
+     * @param message_in 消息哈希
+     * @param g_in 签名者参数g，长度128字节
+     * @param g1_in 签名者参数g1，长度128字节
+     * @param pairing 椭圆曲线参数句柄
+     * @return 0表示签名有效，1表示签名无效，其它值表示参数错误
+     */
+    public static native int verify_handle(byte[] sigma_in, byte[] message_in, byte[] g_in, byte[] g1_in, long pairing);
+
+    /**
+     * 由已有系统派生新的系统参数：随机生成主密钥alpha，g1 = g^alpha，g和h沿用原系统
+     * @param alpha_out 新系统主密钥，长度20字节
+     * @param g1_out 新系统参数g1，长度128字节
+     * @param g_in 原系统参数g，长度128字节
+     * @param pairing 椭圆曲线参数句柄
+     * @return 0表示成功
+     */
+    public static native int derive_handle(byte[] alpha_out, byte[] g1_out, byte[] g_in, long pairing);
+
+    /**
+     * 使用预处理的原系统公共参数派生新的系统参数
+     * @param alpha_out 新系统主密钥，长度20字节
+     * @param g1_out 新系统参数g1，长度128字节
+     * @param prepared 预处理的原系统公共参数句柄
+     * @return 0表示成功
+     */
+    public static native int derive_prepared(byte[] alpha_out, byte[] g1_out, long prepared);
+
     private IBENative() {
     }
 }
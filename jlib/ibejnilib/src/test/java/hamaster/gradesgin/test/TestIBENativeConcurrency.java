@@ -0,0 +1,177 @@
+package hamaster.gradesgin.test;
+
+import static hamaster.gradesign.ibe.IBELibrary.closePairing;
+import static hamaster.gradesign.ibe.IBELibrary.decrypt;
+import static hamaster.gradesign.ibe.IBELibrary.encrypt;
+import static hamaster.gradesign.ibe.IBELibrary.keygen;
+import static hamaster.gradesign.ibe.IBELibrary.openPairing;
+import static hamaster.gradesign.ibe.IBELibrary.setup;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 多线程压力测试：验证多个线程同时调用本地库时结果正确，并报告吞吐量随线程数的变化
+ */
+public class TestIBENativeConcurrency {
+
+    String param =
+        "type a q 8780710799663312522437781984754049815806883199414208211028653399266475630880222957078625179422662221423155858769582317459277713367317481324925129998224791 h 12016012264891146079388821366740534204802954401251311822919615131047207289359704531102844802183906537786776 r 730750818665451621361119245571504901405976559617 exp2 159 exp1 107 sign1 1 sign0 1 ";
+
+    final static int ROUNDS = 32;
+
+    final static int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * 多核机器上要求的最低加速比 远低于理想值 只用于发现被串行化的本地调用
+     */
+    final static double MIN_SPEEDUP = 1.2;
+
+    /**
+     * 共享的构建机上单次测量不稳定 取多次测量中最好的一次
+     */
+    final static int ATTEMPTS = 3;
+
+    @Test
+    public void testSharedPairing() throws Exception {
+        long pairing = openPairing(param.getBytes());
+        assertNotEquals(0L, pairing);
+        try {
+            run(THREADS, () -> pairing);
+        } finally {
+            closePairing(pairing);
+        }
+    }
+
+    @Test
+    public void testPerThreadPairing() throws Exception {
+        List<Long> handles = new ArrayList<Long>();
+        try {
+            run(THREADS, () -> {
+                long pairing = openPairing(param.getBytes());
+                assertNotEquals(0L, pairing);
+                synchronized (handles) {
+                    handles.add(pairing);
+                }
+                return pairing;
+            });
+        } finally {
+            for (Long pairing : handles)
+                closePairing(pairing);
+        }
+    }
+
+    @Test
+    public void testStringPairing() throws Exception {
+        run(THREADS, () -> 0L);
+    }
+
+    @Test
+    public void testThroughputScales() throws Exception {
+        long pairing = openPairing(param.getBytes());
+        assertNotEquals(0L, pairing);
+        try {
+            run(1, () -> pairing); // 预热
+            if (Runtime.getRuntime().availableProcessors() < 2)
+                return;
+            double best = 0;
+            for (int attempt = 0; attempt < ATTEMPTS && best <= MIN_SPEEDUP; attempt++) {
+                long single = run(1, () -> pairing);
+                long parallel = run(THREADS, () -> pairing);
+                // 每个线程的工作量相同，加速比 = (THREADS * 单线程耗时) / 并行耗时
+                best = Math.max(best, (double) THREADS * single / parallel);
+            }
+            assertTrue(best > MIN_SPEEDUP, "speedup with " + THREADS + " threads: " + best);
+        } finally {
+            closePairing(pairing);
+        }
+    }
+
+    /**
+     * 每个线程生成系统参数和私钥，然后加密解密ROUNDS次并检查结果
+     * @param threads 线程数
+     * @param pairings 在各线程中调用，返回该线程使用的句柄，0表示使用字符串形式的接口
+     * @return 耗时，单位纳秒
+     */
+    private long run(int threads, Callable<Long> pairings) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<byte[][]>> futures = new ArrayList<Future<byte[][]>>();
+            for (int t = 0; t < threads; t++) {
+                final String user = t + "@gradesign.hamaster";
+                futures.add(executor.submit(() -> {
+                    long pairing = pairings.call();
+                    start.await();
+                    return work(pairing, user);
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            List<byte[]> randoms = new ArrayList<byte[]>();
+            for (Future<byte[][]> future : futures) {
+                byte[][] keys = future.get();
+                randoms.add(keys[0]);
+                randoms.add(keys[1]);
+            }
+            long elapsed = System.nanoTime() - begin;
+            // 随机数来源线程安全时 各线程生成的主密钥和rID不可能相同
+            for (int i = 0; i < randoms.size(); i++)
+                for (int j = i + 1; j < randoms.size(); j++)
+                    assertFalse(Arrays.equals(randoms.get(i), randoms.get(j)), "duplicate random values across threads");
+            return elapsed;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private byte[][] work(long pairing, String user) {
+        byte[] pairingIn = param.getBytes();
+        byte[] alpha = new byte[20];
+        byte[] g = new byte[128];
+        byte[] g1 = new byte[128];
+        byte[] h = new byte[128];
+        byte[] hID = new byte[128];
+        byte[] rID = new byte[20];
+        if (pairing == 0L) {
+            assertEquals(0, setup(alpha, g, g1, h, pairingIn));
+            assertEquals(0, keygen(hID, rID, user.getBytes(), alpha, g, h, pairingIn));
+        } else {
+            assertEquals(0, setup(alpha, g, g1, h, pairing));
+            assertEquals(0, keygen(hID, rID, user.getBytes(), alpha, g, h, pairing));
+        }
+        Random random = new Random(user.hashCode());
+        for (int round = 0; round < ROUNDS; round++) {
+            byte[] plain = new byte[128];
+            random.nextBytes(plain);
+            // 明文的两个坐标都必须小于q
+            plain[0] = 0;
+            plain[64] = 0;
+            byte[] cipher = new byte[128 * 3];
+            byte[] dec = new byte[128];
+            if (pairing == 0L) {
+                assertEquals(0, encrypt(cipher, plain, g, g1, h, user.getBytes(), pairingIn));
+                assertEquals(0, decrypt(dec, cipher, rID, hID, pairingIn));
+            } else {
+                assertEquals(0, encrypt(cipher, plain, g, g1, h, user.getBytes(), pairing));
+                assertEquals(0, decrypt(dec, cipher, rID, hID, pairing));
+            }
+            assertArrayEquals(plain, dec);
+        }
+        return new byte[][] {alpha, rID};
+    }
+}
@@ -1,10 +1,13 @@
 package hamaster.gradesgin.test;
 
+import static hamaster.gradesign.ibe.IBELibrary.closePairing;
 import static hamaster.gradesign.ibe.IBELibrary.decrypt;
 import static hamaster.gradesign.ibe.IBELibrary.encrypt;
 import static hamaster.gradesign.ibe.IBELibrary.keygen;
+import static hamaster.gradesign.ibe.IBELibrary.openPairing;
 import static hamaster.gradesign.ibe.IBELibrary.setup;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
@@ -47,6 +50,33 @@ public class TestIBENativeLibrary {
         assertEquals(dec, data);
     }
 
+    @Test
+    public void testPairingHandle() {
+        long pairing = openPairing(param.getBytes());
+        assertNotEquals(0L, pairing);
+        try {
+            byte[] h_out = new byte[128];
+            byte[] g1_out = new byte[128];
+            byte[] g_out = new byte[128];
+            byte[] alpha_out = new byte[20];
+            assertEquals(0, setup(alpha_out, g_out, g1_out, h_out, pairing));
+
+            byte[] hID_out = new byte[128];
+            byte[] rID_out = new byte[20];
+            assertEquals(0, keygen(hID_out, rID_out, user.getBytes(), alpha_out, g_out, h_out, pairing));
+
+            for (int round = 0; round < 8; round++) {
+                byte[] cipher_buffer_out = new byte[128 * 3];
+                assertEquals(0, encrypt(cipher_buffer_out, unhex(data), g_out, g1_out, h_out, user.getBytes(), pairing));
+                byte[] plain_buffer_out = new byte[128];
+                assertEquals(0, decrypt(plain_buffer_out, cipher_buffer_out, rID_out, hID_out, pairing));
+                assertEquals(data, hex(plain_buffer_out));
+            }
+        } finally {
+            closePairing(pairing);
+        }
+    }
+
     private final static String hex(byte[] data) {
         return hex(data, 0, data.length);
     }
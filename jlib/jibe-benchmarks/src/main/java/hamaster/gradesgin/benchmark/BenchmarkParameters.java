@@ -0,0 +1,17 @@
+package hamaster.gradesgin.benchmark;
+
+/**
+ * 基准测试共用的参数，椭圆曲线参数与IBESystemBeanImpl.generateDefaultSystem使用的type A参数相同
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+final class BenchmarkParameters {
+
+    final static String PAIRING = "type a q 8780710799663312522437781984754049815806883199414208211028653399266475630880222957078625179422662221423155858769582317459277713367317481324925129998224791 h 12016012264891146079388821366740534204802954401251311822919615131047207289359704531102844802183906537786776 r 730750818665451621361119245571504901405976559617 exp2 159 exp1 107 sign1 1 sign0 1 ";
+
+    final static String USER = "wangyeee@gmail.com";
+
+    final static String DATA = "00023065cf3983fc810a12bf66231a826dd6374b171a5db24b8192e3c951dbdede06714f5c93e1fc013ece70a85b0df3ea365c6f333f6eefeeae408d60219c2800b48ef6ef08f6c7a20064f51f29babe3432586ff8126b3f90befddcdf1162624bb071419bd3afedf1123a12100fa4839736cfe73579fa761df472d3f64b7e44";
+
+    private BenchmarkParameters() {
+    }
+}
@@ -0,0 +1,46 @@
+package hamaster.gradesgin.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 依次以单线程和全部CPU核心数运行基准测试，并启用gc profiler统计内存分配速率
+ * 结果以JSON格式写入jmh-&lt;线程数&gt;t.json
+ * <pre>
+ * mvn -pl jlib/jibe-benchmarks -am package -DskipTests
+ * java -Djava.library.path=nativelib -jar jlib/jibe-benchmarks/target/benchmarks.jar [正则表达式]
+ * </pre>
+ * 需要JMH的全部命令行选项时使用 java -cp benchmarks.jar org.openjdk.jmh.Main
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int[] threads = cores > 1 ? new int[] {1, cores} : new int[] {1};
+        for (int t : threads) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .threads(t)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("jmh-" + t + "t.json");
+            String library = System.getProperty("java.library.path");
+            if (library != null)
+                options.jvmArgsAppend("-Djava.library.path=" + library);
+            if (args.length == 0) {
+                options.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+            } else {
+                for (String include : args)
+                    options.include(include);
+            }
+            new Runner(options.build()).run();
+        }
+    }
+}
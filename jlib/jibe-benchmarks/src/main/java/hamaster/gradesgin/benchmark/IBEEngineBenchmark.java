@@ -0,0 +1,152 @@
+package hamaster.gradesgin.benchmark;
+
+import static hamaster.gradesgin.benchmark.BenchmarkParameters.DATA;
+import static hamaster.gradesgin.benchmark.BenchmarkParameters.PAIRING;
+import static hamaster.gradesgin.benchmark.BenchmarkParameters.USER;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hamaster.gradesgin.ibe.IBECipherText;
+import hamaster.gradesgin.ibe.IBEPlainText;
+import hamaster.gradesgin.ibe.IBEPrivateKey;
+import hamaster.gradesgin.ibe.IBEPublicParameter;
+import hamaster.gradesgin.ibe.IBESystemParameter;
+import hamaster.gradesgin.ibe.core.IBEEngine;
+import hamaster.gradesgin.ibe.core.IBEPreparedPrivateKey;
+import hamaster.gradesgin.ibe.core.IBEPreparedPublicParameter;
+import hamaster.gradesgin.ibs.IBSCertificate;
+import hamaster.gradesgin.ibs.IBSSignature;
+import hamaster.gradesgin.ibs.core.IBSEngine;
+import hamaster.gradesgin.util.Hex;
+import hamaster.gradesgin.util.Hash;
+
+/**
+ * IBEEngine各操作的吞吐量
+ * Throughput of the IBEEngine operations
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IBEEngineBenchmark {
+
+    private byte[] pairing;
+    private IBESystemParameter system;
+    private IBEPrivateKey privateKey;
+    private IBEPlainText plainText;
+    private IBECipherText cipherText;
+    private IBEPreparedPublicParameter preparedParameter;
+    private IBEPreparedPrivateKey preparedKey;
+    private IBSCertificate root;
+    private IBSCertificate certificate;
+    private byte[] digest;
+    private IBSSignature signature;
+    private IBSSignature pairingSignature;
+    private IBEPreparedPublicParameter preparedRoot;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pairing = PAIRING.getBytes();
+        system = IBEEngine.setup(pairing);
+        privateKey = IBEEngine.keygen(system, USER);
+        plainText = IBEPlainText.newIbePlainTextFormSignificantBytes(Hex.unhex(DATA));
+        cipherText = IBEEngine.encrypt(system.getPublicParameter(), plainText, USER);
+        preparedParameter = IBEEngine.prepare(system.getPublicParameter());
+        preparedKey = IBEEngine.prepare(privateKey);
+
+        IBSCertificate pairingOnly = new IBSCertificate();
+        IBEPublicParameter publicParameter = new IBEPublicParameter();
+        publicParameter.setPairing(pairing);
+        pairingOnly.setPublicParameter(publicParameter);
+        root = IBEEngine.generateCertificate(USER, pairingOnly, new Date(), 1000000000L);
+        certificate = IBEEngine.generateCertificate(USER, root, new Date(), 1000000000L);
+        digest = Hash.sha256(Hex.unhex(DATA));
+        signature = IBEEngine.sign(certificate, digest, "SHA-256");
+        pairingSignature = IBSEngine.sign(certificate, digest, "SHA-256");
+        preparedRoot = IBEEngine.prepare(root.getPublicParameter(), true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        preparedParameter.close();
+        preparedKey.close();
+        preparedRoot.close();
+    }
+
+    @Benchmark
+    public IBESystemParameter setupSystem() {
+        return IBEEngine.setup(pairing);
+    }
+
+    @Benchmark
+    public IBEPrivateKey keygen() {
+        return IBEEngine.keygen(system, USER);
+    }
+
+    @Benchmark
+    public IBECipherText encrypt() {
+        return IBEEngine.encrypt(system.getPublicParameter(), plainText, USER);
+    }
+
+    @Benchmark
+    public IBECipherText encryptPrepared() {
+        return IBEEngine.encrypt(preparedParameter, plainText, USER);
+    }
+
+    @Benchmark
+    public IBEPlainText decrypt() {
+        return IBEEngine.decrypt(cipherText, privateKey);
+    }
+
+    @Benchmark
+    public IBEPlainText decryptPrepared() {
+        return IBEEngine.decrypt(cipherText, preparedKey);
+    }
+
+    @Benchmark
+    public IBSSignature sign() {
+        return IBEEngine.sign(certificate, digest, "SHA-256");
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return IBEEngine.verify(signature, digest);
+    }
+
+    @Benchmark
+    public IBSSignature signPairing() {
+        return IBSEngine.sign(certificate, digest, "SHA-256");
+    }
+
+    @Benchmark
+    public boolean verifyPairing() {
+        return IBSEngine.verify(pairingSignature, digest);
+    }
+
+    @Benchmark
+    public IBSCertificate generateCertificate() {
+        return IBEEngine.generateCertificate(USER, root, new Date(), 1000000000L);
+    }
+
+    @Benchmark
+    public IBSCertificate generateCertificatePrepared() {
+        return IBEEngine.generateCertificate(USER, root, preparedRoot, new Date(), 1000000000L);
+    }
+}
@@ -0,0 +1,157 @@
+package hamaster.gradesgin.benchmark;
+
+import static hamaster.gradesgin.benchmark.BenchmarkParameters.DATA;
+import static hamaster.gradesgin.benchmark.BenchmarkParameters.PAIRING;
+import static hamaster.gradesgin.benchmark.BenchmarkParameters.USER;
+import static hamaster.gradesign.ibe.IBELibrary.PBC_G_SIZE;
+import static hamaster.gradesign.ibe.IBELibrary.PBC_ZR_SIZE;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hamaster.gradesgin.util.Hex;
+import hamaster.gradesign.ibe.IBELibrary;
+
+/**
+ * IBELibrary本地调用的吞吐量，*Str使用字符串形式的椭圆曲线参数，*Handle使用已解析的句柄
+ * 两者之差即为每次调用解析椭圆曲线参数的开销
+ * Throughput of the raw native calls
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IBELibraryBenchmark {
+
+    private byte[] pairingIn;
+    private long pairing;
+    private byte[] alpha;
+    private byte[] g;
+    private byte[] g1;
+    private byte[] h;
+    private byte[] hID;
+    private byte[] rID;
+    private byte[] user;
+    private byte[] plain;
+    private byte[] cipher;
+    private long prepared;
+    private byte[] randomness;
+
+    /**
+     * 输出缓冲区，每个线程一份
+     */
+    @State(Scope.Thread)
+    public static class Buffers {
+        byte[] alpha = new byte[PBC_ZR_SIZE];
+        byte[] g = new byte[PBC_G_SIZE];
+        byte[] g1 = new byte[PBC_G_SIZE];
+        byte[] h = new byte[PBC_G_SIZE];
+        byte[] hID = new byte[PBC_G_SIZE];
+        byte[] rID = new byte[PBC_ZR_SIZE];
+        byte[] cipher = new byte[PBC_G_SIZE * 3];
+        byte[] plain = new byte[PBC_G_SIZE];
+        byte[] randomness = new byte[IBELibrary.ENCRYPT_RANDOMNESS_SIZE];
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pairingIn = PAIRING.getBytes();
+        pairing = IBELibrary.openPairing(pairingIn);
+        alpha = new byte[PBC_ZR_SIZE];
+        g = new byte[PBC_G_SIZE];
+        g1 = new byte[PBC_G_SIZE];
+        h = new byte[PBC_G_SIZE];
+        hID = new byte[PBC_G_SIZE];
+        rID = new byte[PBC_ZR_SIZE];
+        user = USER.getBytes();
+        plain = Hex.unhex(DATA);
+        cipher = new byte[PBC_G_SIZE * 3];
+        IBELibrary.setup(alpha, g, g1, h, pairing);
+        IBELibrary.keygen(hID, rID, user, alpha, g, h, pairing);
+        IBELibrary.encrypt(cipher, plain, g, g1, h, user, pairing);
+        prepared = IBELibrary.preparePublicParameter(g, g1, h, true, pairing);
+        randomness = new byte[IBELibrary.ENCRYPT_RANDOMNESS_SIZE];
+        IBELibrary.encryptionRandomness(randomness, prepared);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        IBELibrary.releasePublicParameter(prepared);
+        IBELibrary.closePairing(pairing);
+    }
+
+    @Benchmark
+    public long openClosePairing() {
+        long handle = IBELibrary.openPairing(pairingIn);
+        IBELibrary.closePairing(handle);
+        return handle;
+    }
+
+    @Benchmark
+    public int setupStr(Buffers buffers) {
+        return IBELibrary.setup(buffers.alpha, buffers.g, buffers.g1, buffers.h, pairingIn);
+    }
+
+    @Benchmark
+    public int setupHandle(Buffers buffers) {
+        return IBELibrary.setup(buffers.alpha, buffers.g, buffers.g1, buffers.h, pairing);
+    }
+
+    @Benchmark
+    public int keygenStr(Buffers buffers) {
+        return IBELibrary.keygen(buffers.hID, buffers.rID, user, alpha, g, h, pairingIn);
+    }
+
+    @Benchmark
+    public int keygenHandle(Buffers buffers) {
+        return IBELibrary.keygen(buffers.hID, buffers.rID, user, alpha, g, h, pairing);
+    }
+
+    @Benchmark
+    public int encryptStr(Buffers buffers) {
+        return IBELibrary.encrypt(buffers.cipher, plain, g, g1, h, user, pairingIn);
+    }
+
+    @Benchmark
+    public int encryptHandle(Buffers buffers) {
+        return IBELibrary.encrypt(buffers.cipher, plain, g, g1, h, user, pairing);
+    }
+
+    @Benchmark
+    public int decryptStr(Buffers buffers) {
+        return IBELibrary.decrypt(buffers.plain, cipher, rID, hID, pairingIn);
+    }
+
+    @Benchmark
+    public int decryptHandle(Buffers buffers) {
+        return IBELibrary.decrypt(buffers.plain, cipher, rID, hID, pairing);
+    }
+
+    @Benchmark
+    public int encryptionRandomness(Buffers buffers) {
+        return IBELibrary.encryptionRandomness(buffers.randomness, prepared);
+    }
+
+    /**
+     * 随机量已由后台预先生成时请求路径上的开销 仅用于测量 实际使用时每份随机量只能用一次
+     */
+    @Benchmark
+    public int encryptWithRandomness(Buffers buffers) {
+        return IBELibrary.encryptWithRandomness(buffers.cipher, plain, user, randomness, prepared);
+    }
+}
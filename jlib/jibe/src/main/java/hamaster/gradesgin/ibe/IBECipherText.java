@@ -1,11 +1,14 @@
 package hamaster.gradesgin.ibe;
 
-import hamaster.gradesgin.util.MemoryUtil;
+import hamaster.gradesgin.util.BufferUtil;
+import hamaster.gradesgin.util.IBEDecoder;
+import hamaster.gradesgin.util.SecureBufferPool;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -99,14 +102,16 @@ public class IBECipherText implements Serializable, IBEConstraints {
      */
     @Override
     public void writeExternal(OutputStream out) throws IOException {
-        byte[] uvwBuffer = new byte[IBE_G_SIZE * 3];
-        Arrays.fill(uvwBuffer, (byte) 0);
-        if (uvw != null)
-            System.arraycopy(uvw, 0, uvwBuffer, 0, IBE_G_SIZE * 3 > uvw.length ? uvw.length : IBE_G_SIZE * 3);
-        out.write(uvwBuffer);
-        out.write((byte) length);
-        out.flush();
-        MemoryUtil.fastSecureBuffers(uvwBuffer);
+        byte[] uvwBuffer = SecureBufferPool.acquire(IBE_G_SIZE * 3);
+        try {
+            if (uvw != null)
+                System.arraycopy(uvw, 0, uvwBuffer, 0, IBE_G_SIZE * 3 > uvw.length ? uvw.length : IBE_G_SIZE * 3);
+            out.write(uvwBuffer);
+            out.write((byte) length);
+            out.flush();
+        } finally {
+            SecureBufferPool.release(uvwBuffer);
+        }
     }
 
     /*
@@ -116,13 +121,44 @@ public class IBECipherText implements Serializable, IBEConstraints {
     @Override
     public void readExternal(InputStream in) throws IOException,
         ClassNotFoundException {
+        IBEDecoder din = IBEDecoder.of(in);
         byte[] buffer = new byte[IBE_G_SIZE * 3];
-        int size = in.read(buffer);
-        if (size != buffer.length)
+        din.readFully(buffer, "CipherText");
+        this.uvw = buffer;
+        this.length = din.readUnsignedByte("CipherText");
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#serializedSize()
+     */
+    @Override
+    public int serializedSize() {
+        return IBE_G_SIZE * 3 + 1;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#writeTo(java.nio.ByteBuffer)
+     */
+    @Override
+    public void writeTo(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < serializedSize())
+            throw new IOException("Not enough space for a CipherText");
+        BufferUtil.putPadded(buffer, uvw, IBE_G_SIZE * 3);
+        buffer.put((byte) length);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#readFrom(java.nio.ByteBuffer)
+     */
+    @Override
+    public void readFrom(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < serializedSize())
             throw new IOException("Not enough bytes for a CipherText");
         this.uvw = new byte[IBE_G_SIZE * 3];
-        System.arraycopy(buffer, 0, uvw, 0, IBE_G_SIZE * 3);
-        this.length = in.read();
-        MemoryUtil.fastSecureBuffers(buffer);
+        buffer.get(uvw);
+        this.length = buffer.get() & 0xff;
     }
 }
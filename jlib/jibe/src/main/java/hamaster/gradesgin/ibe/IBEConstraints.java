@@ -1,11 +1,13 @@
 package hamaster.gradesgin.ibe;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+
+import hamaster.gradesgin.util.BufferUtil;
 
 /**
  * 一些常数
@@ -43,7 +45,48 @@ public interface IBEConstraints {
      */
     void readExternal(InputStream in) throws IOException, ClassNotFoundException;
 
+    /**
+     * 序列化后的字节数 用于一次分配准确大小的缓冲区
+     * @return 序列化后的字节数 无法预先计算时返回-1
+     */
+    default int serializedSize() {
+        return -1;
+    }
+
+    /**
+     * 将实例直接写入缓冲区 缓冲区的位置前进serializedSize字节<br>
+     * 默认实现通过writeExternal写入
+     * @param buffer 目标缓冲区
+     * @throws IOException 缓冲区剩余空间不足
+     */
+    default void writeTo(ByteBuffer buffer) throws IOException {
+        writeExternal(BufferUtil.outputStream(buffer));
+    }
+
+    /**
+     * 直接从缓冲区读取实例数据 缓冲区的位置前进读取的字节数<br>
+     * 默认实现通过readExternal读取
+     * @param buffer 源缓冲区
+     * @throws IOException 缓冲区剩余数据不足
+     * @throws ClassNotFoundException 读取的数据无法作为类的数据
+     */
+    default void readFrom(ByteBuffer buffer) throws IOException, ClassNotFoundException {
+        readExternal(BufferUtil.inputStream(buffer));
+    }
+
     default byte[] toByteArray() {
+        int size = serializedSize();
+        if (size >= 0) {
+            // 大小已知时只分配一次
+            byte[] data = new byte[size];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            try {
+                writeTo(buffer);
+                if (!buffer.hasRemaining())
+                    return data;
+            } catch (IOException e) {
+            }
+        }
         ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
         try {
             writeExternal(out);
@@ -59,16 +102,10 @@ public interface IBEConstraints {
         } catch (NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
             return null;
         }
-        ByteArrayInputStream in = new ByteArrayInputStream(data);
         try {
-            obj.readExternal(in);
+            obj.readFrom(ByteBuffer.wrap(data));
         } catch (ClassNotFoundException | IOException e) {
             return null;
-        } finally {
-            try {
-                in.close();
-            } catch (IOException e) {
-            }
         }
         return obj;
     }
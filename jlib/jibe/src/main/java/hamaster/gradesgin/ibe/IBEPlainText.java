@@ -1,11 +1,14 @@
 package hamaster.gradesgin.ibe;
 
-import hamaster.gradesgin.util.MemoryUtil;
+import hamaster.gradesgin.util.BufferUtil;
+import hamaster.gradesgin.util.IBEDecoder;
+import hamaster.gradesgin.util.SecureBufferPool;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -143,14 +146,16 @@ public class IBEPlainText implements IBEConstraints, Serializable {
      */
     @Override
     public void writeExternal(OutputStream out) throws IOException {
-        byte[] contentBuffer = new byte[IBE_G_SIZE];
-        Arrays.fill(contentBuffer, (byte) 0);
-        if (content != null)
-            System.arraycopy(content, 0, contentBuffer, 0, IBE_G_SIZE > content.length ? content.length : IBE_G_SIZE);
-        out.write(contentBuffer);
-        out.write((byte) getLength());
-        out.flush();
-        MemoryUtil.immediateSecureBuffers(contentBuffer);
+        byte[] contentBuffer = SecureBufferPool.acquire(IBE_G_SIZE);
+        try {
+            if (content != null)
+                System.arraycopy(content, 0, contentBuffer, 0, IBE_G_SIZE > content.length ? content.length : IBE_G_SIZE);
+            out.write(contentBuffer);
+            out.write((byte) getLength());
+            out.flush();
+        } finally {
+            SecureBufferPool.release(contentBuffer);
+        }
     }
 
     /*
@@ -159,13 +164,44 @@ public class IBEPlainText implements IBEConstraints, Serializable {
      */
     @Override
     public void readExternal(InputStream in) throws IOException, ClassNotFoundException {
+        IBEDecoder din = IBEDecoder.of(in);
         byte[] buffer = new byte[IBE_G_SIZE];
-        int size = in.read(buffer);
-        if (size != buffer.length)
+        din.readFully(buffer, "PlainText");
+        this.content = buffer;
+        this.setLength(din.readUnsignedByte("PlainText"));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#serializedSize()
+     */
+    @Override
+    public int serializedSize() {
+        return IBE_G_SIZE + 1;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#writeTo(java.nio.ByteBuffer)
+     */
+    @Override
+    public void writeTo(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < serializedSize())
+            throw new IOException("Not enough space for a PlainText");
+        BufferUtil.putPadded(buffer, content, IBE_G_SIZE);
+        buffer.put((byte) getLength());
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#readFrom(java.nio.ByteBuffer)
+     */
+    @Override
+    public void readFrom(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < serializedSize())
             throw new IOException("Not enough bytes for a PlainText");
         this.content = new byte[IBE_G_SIZE];
-        System.arraycopy(buffer, 0, content, 0, IBE_G_SIZE);
-        this.setLength(in.read());
-        MemoryUtil.immediateSecureBuffers(buffer);
+        buffer.get(content);
+        this.setLength(buffer.get() & 0xff);
     }
 }
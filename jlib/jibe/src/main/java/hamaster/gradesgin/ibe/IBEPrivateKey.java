@@ -1,16 +1,19 @@
 package hamaster.gradesgin.ibe;
 
-import static hamaster.gradesgin.util.Hex.bytesToInt;
 import static hamaster.gradesgin.util.Hex.intToByte;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.security.PrivateKey;
 import java.util.Arrays;
 
+import hamaster.gradesgin.util.BufferUtil;
+import hamaster.gradesgin.util.IBEDecoder;
 import hamaster.gradesgin.util.MemoryUtil;
+import hamaster.gradesgin.util.SecureBufferPool;
 
 /**
  * 用户私钥
@@ -181,35 +184,35 @@ public class IBEPrivateKey implements Serializable, IBEConstraints, PrivateKey {
         }
         // 不编码，直接将私钥写入输出流
         // TODO encrypt the private key with a password.
-        byte[] rBuffer = new byte[IBE_ZR_SIZE];
-        Arrays.fill(rBuffer, (byte) 0);
-        if (rID != null)
-            System.arraycopy(rID, 0, rBuffer, 0, IBE_ZR_SIZE > rID.length ? rID.length : IBE_ZR_SIZE);
-        out.write(rBuffer);
-        byte[] hBuffer = new byte[IBE_G_SIZE];
-        Arrays.fill(hBuffer, (byte) 0);
-        if (hID != null)
-            System.arraycopy(hID, 0, hBuffer, 0, IBE_G_SIZE > hID.length ? hID.length : IBE_G_SIZE);
-        out.write(hBuffer);
-
+        byte[] rBuffer = SecureBufferPool.acquire(IBE_ZR_SIZE);
+        byte[] hBuffer = SecureBufferPool.acquire(IBE_G_SIZE);
+        byte[] pBuffer = SecureBufferPool.acquire(IBE_G_SIZE * 4);
         byte[] userBuffer = null;
-        if (userString != null) {
-            userBuffer = userString.getBytes(USER_STRING_ENCODING);
-            out.write(intToByte(userBuffer.length));
-            out.write(userBuffer);
-        }
-        byte[] pBuffer = new byte[IBE_G_SIZE * 4];
-        Arrays.fill(pBuffer, (byte) 0);
-        if (pairing != null) {
-            System.arraycopy(pairing, 0, pBuffer, 0, pairing.length);
-            out.write(intToByte(pairing.length));
-        } else {
-            out.write(intToByte(IBE_G_SIZE * 4));
+        try {
+            if (rID != null)
+                System.arraycopy(rID, 0, rBuffer, 0, IBE_ZR_SIZE > rID.length ? rID.length : IBE_ZR_SIZE);
+            out.write(rBuffer);
+            if (hID != null)
+                System.arraycopy(hID, 0, hBuffer, 0, IBE_G_SIZE > hID.length ? hID.length : IBE_G_SIZE);
+            out.write(hBuffer);
+
+            if (userString != null) {
+                userBuffer = userString.getBytes(USER_STRING_ENCODING);
+                out.write(intToByte(userBuffer.length));
+                out.write(userBuffer);
+            }
+            if (pairing != null) {
+                System.arraycopy(pairing, 0, pBuffer, 0, pairing.length);
+                out.write(intToByte(pairing.length));
+            } else {
+                out.write(intToByte(IBE_G_SIZE * 4));
+            }
+            out.write(pBuffer, 0, pairing == null ? pBuffer.length : pairing.length);
+            out.flush();
+        } finally {
+            MemoryUtil.fastSecureBuffers(userBuffer);
+            SecureBufferPool.release(rBuffer, hBuffer, pBuffer);
         }
-        out.write(pBuffer, 0, pairing == null ? pBuffer.length : pairing.length);
-        out.flush();
-        MemoryUtil.fastSecureBuffers(userBuffer, pBuffer);
-        MemoryUtil.immediateSecureBuffers(rBuffer, hBuffer);
     }
 
     /*
@@ -219,43 +222,94 @@ public class IBEPrivateKey implements Serializable, IBEConstraints, PrivateKey {
     @Override
     public void readExternal(InputStream in) throws IOException, ClassNotFoundException {
         // TODO 判断私钥是否是编码过的
-        byte[] buffer = new byte[IBE_ZR_SIZE + IBE_G_SIZE];
-
-        int keySize = in.read(buffer);
-        if (keySize != buffer.length)
-            throw new IOException("Not enough bytes for a PrivateKey");
+        IBEDecoder din = IBEDecoder.of(in);
         this.rID = new byte[IBE_ZR_SIZE];
         this.hID = new byte[IBE_G_SIZE];
-        System.arraycopy(buffer, 0, rID, 0, IBE_ZR_SIZE);
-        System.arraycopy(buffer, IBE_ZR_SIZE, hID, 0, IBE_G_SIZE);
+        din.readFully(rID, "PrivateKey");
+        din.readFully(hID, "PrivateKey");
 
-        byte[] upTmp = new byte[4];
-        Arrays.fill(upTmp, (byte) 0);
-        if (4 != in.read(upTmp)) {
-            throw new IOException("Not enough bytes for a PrivateKey");
+        int uSize = din.readLength("PrivateKey");
+        this.userString = new String(din.readBytes(uSize, "PrivateKey"), USER_STRING_ENCODING);
+
+        int pSize = din.readLength("PrivateKey pairing");
+        this.pairing = null;
+        if (pSize != IBE_G_SIZE * 4)
+            this.pairing = din.readBytes(pSize, "PrivateKey pairing");
+        else
+            din.skipFully(pSize, "PrivateKey pairing");
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#serializedSize()
+     */
+    @Override
+    public int serializedSize() {
+        byte[] encoded = getEncoded();
+        if (encoded != null)
+            return encoded.length;
+        int size = IBE_ZR_SIZE + IBE_G_SIZE;
+        if (userString != null)
+            size += 4 + BufferUtil.utf8Length(userString);
+        return size + 4 + (pairing == null ? IBE_G_SIZE * 4 : pairing.length);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#writeTo(java.nio.ByteBuffer)
+     */
+    @Override
+    public void writeTo(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < serializedSize())
+            throw new IOException("Not enough space for a PrivateKey");
+        byte[] encoded = getEncoded();
+        if (encoded != null) {
+            buffer.put(encoded);
+            return;
         }
-        int uSize = bytesToInt(upTmp);
-        byte[] uBuffer = new byte[uSize];
-        uSize = in.read(uBuffer);
-        if (uSize != uBuffer.length)
-            throw new IOException("Not enough bytes for a PrivateKey");
-        this.userString = new String(uBuffer, USER_STRING_ENCODING);
+        BufferUtil.putPadded(buffer, rID, IBE_ZR_SIZE);
+        BufferUtil.putPadded(buffer, hID, IBE_G_SIZE);
+        if (userString != null) {
+            byte[] userBuffer = userString.getBytes(USER_STRING_ENCODING);
+            BufferUtil.putInt(buffer, userBuffer.length);
+            buffer.put(userBuffer);
+            MemoryUtil.fastSecureBuffers(userBuffer);
+        }
+        if (pairing != null) {
+            BufferUtil.putInt(buffer, pairing.length);
+            buffer.put(pairing);
+        } else {
+            BufferUtil.putInt(buffer, IBE_G_SIZE * 4);
+            BufferUtil.putZero(buffer, IBE_G_SIZE * 4);
+        }
+    }
 
-        Arrays.fill(upTmp, (byte) 0);
-        if (4 != in.read(upTmp)) {
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#readFrom(java.nio.ByteBuffer)
+     */
+    @Override
+    public void readFrom(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < IBE_ZR_SIZE + IBE_G_SIZE + 4)
             throw new IOException("Not enough bytes for a PrivateKey");
-        }
-        int pSize = bytesToInt(upTmp);
-        byte[] pBuffer = new byte[pSize];
-        pSize = in.read(pBuffer);
-        if (pSize != pBuffer.length)
+        this.rID = new byte[IBE_ZR_SIZE];
+        this.hID = new byte[IBE_G_SIZE];
+        buffer.get(rID);
+        buffer.get(hID);
+        int uSize = BufferUtil.getInt(buffer);
+        // 长度来自输入 uSize + 4可能溢出
+        if (uSize < 0 || uSize > buffer.remaining() - 4)
+            throw new IOException("Not enough bytes for a PrivateKey");
+        this.userString = BufferUtil.getUtf8(buffer, uSize);
+        int pSize = BufferUtil.getInt(buffer);
+        if (pSize < 0 || buffer.remaining() < pSize)
             throw new IOException("Not enough bytes for a PrivateKey pairing");
         this.pairing = null;
         if (pSize != IBE_G_SIZE * 4) {
             this.pairing = new byte[pSize];
-            System.arraycopy(pBuffer, 0, pairing, 0, pSize);
+            buffer.get(pairing);
+        } else {
+            buffer.position(buffer.position() + pSize);
         }
-        MemoryUtil.fastSecureBuffers(pBuffer);
-        MemoryUtil.immediateSecureBuffers(buffer);
     }
 }
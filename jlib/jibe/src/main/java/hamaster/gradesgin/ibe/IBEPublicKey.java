@@ -1,16 +1,19 @@
 package hamaster.gradesgin.ibe;
 
-import static hamaster.gradesgin.util.Hex.bytesToInt;
 import static hamaster.gradesgin.util.Hex.intToByte;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.security.PublicKey;
 import java.util.Arrays;
 
+import hamaster.gradesgin.util.BufferUtil;
+import hamaster.gradesgin.util.IBEDecoder;
 import hamaster.gradesgin.util.MemoryUtil;
+import hamaster.gradesgin.util.SecureBufferPool;
 
 /**
  * IBE用户公钥
@@ -140,23 +143,24 @@ public class IBEPublicKey implements IBEConstraints, Serializable, PublicKey {
             return;
         }
         // 不编码，直接将公钥写入输出流
-        byte[] userBuffer = new byte[IBE_ZR_SIZE];
-        Arrays.fill(userBuffer, (byte) 0);
-        if (user != null)
-            System.arraycopy(user, 0, userBuffer, 0, IBE_ZR_SIZE > user.length ? user.length : IBE_ZR_SIZE);
-        out.write(userBuffer);
-        int keySize = userString == null ? 0 : userString.getBytes(USER_STRING_ENCODING).length;
-        out.write(intToByte(keySize));
+        byte[] userBuffer = SecureBufferPool.acquire(IBE_ZR_SIZE);
         byte[] strBuffer = null;
-        if (userString != null) {
-            strBuffer = userString.getBytes(USER_STRING_ENCODING);
-            out.write(strBuffer);
+        try {
+            if (user != null)
+                System.arraycopy(user, 0, userBuffer, 0, IBE_ZR_SIZE > user.length ? user.length : IBE_ZR_SIZE);
+            out.write(userBuffer);
+            int keySize = userString == null ? 0 : userString.getBytes(USER_STRING_ENCODING).length;
+            out.write(intToByte(keySize));
+            if (userString != null) {
+                strBuffer = userString.getBytes(USER_STRING_ENCODING);
+                out.write(strBuffer);
+            }
+            out.flush();
+        } finally {
+            if (strBuffer != null)
+                MemoryUtil.fastSecureBuffers(strBuffer);
+            SecureBufferPool.release(userBuffer);
         }
-        out.flush();
-        if (strBuffer != null)
-            MemoryUtil.fastSecureBuffers(userBuffer, strBuffer);
-        else
-            MemoryUtil.fastSecureBuffers(userBuffer);
     }
 
     /*
@@ -165,23 +169,62 @@ public class IBEPublicKey implements IBEConstraints, Serializable, PublicKey {
      */
     @Override
     public void readExternal(InputStream in) throws IOException, ClassNotFoundException {
-        byte[] buffer = new byte[IBE_ZR_SIZE];
-        int keySize = in.read(buffer);
-        if (keySize != buffer.length)
-            throw new IOException("Not enough bytes for a PublicKey");
+        IBEDecoder din = IBEDecoder.of(in);
         this.user = new byte[IBE_ZR_SIZE];
-        System.arraycopy(buffer, 0, user, 0, IBE_ZR_SIZE);
-        byte[] kTmp = new byte[4];
-        Arrays.fill(kTmp, (byte) 0);
-        if (4 != in.read(kTmp)) {
-            throw new IOException("Not enough bytes for a PublicKey");
+        din.readFully(user, "PublicKey");
+        int keySize = din.readLength("PublicKey");
+        this.userString = new String(din.readBytes(keySize, "PublicKey"), USER_STRING_ENCODING);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#serializedSize()
+     */
+    @Override
+    public int serializedSize() {
+        byte[] encoded = getEncoded();
+        if (encoded != null)
+            return encoded.length;
+        return IBE_ZR_SIZE + 4 + BufferUtil.utf8Length(userString);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#writeTo(java.nio.ByteBuffer)
+     */
+    @Override
+    public void writeTo(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < serializedSize())
+            throw new IOException("Not enough space for a PublicKey");
+        byte[] encoded = getEncoded();
+        if (encoded != null) {
+            buffer.put(encoded);
+            return;
         }
-        keySize = bytesToInt(kTmp);
-        byte[] kBuffer = new byte[keySize];
-        keySize = in.read(kBuffer);
-        if (keySize != kBuffer.length)
+        BufferUtil.putPadded(buffer, user, IBE_ZR_SIZE);
+        if (userString == null) {
+            BufferUtil.putInt(buffer, 0);
+            return;
+        }
+        byte[] strBuffer = userString.getBytes(USER_STRING_ENCODING);
+        BufferUtil.putInt(buffer, strBuffer.length);
+        buffer.put(strBuffer);
+        MemoryUtil.fastSecureBuffers(strBuffer);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#readFrom(java.nio.ByteBuffer)
+     */
+    @Override
+    public void readFrom(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < IBE_ZR_SIZE + 4)
+            throw new IOException("Not enough bytes for a PublicKey");
+        this.user = new byte[IBE_ZR_SIZE];
+        buffer.get(user);
+        int keySize = BufferUtil.getInt(buffer);
+        if (keySize < 0 || buffer.remaining() < keySize)
             throw new IOException("Not enough bytes for a PublicKey");
-        this.userString = new String(kBuffer, USER_STRING_ENCODING);
-        MemoryUtil.fastSecureBuffers(buffer);
+        this.userString = BufferUtil.getUtf8(buffer, keySize);
     }
 }
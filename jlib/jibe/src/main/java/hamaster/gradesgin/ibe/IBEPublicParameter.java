@@ -1,16 +1,17 @@
 package hamaster.gradesgin.ibe;
 
-import static hamaster.gradesgin.util.Hex.bytesToInt;
 import static hamaster.gradesgin.util.Hex.intToByte;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
-import hamaster.gradesgin.util.MemoryUtil;
+import hamaster.gradesgin.util.BufferUtil;
+import hamaster.gradesgin.util.IBEDecoder;
+import hamaster.gradesgin.util.SecureBufferPool;
 
 /**
  * IBE系统公共参数
@@ -142,28 +143,29 @@ public class IBEPublicParameter implements Serializable, IBEConstraints {
      */
     @Override
     public void writeExternal(OutputStream out) throws IOException {
-        byte[] buffer = new byte[IBE_G_SIZE];
-        Arrays.fill(buffer, (byte) 0);
-        if (paramG != null)
-            System.arraycopy(paramG, 0, buffer, 0, IBE_G_SIZE > paramG.length ? paramG.length : IBE_G_SIZE);
-        out.write(buffer);
-        Arrays.fill(buffer, (byte) 0);
-        if (paramG1 != null)
-            System.arraycopy(paramG1, 0, buffer, 0, IBE_G_SIZE > paramG1.length ? paramG1.length : IBE_G_SIZE);
-        out.write(buffer);
-        Arrays.fill(buffer, (byte) 0);
-        if (paramH != null)
-            System.arraycopy(paramH, 0, buffer, 0, IBE_G_SIZE > paramH.length ? paramH.length : IBE_G_SIZE);
-        out.write(buffer);
-        int pSize = pairing == null ? IBE_G_SIZE * 4 : pairing.length;
-        out.write(intToByte(pSize));
-        byte[] pBuffer = new byte[IBE_G_SIZE * 4];
-        Arrays.fill(pBuffer, (byte) 0);
-        if (pairing != null)
-            System.arraycopy(pairing, 0, pBuffer, 0, pairing.length);
-        out.write(pBuffer, 0, pairing == null ? pBuffer.length : pairing.length);
-        out.flush();
-        MemoryUtil.fastSecureBuffers(buffer, pBuffer);
+        byte[] buffer = SecureBufferPool.acquire(IBE_G_SIZE);
+        byte[] pBuffer = SecureBufferPool.acquire(IBE_G_SIZE * 4);
+        try {
+            if (paramG != null)
+                System.arraycopy(paramG, 0, buffer, 0, IBE_G_SIZE > paramG.length ? paramG.length : IBE_G_SIZE);
+            out.write(buffer);
+            Arrays.fill(buffer, (byte) 0);
+            if (paramG1 != null)
+                System.arraycopy(paramG1, 0, buffer, 0, IBE_G_SIZE > paramG1.length ? paramG1.length : IBE_G_SIZE);
+            out.write(buffer);
+            Arrays.fill(buffer, (byte) 0);
+            if (paramH != null)
+                System.arraycopy(paramH, 0, buffer, 0, IBE_G_SIZE > paramH.length ? paramH.length : IBE_G_SIZE);
+            out.write(buffer);
+            int pSize = pairing == null ? IBE_G_SIZE * 4 : pairing.length;
+            out.write(intToByte(pSize));
+            if (pairing != null)
+                System.arraycopy(pairing, 0, pBuffer, 0, pairing.length);
+            out.write(pBuffer, 0, pairing == null ? pBuffer.length : pairing.length);
+            out.flush();
+        } finally {
+            SecureBufferPool.release(buffer, pBuffer);
+        }
     }
 
     /*
@@ -172,37 +174,73 @@ public class IBEPublicParameter implements Serializable, IBEConstraints {
      */
     @Override
     public void readExternal(InputStream in) throws IOException, ClassNotFoundException {
-        byte[] buffer = new byte[IBE_G_SIZE * 3];
-        int pSize = in.read(buffer);
-        if (pSize < buffer.length) {
-            // 字节数少于期望值，数据丢失
-            throw new IOException("Not enough bytes for a PublicParameter");
+        IBEDecoder din = IBEDecoder.of(in);
+        byte[] g = new byte[IBE_G_SIZE];
+        byte[] g1 = new byte[IBE_G_SIZE];
+        byte[] h = new byte[IBE_G_SIZE];
+        din.readFully(g, "PublicParameter");
+        din.readFully(g1, "PublicParameter");
+        din.readFully(h, "PublicParameter");
+        int pSize = din.readLength("PublicParameter");
+        this.pairing = din.readBytes(pSize, "PublicParameter");
+        this.paramG = g;
+        this.paramG1 = g1;
+        this.paramH = h;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#serializedSize()
+     */
+    @Override
+    public int serializedSize() {
+        return IBE_G_SIZE * 3 + 4 + (pairing == null ? IBE_G_SIZE * 4 : pairing.length);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#writeTo(java.nio.ByteBuffer)
+     */
+    @Override
+    public void writeTo(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < serializedSize())
+            throw new IOException("Not enough space for a PublicParameter");
+        BufferUtil.putPadded(buffer, paramG, IBE_G_SIZE);
+        BufferUtil.putPadded(buffer, paramG1, IBE_G_SIZE);
+        BufferUtil.putPadded(buffer, paramH, IBE_G_SIZE);
+        if (pairing != null) {
+            BufferUtil.putInt(buffer, pairing.length);
+            buffer.put(pairing);
+        } else {
+            BufferUtil.putInt(buffer, IBE_G_SIZE * 4);
+            BufferUtil.putZero(buffer, IBE_G_SIZE * 4);
         }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#readFrom(java.nio.ByteBuffer)
+     */
+    @Override
+    public void readFrom(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < IBE_G_SIZE * 3 + 4)
+            throw new IOException("Not enough bytes for a PublicParameter");
         this.paramG = new byte[IBE_G_SIZE];
         this.paramG1 = new byte[IBE_G_SIZE];
         this.paramH = new byte[IBE_G_SIZE];
-        byte[] pTmp = new byte[4];
-        Arrays.fill(pTmp, (byte) 0);
-        if (4 != in.read(pTmp)) {
+        buffer.get(paramG);
+        buffer.get(paramG1);
+        buffer.get(paramH);
+        int pSize = BufferUtil.getInt(buffer);
+        if (pSize < 0 || buffer.remaining() < pSize)
             throw new IOException("Not enough bytes for a PublicParameter");
-        }
-        pSize = bytesToInt(pTmp);
         this.pairing = new byte[pSize];
-        pSize = in.read(pairing);
-        if (pSize < pairing.length) {
-            // 字节数少于期望值，数据丢失
-            throw new IOException("Not enough bytes for a PublicParameter");
-        }
-        System.arraycopy(buffer, 0, paramG, 0, IBE_G_SIZE);
-        System.arraycopy(buffer, IBE_G_SIZE, paramG1, 0, IBE_G_SIZE);
-        System.arraycopy(buffer, IBE_G_SIZE * 2, paramH, 0, IBE_G_SIZE);
-        MemoryUtil.fastSecureBuffers(buffer);
+        buffer.get(pairing);
     }
 
     public static IBEPublicParameter fromByteArray(byte[] data) throws ClassNotFoundException, IOException {
         IBEPublicParameter param = new IBEPublicParameter();
-        ByteArrayInputStream in = new ByteArrayInputStream(data);
-        param.readExternal(in);
+        param.readFrom(ByteBuffer.wrap(data));
         return param;
     }
 }
@@ -4,8 +4,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import hamaster.gradesgin.util.BufferUtil;
+import hamaster.gradesgin.util.IBEDecoder;
+
 /**
  * IBE系统参数 包含系统公共参数和系统主密钥
  * The system parameter of an IBE system, containing the public parameter and system master key.
@@ -116,10 +120,56 @@ public class IBESystemParameter implements Serializable, IBEConstraints {
      */
     @Override
     public void readExternal(InputStream in) throws IOException, ClassNotFoundException {
+        IBEDecoder din = IBEDecoder.of(in);
         this.masterKey = new byte[IBE_ZR_SIZE];
-        if (IBE_ZR_SIZE != in.read(masterKey))
+        din.readFully(masterKey, "SystemParameter");
+        this.publicParameter = new IBEPublicParameter();
+        publicParameter.readExternal(din);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#serializedSize()
+     */
+    @Override
+    public int serializedSize() {
+        int size = masterKey == null ? IBE_ZR_SIZE : masterKey.length;
+        if (publicParameter == null)
+            return size;
+        int pSize = publicParameter.serializedSize();
+        return pSize < 0 ? -1 : size + pSize;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#writeTo(java.nio.ByteBuffer)
+     */
+    @Override
+    public void writeTo(ByteBuffer buffer) throws IOException {
+        if (masterKey == null) {
+            if (buffer.remaining() < IBE_ZR_SIZE)
+                throw new IOException("Not enough space for a SystemParameter");
+            BufferUtil.putZero(buffer, IBE_ZR_SIZE);
+        } else {
+            if (buffer.remaining() < masterKey.length)
+                throw new IOException("Not enough space for a SystemParameter");
+            buffer.put(masterKey);
+        }
+        if (publicParameter != null)
+            publicParameter.writeTo(buffer);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEConstraints#readFrom(java.nio.ByteBuffer)
+     */
+    @Override
+    public void readFrom(ByteBuffer buffer) throws IOException, ClassNotFoundException {
+        if (buffer.remaining() < IBE_ZR_SIZE)
             throw new IOException("Not enough bytes for a SystemParameter");
+        this.masterKey = new byte[IBE_ZR_SIZE];
+        buffer.get(masterKey);
         this.publicParameter = new IBEPublicParameter();
-        publicParameter.readExternal(in);
+        publicParameter.readFrom(buffer);
     }
 }
@@ -0,0 +1,439 @@
+package hamaster.gradesgin.ibe.core;
+
+import static hamaster.gradesgin.util.Hex.intToByte;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import hamaster.gradesgin.ibe.IBECipherText;
+import hamaster.gradesgin.ibe.IBEConstraints;
+import hamaster.gradesgin.ibe.IBEPlainText;
+import hamaster.gradesgin.ibe.IBEPrivateKey;
+import hamaster.gradesgin.ibe.IBEPublicParameter;
+import hamaster.gradesgin.ibe.IBESystemParameter;
+import hamaster.gradesgin.ibe.io.IBEDecryptingInputStream;
+import hamaster.gradesgin.ibe.io.IBEEncryptingOutputStream;
+import hamaster.gradesgin.ibs.IBSCertificate;
+import hamaster.gradesgin.ibs.IBSSignature;
+import hamaster.gradesgin.util.Hash;
+import hamaster.gradesgin.util.SecureBufferPool;
+import hamaster.gradesign.ibe.IBELibrary;
+
+/**
+ * 一个IBE系统的运算上下文 每个系统创建一次后重复使用
+ * 保存已解析的椭圆曲线参数、预处理的公共参数以及可选的主密钥，每次运算不再重新解码系统参数
+ * 对象不可变，可被多个线程共享，不再使用时应调用close释放本地内存和持有的椭圆曲线参数句柄
+ * close等待正在进行的运算完成，关闭后的运算返回null或false
+ * IBEEngine和IBSEngine中以原始参数为输入的静态方法是本类的简单包装
+ * Per-system context holding the decoded pairing, the prepared public elements and the optional master key
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+public class IBEContext extends IBENativeHandle {
+
+    private final IBEPublicParameter publicParameter;
+    private final byte[] masterKey;
+    private final IBEPreparedPublicParameter prepared;
+
+    /**
+     * 本地句柄即椭圆曲线参数句柄 由retain取得时关闭后归还
+     * @param retained 句柄是否由IBEPairingRegistry.retain取得
+     */
+    private IBEContext(IBEPublicParameter publicParameter, byte[] masterKey, long pairing, IBEPreparedPublicParameter prepared, boolean retained) {
+        super(pairing, retained ? pairing : 0L);
+        this.publicParameter = publicParameter;
+        this.masterKey = masterKey;
+        this.prepared = prepared;
+    }
+
+    /**
+     * 为只有公共参数的系统创建上下文 只能加密和验证签名
+     * Create a context for encryption and verification
+     * @param publicParameter 系统公共参数 the public parameter
+     * @return 上下文 参数非法时返回null the context, or null if the parameter is invalid
+     */
+    public static IBEContext create(IBEPublicParameter publicParameter) {
+        return create(publicParameter, null, IBEEngine.FIXED_BASE_DEFAULT);
+    }
+
+    /**
+     * 为包含主密钥的系统创建上下文 可以生成私钥
+     * Create a context for a system with its master key
+     * @param system 系统参数 the system parameter
+     * @return 上下文 参数非法时返回null the context, or null if the parameter is invalid
+     */
+    public static IBEContext create(IBESystemParameter system) {
+        return create(system.getPublicParameter(), system.getMasterKey(), IBEEngine.FIXED_BASE_DEFAULT);
+    }
+
+    /**
+     * 为证书创建上下文 可以用证书主密钥签名
+     * Create a context for a certificate, signatures are made with its master key
+     * @param certificate 证书 the certificate
+     * @return 上下文 参数非法时返回null the context, or null if the parameter is invalid
+     */
+    public static IBEContext create(IBSCertificate certificate) {
+        return create(certificate.getPublicParameter(), certificate.getMasterKey(), IBEEngine.FIXED_BASE_DEFAULT);
+    }
+
+    /**
+     * 创建上下文
+     * @param publicParameter 系统公共参数 the public parameter
+     * @param masterKey 主密钥 可以为null the master key, or null
+     * @param fixedBase 是否建立固定底数幂运算表 whether to build fixed-base exponentiation tables
+     * @return 上下文 参数非法时返回null the context, or null if the parameter is invalid
+     */
+    public static IBEContext create(IBEPublicParameter publicParameter, byte[] masterKey, boolean fixedBase) {
+        // 上下文会被缓存并交给其它线程 持有自己的句柄而不是借用当前线程的句柄
+        long pairing = IBEPairingRegistry.retain(publicParameter.getPairing());
+        if (pairing == 0L)
+            return null;
+        IBEPreparedPublicParameter prepared = IBEEngine.prepare(publicParameter, fixedBase);
+        if (prepared == null) {
+            IBEPairingRegistry.release(pairing);
+            return null;
+        }
+        return new IBEContext(publicParameter, masterKey, pairing, prepared, true);
+    }
+
+    /**
+     * 创建不预处理公共参数的上下文 只解析椭圆曲线参数 适用于一次性的运算 不需要关闭
+     * 使用IBEPairingRegistry.handle取得的句柄，每个线程独立句柄时只能在创建它的线程中使用
+     * Create a context without prepared elements for one-off operations on the calling thread
+     * @param publicParameter 系统公共参数 the public parameter
+     * @param masterKey 主密钥 可以为null the master key, or null
+     * @return 上下文 参数非法时返回null the context, or null if the parameter is invalid
+     */
+    public static IBEContext createTransient(IBEPublicParameter publicParameter, byte[] masterKey) {
+        if (publicParameter == null)
+            return null;
+        long pairing = IBEPairingRegistry.handle(publicParameter.getPairing());
+        if (pairing == 0L)
+            return null;
+        return new IBEContext(publicParameter, masterKey, pairing, null, false);
+    }
+
+    /**
+     * @return 系统公共参数 the public parameter
+     */
+    public IBEPublicParameter getPublicParameter() {
+        return publicParameter;
+    }
+
+    /**
+     * @return 是否包含主密钥 whether the context can generate private keys and signatures
+     */
+    public boolean hasMasterKey() {
+        return masterKey != null;
+    }
+
+    /**
+     * @return 预处理的公共参数 没有预处理时返回null the prepared public parameter, or null
+     */
+    public IBEPreparedPublicParameter getPreparedPublicParameter() {
+        return prepared;
+    }
+
+    /**
+     * 为一个用户生成私钥
+     * Generate a private key for a user
+     * @param user 私钥请求用户 the user
+     * @return 用户的私钥 没有主密钥或出错时返回null the generated private key
+     */
+    public IBEPrivateKey keygen(String user) {
+        if (masterKey == null)
+            return null;
+        byte[] hIDOut = new byte[IBELibrary.PBC_G_SIZE];
+        byte[] rIDOut = new byte[IBELibrary.PBC_ZR_SIZE];
+        long pairing = acquire();
+        if (pairing == 0L)
+            return null;
+        try {
+            int succ = IBELibrary.keygen(hIDOut, rIDOut, user.getBytes(IBEConstraints.USER_STRING_ENCODING), masterKey,
+                                         publicParameter.getParamG(), publicParameter.getParamH(), pairing);
+            if (succ != 0)
+                throw new IOException("Cannot generate private key for user:" + user);
+            return privateKey(hIDOut, rIDOut, user);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * 批量为用户生成私钥
+     * Generate private keys for a batch of users
+     * @param users 私钥请求用户 the users
+     * @return 用户的私钥 与users一一对应 失败的位置为null the generated private keys, null for failed users
+     */
+    public IBEPrivateKey[] keygen(String[] users) {
+        IBEPrivateKey[] privateKeys = new IBEPrivateKey[users.length];
+        if (users.length == 0 || masterKey == null)
+            return privateKeys;
+        byte[][] hIDOut = new byte[users.length][IBELibrary.PBC_G_SIZE];
+        byte[][] rIDOut = new byte[users.length][IBELibrary.PBC_ZR_SIZE];
+        byte[][] usersIn = new byte[users.length][];
+        int[] results = new int[users.length];
+        try {
+            for (int i = 0; i < users.length; i++)
+                usersIn[i] = users[i].getBytes(IBEConstraints.USER_STRING_ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            return privateKeys;
+        }
+        long pairing = acquire();
+        if (pairing == 0L)
+            return privateKeys;
+        try {
+            IBELibrary.keygenBatch(hIDOut, rIDOut, usersIn, masterKey, publicParameter.getParamG(), publicParameter.getParamH(), pairing, results);
+        } finally {
+            release();
+        }
+        for (int i = 0; i < users.length; i++) {
+            if (results[i] == 0)
+                privateKeys[i] = privateKey(hIDOut[i], rIDOut[i], users[i]);
+        }
+        return privateKeys;
+    }
+
+    private IBEPrivateKey privateKey(byte[] hID, byte[] rID, String user) {
+        IBEPrivateKey privateKey = new IBEPrivateKey();
+        privateKey.sethID(hID);
+        privateKey.setrID(rID);
+        privateKey.setUserString(user);
+        privateKey.setPairing(publicParameter.getPairing());
+        return privateKey;
+    }
+
+    /**
+     * 对数据进行加密
+     * encryption
+     * @param plainText 明文 the plain text
+     * @param receiver 接收着身份 the recipient
+     * @return 密文 cipher text
+     */
+    public IBECipherText encrypt(IBEPlainText plainText, String receiver) {
+        if (prepared != null)
+            return IBEEngine.encrypt(prepared, plainText, receiver);
+        long pairing = acquire();
+        if (pairing == 0L)
+            return null;
+        byte[] cipherBufferOut = SecureBufferPool.acquire(IBELibrary.PBC_G_SIZE * 3);
+        try {
+            int succ = IBELibrary.encrypt(cipherBufferOut, plainText.getContent(), publicParameter.getParamG(), publicParameter.getParamG1(),
+                                          publicParameter.getParamH(), receiver.getBytes(IBEConstraints.USER_STRING_ENCODING), pairing);
+            if (succ != 0)
+                throw new IOException("Cannot encrypt messege for user:" + receiver);
+            IBECipherText cipherText = new IBECipherText();
+            cipherText.setUvw(SecureBufferPool.detach(cipherBufferOut));
+            cipherText.setLength(plainText.getLength());
+            return cipherText;
+        } catch (IOException e) {
+            SecureBufferPool.release(cipherBufferOut);
+            return null;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * 批量加密数据
+     * batch encryption
+     * @param plainTexts 明文 the plain texts
+     * @param receivers 接收着身份 与plainTexts一一对应 the recipients
+     * @return 密文 失败的位置为null cipher texts, null for failed items
+     */
+    public IBECipherText[] encrypt(IBEPlainText[] plainTexts, String[] receivers) {
+        if (prepared != null)
+            return IBEEngine.encrypt(prepared, plainTexts, receivers);
+        if (plainTexts.length != receivers.length)
+            throw new IllegalArgumentException("plain texts and receivers must have the same length");
+        IBECipherText[] cipherTexts = new IBECipherText[plainTexts.length];
+        for (int i = 0; i < plainTexts.length; i++)
+            cipherTexts[i] = encrypt(plainTexts[i], receivers[i]);
+        return cipherTexts;
+    }
+
+    /**
+     * 对密文解密 私钥必须属于本系统
+     * decryption
+     * @param cipherText 密文
+     * @param privateKey 接收方私钥
+     * @return 解密后明文 plain text
+     */
+    public IBEPlainText decrypt(IBECipherText cipherText, IBEPrivateKey privateKey) {
+        long pairing = acquire();
+        if (pairing == 0L)
+            return null;
+        byte[] plainBufferOut = SecureBufferPool.acquire(IBELibrary.PBC_G_SIZE);
+        try {
+            if (IBELibrary.decrypt(plainBufferOut, cipherText.getUvw(), privateKey.getrID(), privateKey.gethID(), pairing) != 0) {
+                SecureBufferPool.release(plainBufferOut);
+                return null;
+            }
+        } finally {
+            release();
+        }
+        IBEPlainText plainText = new IBEPlainText() {
+            private static final long serialVersionUID = -2705082103669151761L;
+        };
+        plainText.setContent(SecureBufferPool.detach(plainBufferOut));
+        plainText.setLength(cipherText.getLength());
+        return plainText;
+    }
+
+    /**
+     * 用同一私钥批量解密 私钥只预处理一次
+     * batch decryption
+     * @param cipherTexts 密文
+     * @param privateKey 接收方私钥
+     * @return 解密后明文 失败的位置为null plain texts, null for failed items
+     */
+    public IBEPlainText[] decrypt(IBECipherText[] cipherTexts, IBEPrivateKey privateKey) {
+        try (IBEPreparedPrivateKey preparedKey = IBEEngine.prepare(privateKey)) {
+            if (preparedKey == null)
+                return new IBEPlainText[cipherTexts.length];
+            return IBEEngine.decrypt(cipherTexts, preparedKey);
+        }
+    }
+
+    /**
+     * 新建混合加密输出流 用IBE加密一个随机AES密钥 数据按块用AES/GCM加密
+     * Open a streaming KEM/DEM encryption
+     * @param out 密文输出 the cipher text output
+     * @param receiver 接收着身份 the recipient
+     * @return 加密输出流 必须关闭才能写出最后一块 the encrypting stream, it must be closed or finished
+     * @throws IOException 加密AES密钥或写出流头失败
+     * @see IBEEngine#newEncryptingStream(OutputStream, IBEPublicParameter, String)
+     */
+    public IBEEncryptingOutputStream newEncryptingStream(OutputStream out, String receiver) throws IOException {
+        return IBEEngine.newEncryptingStream(out, plainText -> encrypt(plainText, receiver), receiver);
+    }
+
+    /**
+     * 新建混合加密输入流 私钥必须属于本系统
+     * Open a streaming KEM/DEM decryption
+     * @param in 密文输入 the cipher text input
+     * @param privateKey 接收方私钥 the private key
+     * @return 解密输入流 the decrypting stream
+     * @throws IOException 流头格式错误或私钥不能解密AES密钥
+     */
+    public IBEDecryptingInputStream newDecryptingStream(InputStream in, IBEPrivateKey privateKey) throws IOException {
+        return IBEEngine.newDecryptingStream(in, cipherText -> decrypt(cipherText, privateKey));
+    }
+
+    /**
+     * 用主密钥对数据摘要签名 生成版本2的签名
+     * Sign a digest with the master key
+     * @param signer 签名者身份 通常为证书所有者 the signer, usually the certificate owner
+     * @param digest 数据摘要 digest of data
+     * @param hash 摘要算法 digest algorithm
+     * @return 版本2的数字签名 没有主密钥或出错时返回null version 2 signature, or null on error
+     */
+    public IBSSignature sign(String signer, byte[] digest, String hash) {
+        if (masterKey == null || digest == null)
+            return null;
+        byte[] message = message(signer, digest);
+        if (message == null)
+            return null;
+        byte[] sigma = new byte[IBELibrary.PBC_G_SIZE];
+        long pairing = acquire();
+        if (pairing == 0L)
+            return null;
+        try {
+            if (IBELibrary.sign(sigma, message, masterKey, pairing) != 0)
+                return null;
+        } finally {
+            release();
+        }
+        IBSSignature signature = new IBSSignature();
+        signature.setVersion(IBSSignature.VERSION_PAIRING);
+        signature.setSignatureParameter(publicParameter);
+        signature.setDigest(digest);
+        signature.setHashAlgorithm(hash);
+        signature.setSigningDate(new Date());
+        signature.setSigma(sigma);
+        signature.setUserString(signer);
+        return signature;
+    }
+
+    /**
+     * 验证数字签名 签名必须由本系统的主密钥生成 兼容版本1的签名
+     * Verify a signature made with the master key of this system, version 1 signatures are accepted
+     * @param signature 数字签名
+     * @param digest 待验证数据摘要
+     * @return 当且仅当数据一致且签名合法时验证通过 only if the verification passes it returns true
+     */
+    public boolean verify(IBSSignature signature, byte[] digest) {
+        if (signature == null || digest == null)
+            return false;
+        if (!Arrays.equals(digest, signature.getDigest()))
+            return false;
+        if (signature.getVersion() != IBSSignature.VERSION_PAIRING)
+            return verifyKeygen(signature, digest);
+        if (signature.getSigma() == null)
+            return false;
+        byte[] message = message(signature.getUserString(), digest);
+        if (message == null)
+            return false;
+        long pairing = acquire();
+        if (pairing == 0L)
+            return false;
+        try {
+            return IBELibrary.verify(signature.getSigma(), message, publicParameter.getParamG(), publicParameter.getParamG1(), pairing) == 0;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * 验证版本1的签名 签名中的私钥能解密以摘要为身份加密的随机数据时验证通过
+     */
+    private boolean verifyKeygen(IBSSignature signature, byte[] digest) {
+        if (!publicParameter.equals(signature.getSignatureParameter()))
+            return false;
+        byte[] significantBytes = new byte[120];
+        new Random().nextBytes(significantBytes);
+        IBEPlainText plainText = IBEPlainText.newIbePlainTextFormSignificantBytes(significantBytes);
+        try {
+            IBECipherText cipherText = encrypt(plainText, new String(digest, IBEConstraints.USER_STRING_ENCODING));
+            if (cipherText == null)
+                return false;
+            IBEPlainText decrypt = decrypt(cipherText, signature);
+            return plainText.equals(decrypt);
+        } catch (UnsupportedEncodingException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 计算待签名的消息 SHA-256(签名者身份长度 || 签名者身份 || 摘要)
+     */
+    private static byte[] message(String signer, byte[] digest) {
+        try {
+            byte[] signerBytes = signer == null ? new byte[0] : signer.getBytes(IBEConstraints.USER_STRING_ENCODING);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(4 + signerBytes.length + digest.length);
+            out.write(intToByte(signerBytes.length));
+            out.write(signerBytes);
+            out.write(digest);
+            return Hash.sha256(out.toByteArray());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 释放预处理的公共参数 椭圆曲线参数句柄由基类归还
+     * @see hamaster.gradesgin.ibe.core.IBENativeHandle#free(long)
+     */
+    @Override
+    void free(long handle) {
+        if (prepared != null)
+            prepared.close();
+    }
+}
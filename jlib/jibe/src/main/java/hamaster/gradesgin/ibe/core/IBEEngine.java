@@ -6,18 +6,25 @@ import hamaster.gradesgin.ibe.IBEPlainText;
 import hamaster.gradesgin.ibe.IBEPrivateKey;
 import hamaster.gradesgin.ibe.IBEPublicParameter;
 import hamaster.gradesgin.ibe.IBESystemParameter;
+import hamaster.gradesgin.ibe.io.IBEDecryptingInputStream;
+import hamaster.gradesgin.ibe.io.IBEEncryptingOutputStream;
 import hamaster.gradesgin.ibs.IBSCertificate;
 import hamaster.gradesgin.ibs.IBSSignature;
+import hamaster.gradesgin.ibs.core.IBSEngine;
 import hamaster.gradesgin.util.Hash;
+import hamaster.gradesgin.util.SecureBufferPool;
 import hamaster.gradesign.ibe.IBELibrary;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.Random;
+import java.util.function.Function;
 
 /**
  * 基于身份加密(IBE)的核心库，提供相关的方法
@@ -26,6 +33,30 @@ import java.util.Random;
  */
 public class IBEEngine {
 
+    /**
+     * 预处理公共参数时是否默认建立固定底数幂运算表 可通过系统属性关闭
+     * Whether fixed-base exponentiation tables are built by default, set to false to save memory
+     */
+    public final static boolean FIXED_BASE_DEFAULT = Boolean.parseBoolean(System.getProperty("hamaster.gradesign.ibe.fixedbase", "true"));
+
+    private static volatile IBEMaterialPool materialPool;
+
+    /**
+     * 设置预生成密钥材料池 设置后生成证书和使用预处理参数加密时优先使用池中的材料
+     * Set the pool of pre-generated key material, null to disable
+     * @param pool 材料池 the pool
+     */
+    public static void setMaterialPool(IBEMaterialPool pool) {
+        materialPool = pool;
+    }
+
+    /**
+     * @return 当前使用的材料池 没有设置时返回null
+     */
+    public static IBEMaterialPool getMaterialPool() {
+        return materialPool;
+    }
+
     /**
      * 初始化一个IBE系统
      * Setup an IBE system
@@ -38,7 +69,10 @@ public class IBEEngine {
         byte[] gOut = new byte[IBELibrary.PBC_G_SIZE];
         byte[] g1Out = new byte[IBELibrary.PBC_G_SIZE];
         byte[] hOut = new byte[IBELibrary.PBC_G_SIZE];
-        int succ = IBELibrary.setup(alphaOut, gOut, g1Out, hOut, pairingIn);
+        long pairing = IBEPairingRegistry.handle(pairingIn);
+        if (pairing == 0L)
+            return null;
+        int succ = IBELibrary.setup(alphaOut, gOut, g1Out, hOut, pairing);
         if (succ == 0) {
             IBEPublicParameter publicParameter = new IBEPublicParameter();
             publicParameter.setParamG(gOut);
@@ -61,22 +95,20 @@ public class IBEEngine {
      * @return 用户的私钥 the generated private key
      */
     public static IBEPrivateKey keygen(IBESystemParameter system, String user) {
-        byte[] hIDOut = new byte[IBELibrary.PBC_G_SIZE];
-        byte[] rIDOut = new byte[IBELibrary.PBC_ZR_SIZE];
-        try {
-            int succ = IBELibrary.keygen(hIDOut, rIDOut, user.getBytes(IBEConstraints.USER_STRING_ENCODING), system.getMasterKey(),
-                                         system.getPublicParameter().getParamG(), system.getPublicParameter().getParamH(), system.getPublicParameter().getPairing());
-            if (succ != 0)
-                throw new IOException("Cannot generate private key for user:" + user);
-            IBEPrivateKey privateKey = new IBEPrivateKey();
-            privateKey.sethID(hIDOut);
-            privateKey.setrID(rIDOut);
-            privateKey.setUserString(user);
-            privateKey.setPairing(system.getPublicParameter().getPairing());
-            return privateKey;
-        } catch (IOException e) {
-            return null;
-        }
+        IBEContext context = IBEContext.createTransient(system.getPublicParameter(), system.getMasterKey());
+        return context == null ? null : context.keygen(user);
+    }
+
+    /**
+     * 批量为用户生成私钥 系统参数只解码一次
+     * Generate private keys for a batch of users
+     * @param system IBE系统 the system parameter
+     * @param users 私钥请求用户 the users
+     * @return 用户的私钥 与users一一对应 失败的位置为null the generated private keys, null for failed users
+     */
+    public static IBEPrivateKey[] keygen(IBESystemParameter system, String[] users) {
+        IBEContext context = IBEContext.createTransient(system.getPublicParameter(), system.getMasterKey());
+        return context == null ? new IBEPrivateKey[users.length] : context.keygen(users);
     }
 
     /**
@@ -88,21 +120,143 @@ public class IBEEngine {
      * @return 密文 cipher text
      */
     public static IBECipherText encrypt(IBEPublicParameter publicParameter, IBEPlainText plainText, String receiver) {
-        byte[] cipherBufferOut = new byte[IBELibrary.PBC_G_SIZE * 3];
+        IBEContext context = IBEContext.createTransient(publicParameter, null);
+        return context == null ? null : context.encrypt(plainText, receiver);
+    }
+
+    /**
+     * 预处理公共参数 预处理后的参数可用于多次加密
+     * Prepare a public parameter for repeated encryption
+     * @param publicParameter 接收方公共参数 the recipients' public key
+     * @return 预处理的公共参数 如果参数非法返回null the prepared parameter, or null if the parameter is invalid
+     * @see #FIXED_BASE_DEFAULT
+     */
+    public static IBEPreparedPublicParameter prepare(IBEPublicParameter publicParameter) {
+        return prepare(publicParameter, FIXED_BASE_DEFAULT);
+    }
+
+    /**
+     * 预处理公共参数 预处理后的参数可用于多次加密
+     * Prepare a public parameter for repeated encryption
+     * @param publicParameter 接收方公共参数 the recipients' public key
+     * @param fixedBase 是否建立固定底数幂运算表 whether to build fixed-base exponentiation tables for g, g1, e(g,g) and e(g,h)
+     * @return 预处理的公共参数 如果参数非法返回null the prepared parameter, or null if the parameter is invalid
+     */
+    public static IBEPreparedPublicParameter prepare(IBEPublicParameter publicParameter, boolean fixedBase) {
+        // 预处理的参数会被缓存并交给其它线程 不能借用当前线程的句柄
+        long pairing = IBEPairingRegistry.retain(publicParameter.getPairing());
+        if (pairing == 0L)
+            return null;
+        long handle = IBELibrary.preparePublicParameter(publicParameter.getParamG(), publicParameter.getParamG1(), publicParameter.getParamH(), fixedBase, pairing);
+        if (handle == 0L) {
+            IBEPairingRegistry.release(pairing);
+            return null;
+        }
+        return new IBEPreparedPublicParameter(publicParameter, handle, pairing, fixedBase);
+    }
+
+    /**
+     * 使用预处理的公共参数对数据进行加密 不需要计算配对 设置了材料池时使用池中预先生成的随机量
+     * encryption with a prepared public parameter
+     * @param prepared 预处理的接收方公共参数 the prepared recipients' public key
+     * @param plainText 明文 the plain text
+     * @param receiver 接收着身份 the recipient
+     * @return 密文 cipher text
+     */
+    public static IBECipherText encrypt(IBEPreparedPublicParameter prepared, IBEPlainText plainText, String receiver) {
+        long handle = prepared.acquire();
+        if (handle == 0L)
+            return null;
+        byte[] cipherBufferOut = SecureBufferPool.acquire(IBELibrary.PBC_G_SIZE * 3);
+        IBEMaterialPool pool = materialPool;
+        byte[] randomness = pool == null ? null : pool.takeRandomness(prepared);
         try {
-            int succ = IBELibrary.encrypt(cipherBufferOut, plainText.getContent(), publicParameter.getParamG(), publicParameter.getParamG1(),
-                                          publicParameter.getParamH(), receiver.getBytes(IBEConstraints.USER_STRING_ENCODING), publicParameter.getPairing());
+            byte[] alice = receiver.getBytes(IBEConstraints.USER_STRING_ENCODING);
+            int succ = randomness == null ? IBELibrary.encryptPrepared(cipherBufferOut, plainText.getContent(), alice, handle)
+                    : IBELibrary.encryptWithRandomness(cipherBufferOut, plainText.getContent(), alice, randomness, handle);
             if (succ != 0)
                 throw new IOException("Cannot encrypt messege for user:" + receiver);
             IBECipherText cipherText = new IBECipherText();
-            cipherText.setUvw(cipherBufferOut);
+            cipherText.setUvw(SecureBufferPool.detach(cipherBufferOut));
             cipherText.setLength(plainText.getLength());
             return cipherText;
         } catch (IOException e) {
+            SecureBufferPool.release(cipherBufferOut);
             return null;
+        } finally {
+            prepared.release();
+            if (randomness != null)
+                Arrays.fill(randomness, (byte) 0);
         }
     }
 
+    /**
+     * 使用预处理的公共参数加密直接缓冲区中的数据，密文直接写入输出缓冲区，不产生中间数组
+     * encryption between direct buffers with a prepared public parameter, no intermediate copies are made
+     * @param prepared 预处理的接收方公共参数 the prepared recipient's public key
+     * @param plainIn 明文 position到limit之间不超过128字节 direct buffer holding at most 128 bytes of plain text
+     * @param receiver 接收着身份 the recipient
+     * @param cipherOut 密文输出 至少384字节剩余空间 direct buffer with at least 384 bytes remaining
+     * @return 是否成功 成功时两个缓冲区的position前移 true if succeeded, positions of both buffers are advanced
+     */
+    public static boolean encrypt(IBEPreparedPublicParameter prepared, ByteBuffer plainIn, String receiver, ByteBuffer cipherOut) {
+        long handle = prepared.acquire();
+        if (handle == 0L)
+            return false;
+        try {
+            return IBELibrary.encryptPrepared(cipherOut, plainIn, receiver.getBytes(IBEConstraints.USER_STRING_ENCODING), handle) == 0;
+        } catch (UnsupportedEncodingException e) {
+            return false;
+        } finally {
+            prepared.release();
+        }
+    }
+
+    /**
+     * 使用预处理的公共参数批量加密数据
+     * batch encryption with a prepared public parameter
+     * @param prepared 预处理的接收方公共参数 the prepared recipients' public key
+     * @param plainTexts 明文 the plain texts
+     * @param receivers 接收着身份 与plainTexts一一对应 the recipients
+     * @return 密文 失败的位置为null cipher texts, null for failed items
+     */
+    public static IBECipherText[] encrypt(IBEPreparedPublicParameter prepared, IBEPlainText[] plainTexts, String[] receivers) {
+        if (plainTexts.length != receivers.length)
+            throw new IllegalArgumentException("plain texts and receivers must have the same length");
+        IBECipherText[] cipherTexts = new IBECipherText[plainTexts.length];
+        if (plainTexts.length == 0)
+            return cipherTexts;
+        byte[][] cipherBufferOut = new byte[plainTexts.length][IBELibrary.PBC_G_SIZE * 3];
+        byte[][] plainsIn = new byte[plainTexts.length][];
+        byte[][] alicesIn = new byte[plainTexts.length][];
+        int[] results = new int[plainTexts.length];
+        try {
+            for (int i = 0; i < plainTexts.length; i++) {
+                plainsIn[i] = plainTexts[i].getContent();
+                alicesIn[i] = receivers[i].getBytes(IBEConstraints.USER_STRING_ENCODING);
+            }
+        } catch (UnsupportedEncodingException e) {
+            return cipherTexts;
+        }
+        long handle = prepared.acquire();
+        if (handle == 0L)
+            return cipherTexts;
+        try {
+            IBELibrary.encryptBatch(cipherBufferOut, plainsIn, alicesIn, handle, results);
+        } finally {
+            prepared.release();
+        }
+        for (int i = 0; i < plainTexts.length; i++) {
+            if (results[i] != 0)
+                continue;
+            IBECipherText cipherText = new IBECipherText();
+            cipherText.setUvw(cipherBufferOut[i]);
+            cipherText.setLength(plainTexts[i].getLength());
+            cipherTexts[i] = cipherText;
+        }
+        return cipherTexts;
+    }
+
     /**
      * 对密文解密
      * decryption
@@ -111,21 +265,216 @@ public class IBEEngine {
      * @return 解密后明文 plain text
      */
     public static IBEPlainText decrypt(IBECipherText cipherText, IBEPrivateKey privateKey) {
-        byte[] plainBufferOut = new byte[IBELibrary.PBC_G_SIZE];
-        int i = IBELibrary.decrypt(plainBufferOut, cipherText.getUvw(), privateKey.getrID(), privateKey.gethID(), privateKey.getPairing());
+        long pairing = IBEPairingRegistry.handle(privateKey.getPairing());
+        if (pairing == 0L)
+            return null;
+        byte[] plainBufferOut = SecureBufferPool.acquire(IBELibrary.PBC_G_SIZE);
+        int i = IBELibrary.decrypt(plainBufferOut, cipherText.getUvw(), privateKey.getrID(), privateKey.gethID(), pairing);
         if (i == 0) {
             IBEPlainText plainText = new IBEPlainText() {
                 private static final long serialVersionUID = -2705082103669151761L;
             };
-            plainText.setContent(plainBufferOut);
+            plainText.setContent(SecureBufferPool.detach(plainBufferOut));
             plainText.setLength(cipherText.getLength());
             return plainText;
         }
+        SecureBufferPool.release(plainBufferOut);
         return null;
     }
 
     /**
-     * 生成证书
+     * 预处理私钥 适用于用同一私钥解密大量密文的场景
+     * Prepare a private key for repeated decryption
+     * @param privateKey 接收方私钥 the private key
+     * @return 预处理的私钥 如果私钥非法返回null the prepared key, or null if the key is invalid
+     */
+    public static IBEPreparedPrivateKey prepare(IBEPrivateKey privateKey) {
+        long pairing = IBEPairingRegistry.retain(privateKey.getPairing());
+        if (pairing == 0L)
+            return null;
+        long handle = IBELibrary.preparePrivateKey(privateKey.getrID(), privateKey.gethID(), pairing);
+        if (handle == 0L) {
+            IBEPairingRegistry.release(pairing);
+            return null;
+        }
+        return new IBEPreparedPrivateKey(privateKey.getUserString(), handle, pairing);
+    }
+
+    /**
+     * 使用预处理的私钥对密文解密
+     * decryption with a prepared private key
+     * @param cipherText 密文
+     * @param preparedKey 预处理的接收方私钥
+     * @return 解密后明文 plain text
+     */
+    public static IBEPlainText decrypt(IBECipherText cipherText, IBEPreparedPrivateKey preparedKey) {
+        long handle = preparedKey.acquire();
+        if (handle == 0L)
+            return null;
+        byte[] plainBufferOut = SecureBufferPool.acquire(IBELibrary.PBC_G_SIZE);
+        int i;
+        try {
+            i = IBELibrary.decryptPrepared(plainBufferOut, cipherText.getUvw(), handle);
+        } finally {
+            preparedKey.release();
+        }
+        if (i == 0) {
+            IBEPlainText plainText = new IBEPlainText() {
+                private static final long serialVersionUID = -2705082103669151761L;
+            };
+            plainText.setContent(SecureBufferPool.detach(plainBufferOut));
+            plainText.setLength(cipherText.getLength());
+            return plainText;
+        }
+        SecureBufferPool.release(plainBufferOut);
+        return null;
+    }
+
+    /**
+     * 使用预处理的私钥解密直接缓冲区中的数据，明文直接写入输出缓冲区，不产生中间数组
+     * decryption between direct buffers with a prepared private key, no intermediate copies are made
+     * @param cipherIn 密文 至少384字节 direct buffer holding a 384 bytes cipher text
+     * @param preparedKey 预处理的接收方私钥
+     * @param plainOut 明文输出 至少128字节剩余空间 direct buffer with at least 128 bytes remaining
+     * @return 是否成功 成功时两个缓冲区的position前移 true if succeeded, positions of both buffers are advanced
+     */
+    public static boolean decrypt(ByteBuffer cipherIn, IBEPreparedPrivateKey preparedKey, ByteBuffer plainOut) {
+        long handle = preparedKey.acquire();
+        if (handle == 0L)
+            return false;
+        try {
+            return IBELibrary.decryptPrepared(plainOut, cipherIn, handle) == 0;
+        } finally {
+            preparedKey.release();
+        }
+    }
+
+    /**
+     * 使用预处理的私钥批量解密
+     * batch decryption with a prepared private key
+     * @param cipherTexts 密文
+     * @param preparedKey 预处理的接收方私钥
+     * @return 解密后明文 失败的位置为null plain texts, null for failed items
+     */
+    public static IBEPlainText[] decrypt(IBECipherText[] cipherTexts, IBEPreparedPrivateKey preparedKey) {
+        IBEPlainText[] plainTexts = new IBEPlainText[cipherTexts.length];
+        if (cipherTexts.length == 0)
+            return plainTexts;
+        byte[][] plainBufferOut = new byte[cipherTexts.length][IBELibrary.PBC_G_SIZE];
+        byte[][] ciphersIn = new byte[cipherTexts.length][];
+        int[] results = new int[cipherTexts.length];
+        for (int i = 0; i < cipherTexts.length; i++)
+            ciphersIn[i] = cipherTexts[i].getUvw();
+        long handle = preparedKey.acquire();
+        if (handle == 0L)
+            return plainTexts;
+        try {
+            IBELibrary.decryptBatch(plainBufferOut, ciphersIn, handle, results);
+        } finally {
+            preparedKey.release();
+        }
+        for (int i = 0; i < cipherTexts.length; i++) {
+            if (results[i] != 0)
+                continue;
+            IBEPlainText plainText = new IBEPlainText() {
+                private static final long serialVersionUID = -2705082103669151761L;
+            };
+            plainText.setContent(plainBufferOut[i]);
+            plainText.setLength(cipherTexts[i].getLength());
+            plainTexts[i] = plainText;
+        }
+        return plainTexts;
+    }
+
+    /**
+     * 新建混合加密输出流 用IBE加密一个随机AES密钥 数据按块用AES/GCM加密 适用于任意长度的数据
+     * Open a streaming KEM/DEM encryption, one IBE encryption protects a random AES-GCM key
+     * @param out 密文输出 the cipher text output
+     * @param publicParameter 接收方公共参数 the recipients' public key
+     * @param receiver 接收着身份 the recipient
+     * @return 加密输出流 必须关闭才能写出最后一块 the encrypting stream, it must be closed or finished
+     * @throws IOException 加密AES密钥或写出流头失败
+     */
+    public static IBEEncryptingOutputStream newEncryptingStream(OutputStream out, IBEPublicParameter publicParameter, String receiver) throws IOException {
+        IBEContext context = IBEContext.createTransient(publicParameter, null);
+        if (context == null)
+            throw new IOException("Invalid public parameter");
+        return context.newEncryptingStream(out, receiver);
+    }
+
+    /**
+     * 使用预处理的公共参数新建混合加密输出流
+     * Open a streaming KEM/DEM encryption with a prepared public parameter
+     * @param out 密文输出 the cipher text output
+     * @param prepared 预处理的接收方公共参数 the prepared recipients' public key
+     * @param receiver 接收着身份 the recipient
+     * @return 加密输出流 必须关闭才能写出最后一块 the encrypting stream, it must be closed or finished
+     * @throws IOException 加密AES密钥或写出流头失败
+     */
+    public static IBEEncryptingOutputStream newEncryptingStream(OutputStream out, IBEPreparedPublicParameter prepared, String receiver) throws IOException {
+        return newEncryptingStream(out, plainText -> encrypt(prepared, plainText, receiver), receiver);
+    }
+
+    /**
+     * 新建混合加密输入流 读取流头并解密AES密钥
+     * Open a streaming KEM/DEM decryption
+     * @param in 密文输入 the cipher text input
+     * @param privateKey 接收方私钥 the private key
+     * @return 解密输入流 the decrypting stream
+     * @throws IOException 流头格式错误或私钥不能解密AES密钥
+     */
+    public static IBEDecryptingInputStream newDecryptingStream(InputStream in, IBEPrivateKey privateKey) throws IOException {
+        return newDecryptingStream(in, cipherText -> decrypt(cipherText, privateKey));
+    }
+
+    /**
+     * 使用预处理的私钥新建混合加密输入流
+     * Open a streaming KEM/DEM decryption with a prepared private key
+     * @param in 密文输入 the cipher text input
+     * @param preparedKey 预处理的接收方私钥 the prepared private key
+     * @return 解密输入流 the decrypting stream
+     * @throws IOException 流头格式错误或私钥不能解密AES密钥
+     */
+    public static IBEDecryptingInputStream newDecryptingStream(InputStream in, IBEPreparedPrivateKey preparedKey) throws IOException {
+        return newDecryptingStream(in, cipherText -> decrypt(cipherText, preparedKey));
+    }
+
+    static IBEEncryptingOutputStream newEncryptingStream(OutputStream out, Function<IBEPlainText, IBECipherText> encapsulation, String receiver) throws IOException {
+        byte[] key = new byte[IBEEncryptingOutputStream.KEY_SIZE];
+        new SecureRandom().nextBytes(key);
+        IBEPlainText plainText = IBEPlainText.newIbePlainTextFormSignificantBytes(key);
+        try {
+            IBECipherText encapsulatedKey = encapsulation.apply(plainText);
+            if (encapsulatedKey == null)
+                throw new IOException("Cannot encrypt messege for user:" + receiver);
+            return new IBEEncryptingOutputStream(out, encapsulatedKey, key, IBEEncryptingOutputStream.DEFAULT_CHUNK_SIZE);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+            Arrays.fill(plainText.getContent(), (byte) 0);
+        }
+    }
+
+    static IBEDecryptingInputStream newDecryptingStream(InputStream in, Function<IBECipherText, IBEPlainText> decapsulation) throws IOException {
+        IBEDecryptingInputStream stream = new IBEDecryptingInputStream(in);
+        IBECipherText encapsulatedKey = stream.getEncapsulatedKey();
+        if (encapsulatedKey.getLength() != IBEEncryptingOutputStream.KEY_SIZE)
+            throw new IOException("Invalid stream key length:" + encapsulatedKey.getLength());
+        IBEPlainText plainText = decapsulation.apply(encapsulatedKey);
+        if (plainText == null)
+            throw new IOException("Cannot decrypt stream key");
+        byte[] key = IBEPlainText.getSignificantBytes(plainText);
+        try {
+            stream.setKey(key);
+            return stream;
+        } finally {
+            Arrays.fill(key, (byte) 0);
+            Arrays.fill(plainText.getContent(), (byte) 0);
+        }
+    }
+
+    /**
+     * 生成证书 根证书之外的证书沿用根证书的g和h，只随机生成主密钥并计算g1，不再完整初始化一个IBE系统
+     * 设置了材料池时生成根证书使用池中预先生成的系统参数
      * Generate certificate
      * @param user 证书所有者 certificate owner
      * @param root 签名用根证书 如果生成根证书 则传入一个只包含椭圆函数信息的证书对象
@@ -135,40 +484,115 @@ public class IBEEngine {
      * @return 生成的证书 the certificate
      */
     public static IBSCertificate generateCertificate(String user, IBSCertificate root, Date validAfter, long period) {
-        IBSCertificate root0 = root;
-        IBESystemParameter parameter = setup(root0.getPublicParameter().getPairing());
+        if (root.getMasterKey() == null) {
+            IBEMaterialPool pool = materialPool;
+            IBESystemParameter parameter = pool == null ? null : pool.takeSystem(root.getPublicParameter().getPairing());
+            if (parameter == null)
+                parameter = setup(root.getPublicParameter().getPairing());
+            if (parameter == null)
+                return null;
+            return issueCertificate(user, parameter, null, validAfter, period);
+        }
+        IBEPublicParameter rootParameter = root.getPublicParameter();
+        long pairing = IBEPairingRegistry.handle(rootParameter.getPairing());
+        if (pairing == 0L)
+            return null;
+        byte[] alphaOut = new byte[IBELibrary.PBC_ZR_SIZE];
+        byte[] g1Out = new byte[IBELibrary.PBC_G_SIZE];
+        if (IBELibrary.derive(alphaOut, g1Out, rootParameter.getParamG(), pairing) != 0)
+            return null;
+        return issueCertificate(user, derivedSystem(rootParameter, alphaOut, g1Out), root, validAfter, period);
+    }
+
+    /**
+     * 使用预处理的根证书公共参数生成证书 适用于批量签发 有固定底数幂运算表时更快
+     * 设置了材料池时使用池中预先派生的主密钥和g1
+     * Generate certificate with the root's prepared public parameter, for issuing certificates in batches
+     * @param user 证书所有者 certificate owner
+     * @param root 签名用根证书 必须包含主密钥 the root certificate with its master key
+     * @param preparedRoot 预处理的根证书公共参数 为null或已经释放时不使用预处理 the prepared public parameter of the root certificate
+     * @param validAfter 有效期开始日期 the certificate effective start date
+     * @param period 有效时间 单位毫秒 the certificate valid time period, in millisecond.
+     * @return 生成的证书 the certificate
+     */
+    public static IBSCertificate generateCertificate(String user, IBSCertificate root, IBEPreparedPublicParameter preparedRoot, Date validAfter, long period) {
+        if (root.getMasterKey() == null || preparedRoot == null)
+            return generateCertificate(user, root, validAfter, period);
+        IBEMaterialPool pool = materialPool;
+        byte[][] material = pool == null ? null : pool.takeDerived(preparedRoot);
+        if (material != null)
+            return issueCertificate(user, derivedSystem(root.getPublicParameter(), material[0], material[1]), root, validAfter, period);
+        byte[] alphaOut = new byte[IBELibrary.PBC_ZR_SIZE];
+        byte[] g1Out = new byte[IBELibrary.PBC_G_SIZE];
+        long handle = preparedRoot.acquire();
+        if (handle == 0L)
+            return generateCertificate(user, root, validAfter, period);
+        try {
+            if (IBELibrary.derivePrepared(alphaOut, g1Out, handle) != 0)
+                return null;
+        } finally {
+            preparedRoot.release();
+        }
+        return issueCertificate(user, derivedSystem(root.getPublicParameter(), alphaOut, g1Out), root, validAfter, period);
+    }
+
+    /**
+     * 计算证书摘要 对不含主密钥和签名的规范编码计算SHA-256
+     * Digest of the canonical encoding of a certificate
+     * @param certificate 证书
+     * @return SHA-256摘要
+     * @see IBSCertificate#writeSignedContent(java.io.OutputStream)
+     */
+    public static byte[] certificateDigest(IBSCertificate certificate) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            certificate.writeSignedContent(out);
+            return Hash.sha256(out.toByteArray());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static IBESystemParameter derivedSystem(IBEPublicParameter rootParameter, byte[] alpha, byte[] g1) {
+        IBEPublicParameter publicParameter = new IBEPublicParameter();
+        publicParameter.setPairing(rootParameter.getPairing());
+        publicParameter.setParamG(rootParameter.getParamG().clone());
+        publicParameter.setParamG1(g1);
+        publicParameter.setParamH(rootParameter.getParamH().clone());
+        IBESystemParameter parameter = new IBESystemParameter();
+        parameter.setPublicParameter(publicParameter);
+        parameter.setMasterKey(alpha);
+        return parameter;
+    }
+
+    /**
+     * 填写证书内容并用根证书签名 root为null时生成自签名的根证书
+     */
+    private static IBSCertificate issueCertificate(String user, IBESystemParameter parameter, IBSCertificate root, Date validAfter, long period) {
         IBSCertificate certificate = new IBSCertificate();
         certificate.setMasterKey(parameter.getMasterKey());
         certificate.setPublicParameter(parameter.getPublicParameter());
         certificate.setOwnerString(user);
         certificate.setNoEarlyThan(validAfter);
         certificate.setNoLateThan(new Date(period + validAfter.getTime()));
-        if (root0.getMasterKey() == null)
-            root0 = certificate;
-        try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            ObjectOutputStream writer = new ObjectOutputStream(out);
-            writer.writeObject(certificate);
-            writer.flush();
-            writer.close();
-            byte[] data = out.toByteArray();
-            out.close();
-            byte[] hash = Hash.sha256(data);
-            IBSSignature signature = sign(root0, hash, "SHA-256");
-            certificate.setSignature(signature);
-            return certificate;
-        } catch (IOException e) {
+        byte[] hash = certificateDigest(certificate);
+        if (hash == null)
             return null;
-        }
+        IBSSignature signature = IBSEngine.sign(root == null ? certificate : root, hash, "SHA-256");
+        if (signature == null)
+            return null;
+        certificate.setSignature(signature);
+        return certificate;
     }
 
     /**
-     * 进行数字签名
+     * 进行数字签名 生成版本1的签名 验证时需要一次加密和一次解密 新代码应使用IBSEngine.sign
      * Digital signing prcess
      * @param certificate 签名证书
      * @param digest 待签名数据摘要
      * @param hash 摘要方法 e.g. SHA1 or MD5
      * @return 数字签名
+     * @see IBSEngine#sign(IBSCertificate, byte[], String)
      */
     public static IBSSignature sign(IBSCertificate certificate, byte[] digest, String hash) {
         IBSSignature signature = new IBSSignature();
@@ -188,27 +612,16 @@ public class IBEEngine {
     }
 
     /**
-     * 验证数字签名
+     * 验证数字签名 兼容两个版本的签名
      * Verify a digital signature
      * @param signature 数字签名
      * @param digest 待验证数据摘要
      * @return 当且仅当数据一致且签名合法时验证通过 only if the verification passes it returns true
      */
     public static boolean verify(IBSSignature signature, byte[] digest) {
-        if (signature == null || digest == null)
+        if (signature == null)
             return false;
-        boolean integrity = Arrays.equals(digest, signature.getDigest());
-        if (!integrity)
-            return false;
-        byte[] significantBytes = new byte[120];
-        new Random().nextBytes(significantBytes);
-        IBEPlainText plainText = IBEPlainText.newIbePlainTextFormSignificantBytes(significantBytes);
-        try {
-            IBECipherText cipherText = encrypt(signature.getSignatureParameter(), plainText, new String(digest, IBEConstraints.USER_STRING_ENCODING));
-            IBEPlainText decrypt = decrypt(cipherText, signature);
-            return decrypt.equals(plainText);
-        } catch (UnsupportedEncodingException e) {
-            return false;
-        }
+        IBEContext context = IBEContext.createTransient(signature.getSignatureParameter(), null);
+        return context != null && context.verify(signature, digest);
     }
 }
@@ -0,0 +1,246 @@
+package hamaster.gradesgin.ibe.core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import hamaster.gradesgin.ibe.IBESystemParameter;
+import hamaster.gradesign.ibe.IBELibrary;
+
+/**
+ * 后台预生成与身份无关的密钥材料，把耗时的运算移出请求处理路径
+ * 包括完整的系统参数、从根证书派生证书所需的主密钥和g1、以及一次加密所需的随机量
+ * 每类材料按椭圆曲线参数或预处理的公共参数分别排队，第一次取用时开始填充，
+ * 队列长度降到低水位时在后台线程中补充到容量上限；队列为空时返回null，调用方应自行计算
+ * Pre-generates identity independent key material on background threads
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ * @see IBEEngine#setMaterialPool(IBEMaterialPool)
+ */
+public class IBEMaterialPool implements AutoCloseable {
+
+    public final static int DEFAULT_CAPACITY = 64;
+    public final static int DEFAULT_LOW_WATERMARK = 16;
+
+    private final int capacity;
+    private final int lowWatermark;
+    private final ExecutorService executor;
+    private final AtomicBoolean closed;
+
+    private final Map<ByteBuffer, Reservoir<IBESystemParameter>> systems;
+    private final Map<IBEPreparedPublicParameter, Reservoir<byte[][]>> derived;
+    private final Map<IBEPreparedPublicParameter, Reservoir<byte[]>> randomness;
+
+    public IBEMaterialPool() {
+        this(DEFAULT_CAPACITY, DEFAULT_LOW_WATERMARK, 1);
+    }
+
+    /**
+     * @param capacity 每个队列的容量 capacity of each queue
+     * @param lowWatermark 低水位 队列长度不大于此值时开始补充 refill starts when a queue holds no more than this many items
+     * @param threads 后台线程数 number of background threads
+     */
+    public IBEMaterialPool(int capacity, int lowWatermark, int threads) {
+        if (capacity <= 0 || lowWatermark < 0 || lowWatermark >= capacity || threads <= 0)
+            throw new IllegalArgumentException("invalid pool size, capacity:" + capacity + ",low watermark:" + lowWatermark + ",threads:" + threads);
+        this.capacity = capacity;
+        this.lowWatermark = lowWatermark;
+        this.closed = new AtomicBoolean(false);
+        this.systems = new ConcurrentHashMap<ByteBuffer, Reservoir<IBESystemParameter>>();
+        this.derived = new ConcurrentHashMap<IBEPreparedPublicParameter, Reservoir<byte[][]>>();
+        this.randomness = new ConcurrentHashMap<IBEPreparedPublicParameter, Reservoir<byte[]>>();
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "ibe-material-pool-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 取出一组预先生成的系统参数
+     * Take a pre-generated system parameter
+     * @param pairing 椭圆曲线参数
+     * @return 系统参数 队列为空时返回null
+     */
+    public IBESystemParameter takeSystem(byte[] pairing) {
+        Reservoir<IBESystemParameter> reservoir = systems.computeIfAbsent(ByteBuffer.wrap(pairing.clone()), k -> {
+            byte[] copy = pairing.clone();
+            return new Reservoir<IBESystemParameter>(() -> IBEEngine.setup(copy), parameter -> {
+                if (parameter.getMasterKey() != null)
+                    Arrays.fill(parameter.getMasterKey(), (byte) 0);
+            });
+        });
+        return reservoir.take();
+    }
+
+    /**
+     * 取出一组从根证书派生新系统所需的主密钥和g1
+     * @param root 预处理的根证书公共参数
+     * @return {alpha, g1} 队列为空时返回null
+     */
+    byte[][] takeDerived(IBEPreparedPublicParameter root) {
+        Reservoir<byte[][]> reservoir = derived.computeIfAbsent(root, k -> new Reservoir<byte[][]>(() -> {
+            byte[] alphaOut = new byte[IBELibrary.PBC_ZR_SIZE];
+            byte[] g1Out = new byte[IBELibrary.PBC_G_SIZE];
+            long handle = root.acquire();
+            if (handle == 0L) {
+                evict(root);
+                return null;
+            }
+            try {
+                if (IBELibrary.derivePrepared(alphaOut, g1Out, handle) != 0)
+                    return null;
+            } finally {
+                root.release();
+            }
+            return new byte[][] {alphaOut, g1Out};
+        }, material -> Arrays.fill(material[0], (byte) 0)));
+        return reservoir.take();
+    }
+
+    /**
+     * 取出一份加密随机量 每份只能使用一次 用后应清零
+     * Take the randomness of one encryption, it must be used only once
+     * @param prepared 预处理的接收方公共参数
+     * @return 随机量 长度512字节 依次为g1^s、g^s、e(g,g)^s和e(g,h)^-s 队列为空时返回null
+     */
+    public byte[] takeRandomness(IBEPreparedPublicParameter prepared) {
+        Reservoir<byte[]> reservoir = randomness.computeIfAbsent(prepared, k -> new Reservoir<byte[]>(() -> {
+            byte[] randomnessOut = new byte[IBELibrary.ENCRYPT_RANDOMNESS_SIZE];
+            long handle = prepared.acquire();
+            if (handle == 0L) {
+                evict(prepared);
+                return null;
+            }
+            try {
+                if (IBELibrary.encryptionRandomness(randomnessOut, handle) != 0)
+                    return null;
+            } finally {
+                prepared.release();
+            }
+            return randomnessOut;
+        }, material -> Arrays.fill(material, (byte) 0)));
+        return reservoir.take();
+    }
+
+    /**
+     * 清零并丢弃为某个预处理公共参数生成的材料 IBEPreparedPublicParameter关闭时自动调用
+     * @param prepared 预处理的公共参数
+     */
+    public void evict(IBEPreparedPublicParameter prepared) {
+        Reservoir<byte[][]> d = derived.remove(prepared);
+        if (d != null)
+            d.retire();
+        Reservoir<byte[]> r = randomness.remove(prepared);
+        if (r != null)
+            r.retire();
+    }
+
+    /**
+     * 队列中可用材料的总数
+     * @return number of ready items in all queues
+     */
+    public int available() {
+        int total = 0;
+        for (Reservoir<?> reservoir : systems.values())
+            total += reservoir.queue.size();
+        for (Reservoir<?> reservoir : derived.values())
+            total += reservoir.queue.size();
+        for (Reservoir<?> reservoir : randomness.values())
+            total += reservoir.queue.size();
+        return total;
+    }
+
+    /**
+     * 停止后台线程并清除所有未使用的材料
+     * @see java.lang.AutoCloseable#close()
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true))
+            return;
+        executor.shutdownNow();
+        for (Reservoir<?> reservoir : systems.values())
+            reservoir.clear();
+        for (Reservoir<?> reservoir : derived.values())
+            reservoir.clear();
+        for (Reservoir<?> reservoir : randomness.values())
+            reservoir.clear();
+        systems.clear();
+        derived.clear();
+        randomness.clear();
+    }
+
+    /**
+     * 一种材料的有界队列 同一时间最多有一个补充任务
+     */
+    private class Reservoir<T> {
+
+        final BlockingQueue<T> queue;
+        final Supplier<T> generator;
+        final Consumer<T> scrubber;
+        final AtomicBoolean refilling;
+
+        /**
+         * 已从池中移除 之后生成的材料直接清零
+         */
+        volatile boolean retired;
+
+        Reservoir(Supplier<T> generator, Consumer<T> scrubber) {
+            this.queue = new ArrayBlockingQueue<T>(capacity);
+            this.generator = generator;
+            this.scrubber = scrubber;
+            this.refilling = new AtomicBoolean(false);
+        }
+
+        T take() {
+            T material = queue.poll();
+            if (queue.size() <= lowWatermark)
+                refill();
+            return material;
+        }
+
+        void refill() {
+            if (closed.get() || retired || !refilling.compareAndSet(false, true))
+                return;
+            try {
+                executor.execute(() -> {
+                    try {
+                        while (!closed.get() && !retired && queue.remainingCapacity() > 0) {
+                            T material = generator.get();
+                            if (material == null || !queue.offer(material))
+                                break;
+                        }
+                    } finally {
+                        refilling.set(false);
+                    }
+                    if (closed.get() || retired)
+                        clear();
+                });
+            } catch (RejectedExecutionException e) {
+                refilling.set(false);
+            }
+        }
+
+        void retire() {
+            retired = true;
+            clear();
+        }
+
+        void clear() {
+            T material;
+            while ((material = queue.poll()) != null)
+                scrubber.accept(material);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package hamaster.gradesgin.ibe.core;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 本地预处理对象的基类，保证运算进行时句柄不会被释放
+ * 本地对象引用创建时使用的椭圆曲线参数句柄，该句柄由IBEPairingRegistry.retain取得，在本地对象释放后才归还
+ * Base class of objects backed by native memory, close() waits for running operations.
+ * The native object refers to the pairing it was prepared with, which is retained until the object is freed.
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+abstract class IBENativeHandle implements AutoCloseable {
+
+    private final ReadWriteLock lock;
+    private final long pairing;
+    private long handle;
+
+    IBENativeHandle(long handle, long pairing) {
+        this.handle = handle;
+        this.pairing = pairing;
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * 获取句柄用于一次运算 返回非0时必须调用release
+     * @return 本地句柄 如果已经释放返回0
+     */
+    final long acquire() {
+        lock.readLock().lock();
+        if (handle == 0L) {
+            lock.readLock().unlock();
+            return 0L;
+        }
+        return handle;
+    }
+
+    final void release() {
+        lock.readLock().unlock();
+    }
+
+    /**
+     * 是否已经释放
+     * @return true if the native memory has been freed
+     */
+    public boolean isClosed() {
+        lock.readLock().lock();
+        try {
+            return handle == 0L;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 释放本地内存 等待正在进行的运算完成 重复调用无副作用
+     * @see java.lang.AutoCloseable#close()
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (handle != 0L) {
+                free(handle);
+                handle = 0L;
+                IBEPairingRegistry.release(pairing);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 释放本地句柄
+     * @param handle 本地句柄
+     */
+    abstract void free(long handle);
+}
@@ -0,0 +1,228 @@
+package hamaster.gradesgin.ibe.core;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hamaster.gradesign.ibe.IBELibrary;
+
+/**
+ * 椭圆曲线参数句柄注册表，以参数内容为键缓存本地句柄，使同一系统的运算不必重复解析椭圆曲线参数
+ * Registry of native pairing handles keyed by the pairing bytes
+ * <p>
+ * 本地库的随机数来源是线程安全的，一个句柄可以被多个线程同时使用，因此默认所有线程共享句柄。
+ * 设置系统属性hamaster.gradesign.ibe.pairing.perthread=true后每个线程使用各自的句柄，
+ * 线程之间不共享任何本地状态，代价是每个线程每个系统多解析一次椭圆曲线参数。
+ * 线程结束后它的句柄由后台线程释放，因此线程专用的句柄不能交给其它线程使用。
+ * 预处理对象和上下文会被缓存并交给其它线程使用，它们通过retain持有按引用计数的句柄，
+ * 在close时调用release，不受线程结束和closeAll的影响。
+ * By default handles are shared by all threads, the per thread mode gives every thread its own handles,
+ * which are released after the thread exits. Long lived native objects retain reference counted handles instead.
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+public final class IBEPairingRegistry {
+
+    /**
+     * 是否为每个线程建立独立的句柄
+     */
+    public final static boolean PER_THREAD = Boolean.parseBoolean(System.getProperty("hamaster.gradesign.ibe.pairing.perthread", "false"));
+
+    private final static Map<ByteBuffer, Long> HANDLES = new ConcurrentHashMap<ByteBuffer, Long>();
+
+    private final static ThreadLocal<ThreadHandles> THREAD_HANDLES = ThreadLocal.withInitial(ThreadHandles::new);
+
+    /**
+     * 每次closeAll后递增，使各线程缓存的已释放句柄失效
+     */
+    private final static AtomicInteger GENERATION = new AtomicInteger();
+
+    /**
+     * 所有线程建立的句柄，用于在closeAll时释放
+     */
+    private final static Set<Long> THREAD_HANDLE_SET = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 被预处理对象和上下文持有的句柄 访问时同步RETAINED
+     */
+    private final static Map<ByteBuffer, Retained> RETAINED = new HashMap<ByteBuffer, Retained>();
+    private final static Map<Long, ByteBuffer> RETAINED_KEYS = new HashMap<Long, ByteBuffer>();
+
+    /**
+     * 线程结束、ThreadHandles不可达后释放该线程的句柄
+     */
+    private final static Cleaner CLEANER = Cleaner.create(r -> {
+        Thread thread = new Thread(r, "ibe-pairing-cleaner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private IBEPairingRegistry() {
+    }
+
+    /**
+     * 获取椭圆曲线参数对应的本地句柄，首次调用时解析参数
+     * Get the native handle of a pairing, the pairing is parsed only on first use
+     * @param pairing 椭圆曲线参数 the pairing
+     * @return 本地句柄 如果参数非法返回0 the handle, or 0 if the pairing is invalid
+     */
+    public static long handle(byte[] pairing) {
+        return PER_THREAD ? threadHandle(pairing) : sharedHandle(pairing);
+    }
+
+    /**
+     * 获取当前线程专用的句柄，不与其它线程共享
+     * Get a handle owned by the calling thread
+     * @param pairing 椭圆曲线参数 the pairing
+     * @return 本地句柄 如果参数非法返回0 the handle, or 0 if the pairing is invalid
+     */
+    public static long threadHandle(byte[] pairing) {
+        if (pairing == null || pairing.length == 0)
+            return 0L;
+        ThreadHandles local = THREAD_HANDLES.get();
+        Map<ByteBuffer, Long> handles = local.owned.handles;
+        int generation = GENERATION.get();
+        if (local.generation != generation) {
+            handles.clear();
+            local.generation = generation;
+        }
+        Long handle = handles.get(ByteBuffer.wrap(pairing));
+        if (handle != null)
+            return handle.longValue();
+        long h = IBELibrary.openPairing(pairing);
+        if (h == 0L)
+            return 0L;
+        handles.put(ByteBuffer.wrap(pairing.clone()), Long.valueOf(h));
+        THREAD_HANDLE_SET.add(Long.valueOf(h));
+        return h;
+    }
+
+    private static long sharedHandle(byte[] pairing) {
+        if (pairing == null || pairing.length == 0)
+            return 0L;
+        ByteBuffer key = ByteBuffer.wrap(pairing);
+        Long handle = HANDLES.get(key);
+        if (handle != null)
+            return handle.longValue();
+        handle = HANDLES.computeIfAbsent(ByteBuffer.wrap(pairing.clone()), k -> {
+            long h = IBELibrary.openPairing(pairing);
+            return h == 0L ? null : Long.valueOf(h);
+        });
+        return handle == null ? 0L : handle.longValue();
+    }
+
+    /**
+     * 获取一个可以交给任何线程使用的句柄并增加引用计数 同一参数的持有者共用一个句柄
+     * 调用方不再使用时必须调用release 最后一个持有者释放后句柄被关闭
+     * Get a handle that stays valid on every thread until it is released
+     * @param pairing 椭圆曲线参数 the pairing
+     * @return 本地句柄 如果参数非法返回0 the handle, or 0 if the pairing is invalid
+     */
+    public static long retain(byte[] pairing) {
+        if (pairing == null || pairing.length == 0)
+            return 0L;
+        synchronized (RETAINED) {
+            Retained retained = RETAINED.get(ByteBuffer.wrap(pairing));
+            if (retained == null) {
+                long h = IBELibrary.openPairing(pairing);
+                if (h == 0L)
+                    return 0L;
+                ByteBuffer key = ByteBuffer.wrap(pairing.clone());
+                retained = new Retained(h);
+                RETAINED.put(key, retained);
+                RETAINED_KEYS.put(Long.valueOf(h), key);
+            }
+            retained.count++;
+            return retained.handle;
+        }
+    }
+
+    /**
+     * 减少retain返回的句柄的引用计数 计数为0时关闭句柄
+     * Release a handle returned by retain
+     * @param handle 本地句柄 the handle
+     */
+    public static void release(long handle) {
+        if (handle == 0L)
+            return;
+        synchronized (RETAINED) {
+            ByteBuffer key = RETAINED_KEYS.get(Long.valueOf(handle));
+            if (key == null)
+                return;
+            Retained retained = RETAINED.get(key);
+            if (--retained.count > 0)
+                return;
+            RETAINED.remove(key);
+            RETAINED_KEYS.remove(Long.valueOf(handle));
+        }
+        IBELibrary.closePairing(handle);
+    }
+
+    /**
+     * 当前缓存的句柄数量
+     * @return number of cached handles
+     */
+    public static int size() {
+        synchronized (RETAINED) {
+            return HANDLES.size() + THREAD_HANDLE_SET.size() + RETAINED.size();
+        }
+    }
+
+    /**
+     * 释放所有句柄 调用时不得有其它线程正在使用这些句柄 通常只在程序退出前调用
+     * 被retain持有的句柄由持有者释放 不在此列
+     * Release all handles, callers must make sure no other thread is using them, retained handles are left to their holders
+     */
+    public static void closeAll() {
+        GENERATION.incrementAndGet();
+        for (ByteBuffer key : HANDLES.keySet()) {
+            Long handle = HANDLES.remove(key);
+            if (handle != null)
+                IBELibrary.closePairing(handle.longValue());
+        }
+        for (Long handle : THREAD_HANDLE_SET) {
+            if (THREAD_HANDLE_SET.remove(handle))
+                IBELibrary.closePairing(handle.longValue());
+        }
+        THREAD_HANDLES.remove();
+    }
+
+    private final static class Retained {
+        final long handle;
+        int count;
+
+        Retained(long handle) {
+            this.handle = handle;
+        }
+    }
+
+    private final static class ThreadHandles {
+        final OwnedHandles owned;
+        int generation = GENERATION.get();
+
+        ThreadHandles() {
+            this.owned = new OwnedHandles();
+            CLEANER.register(this, owned);
+        }
+    }
+
+    /**
+     * 一个线程建立的句柄 清理动作不能引用ThreadHandles本身，否则它永远不会变为不可达
+     */
+    private final static class OwnedHandles implements Runnable {
+        final Map<ByteBuffer, Long> handles = new ConcurrentHashMap<ByteBuffer, Long>();
+
+        @Override
+        public void run() {
+            for (Long handle : handles.values()) {
+                // closeAll已经释放的句柄不在集合中
+                if (THREAD_HANDLE_SET.remove(handle))
+                    IBELibrary.closePairing(handle.longValue());
+            }
+            handles.clear();
+        }
+    }
+}
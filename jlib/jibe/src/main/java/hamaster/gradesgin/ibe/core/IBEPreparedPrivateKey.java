@@ -0,0 +1,32 @@
+package hamaster.gradesgin.ibe.core;
+
+import hamaster.gradesign.ibe.IBELibrary;
+
+/**
+ * 预处理的用户私钥，在本地内存中保存以hID为固定参数的配对预计算表，用同一私钥多次解密时更快
+ * 对象可被多个线程共享，不再使用时应调用close释放本地内存
+ * Prepared private key, keeps a precomputed pairing table for hID in native memory
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+public class IBEPreparedPrivateKey extends IBENativeHandle {
+
+    private final String userString;
+
+    IBEPreparedPrivateKey(String userString, long handle, long pairing) {
+        super(handle, pairing);
+        this.userString = userString;
+    }
+
+    /**
+     * 私钥所有者
+     * @return the owner of the private key
+     */
+    public String getUserString() {
+        return userString;
+    }
+
+    @Override
+    void free(long handle) {
+        IBELibrary.releasePrivateKey(handle);
+    }
+}
@@ -0,0 +1,71 @@
+package hamaster.gradesgin.ibe.core;
+
+import hamaster.gradesgin.ibe.IBEPublicParameter;
+import hamaster.gradesign.ibe.IBELibrary;
+
+/**
+ * 预处理的系统公共参数，在本地内存中缓存e(g,g)和e(g,h)，加密时不再需要计算配对
+ * 可选地为g、g1、e(g,g)和e(g,h)建立固定底数幂运算表，进一步减少加密时间
+ * 对象可被多个线程共享，不再使用时应调用close释放本地内存
+ * Prepared public parameter, caches the pairings e(g,g) and e(g,h) and optionally fixed-base tables in native memory
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+public class IBEPreparedPublicParameter extends IBENativeHandle {
+
+    private final IBEPublicParameter publicParameter;
+    private final boolean fixedBase;
+
+    IBEPreparedPublicParameter(IBEPublicParameter publicParameter, long handle, long pairing, boolean fixedBase) {
+        super(handle, pairing);
+        this.publicParameter = publicParameter;
+        this.fixedBase = fixedBase;
+    }
+
+    /**
+     * 获取对应的公共参数
+     * @return the public parameter this object was prepared from
+     */
+    public IBEPublicParameter getPublicParameter() {
+        return publicParameter;
+    }
+
+    /**
+     * 是否使用了固定底数幂运算表
+     * @return true if fixed-base tables were built
+     */
+    public boolean isFixedBase() {
+        return fixedBase;
+    }
+
+    /**
+     * 本地内存占用的估计值
+     * @return estimated native memory in bytes, 0 if closed
+     */
+    public long memoryUsage() {
+        long handle = acquire();
+        if (handle == 0L)
+            return 0L;
+        try {
+            return IBELibrary.publicParameterMemory(handle);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * 释放本地内存 并清零材料池中为这个参数预生成的随机量和派生材料
+     * @see hamaster.gradesgin.ibe.core.IBENativeHandle#close()
+     */
+    @Override
+    public void close() {
+        super.close();
+        IBEMaterialPool pool = IBEEngine.getMaterialPool();
+        if (pool != null)
+            pool.evict(this);
+    }
+
+    @Override
+    void free(long handle) {
+        IBELibrary.releasePublicParameter(handle);
+    }
+}
@@ -0,0 +1,219 @@
+package hamaster.gradesgin.ibe.io;
+
+import static hamaster.gradesgin.ibe.io.IBEEncryptingOutputStream.CRYPTO_ALGORITHM;
+import static hamaster.gradesgin.ibe.io.IBEEncryptingOutputStream.FINAL_FLAG;
+import static hamaster.gradesgin.ibe.io.IBEEncryptingOutputStream.KEY_SIZE;
+import static hamaster.gradesgin.ibe.io.IBEEncryptingOutputStream.MAGIC;
+import static hamaster.gradesgin.ibe.io.IBEEncryptingOutputStream.MAX_CHUNK_SIZE;
+import static hamaster.gradesgin.ibe.io.IBEEncryptingOutputStream.NONCE_PREFIX_SIZE;
+import static hamaster.gradesgin.ibe.io.IBEEncryptingOutputStream.TAG_SIZE;
+import static hamaster.gradesgin.ibe.io.IBEEncryptingOutputStream.VERSION;
+import static hamaster.gradesgin.util.Hex.bytesToInt;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import hamaster.gradesgin.ibe.IBECipherText;
+import hamaster.gradesgin.ibe.IBEConstraints;
+
+/**
+ * 混合加密输入流 读取IBEEncryptingOutputStream写出的数据<br>
+ * 构造时读取流头，调用setKey设置解密后的AES密钥后才能读取明文<br>
+ * 每块数据在认证通过后才会返回，数据被截断或篡改时抛出IOException<br>
+ * 最后一块之后的数据不会被读取，这个实现不是线程安全的
+ * Streaming KEM/DEM decryption, usually created by IBEEngine.newDecryptingStream
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ * @see IBEEncryptingOutputStream
+ */
+public class IBEDecryptingInputStream extends FilterInputStream {
+
+    private final DataInputStream data;
+    private final IBECipherText encapsulatedKey;
+    private final byte[] noncePrefix;
+    private final int chunkSize;
+    private Cipher cipher;
+    private SecretKeySpec key;
+    private byte[] record;
+    private byte[] buffer;
+    private int position;
+    private int count;
+    private long sequence;
+    private boolean last;
+
+    /**
+     * 新建解密输入流并读取流头
+     * @param in 密文输入
+     * @throws IOException 流头格式错误或数据不足
+     */
+    public IBEDecryptingInputStream(InputStream in) throws IOException {
+        super(in);
+        this.data = new DataInputStream(in);
+        byte[] magic = new byte[MAGIC.length];
+        data.readFully(magic);
+        if (!Arrays.equals(MAGIC, magic))
+            throw new IOException("Not an IBE stream");
+        int version = data.read();
+        if (version != VERSION)
+            throw new IOException("Unsupported IBE stream version:" + version);
+        // 密文长度固定为uvw 384字节加有效长度1字节 先完整读出再解析 避免底层流一次读取不足
+        byte[] kem = new byte[IBEConstraints.IBE_G_SIZE * 3 + 1];
+        data.readFully(kem);
+        this.encapsulatedKey = new IBECipherText();
+        try {
+            encapsulatedKey.readExternal(new ByteArrayInputStream(kem));
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        byte[] tmp = new byte[4];
+        data.readFully(tmp);
+        this.chunkSize = bytesToInt(tmp);
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE)
+            throw new IOException("Invalid chunk size:" + chunkSize);
+        this.noncePrefix = new byte[NONCE_PREFIX_SIZE];
+        data.readFully(noncePrefix);
+    }
+
+    /**
+     * @return 用接收方公共参数加密的AES密钥
+     */
+    public IBECipherText getEncapsulatedKey() {
+        return encapsulatedKey;
+    }
+
+    /**
+     * 设置解密后的AES密钥
+     * @param key AES密钥 长度32字节 调用方可以在设置后擦除
+     * @throws IOException 不支持AES/GCM
+     */
+    public void setKey(byte[] key) throws IOException {
+        if (key == null || key.length != KEY_SIZE)
+            throw new IllegalArgumentException("key must be " + KEY_SIZE + " bytes");
+        try {
+            this.cipher = Cipher.getInstance(CRYPTO_ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        this.key = new SecretKeySpec(key, "AES");
+        this.record = new byte[chunkSize + TAG_SIZE];
+        this.buffer = new byte[chunkSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill())
+            return -1;
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if ((off | len | (off + len) | (b.length - (off + len))) < 0)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+        if (!fill())
+            return -1;
+        int n = Math.min(len, count - position);
+        System.arraycopy(buffer, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && fill()) {
+            int step = (int) Math.min(n - skipped, count - position);
+            position += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer == null ? 0 : count - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * 擦除缓冲区中的明文并关闭底层输入流
+     * @see java.io.FilterInputStream#close()
+     */
+    @Override
+    public void close() throws IOException {
+        if (buffer != null)
+            Arrays.fill(buffer, (byte) 0);
+        if (record != null)
+            Arrays.fill(record, (byte) 0);
+        super.close();
+    }
+
+    /**
+     * 当前块读完时解密下一块
+     * @return 是否还有数据
+     */
+    private boolean fill() throws IOException {
+        if (key == null)
+            throw new IOException("Key not set");
+        while (position == count) {
+            if (last)
+                return false;
+            readRecord();
+        }
+        return true;
+    }
+
+    private void readRecord() throws IOException {
+        byte[] tmp = new byte[4];
+        try {
+            data.readFully(tmp);
+        } catch (EOFException e) {
+            throw new IOException("Truncated IBE stream");
+        }
+        int frame = bytesToInt(tmp);
+        boolean fin = (frame & FINAL_FLAG) != 0;
+        int length = frame & ~FINAL_FLAG;
+        if (length < TAG_SIZE || length > chunkSize + TAG_SIZE)
+            throw new IOException("Invalid chunk length:" + length);
+        try {
+            data.readFully(record, 0, length);
+        } catch (EOFException e) {
+            throw new IOException("Truncated IBE stream");
+        }
+        if (sequence > 0xffffffffL)
+            throw new IOException("Too many chunks");
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, IBEEncryptingOutputStream.nonce(noncePrefix, sequence++)));
+            cipher.updateAAD(new byte[] {(byte) (fin ? 1 : 0)});
+            count = cipher.doFinal(record, 0, length, buffer, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("IBE stream authentication failed", e);
+        }
+        position = 0;
+        last = fin;
+    }
+}
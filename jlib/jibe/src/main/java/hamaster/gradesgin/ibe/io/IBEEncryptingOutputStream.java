@@ -0,0 +1,165 @@
+package hamaster.gradesgin.ibe.io;
+
+import static hamaster.gradesgin.util.Hex.intToByte;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import hamaster.gradesgin.ibe.IBECipherText;
+
+/**
+ * 混合加密输出流 用IBE加密的随机AES密钥保护任意长度的数据<br>
+ * 数据按块使用AES/GCM加密，内存占用与数据长度无关<br>
+ * 流格式：<br>
+ * 魔数"IBES" 4字节<br>
+ * 版本 1字节<br>
+ * IBE加密的AES密钥 385字节<br>
+ * 分块大小 4字节<br>
+ * 随机数前缀 8字节<br>
+ * 数据块若干 每块为4字节长度和密文，长度最高位为1表示最后一块<br>
+ * 每块的GCM随机数为随机数前缀加4字节块序号，附加数据为最后一块标志，因此块的顺序、截断和替换都能被发现<br>
+ * 这个实现不是线程安全的，必须调用close或finish写出最后一块
+ * Streaming KEM/DEM encryption, usually created by IBEEngine.newEncryptingStream
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+public class IBEEncryptingOutputStream extends FilterOutputStream {
+
+    public final static byte[] MAGIC = {'I', 'B', 'E', 'S'};
+    public final static byte VERSION = 1;
+    public final static int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public final static int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    public final static int KEY_SIZE = 32;
+    public final static int NONCE_PREFIX_SIZE = 8;
+    public final static int TAG_SIZE = 16;
+    public final static int FINAL_FLAG = 0x80000000;
+
+    final static String CRYPTO_ALGORITHM = "AES/GCM/NoPadding";
+
+    private final Cipher cipher;
+    private final SecretKeySpec key;
+    private final byte[] noncePrefix;
+    private final byte[] buffer;
+    private byte[] record;
+    private int count;
+    private long sequence;
+    private boolean finished;
+
+    /**
+     * 新建加密输出流并立即写出流头
+     * @param out 密文输出
+     * @param encapsulatedKey 用接收方公共参数加密的AES密钥
+     * @param key AES密钥 长度32字节 调用方可以在构造后擦除
+     * @param chunkSize 分块大小 不超过16MB
+     * @throws IOException 写出流头失败或者不支持AES/GCM
+     */
+    public IBEEncryptingOutputStream(OutputStream out, IBECipherText encapsulatedKey, byte[] key, int chunkSize) throws IOException {
+        super(out);
+        if (key == null || key.length != KEY_SIZE)
+            throw new IllegalArgumentException("key must be " + KEY_SIZE + " bytes");
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE)
+            throw new IllegalArgumentException("invalid chunk size:" + chunkSize);
+        try {
+            this.cipher = Cipher.getInstance(CRYPTO_ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        this.key = new SecretKeySpec(key, "AES");
+        this.noncePrefix = new byte[NONCE_PREFIX_SIZE];
+        new SecureRandom().nextBytes(noncePrefix);
+        this.buffer = new byte[chunkSize];
+        this.record = new byte[chunkSize + TAG_SIZE];
+        out.write(MAGIC);
+        out.write(VERSION);
+        encapsulatedKey.writeExternal(out);
+        out.write(intToByte(chunkSize));
+        out.write(noncePrefix);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buffer.length)
+            writeRecord(false);
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if ((off | len | (off + len) | (b.length - (off + len))) < 0)
+            throw new IndexOutOfBoundsException();
+        while (len > 0) {
+            // 缓冲区满时写出一块 最后一块留到finish时写出
+            if (count == buffer.length)
+                writeRecord(false);
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * 写出最后一块但不关闭底层输出流
+     * @throws IOException 写出失败
+     */
+    public void finish() throws IOException {
+        if (finished)
+            return;
+        writeRecord(true);
+        finished = true;
+        Arrays.fill(buffer, (byte) 0);
+        Arrays.fill(record, (byte) 0);
+        out.flush();
+    }
+
+    /**
+     * 写出最后一块并关闭底层输出流
+     * @see java.io.FilterOutputStream#close()
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeRecord(boolean last) throws IOException {
+        if (sequence > 0xffffffffL)
+            throw new IOException("Too many chunks");
+        byte[] nonce = nonce(noncePrefix, sequence++);
+        int length;
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+            cipher.updateAAD(new byte[] {(byte) (last ? 1 : 0)});
+            length = cipher.doFinal(buffer, 0, count, record, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        out.write(intToByte(last ? (length | FINAL_FLAG) : length));
+        out.write(record, 0, length);
+        count = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished)
+            throw new IOException("Stream finished");
+    }
+
+    static byte[] nonce(byte[] prefix, long sequence) {
+        byte[] nonce = Arrays.copyOf(prefix, NONCE_PREFIX_SIZE + 4);
+        System.arraycopy(intToByte((int) sequence), 0, nonce, NONCE_PREFIX_SIZE, 4);
+        return nonce;
+    }
+}
@@ -1,7 +1,5 @@
 package hamaster.gradesgin.ibs;
 
-import static hamaster.gradesgin.util.Hex.bytesToInt;
-import static hamaster.gradesgin.util.Hex.bytesToLong;
 import static hamaster.gradesgin.util.Hex.intToByte;
 import static hamaster.gradesgin.util.Hex.longToBytes;
 
@@ -9,12 +7,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Date;
 
 import hamaster.gradesgin.ibe.IBEPublicParameter;
 import hamaster.gradesgin.ibe.IBESystemParameter;
-import hamaster.gradesgin.util.MemoryUtil;
+import hamaster.gradesgin.util.BufferUtil;
+import hamaster.gradesgin.util.IBEDecoder;
+import hamaster.gradesgin.util.SecureBufferPool;
 
 /**
  * IBS数字证书对象
@@ -145,6 +146,29 @@ public class IBSCertificate extends IBESystemParameter implements Serializable {
                + ", masterKey=" + Arrays.toString(masterKey) + "]";
     }
 
+    /**
+     * 写入被签名的内容，与writeExternal的编码相同但不包括主密钥和签名，用于计算证书摘要<br>
+     * 公共参数<br>
+     * 证书有效期开始 8字节<br>
+     * 证书有效期 8字节<br>
+     * 所有者字符串编码后长度 4字节<br>
+     * 所有者字符串
+     * Write the canonical to-be-signed encoding of this certificate, the master key and signature are excluded
+     * @param out 输出流
+     * @throws IOException 写入出错
+     */
+    public void writeSignedContent(OutputStream out) throws IOException {
+        publicParameter.writeExternal(out);
+        long start = noEarlyThan == null ? 0L : noEarlyThan.getTime();
+        long end = noLateThan == null ? 0L : noLateThan.getTime();
+        out.write(longToBytes(start));
+        out.write(longToBytes(end - start));
+        byte[] owner = ownerString == null ? new byte[0] : ownerString.getBytes(USER_STRING_ENCODING);
+        out.write(intToByte(owner.length));
+        out.write(owner);
+        out.flush();
+    }
+
     /**
      * 序列化字段：<br>
      * 公共参数<br>
@@ -159,11 +183,14 @@ public class IBSCertificate extends IBESystemParameter implements Serializable {
     @Override
     public void writeExternal(OutputStream out) throws IOException {
         publicParameter.writeExternal(out);
-        byte[] mBuffer = new byte[IBE_ZR_SIZE];
-        Arrays.fill(mBuffer, (byte) 0);
+        byte[] mBuffer = SecureBufferPool.acquire(IBE_ZR_SIZE);
         if (masterKey != null)
             System.arraycopy(masterKey, 0, mBuffer, 0, IBE_ZR_SIZE);
-        out.write(mBuffer);
+        try {
+            out.write(mBuffer);
+        } finally {
+            SecureBufferPool.release(mBuffer);
+        }
         long start = noEarlyThan == null ? 0L : noEarlyThan.getTime();
         long end = noLateThan == null ? 0L : noLateThan.getTime();
         out.write(longToBytes(start));
@@ -178,7 +205,6 @@ public class IBSCertificate extends IBESystemParameter implements Serializable {
             out.write((byte) 0);
         }
         out.flush();
-        MemoryUtil.immediateSecureBuffers(mBuffer);
     }
 
     /*
@@ -187,37 +213,54 @@ public class IBSCertificate extends IBESystemParameter implements Serializable {
      */
     @Override
     public void readExternal(InputStream in) throws IOException, ClassNotFoundException {
+        IBEDecoder din = IBEDecoder.of(in);
         this.publicParameter = new IBEPublicParameter();
-        publicParameter.readExternal(in);
+        publicParameter.readExternal(din);
         this.masterKey = new byte[IBE_ZR_SIZE];
-        int size = in.read(masterKey);
-        if (size != masterKey.length)
-            throw new IOException("Not enough bytes for a Certificate");
-        byte[] spTmp = new byte[8];
-        Arrays.fill(spTmp, (byte) 0);
-        if (8 != in.read(spTmp))
-            throw new IOException("Not enough bytes for a Certificate");
-        long start = bytesToLong(spTmp);
-        Arrays.fill(spTmp, (byte) 0);
-        if (8 != in.read(spTmp))
-            throw new IOException("Not enough bytes for a Certificate");
-        long period = bytesToLong(spTmp);
+        din.readFully(masterKey, "Certificate");
+        long start = din.readLong("Certificate");
+        long period = din.readLong("Certificate");
         this.noEarlyThan = new Date(start);
         this.noLateThan = new Date(start + period);
-        byte[] sTmp = new byte[4];
-        Arrays.fill(sTmp, (byte) 0);
-        if (4 != in.read(sTmp))
-            throw new IOException("Not enough bytes for a Certificate");
-        size = bytesToInt(sTmp);
-        byte[] buffer = new byte[size];
-        size = in.read(buffer);
-        if (size != buffer.length)
-            throw new IOException("Not enough bytes for a Certificate");
-        this.ownerString = new String(buffer, 0, size, USER_STRING_ENCODING);
-        size = in.read();
+        int size = din.readLength("Certificate");
+        this.ownerString = new String(din.readBytes(size, "Certificate"), USER_STRING_ENCODING);
+        size = din.readUnsignedByte("Certificate");
         if (size == 1) {
             this.signature = new IBSSignature();
-            signature.readExternal(in);
+            signature.readExternal(din);
         }
     }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBESystemParameter#serializedSize()
+     */
+    @Override
+    public int serializedSize() {
+        if (publicParameter == null || ownerString == null)
+            return -1;
+        int pSize = publicParameter.serializedSize();
+        int sSize = signature == null ? 0 : signature.serializedSize();
+        if (pSize < 0 || sSize < 0)
+            return -1;
+        return pSize + IBE_ZR_SIZE + 8 + 8 + 4 + BufferUtil.utf8Length(ownerString) + 1 + sSize;
+    }
+
+    /**
+     * 证书的格式与系统参数不同 通过writeExternal写入
+     * @see hamaster.gradesgin.ibe.IBESystemParameter#writeTo(java.nio.ByteBuffer)
+     */
+    @Override
+    public void writeTo(ByteBuffer buffer) throws IOException {
+        writeExternal(BufferUtil.outputStream(buffer));
+    }
+
+    /**
+     * 证书的格式与系统参数不同 通过readExternal读取
+     * @see hamaster.gradesgin.ibe.IBESystemParameter#readFrom(java.nio.ByteBuffer)
+     */
+    @Override
+    public void readFrom(ByteBuffer buffer) throws IOException, ClassNotFoundException {
+        readExternal(BufferUtil.inputStream(buffer));
+    }
 }
@@ -1,7 +1,5 @@
 package hamaster.gradesgin.ibs;
 
-import static hamaster.gradesgin.util.Hex.bytesToInt;
-import static hamaster.gradesgin.util.Hex.bytesToLong;
 import static hamaster.gradesgin.util.Hex.intToByte;
 import static hamaster.gradesgin.util.Hex.longToBytes;
 
@@ -9,20 +7,43 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Date;
 
 import hamaster.gradesgin.ibe.IBEConstraints;
 import hamaster.gradesgin.ibe.IBEPrivateKey;
 import hamaster.gradesgin.ibe.IBEPublicParameter;
+import hamaster.gradesgin.util.BufferUtil;
+import hamaster.gradesgin.util.IBEDecoder;
+import hamaster.gradesgin.util.SecureBufferPool;
 
 /**
  * IBS数字签名
+ * <p>
+ * 版本1由签名者为摘要生成私钥作为签名，验证时需要一次加密和一次解密；
+ * 版本2为基于配对的短签名，hID保存签名值sigma，rID不使用，验证只需两次配对运算。
+ * 两个版本的序列化格式以开头20字节区分，版本2的开头为19个0和版本号。
  * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
  */
 public class IBSSignature extends IBEPrivateKey implements Serializable, IBEConstraints {
     private static final long serialVersionUID = -4862591033031464057L;
 
+    /**
+     * 以私钥作为签名的旧格式
+     */
+    public final static byte VERSION_KEYGEN = 1;
+
+    /**
+     * 基于配对的短签名
+     */
+    public final static byte VERSION_PAIRING = 2;
+
+    /**
+     * 签名格式版本
+     */
+    protected byte version = VERSION_KEYGEN;
+
     /**
      * 签名者参数
      */
@@ -79,30 +100,61 @@ public class IBSSignature extends IBEPrivateKey implements Serializable, IBECons
         this.signingDate = signingDate;
     }
 
+    /**
+     * 签名格式版本 旧对象反序列化后为0 视为版本1
+     * @return VERSION_KEYGEN或VERSION_PAIRING
+     */
+    public byte getVersion() {
+        return version == VERSION_PAIRING ? VERSION_PAIRING : VERSION_KEYGEN;
+    }
+
+    public void setVersion(byte version) {
+        this.version = version;
+    }
+
+    /**
+     * 版本2的签名值
+     * @return sigma 长度128字节
+     */
+    public byte[] getSigma() {
+        return hID;
+    }
+
+    public void setSigma(byte[] sigma) {
+        this.hID = sigma;
+    }
+
     /**
      * 序列化字段：<br>
-     * rID 20字节<br>
-     * hID 128字节<br>
+     * rID 20字节 版本2为19个0和版本号<br>
+     * hID 128字节 版本2为签名值sigma<br>
      * 摘要长度 4字节<br>
      * 摘要内容<br>
      * 签名参数<br>
      * 签名日期 8字节<br>
      * 哈希算法长度 1字节<br>
-     * 哈希算法字符串
+     * 哈希算法字符串<br>
+     * 版本2：签名者身份长度 4字节<br>
+     * 版本2：签名者身份
      * @see hamaster.gradesgin.ibe.IBEConstraints#writeExternal(java.io.OutputStream)
      */
     @Override
     public void writeExternal(OutputStream out) throws IOException {
-        byte[] rBuffer = new byte[IBE_ZR_SIZE];
-        byte[] hBuffer = new byte[IBE_G_SIZE];
-        Arrays.fill(rBuffer, (byte) 0);
-        Arrays.fill(hBuffer, (byte) 0);
-        if (rID != null)
-            System.arraycopy(rID, 0, rBuffer, 0, rID.length > IBE_ZR_SIZE ? IBE_ZR_SIZE : rID.length);
-        out.write(rBuffer);
-        if (hID != null)
-            System.arraycopy(hID, 0, hBuffer, 0, hID.length > IBE_G_SIZE ? IBE_G_SIZE : hID.length);
-        out.write(hBuffer);
+        byte[] rBuffer = SecureBufferPool.acquire(IBE_ZR_SIZE);
+        byte[] hBuffer = SecureBufferPool.acquire(IBE_G_SIZE);
+        boolean pairingVersion = getVersion() == VERSION_PAIRING;
+        try {
+            if (pairingVersion)
+                rBuffer[IBE_ZR_SIZE - 1] = VERSION_PAIRING;
+            else if (rID != null)
+                System.arraycopy(rID, 0, rBuffer, 0, rID.length > IBE_ZR_SIZE ? IBE_ZR_SIZE : rID.length);
+            out.write(rBuffer);
+            if (hID != null)
+                System.arraycopy(hID, 0, hBuffer, 0, hID.length > IBE_G_SIZE ? IBE_G_SIZE : hID.length);
+            out.write(hBuffer);
+        } finally {
+            SecureBufferPool.release(rBuffer, hBuffer);
+        }
         if (digest == null) {
             byte[] zero = new byte[4];
             Arrays.fill(zero, (byte) 0);
@@ -122,6 +174,11 @@ public class IBSSignature extends IBEPrivateKey implements Serializable, IBECons
         int aSize = hashAlgorithm == null ? 0 : hashAlgorithm.length();
         out.write((byte) aSize);
         out.write(hashAlgorithm.getBytes(USER_STRING_ENCODING));
+        if (pairingVersion) {
+            byte[] signer = getUserString() == null ? new byte[0] : getUserString().getBytes(USER_STRING_ENCODING);
+            out.write(intToByte(signer.length));
+            out.write(signer);
+        }
         out.flush();
     }
 
@@ -131,37 +188,78 @@ public class IBSSignature extends IBEPrivateKey implements Serializable, IBECons
      */
     @Override
     public void readExternal(InputStream in) throws IOException, ClassNotFoundException {
-        byte[] buffer = new byte[IBE_G_SIZE + IBE_ZR_SIZE];
-        int size = in.read(buffer);
-        if (size != buffer.length)
-            throw new IOException("Not enough bytes for a Signature");
-        this.rID = new byte[IBE_ZR_SIZE];
-        this.hID = new byte[IBE_G_SIZE];
-        System.arraycopy(buffer, 0, rID, 0, IBE_ZR_SIZE);
-        System.arraycopy(buffer, IBE_ZR_SIZE, hID, 0, IBE_G_SIZE);
-        byte[] dTmp = new byte[4];
-        Arrays.fill(dTmp, (byte) 0);
-        if (4 != in.read(dTmp))
-            throw new IOException("Not enough bytes for a Signature");
-        int dSize = bytesToInt(dTmp);
-        this.digest = new byte[dSize];
-        dSize = in.read(digest);
-        if (dSize != digest.length)
-            throw new IOException("Not enough bytes for a Signature");
+        IBEDecoder din = IBEDecoder.of(in);
+        byte[] buffer = SecureBufferPool.acquire(IBE_G_SIZE + IBE_ZR_SIZE);
+        try {
+            din.readFully(buffer, "Signature");
+            this.version = isPairingHeader(buffer) ? VERSION_PAIRING : VERSION_KEYGEN;
+            this.rID = version == VERSION_PAIRING ? null : new byte[IBE_ZR_SIZE];
+            this.hID = new byte[IBE_G_SIZE];
+            if (rID != null)
+                System.arraycopy(buffer, 0, rID, 0, IBE_ZR_SIZE);
+            System.arraycopy(buffer, IBE_ZR_SIZE, hID, 0, IBE_G_SIZE);
+        } finally {
+            SecureBufferPool.release(buffer);
+        }
+        int dSize = din.readLength("Signature");
+        this.digest = din.readBytes(dSize, "Signature");
         setUserString(new String(digest, USER_STRING_ENCODING));
         this.signatureParameter = new IBEPublicParameter();
-        signatureParameter.readExternal(in);
-        byte[] sTmp = new byte[8];
-        Arrays.fill(sTmp, (byte) 0);
-        if (8 != in.read(sTmp))
-            throw new IOException("Not enough bytes for a Signature");
-        this.signingDate = new Date(bytesToLong(sTmp));
-        size = in.read();
-        byte[] hash = new byte[size];
-        size = in.read(hash);
-        if (size != hash.length)
-            throw new IOException("Not enough bytes for a Signature");
-        this.hashAlgorithm = new String(hash, 0, size, USER_STRING_ENCODING);
+        signatureParameter.readExternal(din);
+        this.signingDate = new Date(din.readLong("Signature"));
+        int size = din.readUnsignedByte("Signature");
+        this.hashAlgorithm = new String(din.readBytes(size, "Signature"), USER_STRING_ENCODING);
+        if (version == VERSION_PAIRING) {
+            byte[] signer = din.readBytes(din.readLength("Signature"), "Signature");
+            setUserString(new String(signer, USER_STRING_ENCODING));
+        }
         setPairing(signatureParameter.getPairing());
     }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.ibe.IBEPrivateKey#serializedSize()
+     */
+    @Override
+    public int serializedSize() {
+        if (signatureParameter == null || hashAlgorithm == null)
+            return -1;
+        int pSize = signatureParameter.serializedSize();
+        if (pSize < 0)
+            return -1;
+        int size = IBE_ZR_SIZE + IBE_G_SIZE + 4 + (digest == null ? 0 : digest.length) + pSize + 8 + 1 + BufferUtil.utf8Length(hashAlgorithm);
+        if (getVersion() == VERSION_PAIRING)
+            size += 4 + BufferUtil.utf8Length(getUserString());
+        return size;
+    }
+
+    /**
+     * 签名的格式与私钥不同 通过writeExternal写入
+     * @see hamaster.gradesgin.ibe.IBEPrivateKey#writeTo(java.nio.ByteBuffer)
+     */
+    @Override
+    public void writeTo(ByteBuffer buffer) throws IOException {
+        writeExternal(BufferUtil.outputStream(buffer));
+    }
+
+    /**
+     * 签名的格式与私钥不同 通过readExternal读取
+     * @see hamaster.gradesgin.ibe.IBEPrivateKey#readFrom(java.nio.ByteBuffer)
+     */
+    @Override
+    public void readFrom(ByteBuffer buffer) throws IOException {
+        try {
+            readExternal(BufferUtil.inputStream(buffer));
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static boolean isPairingHeader(byte[] buffer) {
+        for (int i = 0; i < IBE_ZR_SIZE - 1; i++) {
+            if (buffer[i] != 0)
+                return false;
+        }
+        return buffer[IBE_ZR_SIZE - 1] == VERSION_PAIRING;
+    }
 }
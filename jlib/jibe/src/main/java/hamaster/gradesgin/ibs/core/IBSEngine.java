@@ -0,0 +1,55 @@
+package hamaster.gradesgin.ibs.core;
+
+import hamaster.gradesgin.ibe.core.IBEContext;
+import hamaster.gradesgin.ibe.core.IBEEngine;
+import hamaster.gradesgin.ibs.IBSCertificate;
+import hamaster.gradesgin.ibs.IBSSignature;
+
+/**
+ * 基于身份签名(IBS)的核心库
+ * 签名者为证书所有者，以证书主密钥alpha计算 sigma = H(signer, digest)^alpha，
+ * 验证 e(g, sigma) == e(g1, H(signer, digest))，只需两次配对运算，不需要加密解密
+ * Core utils of IBS, a pairing based short signature bound to the certificate owner
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+public class IBSEngine {
+
+    /**
+     * 对数据摘要签名
+     * Sign a digest
+     * @param certificate 签名者证书 必须包含主密钥 the signer's certificate with master key
+     * @param digest 数据摘要 digest of data
+     * @param hash 摘要算法 digest algorithm
+     * @return 版本2的数字签名 出错时返回null version 2 signature, or null on error
+     */
+    public static IBSSignature sign(IBSCertificate certificate, byte[] digest, String hash) {
+        if (certificate == null || certificate.getMasterKey() == null)
+            return null;
+        IBEContext context = IBEContext.createTransient(certificate.getPublicParameter(), certificate.getMasterKey());
+        return context == null ? null : context.sign(certificate.getOwnerString(), digest, hash);
+    }
+
+    /**
+     * 验证数字签名 兼容版本1的签名
+     * Verify a digital signature, version 1 signatures are verified with the old scheme
+     * @param signature 数字签名
+     * @param digest 待验证数据摘要
+     * @return 当且仅当数据一致且签名合法时验证通过 only if the verification passes it returns true
+     */
+    public static boolean verify(IBSSignature signature, byte[] digest) {
+        return IBEEngine.verify(signature, digest);
+    }
+
+    /**
+     * 验证证书签名 重新计算证书规范编码的摘要并与签名中的摘要比较
+     * Verify the signature of a certificate against its canonical encoding
+     * @param certificate 待验证证书
+     * @return 签名合法时返回true
+     * @see IBEEngine#certificateDigest(IBSCertificate)
+     */
+    public static boolean verify(IBSCertificate certificate) {
+        if (certificate == null || certificate.getSignature() == null)
+            return false;
+        return verify(certificate.getSignature(), IBEEngine.certificateDigest(certificate));
+    }
+}
@@ -0,0 +1,168 @@
+package hamaster.gradesgin.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 直接读写ByteBuffer的工具类<br>
+ * 整数总是按大端序读写，与Hex.intToByte相同，不受ByteBuffer字节序设置的影响
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+public final class BufferUtil {
+
+    private final static byte[] ZERO = new byte[512];
+
+    private BufferUtil() {}
+
+    /**
+     * 写入定长字段 不足部分补0 超出部分截断
+     * @param buffer 目标缓冲区
+     * @param src 字段内容 可以为null
+     * @param size 字段长度
+     */
+    public final static void putPadded(ByteBuffer buffer, byte[] src, int size) {
+        int length = src == null ? 0 : Math.min(src.length, size);
+        if (length > 0)
+            buffer.put(src, 0, length);
+        putZero(buffer, size - length);
+    }
+
+    /**
+     * 写入指定数量的0
+     * @param buffer 目标缓冲区
+     * @param count 字节数
+     */
+    public final static void putZero(ByteBuffer buffer, int count) {
+        while (count > 0) {
+            int l = Math.min(count, ZERO.length);
+            buffer.put(ZERO, 0, l);
+            count -= l;
+        }
+    }
+
+    /**
+     * 按大端序写入4字节整数
+     * @param buffer 目标缓冲区
+     * @param value 整数
+     */
+    public final static void putInt(ByteBuffer buffer, int value) {
+        buffer.put((byte) (value >>> 24));
+        buffer.put((byte) (value >>> 16));
+        buffer.put((byte) (value >>> 8));
+        buffer.put((byte) value);
+    }
+
+    /**
+     * 按大端序读取4字节整数
+     * @param buffer 源缓冲区
+     * @return 整数
+     */
+    public final static int getInt(ByteBuffer buffer) {
+        return (buffer.get() & 0xff) << 24 | (buffer.get() & 0xff) << 16 | (buffer.get() & 0xff) << 8 | (buffer.get() & 0xff);
+    }
+
+    /**
+     * 读取UTF-8编码的字符串 缓冲区有底层数组时不复制
+     * @param buffer 源缓冲区
+     * @param length 编码后的字节数
+     * @return 字符串
+     */
+    public final static String getUtf8(ByteBuffer buffer, int length) {
+        String str;
+        if (buffer.hasArray()) {
+            str = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            str = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return str;
+    }
+
+    /**
+     * 计算字符串按UTF-8编码后的长度 不产生编码后的数组<br>
+     * 结果与String.getBytes("UTF-8")的长度相同，不成对的代理字符按替换字符'?'计1字节
+     * @param str 字符串 可以为null
+     * @return 编码后的字节数 null返回0
+     */
+    public final static int utf8Length(String str) {
+        if (str == null)
+            return 0;
+        int length = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 将缓冲区包装为输出流 剩余空间不足时抛出IOException
+     * @param buffer 目标缓冲区
+     * @return 输出流
+     */
+    public final static OutputStream outputStream(final ByteBuffer buffer) {
+        return new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+                if (!buffer.hasRemaining())
+                    throw new IOException("Buffer is full");
+                buffer.put((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (buffer.remaining() < len)
+                    throw new IOException("Buffer is full");
+                buffer.put(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * 将缓冲区包装为输入流 读取会移动缓冲区的位置
+     * @param buffer 源缓冲区
+     * @return 输入流
+     */
+    public final static InputStream inputStream(final ByteBuffer buffer) {
+        return new InputStream() {
+
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0)
+                    return 0;
+                if (!buffer.hasRemaining())
+                    return -1;
+                int l = Math.min(len, buffer.remaining());
+                buffer.get(b, off, l);
+                return l;
+            }
+
+            @Override
+            public int available() {
+                return buffer.remaining();
+            }
+        };
+    }
+}
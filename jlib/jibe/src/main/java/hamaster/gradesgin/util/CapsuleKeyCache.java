@@ -0,0 +1,112 @@
+package hamaster.gradesgin.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 缓存由IBECapsule密码派生的AES密钥、初始向量和密钥摘要<br>
+ * 以密码的SHA-512摘要为索引（与写入持久化数据的摘要相同），不保存密码本身，按最近最少使用淘汰，被淘汰或清除的条目会被清零<br>
+ * 返回给调用方的总是副本，调用方用完后应调用DerivedKey.destroy
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+final class CapsuleKeyCache {
+
+    final static int DEFAULT_CAPACITY = 128;
+
+    final static CapsuleKeyCache INSTANCE = new CapsuleKeyCache(DEFAULT_CAPACITY);
+
+    private final Map<ByteBuffer, DerivedKey> cache;
+
+    CapsuleKeyCache(final int capacity) {
+        this.cache = new LinkedHashMap<ByteBuffer, DerivedKey>(16, 0.75f, true) {
+            private static final long serialVersionUID = -1517384302874151693L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, DerivedKey> eldest) {
+                if (size() <= capacity)
+                    return false;
+                eldest.getValue().destroy();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * 派生密钥 命中缓存时只需计算一次SHA-512
+     * @param key 密码
+     * @return 派生结果的副本
+     */
+    DerivedKey derive(byte[] key) {
+        byte[] keyHash = Hash.sha512(key);
+        ByteBuffer index = ByteBuffer.wrap(keyHash);
+        synchronized (cache) {
+            DerivedKey derived = cache.get(index);
+            if (derived != null)
+                return derived.copy();
+        }
+        // 索引使用单独的数组 清零条目时不能改变索引的哈希值
+        DerivedKey derived = new DerivedKey(keyHash.clone(), Hash.sha256(key), Hash.md5(key));
+        synchronized (cache) {
+            DerivedKey old = cache.put(index, derived);
+            if (old != null)
+                old.destroy();
+            return derived.copy();
+        }
+    }
+
+    /**
+     * 清零并清除所有缓存的派生密钥
+     */
+    void clear() {
+        synchronized (cache) {
+            for (DerivedKey derived : cache.values())
+                derived.destroy();
+            cache.clear();
+        }
+    }
+
+    int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * 由密码派生的值
+     */
+    final static class DerivedKey {
+
+        /**
+         * 密码的SHA-512摘要 写入持久化数据用于校验密码
+         */
+        final byte[] keyHash;
+
+        /**
+         * 密码的SHA-256摘要 用作AES密钥
+         */
+        final byte[] aesKey;
+
+        /**
+         * 密码的MD5摘要 用作AES/CBC初始向量
+         */
+        final byte[] iv;
+
+        DerivedKey(byte[] keyHash, byte[] aesKey, byte[] iv) {
+            this.keyHash = keyHash;
+            this.aesKey = aesKey;
+            this.iv = iv;
+        }
+
+        DerivedKey copy() {
+            return new DerivedKey(keyHash.clone(), aesKey.clone(), iv.clone());
+        }
+
+        void destroy() {
+            Arrays.fill(keyHash, (byte) 0);
+            Arrays.fill(aesKey, (byte) 0);
+            Arrays.fill(iv, (byte) 0);
+        }
+    }
+}
@@ -6,6 +6,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 提供一些Hash算法的工具类
@@ -13,6 +15,8 @@ import java.security.NoSuchAlgorithmException;
  */
 public final class Hash {
 
+    private final static Map<String, ThreadLocal<MessageDigest>> DIGESTS = new ConcurrentHashMap<String, ThreadLocal<MessageDigest>>();
+
     private Hash() {}
 
     /**
@@ -137,28 +141,44 @@ public final class Hash {
     }
 
     private final static byte[] digest(byte[] bytes, String algorithm) {
-        try {
-            MessageDigest md = MessageDigest.getInstance(algorithm);
-            md.update(bytes);
-            return md.digest();
-        } catch (NoSuchAlgorithmException e) {
+        MessageDigest md = messageDigest(algorithm);
+        if (md == null)
             return null;
-        }
+        return md.digest(bytes);
     }
 
     private final static byte[] digest(InputStream in, long length, String algorithm) throws IOException {
         try {
-            MessageDigest md = MessageDigest.getInstance(algorithm);
+            MessageDigest md = messageDigest(algorithm);
+            if (md == null)
+                return null;
             byte[] buffer = new byte[1024];
             int l;
             while ((l = in.read(buffer)) > 0) {
                 md.update(buffer, 0, l);
             }
             return md.digest();
-        } catch (NoSuchAlgorithmException e) {
-            return null;
         } finally {
             in.close();
         }
     }
+
+    /**
+     * 获取当前线程的MessageDigest实例 避免每次计算都查找算法提供者
+     * @param algorithm 摘要算法名称
+     * @return 已重置的MessageDigest 不支持的算法返回null
+     */
+    private final static MessageDigest messageDigest(String algorithm) {
+        ThreadLocal<MessageDigest> local = DIGESTS.computeIfAbsent(algorithm, a -> ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance(a);
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+        }));
+        MessageDigest md = local.get();
+        if (md != null)
+            md.reset();
+        return md;
+    }
 }
@@ -0,0 +1,479 @@
+package hamaster.gradesgin.util;
+
+import static hamaster.gradesgin.util.Hex.bytesToInt;
+import static hamaster.gradesgin.util.Hex.intToByte;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import hamaster.gradesgin.util.CapsuleKeyCache.DerivedKey;
+
+/**
+ * IBECapsule的分块AES/GCM实现<br>
+ * 数据被切分为固定大小的块，每块独立使用AES/GCM加密和认证，加解密在ForkJoin线程池中并行执行<br>
+ * 读取时每读到一块就提交解密，不需要先读完全部数据<br>
+ * 持久化格式的开头与IBECapsuleAESImpl相同，readExternal根据加密算法名称读取旧的AES/CBC格式<br>
+ * 加密方式 AES256_GCM<br>
+ * 密钥哈希函数 SHA-512<br>
+ * 这个实现不是线程安全的
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ * @see IBECapsuleAESImpl
+ */
+public class IBECapsuleAESGCMImpl implements IBECapsule {
+    private static final long serialVersionUID = -2293051486740152177L;
+
+    public final static int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public final static int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * 读取时允许的最大数据长度 在读取任何数据块之前按头部声明的长度检查，
+     * 防止很短的伪造头部导致分配大量内存；由系统属性hamaster.gradesign.capsule.maxlength设置，默认256MB
+     */
+    public final static int MAX_DATA_LENGTH = Integer.getInteger("hamaster.gradesign.capsule.maxlength", 256 * 1024 * 1024);
+
+    final static String CRYPTO_ALGORITHM = "AES/GCM/NoPadding";
+    private final static String HASH_ALGORITHM = "SHA-512";
+    private final static int NONCE_PREFIX_SIZE = 8;
+    private final static int TAG_SIZE = 16;
+
+    private final static ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(CRYPTO_ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    });
+
+    private final int chunkSize;
+
+    /**
+     * 明文数据
+     */
+    private transient byte[] data;
+
+    /**
+     * 加密密钥
+     */
+    private transient byte[] key;
+
+    /**
+     * 密钥的SHA-512摘要
+     */
+    private transient byte[] keyHash;
+
+    /**
+     * 读取时尚未解密的密文块
+     */
+    private transient byte[][] chunks;
+
+    /**
+     * 读取时的块大小和随机数前缀
+     */
+    private transient int readChunkSize;
+    private transient byte[] noncePrefix;
+
+    /**
+     * 读取到AES/CBC格式时使用的实现
+     */
+    private transient IBECapsuleAESImpl legacy;
+
+    public IBECapsuleAESGCMImpl() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize 加密时的块大小 不超过16MB
+     */
+    public IBECapsuleAESGCMImpl(int chunkSize) {
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE)
+            throw new IllegalArgumentException("invalid chunk size:" + chunkSize);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * 持久化字段格式<br>
+     * 加密算法名称（长度一字节 名称最多256字节）<br>
+     * 哈希算法名称（长度一字节 名称最多256字节）<br>
+     * 哈希值 长度由算法确定<br>
+     * 块大小 4字节<br>
+     * 数据有效长度 4字节<br>
+     * 随机数前缀 8字节<br>
+     * 数据块若干 每块为4字节长度和密文<br>
+     * 块数由数据长度和块大小确定，至少一块，每块的随机数为随机数前缀加4字节块序号，
+     * 附加数据为块大小和数据长度，因此块的顺序、截断和替换都能被发现
+     * @see hamaster.gradesgin.ibe.IBEConstraints#writeExternal(java.io.OutputStream)
+     */
+    @Override
+    public void writeExternal(OutputStream out) throws IOException {
+        ensureNotNull(out, data, key);
+        byte[] prefix = new byte[NONCE_PREFIX_SIZE];
+        new SecureRandom().nextBytes(prefix);
+        byte[] aad = aad(chunkSize, data.length);
+        int count = chunkCount(data.length, chunkSize);
+        DerivedKey derived = CapsuleKeyCache.INSTANCE.derive(this.key);
+        SecretKeySpec keySpec = new SecretKeySpec(derived.aesKey, "AES");
+        byte[][] crypt = new byte[count][];
+        try {
+            List<ForkJoinTask<byte[]>> tasks = new ArrayList<ForkJoinTask<byte[]>>(count);
+            for (int i = 0; i < count; i++) {
+                final int index = i;
+                final int offset = i * chunkSize;
+                final int length = Math.min(chunkSize, data.length - offset);
+                tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                    Cipher cipher = cipher();
+                    cipher.init(Cipher.ENCRYPT_MODE, keySpec, new GCMParameterSpec(TAG_SIZE * 8, nonce(prefix, index)));
+                    cipher.updateAAD(aad);
+                    return cipher.doFinal(data, offset, length);
+                }));
+            }
+            for (int i = 0; i < count; i++)
+                crypt[i] = join(tasks.get(i));
+        } finally {
+            Arrays.fill(derived.aesKey, (byte) 0);
+            Arrays.fill(derived.iv, (byte) 0);
+        }
+        byte cl = (byte) CRYPTO_ALGORITHM.length();
+        out.write(cl);
+        out.write(CRYPTO_ALGORITHM.getBytes());
+        out.write((byte) HASH_ALGORITHM.length());
+        out.write(HASH_ALGORITHM.getBytes());
+        out.write(derived.keyHash);
+        out.write(intToByte(chunkSize));
+        out.write(intToByte(data.length));
+        out.write(prefix);
+        for (byte[] chunk : crypt) {
+            out.write(intToByte(chunk.length));
+            out.write(chunk);
+        }
+        out.flush();
+    }
+
+    /**
+     * 根据加密算法名称读取 AES/CBC格式交给IBECapsuleAESImpl处理
+     * @see hamaster.gradesgin.ibe.IBEConstraints#readExternal(java.io.InputStream)
+     */
+    @Override
+    public void readExternal(InputStream in) throws IOException, ClassNotFoundException {
+        IBEDecoder din = IBEDecoder.of(in);
+        String algorithm = readName(din);
+        reset();
+        if (!CRYPTO_ALGORITHM.equals(algorithm)) {
+            legacy = new IBECapsuleAESImpl();
+            if (key != null)
+                legacy.setKey(key);
+            legacy.readBody(din, algorithm);
+            return;
+        }
+        readName(din);
+        this.keyHash = new byte[64];
+        din.readFully(keyHash);
+        byte[] tmp = new byte[4];
+        din.readFully(tmp);
+        this.readChunkSize = bytesToInt(tmp);
+        if (readChunkSize <= 0 || readChunkSize > MAX_CHUNK_SIZE)
+            throw new IOException("Invalid chunk size:" + readChunkSize);
+        din.readFully(tmp);
+        int dataLength = bytesToInt(tmp);
+        if (dataLength < 0 || dataLength > MAX_DATA_LENGTH)
+            throw new IOException("Invalid data length:" + dataLength);
+        this.noncePrefix = new byte[NONCE_PREFIX_SIZE];
+        din.readFully(noncePrefix);
+        int count = chunkCount(dataLength, readChunkSize);
+        this.data = new byte[dataLength];
+        this.chunks = new byte[count][];
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(count);
+        DerivedKey derived = key == null ? null : CapsuleKeyCache.INSTANCE.derive(key);
+        SecretKeySpec keySpec = derived == null ? null : new SecretKeySpec(derived.aesKey, "AES");
+        try {
+            for (int i = 0; i < count; i++) {
+                din.readFully(tmp);
+                int length = bytesToInt(tmp);
+                int expected = Math.min(readChunkSize, dataLength - i * readChunkSize) + TAG_SIZE;
+                if (length != expected)
+                    throw new IOException("Invalid chunk length:" + length);
+                chunks[i] = new byte[length];
+                din.readFully(chunks[i]);
+                // 已经设置密钥时每读到一块就提交解密 与后续块的读取重叠
+                if (keySpec != null)
+                    tasks.add(decryptChunk(keySpec, i));
+            }
+        } catch (EOFException e) {
+            throw new IOException("Not enough bytes!");
+        } finally {
+            for (ForkJoinTask<?> task : tasks)
+                task.quietlyJoin();
+            if (derived != null)
+                derived.destroy();
+        }
+        try {
+            for (ForkJoinTask<?> task : tasks)
+                join(task);
+        } catch (IOException e) {
+            Arrays.fill(data, (byte) 0);
+            throw e;
+        }
+        if (keySpec != null)
+            chunks = null;
+    }
+
+    private void decrypt() throws IOException {
+        DerivedKey derived = CapsuleKeyCache.INSTANCE.derive(this.key);
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(chunks.length);
+        try {
+            SecretKeySpec keySpec = new SecretKeySpec(derived.aesKey, "AES");
+            for (int i = 0; i < chunks.length; i++)
+                tasks.add(decryptChunk(keySpec, i));
+        } finally {
+            for (ForkJoinTask<?> task : tasks)
+                task.quietlyJoin();
+            derived.destroy();
+        }
+        try {
+            for (ForkJoinTask<?> task : tasks)
+                join(task);
+        } catch (IOException e) {
+            // 其它块已经解密出的明文不能留下
+            Arrays.fill(data, (byte) 0);
+            data = null;
+            throw e;
+        } finally {
+            chunks = null;
+        }
+    }
+
+    private ForkJoinTask<?> decryptChunk(SecretKeySpec keySpec, int index) {
+        byte[] aad = aad(readChunkSize, data.length);
+        return ForkJoinPool.commonPool().submit(() -> {
+            Cipher cipher = cipher();
+            cipher.init(Cipher.DECRYPT_MODE, keySpec, new GCMParameterSpec(TAG_SIZE * 8, nonce(noncePrefix, index)));
+            cipher.updateAAD(aad);
+            return cipher.doFinal(chunks[index], 0, chunks[index].length, data, index * readChunkSize);
+        });
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.util.IBECapsule#protect(byte[])
+     */
+    @Override
+    public void protect(byte[] data) {
+        ensureNotNull(data);
+        reset();
+        this.data = data;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.util.IBECapsule#protect(java.io.Serializable)
+     */
+    @Override
+    public void protect(Serializable object) {
+        ensureNotNull(object);
+        reset();
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(buffer);
+            out.writeObject(object);
+            out.flush();
+            buffer.flush();
+            this.data = buffer.toByteArray();
+            buffer.reset();
+            buffer.close();
+            out.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.util.IBECapsule#getData()
+     */
+    @Override
+    public byte[] getData() {
+        if (legacy != null)
+            return legacy.getData();
+        return chunks == null ? data : null;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.util.IBECapsule#getDataAsObject()
+     */
+    @Override
+    public Object getDataAsObject() throws ClassNotFoundException {
+        byte[] data = getData();
+        if (data == null)
+            return null;
+        try {
+            ByteArrayInputStream buffer = new ByteArrayInputStream(data);
+            ObjectInputStream in = new ObjectInputStream(buffer);
+            Object obj = in.readObject();
+            in.close();
+            buffer.close();
+            return obj;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 设置密钥 已经读取了数据时立即解密
+     * @throws IllegalArgumentException 密钥与数据的密钥哈希不一致
+     * @throws IllegalStateException 数据块认证失败 已解密的部分被清零 之后getData返回null
+     * @see hamaster.gradesgin.util.IBECapsule#setKey(byte[])
+     */
+    @Override
+    public void setKey(byte[] key) {
+        ensureNotNull(key);
+        this.key = key;
+        if (legacy != null) {
+            legacy.setKey(key);
+            return;
+        }
+        if (this.chunks != null) {
+            byte [] exc = Hash.sha512(key);
+            boolean eq = Arrays.equals(exc, keyHash);
+            if (!eq)
+                throw new IllegalArgumentException("Invalid key");
+            try {
+                decrypt();
+            } catch (IOException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.util.IBECapsule#getHashAlgorithm()
+     */
+    @Override
+    public String getHashAlgorithm() {
+        return HASH_ALGORITHM;
+    }
+
+    /**
+     * @return 加密算法名称 读取AES/CBC格式后返回AES/CBC/PKCS5Padding
+     */
+    @Override
+    public String getCrypto() {
+        return legacy != null ? legacy.getCrypto() : CRYPTO_ALGORITHM;
+    }
+
+    /**
+     * @return 加密时的块大小
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see hamaster.gradesgin.util.IBECapsule#close()
+     */
+    public void close() {
+        if (data != null)
+            Arrays.fill(data, (byte) 0);
+        if (key != null)
+            Arrays.fill(key, (byte) 0);
+        if (chunks != null) {
+            for (byte[] chunk : chunks) {
+                if (chunk != null)
+                    Arrays.fill(chunk, (byte) 0);
+            }
+        }
+        if (keyHash != null)
+            Arrays.fill(keyHash, (byte) 0);
+        if (legacy != null)
+            legacy.close();
+    }
+
+    /**
+     * 重新读取或设置数据前丢弃之前的状态 数据可能属于调用方 因此不擦除
+     */
+    private void reset() {
+        data = null;
+        chunks = null;
+        keyHash = null;
+        legacy = null;
+    }
+
+    /**
+     * @return 当前线程复用的Cipher 每次使用前都会重新初始化
+     */
+    private static Cipher cipher() throws GeneralSecurityException {
+        Cipher cipher = CIPHERS.get();
+        if (cipher == null)
+            throw new NoSuchAlgorithmException(CRYPTO_ALGORITHM);
+        return cipher;
+    }
+
+    static String readName(DataInputStream in) throws IOException {
+        int length = in.read();
+        if (length < 0)
+            throw new IOException("Not enough bytes!");
+        byte[] name = new byte[length];
+        in.readFully(name);
+        return new String(name);
+    }
+
+    private static int chunkCount(int dataLength, int chunkSize) {
+        return Math.max(1, (int) (((long) dataLength + chunkSize - 1) / chunkSize));
+    }
+
+    private static byte[] aad(int chunkSize, int dataLength) {
+        byte[] aad = new byte[8];
+        System.arraycopy(intToByte(chunkSize), 0, aad, 0, 4);
+        System.arraycopy(intToByte(dataLength), 0, aad, 4, 4);
+        return aad;
+    }
+
+    private static byte[] nonce(byte[] prefix, int index) {
+        byte[] nonce = Arrays.copyOf(prefix, NONCE_PREFIX_SIZE + 4);
+        System.arraycopy(intToByte(index), 0, nonce, NONCE_PREFIX_SIZE, 4);
+        return nonce;
+    }
+
+    private static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GeneralSecurityException)
+                throw new IOException("Chunk authentication failed", e.getCause());
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void ensureNotNull(Object ... objs) throws NullPointerException {
+        if (objs == null)
+            throw new NullPointerException();
+        for (Object obj : objs) {
+            if (obj == null)
+                throw new NullPointerException();
+        }
+    }
+}
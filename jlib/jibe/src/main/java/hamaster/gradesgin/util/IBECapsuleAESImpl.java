@@ -1,6 +1,5 @@
 package hamaster.gradesgin.util;
 
-import static hamaster.gradesgin.util.Hex.bytesToInt;
 import static hamaster.gradesgin.util.Hex.intToByte;
 
 import java.io.ByteArrayInputStream;
@@ -11,6 +10,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.io.SequenceInputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -23,10 +23,14 @@ import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+import hamaster.gradesgin.util.CapsuleKeyCache.DerivedKey;
+
 /**
  * IBECapsule的AES实现<br>
  * 加密方式 AES256_CBC_PKCS5Padding<br>
  * 密钥哈希函数 SHA-512<br>
+ * 由密码派生的AES密钥、初始向量和密钥摘要缓存在CapsuleKeyCache中<br>
+ * readExternal读取到分块AES/GCM格式时交给IBECapsuleAESGCMImpl处理<br>
  * 这个实现不是线程安全的
  * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
  */
@@ -36,6 +40,17 @@ public class IBECapsuleAESImpl implements IBECapsule {
     private final static String HASH_ALGORITHM = "SHA-512";
     private final static String CRYPTO_ALGORITHM = "AES/CBC/PKCS5Padding";
 
+    /**
+     * 每个线程复用一个Cipher 每次使用前都会重新初始化
+     */
+    private final static ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(CRYPTO_ALGORITHM);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            return null;
+        }
+    });
+
     /**
      * 明文数据
      */
@@ -56,6 +71,11 @@ public class IBECapsuleAESImpl implements IBECapsule {
      */
     private transient byte[] keyHash;
 
+    /**
+     * 读取到分块AES/GCM格式时使用的实现
+     */
+    private transient IBECapsuleAESGCMImpl gcm;
+
     public IBECapsuleAESImpl() {
     }
 
@@ -72,16 +92,15 @@ public class IBECapsuleAESImpl implements IBECapsule {
     @Override
     public void writeExternal(OutputStream out) throws IOException {
         ensureNotNull(out, data, key);
-        byte[] key = Hash.sha256(this.key);
-        byte[] iv = Hash.md5(this.key);
-        byte[] keyHash = Hash.sha512(this.key);
+        DerivedKey derived = CapsuleKeyCache.INSTANCE.derive(this.key);
+        byte[] keyHash = derived.keyHash;
         byte[] crypt = null;
         try {
-            Cipher cipher = Cipher.getInstance(CRYPTO_ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
-            crypt = cipher.doFinal(data);
-        } catch (NoSuchAlgorithmException e) {
-        } catch (NoSuchPaddingException e) {
+            Cipher cipher = CIPHERS.get();
+            if (cipher != null) {
+                cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(derived.aesKey, "AES"), new IvParameterSpec(derived.iv));
+                crypt = cipher.doFinal(data);
+            }
         } catch (InvalidKeyException e) {
             throw new IOException(e);
         } catch (InvalidAlgorithmParameterException e) {
@@ -90,8 +109,8 @@ public class IBECapsuleAESImpl implements IBECapsule {
         } catch (BadPaddingException e) {
             throw new IOException(e);
         } finally {
-            Arrays.fill(key, (byte) 0);
-            Arrays.fill(iv, (byte) 0);
+            Arrays.fill(derived.aesKey, (byte) 0);
+            Arrays.fill(derived.iv, (byte) 0);
         }
         if (crypt == null)
             throw new IOException("Cannot encrypt data!");
@@ -113,47 +132,71 @@ public class IBECapsuleAESImpl implements IBECapsule {
      */
     @Override
     public void readExternal(InputStream in) throws IOException, ClassNotFoundException {
-        int cLength = in.read();
-        byte[] cBuffer = new byte[cLength];
-        cLength = in.read(cBuffer);
-        if (cLength != cBuffer.length)
-            throw new IOException("Not enough bytes!");
-        int hLength = in.read();
-        byte[] hnBuffer = new byte[hLength];
-        hLength = in.read(hnBuffer);
-        if (hLength != hnBuffer.length)
-            throw new IOException("Not enough bytes!");
+        IBEDecoder din = IBEDecoder.of(in);
+        String algorithm = IBECapsuleAESGCMImpl.readName(din);
+        this.gcm = null;
+        if (IBECapsuleAESGCMImpl.CRYPTO_ALGORITHM.equals(algorithm)) {
+            // 分块AES/GCM格式 交给IBECapsuleAESGCMImpl处理
+            IBECapsuleAESGCMImpl gcm = new IBECapsuleAESGCMImpl();
+            if (key != null)
+                gcm.setKey(key);
+            gcm.readExternal(new SequenceInputStream(new ByteArrayInputStream(header(algorithm)), din));
+            this.gcm = gcm;
+            return;
+        }
+        readBody(din, algorithm);
+    }
+
+    /**
+     * 读取加密算法名称之后的部分
+     * @param in 输入流
+     * @param algorithm 已读取的加密算法名称
+     */
+    void readBody(InputStream in, String algorithm) throws IOException {
+        if (!CRYPTO_ALGORITHM.equals(algorithm))
+            throw new IOException("Unsupported algorithm:" + algorithm);
+        IBEDecoder din = IBEDecoder.of(in);
+        int hLength = din.readUnsignedByte("Capsule");
+        din.skipFully(hLength, "Capsule");
         this.keyHash = new byte[64];
-        in.read(keyHash);
-        byte[] tmp = new byte[4];
-        int tLength = in.read(tmp);
-        if (tLength != tmp.length)
-            throw new IOException("Not enough bytes!");
-        int dataLength = bytesToInt(tmp);
-        tLength = in.read(tmp);
-        if (tLength != tmp.length)
-            throw new IOException("Not enough bytes!");
-        int cipherLength = bytesToInt(tmp);
+        din.readFully(keyHash, "Capsule");
+        int dataLength = din.readLength("Capsule");
+        int cipherLength = din.readLength("Capsule");
+        // CBC填充最多16字节
+        if (dataLength > IBECapsuleAESGCMImpl.MAX_DATA_LENGTH || cipherLength > IBECapsuleAESGCMImpl.MAX_DATA_LENGTH + 16)
+            throw new IOException("Invalid data length:" + dataLength);
         data = new byte[dataLength];
-        cipherText = new byte[cipherLength];
-        cipherLength = in.read(cipherText);
-        if (cipherLength != cipherText.length)
-            throw new IOException("Not enough bytes!");
+        cipherText = din.readBytes(cipherLength, "Capsule");
         if (this.key != null)
             decrypt();
     }
 
+    /**
+     * 清零并清除缓存的派生密钥 例如在更换数据库密码后调用
+     * Scrub and drop cached capsule key derivations
+     */
+    public static void clearKeyCache() {
+        CapsuleKeyCache.INSTANCE.clear();
+    }
+
+    private static byte[] header(String algorithm) {
+        byte[] name = algorithm.getBytes();
+        byte[] header = new byte[name.length + 1];
+        header[0] = (byte) name.length;
+        System.arraycopy(name, 0, header, 1, name.length);
+        return header;
+    }
+
     private void decrypt() throws IOException {
-        byte[] key = Hash.sha256(this.key);
-        byte[] iv = Hash.md5(this.key);
+        DerivedKey derived = CapsuleKeyCache.INSTANCE.derive(this.key);
         try {
-            Cipher cipher = Cipher.getInstance(CRYPTO_ALGORITHM);
-            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+            Cipher cipher = CIPHERS.get();
+            if (cipher == null)
+                return;
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(derived.aesKey, "AES"), new IvParameterSpec(derived.iv));
             byte[] tmp = cipher.doFinal(cipherText);
             System.arraycopy(tmp, 0, data, 0, data.length);
             Arrays.fill(tmp, (byte) 0);
-        } catch (NoSuchAlgorithmException e) {
-        } catch (NoSuchPaddingException e) {
         } catch (InvalidKeyException e) {
             throw new IOException(e);
         } catch (InvalidAlgorithmParameterException e) {
@@ -162,8 +205,7 @@ public class IBECapsuleAESImpl implements IBECapsule {
         } catch (BadPaddingException e) {
             throw new IOException(e);
         } finally {
-            Arrays.fill(key, (byte) 0);
-            Arrays.fill(iv, (byte) 0);
+            derived.destroy();
         }
     }
 
@@ -174,6 +216,7 @@ public class IBECapsuleAESImpl implements IBECapsule {
     @Override
     public void protect(byte[] data) {
         ensureNotNull(data);
+        this.gcm = null;
         this.data = data;
     }
 
@@ -184,6 +227,7 @@ public class IBECapsuleAESImpl implements IBECapsule {
     @Override
     public void protect(Serializable object) {
         ensureNotNull(object);
+        this.gcm = null;
         try {
             ByteArrayOutputStream buffer = new ByteArrayOutputStream();
             ObjectOutputStream out = new ObjectOutputStream(buffer);
@@ -204,6 +248,8 @@ public class IBECapsuleAESImpl implements IBECapsule {
      */
     @Override
     public byte[] getData() {
+        if (gcm != null)
+            return gcm.getData();
         return data;
     }
 
@@ -234,6 +280,10 @@ public class IBECapsuleAESImpl implements IBECapsule {
     public void setKey(byte[] key) {
         ensureNotNull(key);
         this.key = key;
+        if (gcm != null) {
+            gcm.setKey(key);
+            return;
+        }
         if (this.cipherText != null) {
             byte [] exc = Hash.sha512(key);
             boolean eq = Arrays.equals(exc, keyHash);
@@ -262,6 +312,8 @@ public class IBECapsuleAESImpl implements IBECapsule {
      */
     @Override
     public String getCrypto() {
+        if (gcm != null)
+            return gcm.getCrypto();
         return CRYPTO_ALGORITHM;
     }
 
@@ -278,6 +330,8 @@ public class IBECapsuleAESImpl implements IBECapsule {
             Arrays.fill(cipherText, (byte) 0);
         if (keyHash != null)
             Arrays.fill(keyHash, (byte) 0);
+        if (gcm != null)
+            gcm.close();
     }
 
     private void ensureNotNull(Object ... objs) throws NullPointerException {
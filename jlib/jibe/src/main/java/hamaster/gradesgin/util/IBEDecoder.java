@@ -0,0 +1,155 @@
+package hamaster.gradesgin.util;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * 反序列化时使用的输入流 每次读取都读满请求的字节数<br>
+ * InputStream.read(byte[])在网络、文件通道上可能只返回部分数据，所有readExternal都应通过这个类读取<br>
+ * 这个类不预读数据，读完一个对象后底层流正好停在下一个对象的开始处，因此同一个流可以依次读取多个对象；
+ * 需要缓冲时由调用方在外面包装BufferedInputStream
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+public class IBEDecoder extends DataInputStream {
+
+    /**
+     * 按输入中的长度读取时首次分配的最大字节数
+     */
+    private final static int INITIAL_BUFFER_SIZE = 8192;
+
+    private IBEDecoder(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * 包装输入流 已经是IBEDecoder时直接返回，嵌套读取的对象共用同一个实例
+     * @param in 输入流
+     * @return 包装后的输入流
+     */
+    public static IBEDecoder of(InputStream in) {
+        if (in instanceof IBEDecoder)
+            return (IBEDecoder) in;
+        return new IBEDecoder(in);
+    }
+
+    /**
+     * 读满数组
+     * @param b 目标数组
+     * @param type 正在读取的类型 用于错误信息
+     * @throws EOFException 数据不足
+     * @throws IOException 发生IO异常
+     */
+    public void readFully(byte[] b, String type) throws IOException {
+        try {
+            readFully(b);
+        } catch (EOFException e) {
+            throw notEnough(type);
+        }
+    }
+
+    /**
+     * 读取指定长度的字节<br>
+     * 长度通常来自输入，缓冲区随读到的数据加倍增长，伪造的长度在数据不足时抛出异常而不是先分配整个数组
+     * @param length 字节数
+     * @param type 正在读取的类型 用于错误信息
+     * @return 读取的字节
+     * @throws IOException 数据不足或长度无效
+     */
+    public byte[] readBytes(int length, String type) throws IOException {
+        if (length < 0)
+            throw new IOException("Invalid length " + length + " for a " + type);
+        byte[] b = new byte[Math.min(length, INITIAL_BUFFER_SIZE)];
+        int read = 0;
+        while (true) {
+            try {
+                readFully(b, read, b.length - read);
+            } catch (EOFException e) {
+                throw notEnough(type);
+            }
+            read = b.length;
+            if (read == length)
+                return b;
+            b = Arrays.copyOf(b, (int) Math.min(length, 2L * read));
+        }
+    }
+
+    /**
+     * 读取4字节长度前缀 长度不能为负数
+     * @param type 正在读取的类型 用于错误信息
+     * @return 长度
+     * @throws IOException 数据不足或长度无效
+     */
+    public int readLength(String type) throws IOException {
+        int length = readInt(type);
+        if (length < 0)
+            throw new IOException("Invalid length " + length + " for a " + type);
+        return length;
+    }
+
+    /**
+     * 读取大端序4字节整数 与Hex.bytesToInt相同
+     * @param type 正在读取的类型 用于错误信息
+     * @return 整数
+     * @throws IOException 数据不足
+     */
+    public int readInt(String type) throws IOException {
+        try {
+            return readInt();
+        } catch (EOFException e) {
+            throw notEnough(type);
+        }
+    }
+
+    /**
+     * 读取大端序8字节整数 与Hex.bytesToLong相同
+     * @param type 正在读取的类型 用于错误信息
+     * @return 整数
+     * @throws IOException 数据不足
+     */
+    public long readLong(String type) throws IOException {
+        try {
+            return readLong();
+        } catch (EOFException e) {
+            throw notEnough(type);
+        }
+    }
+
+    /**
+     * 读取1字节无符号整数
+     * @param type 正在读取的类型 用于错误信息
+     * @return 0到255
+     * @throws IOException 数据不足
+     */
+    public int readUnsignedByte(String type) throws IOException {
+        try {
+            return readUnsignedByte();
+        } catch (EOFException e) {
+            throw notEnough(type);
+        }
+    }
+
+    /**
+     * 跳过指定数量的字节
+     * @param n 字节数
+     * @param type 正在读取的类型 用于错误信息
+     * @throws IOException 数据不足
+     */
+    public void skipFully(int n, String type) throws IOException {
+        while (n > 0) {
+            int skipped = skipBytes(n);
+            if (skipped <= 0) {
+                if (read() < 0)
+                    throw notEnough(type);
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    private static EOFException notEnough(String type) {
+        return new EOFException("Not enough bytes for a " + type);
+    }
+}
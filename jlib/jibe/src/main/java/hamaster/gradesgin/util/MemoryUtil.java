@@ -1,8 +1,13 @@
 package hamaster.gradesgin.util;
 
-import java.math.BigInteger;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 安全清理内存的工具类
@@ -11,38 +16,196 @@ import java.util.Random;
 final public class MemoryUtil {
 
     /**
-     * 在新的线程中安全擦除内存块，这个方法在执行后会快速返回<br>
-     * 此方法与在新线程中执行immediateSecureBuffers方法等效
+     * 擦除方式
+     */
+    public enum Mode {
+        /**
+         * 用随机数覆盖
+         */
+        RANDOM,
+        /**
+         * 用0覆盖 速度更快
+         */
+        ZERO
+    }
+
+    /**
+     * 等待后台擦除的任务最多数量 每次调用fastSecureBuffers为一个任务 队列满时在调用线程中立即擦除
+     */
+    public final static int QUEUE_CAPACITY = 4096;
+
+    private final static ThreadLocal<Random> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    private static volatile Mode defaultMode = Mode.RANDOM;
+
+    /**
+     * 在后台线程中安全擦除内存块，这个方法在执行后会快速返回<br>
+     * 所有调用共用一个守护线程，后台线程每次取出队列中的全部内存块一起擦除<br>
+     * 此方法与在后台线程中执行immediateSecureBuffers方法等效
      * @param buffers 待擦除的内存块
      */
     public final static void fastSecureBuffers(byte[] ... buffers) {
-        new SecureBufferThread(buffers).start();
+        fastSecureBuffers(defaultMode, buffers);
     }
 
     /**
-     * 立刻安全擦除内存块
+     * 在后台线程中按指定方式擦除内存块，这个方法在执行后会快速返回
+     * @param mode 擦除方式
+     * @param buffers 待擦除的内存块
+     */
+    public final static void fastSecureBuffers(Mode mode, byte[] ... buffers) {
+        if (buffers == null || buffers.length == 0)
+            return;
+        SecureBufferScrubber.INSTANCE.submit(mode, buffers);
+    }
+
+    /**
+     * 立刻用随机数安全擦除内存块
      * @param buffers 待擦除的内存块
      */
     public final static void immediateSecureBuffers(byte[] ... buffers) {
-        BigInteger i = new BigInteger(Long.toHexString(System.nanoTime()), 16);
-        Random random = new SecureRandom(i.toByteArray());
+        immediateSecureBuffers(Mode.RANDOM, buffers);
+    }
+
+    /**
+     * 立刻按指定方式擦除内存块
+     * @param mode 擦除方式
+     * @param buffers 待擦除的内存块
+     */
+    public final static void immediateSecureBuffers(Mode mode, byte[] ... buffers) {
+        if (buffers == null)
+            return;
+        Random random = mode == Mode.RANDOM ? RANDOM.get() : null;
         for (byte[] buffer : buffers) {
-            if (buffer != null)
+            if (buffer == null)
+                continue;
+            if (random != null)
                 random.nextBytes(buffer);
+            else
+                Arrays.fill(buffer, (byte) 0);
         }
     }
+
+    /**
+     * 设置fastSecureBuffers默认的擦除方式 默认为随机数覆盖
+     * @param mode 擦除方式
+     */
+    public final static void setDefaultMode(Mode mode) {
+        if (mode == null)
+            throw new NullPointerException();
+        defaultMode = mode;
+    }
+
+    /**
+     * @return fastSecureBuffers默认的擦除方式
+     */
+    public final static Mode getDefaultMode() {
+        return defaultMode;
+    }
+
+    /**
+     * @return 等待后台擦除的任务数量
+     */
+    public final static int getPendingCount() {
+        return SecureBufferScrubber.INSTANCE.queue.size();
+    }
+
+    /**
+     * @return 等待队列出现过的最大长度
+     */
+    public final static int getPeakPendingCount() {
+        return (int) SecureBufferScrubber.INSTANCE.peak.get();
+    }
+
+    /**
+     * @return 后台线程已擦除的内存块数量
+     */
+    public final static long getScrubbedCount() {
+        return SecureBufferScrubber.INSTANCE.scrubbed.get();
+    }
+
+    /**
+     * @return 因队列已满而在调用线程中擦除的内存块数量
+     */
+    public final static long getInlineCount() {
+        return SecureBufferScrubber.INSTANCE.inline.get();
+    }
 }
 
-final class SecureBufferThread extends Thread {
+/**
+ * 共用的后台擦除线程 第一次提交时启动
+ */
+final class SecureBufferScrubber implements Runnable {
+
+    final static SecureBufferScrubber INSTANCE = new SecureBufferScrubber();
 
-    private byte[][] buffers;
+    final BlockingQueue<Task> queue;
+    final AtomicLong scrubbed;
+    final AtomicLong inline;
+    final AtomicLong peak;
+    private volatile Thread worker;
+
+    private SecureBufferScrubber() {
+        this.queue = new ArrayBlockingQueue<Task>(MemoryUtil.QUEUE_CAPACITY);
+        this.scrubbed = new AtomicLong();
+        this.inline = new AtomicLong();
+        this.peak = new AtomicLong();
+    }
+
+    void submit(MemoryUtil.Mode mode, byte[][] buffers) {
+        ensureStarted();
+        if (!queue.offer(new Task(mode, buffers))) {
+            // 队列已满时不丢弃 直接在调用线程中擦除
+            MemoryUtil.immediateSecureBuffers(mode, buffers);
+            inline.addAndGet(buffers.length);
+            return;
+        }
+        long size = queue.size();
+        long max;
+        while (size > (max = peak.get()) && !peak.compareAndSet(max, size))
+            ;
+    }
 
-    public SecureBufferThread(byte[] ... buffers) {
-        this.buffers = buffers;
+    private void ensureStarted() {
+        if (worker != null)
+            return;
+        synchronized (this) {
+            if (worker != null)
+                return;
+            Thread thread = new Thread(this, "ibe-memory-scrubber");
+            thread.setDaemon(true);
+            thread.start();
+            worker = thread;
+        }
     }
 
     @Override
     public void run() {
-        MemoryUtil.immediateSecureBuffers(this.buffers);
+        List<Task> batch = new ArrayList<Task>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                // 守护线程不应被中断 继续处理队列
+                continue;
+            }
+            queue.drainTo(batch);
+            for (Task task : batch) {
+                MemoryUtil.immediateSecureBuffers(task.mode, task.buffers);
+                scrubbed.addAndGet(task.buffers.length);
+            }
+            batch.clear();
+        }
+    }
+
+    final static class Task {
+
+        final MemoryUtil.Mode mode;
+        final byte[][] buffers;
+
+        Task(MemoryUtil.Mode mode, byte[][] buffers) {
+            this.mode = mode;
+            this.buffers = buffers;
+        }
     }
 }
@@ -0,0 +1,152 @@
+package hamaster.gradesgin.util;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import hamaster.gradesgin.ibe.IBEConstraints;
+
+/**
+ * 椭圆曲线元素大小的临时字节数组池<br>
+ * 按大小分类，每个线程有自己的空闲列表，不需要加锁<br>
+ * 支持的大小为Zr元素20字节、G元素128字节、私钥148字节、密文384字节和公共参数512字节，其他大小直接分配<br>
+ * 归还时数组会被清零，取出的数组总是全0；归还后调用方不能再使用该数组<br>
+ * 系统属性hamaster.gradesgin.util.SecureBufferPool.debug为true时记录每个未归还数组的分配位置，用于查找泄漏和重复归还
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+public final class SecureBufferPool {
+
+    /**
+     * 每个线程每种大小最多缓存的数组数量
+     */
+    public final static int MAX_FREE_PER_THREAD = 16;
+
+    private final static int[] SIZES = {
+        IBEConstraints.IBE_ZR_SIZE,
+        IBEConstraints.IBE_G_SIZE,
+        IBEConstraints.IBE_ZR_SIZE + IBEConstraints.IBE_G_SIZE,
+        IBEConstraints.IBE_G_SIZE * 3,
+        IBEConstraints.IBE_G_SIZE * 4
+    };
+
+    @SuppressWarnings("unchecked")
+    private final static ThreadLocal<ArrayDeque<byte[]>[]> FREE = ThreadLocal.withInitial(() -> {
+        ArrayDeque<byte[]>[] lists = new ArrayDeque[SIZES.length];
+        for (int i = 0; i < lists.length; i++)
+            lists[i] = new ArrayDeque<byte[]>(MAX_FREE_PER_THREAD);
+        return lists;
+    });
+
+    private static volatile boolean debug = Boolean.getBoolean(SecureBufferPool.class.getName() + ".debug");
+
+    private final static Map<byte[], Throwable> OUTSTANDING = Collections.synchronizedMap(new IdentityHashMap<byte[], Throwable>());
+
+    private SecureBufferPool() {}
+
+    /**
+     * 取出一个全0的数组
+     * @param size 数组长度
+     * @return 长度为size的数组 用完后应调用release归还
+     */
+    public final static byte[] acquire(int size) {
+        int sizeClass = sizeClass(size);
+        byte[] buffer = sizeClass < 0 ? null : FREE.get()[sizeClass].pollFirst();
+        if (buffer == null)
+            buffer = new byte[size];
+        if (debug)
+            OUTSTANDING.put(buffer, new Throwable("SecureBufferPool buffer of " + size + " bytes acquired here"));
+        return buffer;
+    }
+
+    /**
+     * 清零并归还数组 不是由本类分配的数组也可以归还
+     * @param buffers 要归还的数组 可以包含null
+     */
+    public final static void release(byte[] ... buffers) {
+        for (byte[] buffer : buffers) {
+            if (buffer == null)
+                continue;
+            Arrays.fill(buffer, (byte) 0);
+            if (debug)
+                OUTSTANDING.remove(buffer);
+            int sizeClass = sizeClass(buffer.length);
+            if (sizeClass < 0)
+                continue;
+            ArrayDeque<byte[]> free = FREE.get()[sizeClass];
+            if (free.size() >= MAX_FREE_PER_THREAD)
+                continue;
+            // 重复归还会让同一个数组被取出两次 空闲列表很短 逐个比较引用
+            boolean pooled = false;
+            for (byte[] b : free) {
+                if (b == buffer) {
+                    pooled = true;
+                    break;
+                }
+            }
+            if (pooled && debug)
+                throw new IllegalStateException("Buffer of " + buffer.length + " bytes released twice");
+            if (!pooled)
+                free.offerFirst(buffer);
+        }
+    }
+
+    /**
+     * 数组的所有权转移给结果对象 不再归还 泄漏检查不再跟踪该数组
+     * @param buffer 由acquire取出的数组
+     * @return buffer
+     */
+    public final static byte[] detach(byte[] buffer) {
+        if (debug && buffer != null)
+            OUTSTANDING.remove(buffer);
+        return buffer;
+    }
+
+    /**
+     * 开启或关闭泄漏检查 关闭时清除已记录的分配位置
+     * @param enabled 是否开启
+     */
+    public final static void setDebug(boolean enabled) {
+        debug = enabled;
+        if (!enabled)
+            OUTSTANDING.clear();
+    }
+
+    /**
+     * @return 是否开启泄漏检查
+     */
+    public final static boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * 开启泄漏检查后取出但未归还的数组数量
+     * @return number of outstanding buffers, always 0 when debug mode is off
+     */
+    public final static int getOutstandingCount() {
+        return OUTSTANDING.size();
+    }
+
+    /**
+     * 打印开启泄漏检查后取出但未归还的数组的分配位置
+     * @return 未归还的数组数量
+     */
+    public final static int reportLeaks() {
+        Throwable[] sites;
+        synchronized (OUTSTANDING) {
+            sites = OUTSTANDING.values().toArray(new Throwable[0]);
+        }
+        for (Throwable site : sites)
+            site.printStackTrace();
+        return sites.length;
+    }
+
+    private static int sizeClass(int size) {
+        for (int i = 0; i < SIZES.length; i++) {
+            if (SIZES[i] == size)
+                return i;
+        }
+        return -1;
+    }
+}
@@ -3,11 +3,18 @@ package hamaster.gradesgin.test;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
 
@@ -16,7 +23,13 @@ import hamaster.gradesgin.ibe.IBEPlainText;
 import hamaster.gradesgin.ibe.IBEPrivateKey;
 import hamaster.gradesgin.ibe.IBEPublicParameter;
 import hamaster.gradesgin.ibe.IBESystemParameter;
+import hamaster.gradesgin.ibe.core.IBEContext;
 import hamaster.gradesgin.ibe.core.IBEEngine;
+import hamaster.gradesgin.ibe.core.IBEMaterialPool;
+import hamaster.gradesgin.ibe.core.IBEPairingRegistry;
+import hamaster.gradesgin.ibe.core.IBEPreparedPrivateKey;
+import hamaster.gradesgin.ibe.core.IBEPreparedPublicParameter;
+import hamaster.gradesgin.ibs.IBSSignature;
 import hamaster.gradesgin.util.Hex;
 
 public class TestIBEEngine {
@@ -49,6 +62,200 @@ public class TestIBEEngine {
         }
     }
 
+    @Test
+    public void testPreparedEncrypt() {
+        IBESystemParameter system = IBEEngine.setup(pairing.getBytes());
+        assertNotNull(system);
+        IBEPrivateKey privateKey = IBEEngine.keygen(system, testUser);
+        assertNotNull(privateKey);
+        try (IBEPreparedPublicParameter prepared = IBEEngine.prepare(system.getPublicParameter())) {
+            assertNotNull(prepared);
+            for (int i = 0; i < 4; i++) {
+                IBEPlainText plainText = IBEPlainText.newIbePlainTextFormSignificantBytes(Hex.unhex(testData));
+                IBECipherText cipherText = IBEEngine.encrypt(prepared, plainText, testUser);
+                assertNotNull(cipherText);
+                assertEquals(plainText, IBEEngine.decrypt(cipherText, privateKey));
+            }
+        }
+        try (IBEPreparedPublicParameter prepared = IBEEngine.prepare(system.getPublicParameter(), false)) {
+            assertNotNull(prepared);
+            IBEPlainText plainText = IBEPlainText.newIbePlainTextFormSignificantBytes(Hex.unhex(testData));
+            assertEquals(plainText, IBEEngine.decrypt(IBEEngine.encrypt(prepared, plainText, testUser), privateKey));
+            System.out.println("prepared memory without fixed-base tables:" + prepared.memoryUsage());
+        }
+    }
+
+    @Test
+    public void testContext() {
+        IBESystemParameter system = IBEEngine.setup(pairing.getBytes());
+        assertNotNull(system);
+        try (IBEContext context = IBEContext.create(system);
+                IBEContext publicContext = IBEContext.create(system.getPublicParameter())) {
+            assertNotNull(context);
+            assertTrue(context.hasMasterKey());
+            assertNull(publicContext.keygen(testUser));
+            IBEPrivateKey privateKey = context.keygen(testUser);
+            assertNotNull(privateKey);
+            IBEPlainText plainText = IBEPlainText.newIbePlainTextFormSignificantBytes(Hex.unhex(testData));
+            assertEquals(plainText, context.decrypt(publicContext.encrypt(plainText, testUser), privateKey));
+            // 静态方法与上下文的结果可以互相解密
+            assertEquals(plainText, IBEEngine.decrypt(publicContext.encrypt(plainText, testUser), privateKey));
+            assertEquals(plainText, context.decrypt(IBEEngine.encrypt(system.getPublicParameter(), plainText, testUser), privateKey));
+
+            String[] users = {testUser, "alice@gradesign.hamaster"};
+            IBEPrivateKey[] privateKeys = context.keygen(users);
+            IBECipherText[] cipherTexts = publicContext.encrypt(new IBEPlainText[] {plainText, plainText}, users);
+            for (int i = 0; i < users.length; i++)
+                assertEquals(plainText, context.decrypt(new IBECipherText[] {cipherTexts[i]}, privateKeys[i])[0]);
+
+            byte[] digest = Hex.unhex(testData);
+            IBSSignature signature = context.sign(testUser, digest, "unknown");
+            assertNotNull(signature);
+            assertTrue(publicContext.verify(signature, digest));
+            assertTrue(IBEEngine.verify(signature, digest));
+        }
+    }
+
+    @Test
+    public void testContextOutlivesPairingHandles() throws InterruptedException {
+        IBESystemParameter system = IBEEngine.setup(pairing.getBytes());
+        assertNotNull(system);
+        IBEContext[] created = new IBEContext[1];
+        Thread creator = new Thread(() -> created[0] = IBEContext.create(system));
+        creator.start();
+        creator.join();
+        // 创建线程已结束 共享和线程专用的句柄全部释放后上下文仍持有自己的句柄
+        IBEPairingRegistry.closeAll();
+        try (IBEContext context = created[0]) {
+            assertNotNull(context);
+            IBEPrivateKey privateKey = context.keygen(testUser);
+            assertNotNull(privateKey);
+            IBEPlainText plainText = IBEPlainText.newIbePlainTextFormSignificantBytes(Hex.unhex(testData));
+            try (IBEPreparedPrivateKey preparedKey = IBEEngine.prepare(privateKey)) {
+                IBEPairingRegistry.closeAll();
+                assertEquals(plainText, IBEEngine.decrypt(context.encrypt(plainText, testUser), preparedKey));
+            }
+        }
+    }
+
+    @Test
+    public void testMaterialPool() throws InterruptedException {
+        IBESystemParameter system = IBEEngine.setup(pairing.getBytes());
+        assertNotNull(system);
+        IBEPrivateKey privateKey = IBEEngine.keygen(system, testUser);
+        try (IBEMaterialPool pool = new IBEMaterialPool(4, 1, 2);
+                IBEPreparedPublicParameter prepared = IBEEngine.prepare(system.getPublicParameter())) {
+            IBEEngine.setMaterialPool(pool);
+            IBEPlainText plainText = IBEPlainText.newIbePlainTextFormSignificantBytes(Hex.unhex(testData));
+            // 第一次加密时队列为空 开始后台填充
+            assertEquals(plainText, IBEEngine.decrypt(IBEEngine.encrypt(prepared, plainText, testUser), privateKey));
+            for (int i = 0; i < 100 && pool.available() < 4; i++)
+                Thread.sleep(50);
+            assertTrue(pool.available() > 0);
+            for (int i = 0; i < 8; i++)
+                assertEquals(plainText, IBEEngine.decrypt(IBEEngine.encrypt(prepared, plainText, testUser), privateKey));
+        } finally {
+            IBEEngine.setMaterialPool(null);
+        }
+    }
+
+    @Test
+    public void testPreparedDecrypt() {
+        IBESystemParameter system = IBEEngine.setup(pairing.getBytes());
+        assertNotNull(system);
+        IBEPrivateKey privateKey = IBEEngine.keygen(system, testUser);
+        assertNotNull(privateKey);
+        try (IBEPreparedPrivateKey prepared = IBEEngine.prepare(privateKey)) {
+            assertNotNull(prepared);
+            for (int i = 0; i < 4; i++) {
+                IBEPlainText plainText = IBEPlainText.newIbePlainTextFormSignificantBytes(Hex.unhex(testData));
+                IBECipherText cipherText = IBEEngine.encrypt(system.getPublicParameter(), plainText, testUser);
+                assertNotNull(cipherText);
+                assertEquals(plainText, IBEEngine.decrypt(cipherText, prepared));
+            }
+        }
+    }
+
+    @Test
+    public void testStream() throws IOException {
+        IBESystemParameter system = IBEEngine.setup(pairing.getBytes());
+        assertNotNull(system);
+        IBEPrivateKey privateKey = IBEEngine.keygen(system, testUser);
+        assertNotNull(privateKey);
+        // 跨越多个分块 最后一块不满
+        byte[] data = new byte[200 * 1024 + 17];
+        new Random(7).nextBytes(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream enc = IBEEngine.newEncryptingStream(out, system.getPublicParameter(), testUser)) {
+            enc.write(data, 0, 1000);
+            enc.write(data[1000]);
+            enc.write(data, 1001, data.length - 1001);
+        }
+        byte[] stream = out.toByteArray();
+        try (InputStream dec = IBEEngine.newDecryptingStream(new ByteArrayInputStream(stream), privateKey)) {
+            assertArrayEquals(data, dec.readAllBytes());
+        }
+
+        byte[] tampered = stream.clone();
+        tampered[tampered.length - 100] ^= 1;
+        assertThrows(IOException.class, () -> IBEEngine.newDecryptingStream(new ByteArrayInputStream(tampered), privateKey).readAllBytes());
+        byte[] truncated = Arrays.copyOf(stream, stream.length - 1);
+        assertThrows(IOException.class, () -> IBEEngine.newDecryptingStream(new ByteArrayInputStream(truncated), privateKey).readAllBytes());
+        IBEPrivateKey otherKey = IBEEngine.keygen(system, "other@example.com");
+        assertThrows(IOException.class, () -> IBEEngine.newDecryptingStream(new ByteArrayInputStream(stream), otherKey).readAllBytes());
+    }
+
+    @Test
+    public void testDirectBuffer() {
+        IBESystemParameter system = IBEEngine.setup(pairing.getBytes());
+        assertNotNull(system);
+        IBEPrivateKey privateKey = IBEEngine.keygen(system, testUser);
+        assertNotNull(privateKey);
+        IBEPlainText plainText = IBEPlainText.newIbePlainTextFormSignificantBytes(Hex.unhex(testData));
+        ByteBuffer plainIn = ByteBuffer.allocateDirect(IBEPlainText.IBE_G_SIZE);
+        ByteBuffer cipher = ByteBuffer.allocateDirect(IBEPlainText.IBE_G_SIZE * 3);
+        ByteBuffer plainOut = ByteBuffer.allocateDirect(IBEPlainText.IBE_G_SIZE);
+        plainIn.put(plainText.getContent()).flip();
+        try (IBEPreparedPublicParameter preparedParameter = IBEEngine.prepare(system.getPublicParameter());
+             IBEPreparedPrivateKey preparedKey = IBEEngine.prepare(privateKey)) {
+            assertTrue(IBEEngine.encrypt(preparedParameter, plainIn, testUser, cipher));
+            assertEquals(0, cipher.remaining());
+            cipher.flip();
+            assertTrue(IBEEngine.decrypt(cipher, preparedKey, plainOut));
+            plainOut.flip();
+        }
+        byte[] content = new byte[plainOut.remaining()];
+        plainOut.get(content);
+        assertArrayEquals(plainText.getContent(), content);
+    }
+
+    @Test
+    public void testBatch() {
+        IBESystemParameter system = IBEEngine.setup(pairing.getBytes());
+        assertNotNull(system);
+        String[] users = new String[16];
+        IBEPlainText[] plainTexts = new IBEPlainText[users.length];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = i + testUser;
+            plainTexts[i] = IBEPlainText.newIbePlainTextFormSignificantBytes(Hex.unhex(testData));
+        }
+        IBEPrivateKey[] privateKeys = IBEEngine.keygen(system, users);
+        try (IBEPreparedPublicParameter prepared = IBEEngine.prepare(system.getPublicParameter())) {
+            IBECipherText[] cipherTexts = IBEEngine.encrypt(prepared, plainTexts, users);
+            for (int i = 0; i < users.length; i++) {
+                assertNotNull(privateKeys[i]);
+                assertNotNull(cipherTexts[i]);
+                assertEquals(plainTexts[i], IBEEngine.decrypt(cipherTexts[i], privateKeys[i]));
+            }
+            try (IBEPreparedPrivateKey preparedKey = IBEEngine.prepare(privateKeys[0])) {
+                IBECipherText[] sameUser = IBEEngine.encrypt(prepared, Arrays.copyOf(plainTexts, 3), new String[] {users[0], users[0], users[0]});
+                IBEPlainText[] decrypted = IBEEngine.decrypt(sameUser, preparedKey);
+                for (int i = 0; i < decrypted.length; i++)
+                    assertEquals(plainTexts[i], decrypted[i]);
+            }
+        }
+    }
+
     @Test
     public void fuckPriKey() {
         String hex =
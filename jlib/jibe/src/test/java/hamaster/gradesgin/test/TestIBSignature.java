@@ -1,16 +1,24 @@
 package hamaster.gradesgin.test;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 import java.util.Date;
 
 import org.junit.jupiter.api.Test;
 
 import hamaster.gradesgin.ibe.IBEPublicParameter;
 import hamaster.gradesgin.ibe.core.IBEEngine;
+import hamaster.gradesgin.ibe.core.IBEPreparedPublicParameter;
 import hamaster.gradesgin.ibs.IBSCertificate;
 import hamaster.gradesgin.ibs.IBSSignature;
+import hamaster.gradesgin.ibs.core.IBSEngine;
 
 public class TestIBSignature {
 
@@ -37,4 +45,72 @@ public class TestIBSignature {
             assertTrue(res);
         }
     }
+
+    @Test
+    public void testPairingSignature() throws Exception {
+        IBSCertificate root = new IBSCertificate();
+        IBEPublicParameter pub = new IBEPublicParameter();
+        pub.setPairing(pairing.getBytes());
+        root.setPublicParameter(pub);
+        IBSCertificate certificate = IBEEngine.generateCertificate(testUser, root, new Date(), 1000000000L);
+        assertNotNull(certificate);
+
+        IBSSignature signature = IBSEngine.sign(certificate, hash, "unknown");
+        assertNotNull(signature);
+        assertEquals(IBSSignature.VERSION_PAIRING, signature.getVersion());
+        assertTrue(IBSEngine.verify(signature, hash));
+        assertTrue(IBEEngine.verify(signature, hash));
+        assertFalse(IBSEngine.verify(signature, "another digest".getBytes()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        signature.writeExternal(out);
+        IBSSignature copy = new IBSSignature();
+        copy.readExternal(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(IBSSignature.VERSION_PAIRING, copy.getVersion());
+        assertEquals(testUser, copy.getUserString());
+        assertTrue(IBSEngine.verify(copy, hash));
+
+        // 签名者身份被篡改后验证失败
+        copy.setUserString("someone@else.com");
+        assertFalse(IBSEngine.verify(copy, hash));
+
+        // 旧格式的签名仍然可以读取和验证
+        IBSSignature legacy = IBEEngine.sign(certificate, hash, "unknown");
+        out = new ByteArrayOutputStream();
+        legacy.writeExternal(out);
+        copy = new IBSSignature();
+        copy.readExternal(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(IBSSignature.VERSION_KEYGEN, copy.getVersion());
+        assertTrue(IBSEngine.verify(copy, hash));
+    }
+
+    @Test
+    public void testDerivedCertificate() {
+        IBSCertificate fake = new IBSCertificate();
+        IBEPublicParameter pub = new IBEPublicParameter();
+        pub.setPairing(pairing.getBytes());
+        fake.setPublicParameter(pub);
+        IBSCertificate root = IBEEngine.generateCertificate("root", fake, new Date(), 1000000000L);
+        assertNotNull(root);
+        assertTrue(IBSEngine.verify(root));
+
+        // 用户证书沿用根证书的g和h 只有g1和主密钥不同
+        IBSCertificate certificate = IBEEngine.generateCertificate(testUser, root, new Date(), 1000000000L);
+        assertNotNull(certificate);
+        assertArrayEquals(root.getPublicParameter().getParamG(), certificate.getPublicParameter().getParamG());
+        assertArrayEquals(root.getPublicParameter().getParamH(), certificate.getPublicParameter().getParamH());
+        assertFalse(Arrays.equals(root.getPublicParameter().getParamG1(), certificate.getPublicParameter().getParamG1()));
+        assertTrue(IBSEngine.verify(certificate));
+
+        try (IBEPreparedPublicParameter prepared = IBEEngine.prepare(root.getPublicParameter(), true)) {
+            IBSCertificate batch = IBEEngine.generateCertificate(testUser, root, prepared, new Date(), 1000000000L);
+            assertNotNull(batch);
+            assertTrue(IBSEngine.verify(batch));
+            IBSSignature signature = IBSEngine.sign(batch, hash, "unknown");
+            assertTrue(IBSEngine.verify(signature, hash));
+            // 证书内容被修改后签名失效
+            batch.setOwnerString("someone@else.com");
+            assertFalse(IBSEngine.verify(batch));
+        }
+    }
 }
@@ -1,16 +1,31 @@
 package hamaster.gradesgin.test;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
 
+import hamaster.gradesgin.ibe.IBECipherText;
+import hamaster.gradesgin.ibe.IBEConstraints;
+import hamaster.gradesgin.ibe.IBEPrivateKey;
+import hamaster.gradesgin.ibe.IBEPublicParameter;
 import hamaster.gradesgin.util.Hex;
 import hamaster.gradesgin.util.IBECapsule;
+import hamaster.gradesgin.util.IBECapsuleAESGCMImpl;
 import hamaster.gradesgin.util.IBECapsuleAESImpl;
+import hamaster.gradesgin.util.MemoryUtil;
+import hamaster.gradesgin.util.SecureBufferPool;
 
 public class TestSecureIO {
 
@@ -80,4 +95,218 @@ public class TestSecureIO {
             e.printStackTrace();
         }
     }
+
+    @Test
+    public void testChunkedGCM() throws IOException, ClassNotFoundException {
+        byte[] data = new byte[300 * 1024 + 5];
+        new Random(3).nextBytes(data);
+        IBECapsule capsule = new IBECapsuleAESGCMImpl(64 * 1024);
+        capsule.setKey(key.getBytes());
+        capsule.protect(data);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        capsule.writeExternal(bout);
+        byte[] secure = bout.toByteArray();
+
+        // 先设置密钥时读取过程中解密 后设置密钥时在setKey中解密 旧实现按算法名称分派
+        IBECapsule capsule1 = new IBECapsuleAESGCMImpl();
+        capsule1.setKey(key.getBytes());
+        capsule1.readExternal(new ByteArrayInputStream(secure));
+        assertArrayEquals(data, capsule1.getData());
+        IBECapsule capsule2 = new IBECapsuleAESGCMImpl();
+        capsule2.readExternal(new ByteArrayInputStream(secure));
+        capsule2.setKey(key.getBytes());
+        assertArrayEquals(data, capsule2.getData());
+        IBECapsule capsule3 = new IBECapsuleAESImpl();
+        capsule3.setKey(key.getBytes());
+        capsule3.readExternal(new ByteArrayInputStream(secure));
+        assertArrayEquals(data, capsule3.getData());
+        assertEquals("AES/GCM/NoPadding", capsule3.getCrypto());
+
+        secure[secure.length - 1000] ^= 1;
+        IBECapsule tampered = new IBECapsuleAESGCMImpl();
+        tampered.setKey(key.getBytes());
+        assertThrows(IOException.class, () -> tampered.readExternal(new ByteArrayInputStream(secure)));
+        // 后设置密钥时认证失败在setKey中抛出 部分解密的数据不返回
+        IBECapsule tamperedLate = new IBECapsuleAESGCMImpl();
+        tamperedLate.readExternal(new ByteArrayInputStream(secure));
+        assertThrows(IllegalStateException.class, () -> tamperedLate.setKey(key.getBytes()));
+        assertEquals(null, tamperedLate.getData());
+        IBECapsule truncated = new IBECapsuleAESGCMImpl();
+        truncated.setKey(key.getBytes());
+        assertThrows(IOException.class, () -> truncated.readExternal(new ByteArrayInputStream(Arrays.copyOf(secure, secure.length - 20))));
+    }
+
+    @Test
+    public void testOversizedGCMHeader() throws IOException {
+        IBECapsule capsule = new IBECapsuleAESGCMImpl();
+        capsule.setKey(key.getBytes());
+        capsule.protect(new byte[10]);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        capsule.writeExternal(out);
+        byte[] secure = out.toByteArray();
+        // 头部之后是块大小、数据长度和随机数前缀 之后的数据块全部截去
+        int header = 2 + secure[0] + secure[1 + secure[0]] + 64;
+        byte[] forged = Arrays.copyOf(secure, header + 4 + 4 + 8);
+        byte[] length = Hex.intToByte(Integer.MAX_VALUE);
+        System.arraycopy(length, 0, forged, header + 4, 4);
+        IBECapsule reader = new IBECapsuleAESGCMImpl();
+        reader.setKey(key.getBytes());
+        IOException e = assertThrows(IOException.class, () -> reader.readExternal(new ByteArrayInputStream(forged)));
+        assertTrue(e.getMessage().contains("Invalid data length"));
+    }
+
+    @Test
+    public void testReadCBCWithGCM() throws IOException, ClassNotFoundException {
+        IBECapsule capsule = new IBECapsuleAESImpl();
+        capsule.setKey(key.getBytes());
+        capsule.protect(testData);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        capsule.writeExternal(bout);
+        IBECapsule capsule1 = new IBECapsuleAESGCMImpl();
+        capsule1.setKey(key.getBytes());
+        capsule1.readExternal(new ByteArrayInputStream(bout.toByteArray()));
+        assertEquals("AES/CBC/PKCS5Padding", capsule1.getCrypto());
+        assertEquals(testData, capsule1.getDataAsObject());
+    }
+
+    @Test
+    public void testFastSecureBuffers() throws InterruptedException {
+        byte[][] buffers = new byte[64][];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new byte[256];
+            Arrays.fill(buffers[i], (byte) 0x5a);
+        }
+        long scrubbed = MemoryUtil.getScrubbedCount() + MemoryUtil.getInlineCount();
+        for (byte[] buffer : buffers)
+            MemoryUtil.fastSecureBuffers(MemoryUtil.Mode.ZERO, buffer);
+        for (int i = 0; i < 100 && MemoryUtil.getScrubbedCount() + MemoryUtil.getInlineCount() - scrubbed < buffers.length; i++)
+            Thread.sleep(10);
+        for (byte[] buffer : buffers)
+            assertArrayEquals(new byte[256], buffer);
+        assertTrue(MemoryUtil.getPeakPendingCount() >= 0);
+    }
+
+    @Test
+    public void testSecureBufferPool() throws IOException, ClassNotFoundException {
+        SecureBufferPool.setDebug(true);
+        try {
+            byte[] buffer = SecureBufferPool.acquire(IBEConstraints.IBE_G_SIZE);
+            Arrays.fill(buffer, (byte) 7);
+            assertEquals(1, SecureBufferPool.getOutstandingCount());
+            SecureBufferPool.release(buffer);
+            assertArrayEquals(new byte[IBEConstraints.IBE_G_SIZE], buffer);
+            assertEquals(0, SecureBufferPool.getOutstandingCount());
+            assertThrows(IllegalStateException.class, () -> SecureBufferPool.release(buffer));
+            assertSame(buffer, SecureBufferPool.acquire(IBEConstraints.IBE_G_SIZE));
+            SecureBufferPool.release(buffer);
+
+            // 序列化使用池中的数组 不能泄漏
+            IBECipherText cipherText = new IBECipherText();
+            byte[] uvw = new byte[IBEConstraints.IBE_G_SIZE * 3];
+            new Random(5).nextBytes(uvw);
+            cipherText.setUvw(uvw);
+            cipherText.setLength(100);
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            cipherText.writeExternal(bout);
+            IBECipherText copy = new IBECipherText();
+            copy.readExternal(new ByteArrayInputStream(bout.toByteArray()));
+            assertEquals(cipherText, copy);
+            assertEquals(0, SecureBufferPool.getOutstandingCount());
+        } finally {
+            SecureBufferPool.setDebug(false);
+        }
+    }
+
+    @Test
+    public void testExactSizeSerialization() throws IOException, ClassNotFoundException {
+        Random random = new Random(7);
+        IBECipherText cipherText = new IBECipherText();
+        byte[] uvw = new byte[IBEConstraints.IBE_G_SIZE * 3];
+        random.nextBytes(uvw);
+        cipherText.setUvw(uvw);
+        cipherText.setLength(200);
+        IBEPublicParameter parameter = new IBEPublicParameter();
+        parameter.setParamG(Arrays.copyOf(uvw, IBEConstraints.IBE_G_SIZE));
+        parameter.setParamH(Arrays.copyOf(uvw, 100));
+        parameter.setPairing("type a q 8780710799663312522437781984754049815806883199414208211028653399266475630880222957078625179422662221423155858769582317459277713367317481324925129998224791".getBytes());
+        IBEPrivateKey privateKey = new IBEPrivateKey();
+        privateKey.setrID(Arrays.copyOf(uvw, IBEConstraints.IBE_ZR_SIZE));
+        privateKey.sethID(Arrays.copyOf(uvw, IBEConstraints.IBE_G_SIZE));
+        privateKey.setUserString("\u738b\u91ce@example.com");
+        privateKey.setPairing(parameter.getPairing());
+
+        for (IBEConstraints obj : new IBEConstraints[] {cipherText, parameter, privateKey}) {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            obj.writeExternal(bout);
+            byte[] data = obj.toByteArray();
+            assertEquals(obj.serializedSize(), data.length);
+            assertArrayEquals(bout.toByteArray(), data);
+            IBEConstraints copy = IBEConstraints.fromByteArray(data, obj.getClass());
+            assertEquals(obj.toByteArray().length, copy.serializedSize());
+        }
+        // 读取长度不足的数据
+        assertEquals(null, IBEConstraints.fromByteArray(Arrays.copyOf(cipherText.toByteArray(), 100), IBECipherText.class));
+        IBEConstraints copy = IBEConstraints.fromByteArray(cipherText.toByteArray(), IBECipherText.class);
+        assertEquals(cipherText, copy);
+    }
+
+    @Test
+    public void testForgedPrivateKeyLength() {
+        IBEPrivateKey privateKey = new IBEPrivateKey();
+        privateKey.setrID(new byte[IBEConstraints.IBE_ZR_SIZE]);
+        privateKey.sethID(new byte[IBEConstraints.IBE_G_SIZE]);
+        privateKey.setUserString("wangyeee@gmail.com");
+        privateKey.setPairing("type a".getBytes());
+        byte[] forged = privateKey.toByteArray();
+        // 用户身份长度加4后溢出为负数
+        System.arraycopy(Hex.intToByte(0x7ffffffd), 0, forged, IBEConstraints.IBE_ZR_SIZE + IBEConstraints.IBE_G_SIZE, 4);
+        assertThrows(IOException.class, () -> new IBEPrivateKey().readFrom(ByteBuffer.wrap(forged)));
+        assertThrows(IOException.class, () -> new IBEPrivateKey().readExternal(new ByteArrayInputStream(forged)));
+        assertEquals(null, IBEConstraints.fromByteArray(forged, IBEPrivateKey.class));
+    }
+
+    @Test
+    public void testPartialReads() throws IOException, ClassNotFoundException {
+        IBECipherText cipherText = new IBECipherText();
+        byte[] uvw = new byte[IBEConstraints.IBE_G_SIZE * 3];
+        new Random(9).nextBytes(uvw);
+        cipherText.setUvw(uvw);
+        cipherText.setLength(17);
+        IBEPrivateKey privateKey = new IBEPrivateKey();
+        privateKey.setrID(Arrays.copyOf(uvw, IBEConstraints.IBE_ZR_SIZE));
+        privateKey.sethID(Arrays.copyOf(uvw, IBEConstraints.IBE_G_SIZE));
+        privateKey.setUserString("wangyeee@gmail.com");
+        privateKey.setPairing("type a".getBytes());
+        IBECapsule capsule = new IBECapsuleAESImpl();
+        capsule.setKey(key.getBytes());
+        capsule.protect(Hex.unhex(testData));
+
+        // 多个对象依次写入同一个流 读取时每次read只返回1字节
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        cipherText.writeExternal(bout);
+        privateKey.writeExternal(bout);
+        capsule.writeExternal(bout);
+        InputStream in = new ByteArrayInputStream(bout.toByteArray()) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        IBECipherText cipherText1 = new IBECipherText();
+        cipherText1.readExternal(in);
+        assertEquals(cipherText, cipherText1);
+        IBEPrivateKey privateKey1 = new IBEPrivateKey();
+        privateKey1.readExternal(in);
+        assertEquals(privateKey, privateKey1);
+        IBECapsule capsule1 = new IBECapsuleAESImpl();
+        capsule1.setKey(key.getBytes());
+        capsule1.readExternal(in);
+        assertEquals(testData, Hex.hex(capsule1.getData()));
+        assertEquals(-1, in.read());
+        capsule.close();
+        capsule1.close();
+
+        byte[] truncated = Arrays.copyOf(cipherText.toByteArray(), 200);
+        assertThrows(IOException.class, () -> new IBECipherText().readExternal(new ByteArrayInputStream(truncated)));
+    }
 }
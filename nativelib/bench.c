@@ -0,0 +1,315 @@
+/*
+ * 本地IBE库的性能测试
+ * 分别测量椭圆曲线参数解析、*_str函数（每次调用都解析参数）和*_handle函数（复用已解析的参数）的耗时，
+ * 两者之差即为参数解析的开销；与Java端的基准测试对比可以得到JNI调用本身的开销
+ *
+ * 用法：bench [-n 每个线程的迭代次数] [-t 线程数] [-o 输出文件]
+ * 结果为CSV格式，每行一个操作：
+ * operation,threads,iterations,errors,total_ns,ops_per_sec,avg_us
+ */
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+#include <pthread.h>
+#include "ibe.h"
+
+static char* pairing_str = "type a \
+			q 8780710799663312522437781984754049815806883199414208211028653399266475630880222957078625179422662221423155858769582317459277713367317481324925129998224791 \
+			h 12016012264891146079388821366740534204802954401251311822919615131047207289359704531102844802183906537786776 \
+			r 730750818665451621361119245571504901405976559617 \
+			exp2 159 \
+			exp1 107 \
+			sign1 1 \
+			sign0 1";
+
+static char* user = "wangyeee@gmail.com";
+
+/*
+ * 所有线程共享的只读数据
+ */
+typedef struct {
+  size_t pairing_length;
+  ibe_pairing_ptr pairing;
+  ibe_public_prepared_ptr public_prepared;
+  ibe_private_prepared_ptr private_prepared;
+  byte alpha[PBC_ZR_SIZE];
+  byte g[PBC_G_SIZE];
+  byte g1[PBC_G_SIZE];
+  byte h[PBC_G_SIZE];
+  byte rID[PBC_ZR_SIZE];
+  byte hID[PBC_G_SIZE];
+  byte plain[PBC_G_SIZE];
+  byte cipher[PBC_G_SIZE * 3];
+} bench_shared;
+
+/*
+ * 每个线程的输出缓冲区
+ */
+typedef struct {
+  byte alpha[PBC_ZR_SIZE];
+  byte g[PBC_G_SIZE];
+  byte g1[PBC_G_SIZE];
+  byte h[PBC_G_SIZE];
+  byte rID[PBC_ZR_SIZE];
+  byte hID[PBC_G_SIZE];
+  byte plain[PBC_G_SIZE];
+  byte cipher[PBC_G_SIZE * 3];
+} bench_buffers;
+
+typedef size_t (*bench_function)(bench_shared*, bench_buffers*);
+
+typedef struct {
+  const char* name;
+  bench_function run;
+} bench_operation;
+
+/*
+ * 起跑线，所有线程就绪后同时开始，OS X没有pthread_barrier_t
+ */
+typedef struct {
+  pthread_mutex_t lock;
+  pthread_cond_t cond;
+  int ready;
+  int started;
+} bench_gate;
+
+typedef struct {
+  bench_shared* shared;
+  bench_function run;
+  long iterations;
+  long errors;
+  bench_gate* gate;
+} bench_thread;
+
+static size_t op_parse(bench_shared* s, bench_buffers* b) {
+  ibe_pairing_ptr pairing = pairing_open(pairing_str, s->pairing_length);
+  if (pairing == NULL)
+    return -1;
+  pairing_close(pairing);
+  return 0;
+}
+
+static size_t op_setup_str(bench_shared* s, bench_buffers* b) {
+  return setup_str(b->alpha, PBC_ZR_SIZE, b->g, PBC_G_SIZE, b->g1, PBC_G_SIZE, b->h, PBC_G_SIZE, pairing_str, s->pairing_length);
+}
+
+static size_t op_setup_handle(bench_shared* s, bench_buffers* b) {
+  return setup_handle(b->alpha, PBC_ZR_SIZE, b->g, PBC_G_SIZE, b->g1, PBC_G_SIZE, b->h, PBC_G_SIZE, s->pairing);
+}
+
+static size_t op_keygen_str(bench_shared* s, bench_buffers* b) {
+  return keygen_str(b->hID, PBC_G_SIZE, b->rID, PBC_ZR_SIZE, (byte*) user, strlen(user), s->alpha, PBC_ZR_SIZE,
+		    s->g, PBC_G_SIZE, s->h, PBC_G_SIZE, 1, pairing_str, s->pairing_length);
+}
+
+static size_t op_keygen_handle(bench_shared* s, bench_buffers* b) {
+  return keygen_handle(b->hID, PBC_G_SIZE, b->rID, PBC_ZR_SIZE, (byte*) user, strlen(user), s->alpha, PBC_ZR_SIZE,
+		       s->g, PBC_G_SIZE, s->h, PBC_G_SIZE, 1, s->pairing);
+}
+
+static size_t op_encrypt_str(bench_shared* s, bench_buffers* b) {
+  return encrypt_str(b->cipher, PBC_G_SIZE * 3, s->plain, PBC_G_SIZE, s->g, PBC_G_SIZE, s->g1, PBC_G_SIZE, s->h, PBC_G_SIZE,
+		     (byte*) user, strlen(user), pairing_str, s->pairing_length);
+}
+
+static size_t op_encrypt_handle(bench_shared* s, bench_buffers* b) {
+  return encrypt_handle(b->cipher, PBC_G_SIZE * 3, s->plain, PBC_G_SIZE, s->g, PBC_G_SIZE, s->g1, PBC_G_SIZE, s->h, PBC_G_SIZE,
+			(byte*) user, strlen(user), s->pairing);
+}
+
+static size_t op_encrypt_prepared(bench_shared* s, bench_buffers* b) {
+  return encrypt_prepared(b->cipher, PBC_G_SIZE * 3, s->plain, PBC_G_SIZE, (byte*) user, strlen(user), s->public_prepared);
+}
+
+static size_t op_decrypt_str(bench_shared* s, bench_buffers* b) {
+  return decrypt_str(b->plain, PBC_G_SIZE, s->cipher, PBC_G_SIZE * 3, s->rID, PBC_ZR_SIZE, s->hID, PBC_G_SIZE,
+		     pairing_str, s->pairing_length);
+}
+
+static size_t op_decrypt_handle(bench_shared* s, bench_buffers* b) {
+  return decrypt_handle(b->plain, PBC_G_SIZE, s->cipher, PBC_G_SIZE * 3, s->rID, PBC_ZR_SIZE, s->hID, PBC_G_SIZE, s->pairing);
+}
+
+static size_t op_decrypt_prepared(bench_shared* s, bench_buffers* b) {
+  return decrypt_prepared(b->plain, PBC_G_SIZE, s->cipher, PBC_G_SIZE * 3, s->private_prepared);
+}
+
+static bench_operation operations[] = {
+  {"pairing_parse", op_parse},
+  {"setup_str", op_setup_str},
+  {"setup_handle", op_setup_handle},
+  {"keygen_str", op_keygen_str},
+  {"keygen_handle", op_keygen_handle},
+  {"encrypt_str", op_encrypt_str},
+  {"encrypt_handle", op_encrypt_handle},
+  {"encrypt_prepared", op_encrypt_prepared},
+  {"decrypt_str", op_decrypt_str},
+  {"decrypt_handle", op_decrypt_handle},
+  {"decrypt_prepared", op_decrypt_prepared},
+};
+
+static long long now_ns(void) {
+  struct timespec ts;
+  clock_gettime(CLOCK_MONOTONIC, &ts);
+  return (long long) ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+static void* bench_worker(void* arg) {
+  bench_thread* t = (bench_thread*) arg;
+  bench_buffers buffers;
+  long i;
+
+  memset(&buffers, 0, sizeof(buffers));
+  pthread_mutex_lock(&t->gate->lock);
+  t->gate->ready++;
+  pthread_cond_broadcast(&t->gate->cond);
+  while (!t->gate->started)
+    pthread_cond_wait(&t->gate->cond, &t->gate->lock);
+  pthread_mutex_unlock(&t->gate->lock);
+  for (i = 0; i < t->iterations; i++) {
+    if (t->run(t->shared, &buffers))
+      t->errors++;
+  }
+  return NULL;
+}
+
+/*
+ * 以threads个线程同时运行一个操作，返回从全部线程开始到全部线程结束的耗时
+ */
+static long long bench_run(bench_shared* shared, bench_function run, int threads, long iterations, long* errors) {
+  pthread_t* ids = (pthread_t*) malloc(sizeof(pthread_t) * threads);
+  bench_thread* contexts = (bench_thread*) calloc(threads, sizeof(bench_thread));
+  bench_gate gate;
+  long long start, end;
+  int i;
+
+  pthread_mutex_init(&gate.lock, NULL);
+  pthread_cond_init(&gate.cond, NULL);
+  gate.ready = 0;
+  gate.started = 0;
+  for (i = 0; i < threads; i++) {
+    contexts[i].shared = shared;
+    contexts[i].run = run;
+    contexts[i].iterations = iterations;
+    contexts[i].gate = &gate;
+    pthread_create(&ids[i], NULL, bench_worker, &contexts[i]);
+  }
+  pthread_mutex_lock(&gate.lock);
+  while (gate.ready < threads)
+    pthread_cond_wait(&gate.cond, &gate.lock);
+  gate.started = 1;
+  start = now_ns();
+  pthread_cond_broadcast(&gate.cond);
+  pthread_mutex_unlock(&gate.lock);
+
+  *errors = 0;
+  for (i = 0; i < threads; i++) {
+    pthread_join(ids[i], NULL);
+    *errors += contexts[i].errors;
+  }
+  end = now_ns();
+  pthread_cond_destroy(&gate.cond);
+  pthread_mutex_destroy(&gate.lock);
+  free(contexts);
+  free(ids);
+  return end - start;
+}
+
+static int bench_prepare(bench_shared* s) {
+  int i;
+
+  memset(s, 0, sizeof(bench_shared));
+  s->pairing_length = strlen(pairing_str);
+  s->pairing = pairing_open(pairing_str, s->pairing_length);
+  if (s->pairing == NULL)
+    return -1;
+  if (setup_handle(s->alpha, PBC_ZR_SIZE, s->g, PBC_G_SIZE, s->g1, PBC_G_SIZE, s->h, PBC_G_SIZE, s->pairing))
+    return -1;
+  if (keygen_handle(s->hID, PBC_G_SIZE, s->rID, PBC_ZR_SIZE, (byte*) user, strlen(user), s->alpha, PBC_ZR_SIZE,
+		    s->g, PBC_G_SIZE, s->h, PBC_G_SIZE, 1, s->pairing))
+    return -1;
+  // 明文的两个坐标都必须小于q
+  for (i = 0; i < PBC_G_SIZE; i++)
+    s->plain[i] = (byte) (i * 31 + 7);
+  s->plain[0] = 0;
+  s->plain[PBC_G_SIZE / 2] = 0;
+  if (encrypt_handle(s->cipher, PBC_G_SIZE * 3, s->plain, PBC_G_SIZE, s->g, PBC_G_SIZE, s->g1, PBC_G_SIZE, s->h, PBC_G_SIZE,
+		     (byte*) user, strlen(user), s->pairing))
+    return -1;
+  s->public_prepared = public_prepare(s->g, PBC_G_SIZE, s->g1, PBC_G_SIZE, s->h, PBC_G_SIZE, 1, s->pairing);
+  s->private_prepared = private_prepare(s->rID, PBC_ZR_SIZE, s->hID, PBC_G_SIZE, s->pairing);
+  if (s->public_prepared == NULL || s->private_prepared == NULL)
+    return -1;
+  return 0;
+}
+
+static void bench_release(bench_shared* s) {
+  public_release(s->public_prepared);
+  private_release(s->private_prepared);
+  pairing_close(s->pairing);
+}
+
+int main(int argc, char** argv) {
+  long iterations = 100;
+  int threads = 1;
+  char* output = NULL;
+  FILE* out = stdout;
+  bench_shared shared;
+  long errors;
+  long long elapsed;
+  double total;
+  size_t i;
+  int opt;
+
+  while ((opt = getopt(argc, argv, "n:t:o:")) != -1) {
+    switch (opt) {
+    case 'n':
+      iterations = atol(optarg);
+      break;
+    case 't':
+      threads = atoi(optarg);
+      break;
+    case 'o':
+      output = optarg;
+      break;
+    default:
+      fprintf(stderr, "usage: %s [-n iterations] [-t threads] [-o output.csv]\n", argv[0]);
+      return 1;
+    }
+  }
+  if (iterations <= 0 || threads <= 0) {
+    fprintf(stderr, "iterations and threads must be positive\n");
+    return 1;
+  }
+
+  ibe_random_init();
+  if (bench_prepare(&shared)) {
+    fprintf(stderr, "failed to prepare benchmark data\n");
+    return 1;
+  }
+  if (output != NULL) {
+    out = fopen(output, "w");
+    if (out == NULL) {
+      perror(output);
+      bench_release(&shared);
+      return 1;
+    }
+  }
+
+  fprintf(out, "operation,threads,iterations,errors,total_ns,ops_per_sec,avg_us\n");
+  for (i = 0; i < sizeof(operations) / sizeof(operations[0]); i++) {
+    elapsed = bench_run(&shared, operations[i].run, threads, iterations, &errors);
+    total = (double) iterations * threads;
+    // avg_us为单次调用的平均延迟，多线程时各线程并行执行
+    fprintf(out, "%s,%d,%ld,%ld,%lld,%.2f,%.2f\n", operations[i].name, threads, iterations, errors, elapsed,
+	    total * 1e9 / elapsed, elapsed / 1e3 / iterations);
+    fflush(out);
+  }
+
+  if (out != stdout)
+    fclose(out);
+  bench_release(&shared);
+  return 0;
+}
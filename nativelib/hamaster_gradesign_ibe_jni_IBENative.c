@@ -2,6 +2,15 @@
 #include "ibe.h"
 #include "string.h"
 #include "stdlib.h"
+#include "stdint.h"
+
+/*
+ * 加载库时设置线程安全的随机数来源，此时JVM保证没有其它线程调用本库
+ */
+JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void* reserved) {
+  ibe_random_init();
+  return JNI_VERSION_1_6;
+}
 
 /*
  * Class:     hamaster_gradesign_ibe_jni_IBENative
@@ -200,3 +209,897 @@ JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_decrypt_1str(JN
   memset(pairing_str_c, 0, MAX_PAIRING_STR_LENGTH);
   return result;
 }
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    pairing_open
+ * Signature: ([B)J
+ */
+JNIEXPORT jlong JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_pairing_1open(JNIEnv* env, jobject obj,
+						jbyteArray pairing_str_in) {
+  ibe_pairing_ptr pairing;
+  byte pairing_str_c[MAX_PAIRING_STR_LENGTH];
+  jint length;
+
+  length = (*env)->GetArrayLength(env, pairing_str_in);
+  if (length > MAX_PAIRING_STR_LENGTH)
+    return 0;
+  memset(pairing_str_c, 0, MAX_PAIRING_STR_LENGTH);
+  (*env)->GetByteArrayRegion(env, pairing_str_in, 0, length, pairing_str_c);
+  pairing = pairing_open((char*) pairing_str_c, length);
+  memset(pairing_str_c, 0, MAX_PAIRING_STR_LENGTH);
+  return (jlong) (intptr_t) pairing;
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    pairing_close
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_pairing_1close(JNIEnv* env, jobject obj,
+						jlong pairing) {
+  pairing_close((ibe_pairing_ptr) (intptr_t) pairing);
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    setup_handle
+ * Signature: ([B[B[B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_setup_1handle(JNIEnv* env, jobject obj,
+						jbyteArray alpha_out,// 系统主密钥，长度20字节
+						jbyteArray g_out,// 参数g，长度128字节
+						jbyteArray g1_out,// 参数g1，长度128字节
+						jbyteArray h_out,// 参数h，长度128字节
+						jlong pairing) {
+  size_t result = 0;
+  byte g_c[PBC_G_SIZE];
+  byte g1_c[PBC_G_SIZE];
+  byte h_c[PBC_G_SIZE];
+  byte alpha_c[PBC_ZR_SIZE];
+
+  result = setup_handle(alpha_c, PBC_ZR_SIZE, g_c, PBC_G_SIZE, g1_c, PBC_G_SIZE, h_c, PBC_G_SIZE, (ibe_pairing_ptr) (intptr_t) pairing);
+  if (result == 0) {
+    (*env)->SetByteArrayRegion(env, alpha_out, 0, PBC_ZR_SIZE, alpha_c);
+    (*env)->SetByteArrayRegion(env, g_out, 0, PBC_G_SIZE, g_c);
+    (*env)->SetByteArrayRegion(env, g1_out, 0, PBC_G_SIZE, g1_c);
+    (*env)->SetByteArrayRegion(env, h_out, 0, PBC_G_SIZE, h_c);
+  }
+
+  memset(g_c, 0, PBC_G_SIZE);
+  memset(g1_c, 0, PBC_G_SIZE);
+  memset(h_c, 0, PBC_G_SIZE);
+  memset(alpha_c, 0, PBC_ZR_SIZE);
+  return result;
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    keygen_handle
+ * Signature: ([B[B[B[B[B[BJZ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_keygen_1handle(JNIEnv* env, jobject obj,
+						jbyteArray hID_out,// 私钥hID参数，长度128字节
+						jbyteArray rID_out,// 私钥rID参数，长度20字节
+						jbyteArray user_in,// 用户身份，如电子邮件地址
+						jbyteArray alpha_in,// 系统主密钥，长度20字节
+						jbyteArray g_in,// 参数g，长度128字节
+						jbyteArray h_in,// 参数h，长度128字节
+						jlong pairing,
+						jboolean random_rID) {
+  size_t result = 0;
+  byte hID_c[PBC_G_SIZE];
+  byte* rID_c;
+  jint rID_length = PBC_ZR_SIZE;
+
+  byte* user_c;
+  byte alpha_c[PBC_ZR_SIZE];
+  byte g_c[PBC_G_SIZE];
+  byte h_c[PBC_G_SIZE];
+
+  jint user_length;
+
+  user_length = (*env)->GetArrayLength(env, user_in);
+  user_c = (byte*) malloc(user_length);
+
+  if (JNI_FALSE == random_rID) {
+    rID_length = (*env)->GetArrayLength(env, rID_out);
+    rID_c = (byte*) malloc(rID_length);
+    (*env)->GetByteArrayRegion(env, rID_out, 0, rID_length, rID_c);
+  } else {
+    rID_c = (byte*) malloc(PBC_ZR_SIZE);
+  }
+
+  (*env)->GetByteArrayRegion(env, user_in, 0, user_length, user_c);
+  (*env)->GetByteArrayRegion(env, alpha_in, 0, PBC_ZR_SIZE, alpha_c);
+  (*env)->GetByteArrayRegion(env, g_in, 0, PBC_G_SIZE, g_c);
+  (*env)->GetByteArrayRegion(env, h_in, 0, PBC_G_SIZE, h_c);
+
+  result = keygen_handle(hID_c, PBC_G_SIZE, rID_c, rID_length, user_c, user_length, alpha_c, PBC_ZR_SIZE, g_c, PBC_G_SIZE, h_c, PBC_G_SIZE, random_rID, (ibe_pairing_ptr) (intptr_t) pairing);
+
+  if (result == 0) {
+    (*env)->SetByteArrayRegion(env, hID_out, 0, PBC_G_SIZE, hID_c);
+    if (random_rID)
+      (*env)->SetByteArrayRegion(env, rID_out, 0, PBC_ZR_SIZE, rID_c);
+  }
+
+  memset(hID_c, 0, PBC_G_SIZE);
+  memset(rID_c, 0, rID_length);
+  memset(user_c, 0, user_length);
+  memset(alpha_c, 0, PBC_ZR_SIZE);
+  memset(g_c, 0, PBC_G_SIZE);
+  memset(h_c, 0, PBC_G_SIZE);
+  free(user_c);
+  free(rID_c);
+  return result;
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    encrypt_handle
+ * Signature: ([B[B[B[B[B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_encrypt_1handle(JNIEnv* env, jobject obj,
+						jbyteArray cipher_buffer_out,// 输出密文，长度384字节，按照uvw顺序排列
+						jbyteArray plain_in,// 明文，长度128字节
+						jbyteArray g_in,// 接收方参数g，长度128字节
+						jbyteArray g1_in,// 接收方参数g1，长度128字节
+						jbyteArray h_in,// 接收方参数h，长度128字节
+						jbyteArray alice_in,// 接收方身份
+						jlong pairing) {
+  size_t result = 0;
+
+  byte cipher_buffer_c[3 * PBC_G_SIZE];
+
+  byte* plain_c;
+
+  byte g_c[PBC_G_SIZE];
+  byte g1_c[PBC_G_SIZE];
+  byte h_c[PBC_G_SIZE];
+  byte* alice_c;
+  jint plain_length, alice_length;
+
+  plain_length = (*env)->GetArrayLength(env, plain_in);
+  plain_c = (byte*) malloc(plain_length);
+  (*env)->GetByteArrayRegion(env, plain_in, 0, plain_length, plain_c);
+
+  alice_length = (*env)->GetArrayLength(env, alice_in);
+  alice_c = (byte*) malloc(alice_length);
+  (*env)->GetByteArrayRegion(env, alice_in, 0, alice_length, alice_c);
+  (*env)->GetByteArrayRegion(env, g_in, 0, PBC_G_SIZE, g_c);
+  (*env)->GetByteArrayRegion(env, g1_in, 0, PBC_G_SIZE, g1_c);
+  (*env)->GetByteArrayRegion(env, h_in, 0, PBC_G_SIZE, h_c);
+
+  result = encrypt_handle(cipher_buffer_c, 3 * PBC_G_SIZE, plain_c, plain_length, g_c, PBC_G_SIZE, g1_c, PBC_G_SIZE, h_c, PBC_G_SIZE, alice_c, alice_length, (ibe_pairing_ptr) (intptr_t) pairing);
+
+  if (result == 0)
+    (*env)->SetByteArrayRegion(env, cipher_buffer_out, 0, 3 * PBC_G_SIZE, cipher_buffer_c);
+
+  memset(cipher_buffer_c, 0, 3 * PBC_G_SIZE);
+  memset(plain_c, 0, plain_length);
+  free(plain_c);
+  memset(g_c, 0, PBC_G_SIZE);
+  memset(g1_c, 0, PBC_G_SIZE);
+  memset(h_c, 0, PBC_G_SIZE);
+  memset(alice_c, 0, alice_length);
+  free(alice_c);
+  return result;
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    decrypt_handle
+ * Signature: ([B[B[B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_decrypt_1handle(JNIEnv* env, jobject obj,
+						jbyteArray plain_buffer_out,// 输出明文，长度128字节
+						jbyteArray cipher_in,// 输入密文，长度384字节，按照uvw顺序排列
+						jbyteArray rID_in,// 接收方私钥rID，长度20字节
+						jbyteArray hID_in,// 接收方私钥hID，长度128字节
+						jlong pairing) {
+  size_t result = 0;
+
+  byte plain_buffer_c[PBC_G_SIZE];
+  byte cipher_buffer_c[3 * PBC_G_SIZE];
+  byte rID_c[PBC_ZR_SIZE];
+  byte hID_c[PBC_G_SIZE];
+
+  (*env)->GetByteArrayRegion(env, cipher_in, 0, 3 * PBC_G_SIZE, cipher_buffer_c);
+  (*env)->GetByteArrayRegion(env, rID_in, 0, PBC_ZR_SIZE, rID_c);
+  (*env)->GetByteArrayRegion(env, hID_in, 0, PBC_G_SIZE, hID_c);
+
+  memset(plain_buffer_c, 0, PBC_G_SIZE);
+  result = decrypt_handle(plain_buffer_c, PBC_G_SIZE, cipher_buffer_c, 3 * PBC_G_SIZE, rID_c, PBC_ZR_SIZE, hID_c, PBC_G_SIZE, (ibe_pairing_ptr) (intptr_t) pairing);
+
+  if (result == 0)
+    (*env)->SetByteArrayRegion(env, plain_buffer_out, 0, PBC_G_SIZE, plain_buffer_c);
+
+  memset(plain_buffer_c, 0, PBC_G_SIZE);
+  memset(cipher_buffer_c, 0, 3 * PBC_G_SIZE);
+  memset(rID_c, 0, PBC_ZR_SIZE);
+  memset(hID_c, 0, PBC_G_SIZE);
+  return result;
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    public_prepare
+ * Signature: ([B[B[BZJ)J
+ */
+JNIEXPORT jlong JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_public_1prepare(JNIEnv* env, jobject obj,
+						jbyteArray g_in,// 参数g，长度128字节
+						jbyteArray g1_in,// 参数g1，长度128字节
+						jbyteArray h_in,// 参数h，长度128字节
+						jboolean fixed_base,// 是否建立固定底数幂运算表
+						jlong pairing) {
+  ibe_public_prepared_ptr prepared;
+  byte g_c[PBC_G_SIZE];
+  byte g1_c[PBC_G_SIZE];
+  byte h_c[PBC_G_SIZE];
+
+  (*env)->GetByteArrayRegion(env, g_in, 0, PBC_G_SIZE, g_c);
+  (*env)->GetByteArrayRegion(env, g1_in, 0, PBC_G_SIZE, g1_c);
+  (*env)->GetByteArrayRegion(env, h_in, 0, PBC_G_SIZE, h_c);
+
+  prepared = public_prepare(g_c, PBC_G_SIZE, g1_c, PBC_G_SIZE, h_c, PBC_G_SIZE, fixed_base == JNI_TRUE, (ibe_pairing_ptr) (intptr_t) pairing);
+  return (jlong) (intptr_t) prepared;
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    public_memory
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_public_1memory(JNIEnv* env, jobject obj,
+						jlong prepared) {
+  return (jlong) public_memory((ibe_public_prepared_ptr) (intptr_t) prepared);
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    public_release
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_public_1release(JNIEnv* env, jobject obj,
+						jlong prepared) {
+  public_release((ibe_public_prepared_ptr) (intptr_t) prepared);
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    encrypt_prepared
+ * Signature: ([B[B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_encrypt_1prepared(JNIEnv* env, jobject obj,
+						jbyteArray cipher_buffer_out,// 输出密文，长度384字节，按照uvw顺序排列
+						jbyteArray plain_in,// 明文，长度128字节
+						jbyteArray alice_in,// 接收方身份
+						jlong prepared) {
+  size_t result = 0;
+
+  byte cipher_buffer_c[3 * PBC_G_SIZE];
+  byte* plain_c;
+  byte* alice_c;
+  jint plain_length, alice_length;
+
+  plain_length = (*env)->GetArrayLength(env, plain_in);
+  plain_c = (byte*) malloc(plain_length);
+  (*env)->GetByteArrayRegion(env, plain_in, 0, plain_length, plain_c);
+
+  alice_length = (*env)->GetArrayLength(env, alice_in);
+  alice_c = (byte*) malloc(alice_length);
+  (*env)->GetByteArrayRegion(env, alice_in, 0, alice_length, alice_c);
+
+  result = encrypt_prepared(cipher_buffer_c, 3 * PBC_G_SIZE, plain_c, plain_length, alice_c, alice_length, (ibe_public_prepared_ptr) (intptr_t) prepared);
+
+  if (result == 0)
+    (*env)->SetByteArrayRegion(env, cipher_buffer_out, 0, 3 * PBC_G_SIZE, cipher_buffer_c);
+
+  memset(cipher_buffer_c, 0, 3 * PBC_G_SIZE);
+  memset(plain_c, 0, plain_length);
+  free(plain_c);
+  memset(alice_c, 0, alice_length);
+  free(alice_c);
+  return result;
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    encrypt_randomness
+ * Signature: ([BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_encrypt_1randomness(JNIEnv* env, jobject obj,
+						jbyteArray randomness_out,// 输出随机量，长度512字节
+						jlong prepared) {
+  size_t result = 0;
+  byte randomness_c[ENCRYPT_RANDOMNESS_SIZE];
+
+  result = encrypt_randomness(randomness_c, ENCRYPT_RANDOMNESS_SIZE, (ibe_public_prepared_ptr) (intptr_t) prepared);
+
+  if (result == 0)
+    (*env)->SetByteArrayRegion(env, randomness_out, 0, ENCRYPT_RANDOMNESS_SIZE, randomness_c);
+
+  memset(randomness_c, 0, ENCRYPT_RANDOMNESS_SIZE);
+  return result;
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    encrypt_with_randomness
+ * Signature: ([B[B[B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_encrypt_1with_1randomness(JNIEnv* env, jobject obj,
+						jbyteArray cipher_buffer_out,// 输出密文，长度384字节，按照uvw顺序排列
+						jbyteArray plain_in,// 明文，长度128字节
+						jbyteArray alice_in,// 接收方身份
+						jbyteArray randomness_in,// 预先生成的随机量，长度512字节
+						jlong prepared) {
+  size_t result = 0;
+
+  byte cipher_buffer_c[3 * PBC_G_SIZE];
+  byte randomness_c[ENCRYPT_RANDOMNESS_SIZE];
+  byte* plain_c;
+  byte* alice_c;
+  jint plain_length, alice_length;
+
+  if ((*env)->GetArrayLength(env, randomness_in) < ENCRYPT_RANDOMNESS_SIZE)
+    return ENCRYPT_RANDOMNESS_SIZE - (*env)->GetArrayLength(env, randomness_in);
+  (*env)->GetByteArrayRegion(env, randomness_in, 0, ENCRYPT_RANDOMNESS_SIZE, randomness_c);
+
+  plain_length = (*env)->GetArrayLength(env, plain_in);
+  plain_c = (byte*) malloc(plain_length);
+  (*env)->GetByteArrayRegion(env, plain_in, 0, plain_length, plain_c);
+
+  alice_length = (*env)->GetArrayLength(env, alice_in);
+  alice_c = (byte*) malloc(alice_length);
+  (*env)->GetByteArrayRegion(env, alice_in, 0, alice_length, alice_c);
+
+  result = encrypt_with_randomness(cipher_buffer_c, 3 * PBC_G_SIZE, plain_c, plain_length, alice_c, alice_length,
+				   randomness_c, ENCRYPT_RANDOMNESS_SIZE, (ibe_public_prepared_ptr) (intptr_t) prepared);
+
+  if (result == 0)
+    (*env)->SetByteArrayRegion(env, cipher_buffer_out, 0, 3 * PBC_G_SIZE, cipher_buffer_c);
+
+  memset(cipher_buffer_c, 0, 3 * PBC_G_SIZE);
+  memset(randomness_c, 0, ENCRYPT_RANDOMNESS_SIZE);
+  memset(plain_c, 0, plain_length);
+  free(plain_c);
+  memset(alice_c, 0, alice_length);
+  free(alice_c);
+  return result;
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    private_prepare
+ * Signature: ([B[BJ)J
+ */
+JNIEXPORT jlong JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_private_1prepare(JNIEnv* env, jobject obj,
+						jbyteArray rID_in,// 私钥rID，长度20字节
+						jbyteArray hID_in,// 私钥hID，长度128字节
+						jlong pairing) {
+  ibe_private_prepared_ptr prepared;
+  byte rID_c[PBC_ZR_SIZE];
+  byte hID_c[PBC_G_SIZE];
+
+  (*env)->GetByteArrayRegion(env, rID_in, 0, PBC_ZR_SIZE, rID_c);
+  (*env)->GetByteArrayRegion(env, hID_in, 0, PBC_G_SIZE, hID_c);
+
+  prepared = private_prepare(rID_c, PBC_ZR_SIZE, hID_c, PBC_G_SIZE, (ibe_pairing_ptr) (intptr_t) pairing);
+
+  memset(rID_c, 0, PBC_ZR_SIZE);
+  memset(hID_c, 0, PBC_G_SIZE);
+  return (jlong) (intptr_t) prepared;
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    private_release
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_private_1release(JNIEnv* env, jobject obj,
+						jlong prepared) {
+  private_release((ibe_private_prepared_ptr) (intptr_t) prepared);
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    decrypt_prepared
+ * Signature: ([B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_decrypt_1prepared(JNIEnv* env, jobject obj,
+						jbyteArray plain_buffer_out,// 输出明文，长度128字节
+						jbyteArray cipher_in,// 输入密文，长度384字节，按照uvw顺序排列
+						jlong prepared) {
+  size_t result = 0;
+
+  byte plain_buffer_c[PBC_G_SIZE];
+  byte cipher_buffer_c[3 * PBC_G_SIZE];
+
+  (*env)->GetByteArrayRegion(env, cipher_in, 0, 3 * PBC_G_SIZE, cipher_buffer_c);
+
+  memset(plain_buffer_c, 0, PBC_G_SIZE);
+  result = decrypt_prepared(plain_buffer_c, PBC_G_SIZE, cipher_buffer_c, 3 * PBC_G_SIZE, (ibe_private_prepared_ptr) (intptr_t) prepared);
+
+  if (result == 0)
+    (*env)->SetByteArrayRegion(env, plain_buffer_out, 0, PBC_G_SIZE, plain_buffer_c);
+
+  memset(plain_buffer_c, 0, PBC_G_SIZE);
+  memset(cipher_buffer_c, 0, 3 * PBC_G_SIZE);
+  return result;
+}
+
+static void release_arrays(byte* block, size_t total) {
+  if (block == NULL)
+    return;
+  memset(block, 0, total);
+  free(block);
+}
+
+/*
+ * 将Java二维数组复制到一块连续内存中，ptrs和sizes记录每个元素的地址和长度
+ * 数组长度小于count、元素为null或发生Java异常时返回NULL
+ * 返回的内存需要调用release_arrays释放
+ */
+static byte* gather_arrays(JNIEnv* env, jobjectArray arrays, jsize count, byte** ptrs, size_t* sizes, size_t* total_out) {
+  size_t total = 0;
+  jsize i;
+  byte* block;
+  byte* cursor;
+
+  if (arrays == NULL || (*env)->GetArrayLength(env, arrays) < count)
+    return NULL;
+  for (i = 0; i < count; i++) {
+    jbyteArray item = (jbyteArray) (*env)->GetObjectArrayElement(env, arrays, i);
+    if ((*env)->ExceptionCheck(env) || item == NULL)
+      return NULL;
+    sizes[i] = (*env)->GetArrayLength(env, item);
+    total += sizes[i];
+    (*env)->DeleteLocalRef(env, item);
+  }
+  block = (byte*) malloc(total > 0 ? total : 1);
+  if (block == NULL)
+    return NULL;
+  cursor = block;
+  for (i = 0; i < count; i++) {
+    jbyteArray item = (jbyteArray) (*env)->GetObjectArrayElement(env, arrays, i);
+    if ((*env)->ExceptionCheck(env) || item == NULL) {
+      release_arrays(block, total);
+      return NULL;
+    }
+    (*env)->GetByteArrayRegion(env, item, 0, sizes[i], cursor);
+    (*env)->DeleteLocalRef(env, item);
+    if ((*env)->ExceptionCheck(env)) {
+      release_arrays(block, total);
+      return NULL;
+    }
+    ptrs[i] = cursor;
+    cursor += sizes[i];
+  }
+  *total_out = total;
+  return block;
+}
+
+/*
+ * 将连续内存中结果成功的部分写回Java二维数组，每个元素长度为item_size
+ * 数组长度小于count、元素为null或发生Java异常时返回-1
+ */
+static int scatter_arrays(JNIEnv* env, jobjectArray arrays, jsize count, byte* block, size_t item_size, int* results) {
+  jsize i;
+
+  if (arrays == NULL || (*env)->GetArrayLength(env, arrays) < count)
+    return -1;
+  for (i = 0; i < count; i++) {
+    if (results[i] == 0) {
+      jbyteArray item = (jbyteArray) (*env)->GetObjectArrayElement(env, arrays, i);
+      if ((*env)->ExceptionCheck(env) || item == NULL)
+        return -1;
+      (*env)->SetByteArrayRegion(env, item, 0, item_size, block + i * item_size);
+      (*env)->DeleteLocalRef(env, item);
+      if ((*env)->ExceptionCheck(env))
+        return -1;
+    }
+  }
+  return 0;
+}
+
+/*
+ * 写回结果失败时整批视为失败，返回失败的数量
+ */
+static size_t fail_batch(jsize count, int* results) {
+  jsize i;
+
+  for (i = 0; i < count; i++)
+    results[i] = -1;
+  return count;
+}
+
+static void copy_results(JNIEnv* env, jintArray result_out, jsize count, int* results) {
+  jsize i;
+  jint* results_j;
+
+  if ((*env)->ExceptionCheck(env))
+    return;
+  results_j = (jint*) malloc(count * sizeof(jint));
+  if (results_j == NULL)
+    return;
+  for (i = 0; i < count; i++)
+    results_j[i] = results[i];
+  (*env)->SetIntArrayRegion(env, result_out, 0, count, results_j);
+  free(results_j);
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    keygen_batch
+ * Signature: ([[B[[B[[B[B[B[BJ[I)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_keygen_1batch(JNIEnv* env, jobject obj,
+						jobjectArray hID_out,// 私钥hID参数，每个长度128字节
+						jobjectArray rID_out,// 私钥rID参数，每个长度20字节
+						jobjectArray users_in,// 用户身份
+						jbyteArray alpha_in,// 系统主密钥，长度20字节
+						jbyteArray g_in,// 参数g，长度128字节
+						jbyteArray h_in,// 参数h，长度128字节
+						jlong pairing,
+						jintArray result_out) {
+  size_t result = -1;
+  jsize count, i;
+  byte alpha_c[PBC_ZR_SIZE];
+  byte g_c[PBC_G_SIZE];
+  byte h_c[PBC_G_SIZE];
+  byte** user_ptrs;
+  size_t* user_sizes;
+  byte** hID_ptrs;
+  byte** rID_ptrs;
+  byte* user_block = NULL;
+  byte* hID_block;
+  byte* rID_block;
+  int* results;
+  size_t user_total = 0;
+
+  count = (*env)->GetArrayLength(env, users_in);
+  if (count == 0)
+    return 0;
+  user_ptrs = (byte**) malloc(count * sizeof(byte*));
+  user_sizes = (size_t*) malloc(count * sizeof(size_t));
+  hID_ptrs = (byte**) malloc(count * sizeof(byte*));
+  rID_ptrs = (byte**) malloc(count * sizeof(byte*));
+  hID_block = (byte*) malloc(count * PBC_G_SIZE);
+  rID_block = (byte*) malloc(count * PBC_ZR_SIZE);
+  results = (int*) malloc(count * sizeof(int));
+
+  if (user_ptrs && user_sizes && hID_ptrs && rID_ptrs && hID_block && rID_block && results)
+    user_block = gather_arrays(env, users_in, count, user_ptrs, user_sizes, &user_total);
+  if (user_block != NULL) {
+    for (i = 0; i < count; i++) {
+      hID_ptrs[i] = hID_block + i * PBC_G_SIZE;
+      rID_ptrs[i] = rID_block + i * PBC_ZR_SIZE;
+      results[i] = -1;
+    }
+    (*env)->GetByteArrayRegion(env, alpha_in, 0, PBC_ZR_SIZE, alpha_c);
+    (*env)->GetByteArrayRegion(env, g_in, 0, PBC_G_SIZE, g_c);
+    (*env)->GetByteArrayRegion(env, h_in, 0, PBC_G_SIZE, h_c);
+
+    result = keygen_batch(hID_ptrs, rID_ptrs, user_ptrs, user_sizes, count, alpha_c, PBC_ZR_SIZE, g_c, PBC_G_SIZE, h_c, PBC_G_SIZE,
+			  (ibe_pairing_ptr) (intptr_t) pairing, results);
+
+    if (scatter_arrays(env, hID_out, count, hID_block, PBC_G_SIZE, results) != 0
+        || scatter_arrays(env, rID_out, count, rID_block, PBC_ZR_SIZE, results) != 0)
+      result = fail_batch(count, results);
+    copy_results(env, result_out, count, results);
+    memset(alpha_c, 0, PBC_ZR_SIZE);
+    memset(g_c, 0, PBC_G_SIZE);
+    memset(h_c, 0, PBC_G_SIZE);
+  }
+
+  release_arrays(user_block, user_total);
+  release_arrays(hID_block, count * PBC_G_SIZE);
+  release_arrays(rID_block, count * PBC_ZR_SIZE);
+  free(user_ptrs);
+  free(user_sizes);
+  free(hID_ptrs);
+  free(rID_ptrs);
+  free(results);
+  return result;
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    encrypt_batch
+ * Signature: ([[B[[B[[BJ[I)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_encrypt_1batch(JNIEnv* env, jobject obj,
+						jobjectArray cipher_buffer_out,// 输出密文，每个长度384字节
+						jobjectArray plains_in,// 明文，每个长度不超过128字节
+						jobjectArray alices_in,// 接收方身份
+						jlong prepared,
+						jintArray result_out) {
+  size_t result = -1;
+  jsize count, i;
+  byte** plain_ptrs;
+  size_t* plain_sizes;
+  byte** alice_ptrs;
+  size_t* alice_sizes;
+  byte** cipher_ptrs;
+  byte* plain_block = NULL;
+  byte* alice_block = NULL;
+  byte* cipher_block;
+  int* results;
+  size_t plain_total = 0, alice_total = 0;
+
+  count = (*env)->GetArrayLength(env, plains_in);
+  if (count == 0)
+    return 0;
+  plain_ptrs = (byte**) malloc(count * sizeof(byte*));
+  plain_sizes = (size_t*) malloc(count * sizeof(size_t));
+  alice_ptrs = (byte**) malloc(count * sizeof(byte*));
+  alice_sizes = (size_t*) malloc(count * sizeof(size_t));
+  cipher_ptrs = (byte**) malloc(count * sizeof(byte*));
+  cipher_block = (byte*) malloc(count * 3 * PBC_G_SIZE);
+  results = (int*) malloc(count * sizeof(int));
+
+  if (plain_ptrs && plain_sizes && alice_ptrs && alice_sizes && cipher_ptrs && cipher_block && results) {
+    plain_block = gather_arrays(env, plains_in, count, plain_ptrs, plain_sizes, &plain_total);
+    alice_block = gather_arrays(env, alices_in, count, alice_ptrs, alice_sizes, &alice_total);
+  }
+  if (plain_block != NULL && alice_block != NULL) {
+    for (i = 0; i < count; i++) {
+      cipher_ptrs[i] = cipher_block + i * 3 * PBC_G_SIZE;
+      results[i] = -1;
+    }
+    result = encrypt_batch(cipher_ptrs, plain_ptrs, plain_sizes, alice_ptrs, alice_sizes, count,
+			   (ibe_public_prepared_ptr) (intptr_t) prepared, results);
+    if (scatter_arrays(env, cipher_buffer_out, count, cipher_block, 3 * PBC_G_SIZE, results) != 0)
+      result = fail_batch(count, results);
+    copy_results(env, result_out, count, results);
+  }
+
+  release_arrays(plain_block, plain_total);
+  release_arrays(alice_block, alice_total);
+  release_arrays(cipher_block, count * 3 * PBC_G_SIZE);
+  free(plain_ptrs);
+  free(plain_sizes);
+  free(alice_ptrs);
+  free(alice_sizes);
+  free(cipher_ptrs);
+  free(results);
+  return result;
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    decrypt_batch
+ * Signature: ([[B[[BJ[I)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_decrypt_1batch(JNIEnv* env, jobject obj,
+						jobjectArray plain_buffer_out,// 输出明文，每个长度128字节
+						jobjectArray ciphers_in,// 输入密文，每个长度384字节
+						jlong prepared,
+						jintArray result_out) {
+  size_t result = -1;
+  jsize count, i;
+  byte** cipher_ptrs;
+  size_t* cipher_sizes;
+  byte** plain_ptrs;
+  byte* cipher_block = NULL;
+  byte* plain_block;
+  int* results;
+  size_t cipher_total = 0;
+
+  count = (*env)->GetArrayLength(env, ciphers_in);
+  if (count == 0)
+    return 0;
+  cipher_ptrs = (byte**) malloc(count * sizeof(byte*));
+  cipher_sizes = (size_t*) malloc(count * sizeof(size_t));
+  plain_ptrs = (byte**) malloc(count * sizeof(byte*));
+  plain_block = (byte*) malloc(count * PBC_G_SIZE);
+  results = (int*) malloc(count * sizeof(int));
+
+  if (cipher_ptrs && cipher_sizes && plain_ptrs && plain_block && results)
+    cipher_block = gather_arrays(env, ciphers_in, count, cipher_ptrs, cipher_sizes, &cipher_total);
+  if (cipher_block != NULL) {
+    for (i = 0; i < count; i++) {
+      plain_ptrs[i] = plain_block + i * PBC_G_SIZE;
+      results[i] = -1;
+    }
+    result = decrypt_batch(plain_ptrs, cipher_ptrs, cipher_sizes, count, (ibe_private_prepared_ptr) (intptr_t) prepared, results);
+    if (scatter_arrays(env, plain_buffer_out, count, plain_block, PBC_G_SIZE, results) != 0)
+      result = fail_batch(count, results);
+    copy_results(env, result_out, count, results);
+  }
+
+  release_arrays(cipher_block, cipher_total);
+  release_arrays(plain_block, count * PBC_G_SIZE);
+  free(cipher_ptrs);
+  free(cipher_sizes);
+  free(plain_ptrs);
+  free(results);
+  return result;
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    encrypt_direct
+ * Signature: (Ljava/nio/ByteBuffer;ILjava/nio/ByteBuffer;II[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_encrypt_1direct(JNIEnv* env, jobject obj,
+						jobject cipher_buffer_out,// 输出密文，直接缓冲区，长度384字节
+						jint cipher_offset,
+						jobject plain_in,// 明文，直接缓冲区，长度不超过128字节
+						jint plain_offset,
+						jint plain_length,
+						jbyteArray alice_in,// 接收方身份
+						jlong prepared) {
+  size_t result = 0;
+  byte* cipher_c;
+  byte* plain_c;
+  byte alice_c[MAX_PAIRING_STR_LENGTH];
+  byte* alice_heap = NULL;
+  jint alice_length;
+
+  cipher_c = (byte*) (*env)->GetDirectBufferAddress(env, cipher_buffer_out);
+  plain_c = (byte*) (*env)->GetDirectBufferAddress(env, plain_in);
+  if (cipher_c == NULL || plain_c == NULL)
+    return -1;
+  if (cipher_offset < 0 || plain_offset < 0 || plain_length < 0
+      || (*env)->GetDirectBufferCapacity(env, cipher_buffer_out) < cipher_offset + 3 * PBC_G_SIZE
+      || (*env)->GetDirectBufferCapacity(env, plain_in) < plain_offset + plain_length)
+    return -1;
+
+  // 身份字符串通常很短，优先使用栈上的缓冲区
+  alice_length = (*env)->GetArrayLength(env, alice_in);
+  if (alice_length > MAX_PAIRING_STR_LENGTH) {
+    alice_heap = (byte*) malloc(alice_length);
+    if (alice_heap == NULL)
+      return -1;
+  }
+  (*env)->GetByteArrayRegion(env, alice_in, 0, alice_length, alice_heap ? alice_heap : alice_c);
+
+  result = encrypt_prepared(cipher_c + cipher_offset, 3 * PBC_G_SIZE, plain_c + plain_offset, plain_length,
+			    alice_heap ? alice_heap : alice_c, alice_length, (ibe_public_prepared_ptr) (intptr_t) prepared);
+
+  if (alice_heap) {
+    memset(alice_heap, 0, alice_length);
+    free(alice_heap);
+  } else {
+    memset(alice_c, 0, alice_length);
+  }
+  return result;
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    decrypt_direct
+ * Signature: (Ljava/nio/ByteBuffer;ILjava/nio/ByteBuffer;IJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_decrypt_1direct(JNIEnv* env, jobject obj,
+						jobject plain_buffer_out,// 输出明文，直接缓冲区，长度128字节
+						jint plain_offset,
+						jobject cipher_in,// 输入密文，直接缓冲区，长度384字节
+						jint cipher_offset,
+						jlong prepared) {
+  byte* plain_c;
+  byte* cipher_c;
+
+  plain_c = (byte*) (*env)->GetDirectBufferAddress(env, plain_buffer_out);
+  cipher_c = (byte*) (*env)->GetDirectBufferAddress(env, cipher_in);
+  if (plain_c == NULL || cipher_c == NULL)
+    return -1;
+  if (plain_offset < 0 || cipher_offset < 0
+      || (*env)->GetDirectBufferCapacity(env, plain_buffer_out) < plain_offset + PBC_G_SIZE
+      || (*env)->GetDirectBufferCapacity(env, cipher_in) < cipher_offset + 3 * PBC_G_SIZE)
+    return -1;
+  return decrypt_prepared(plain_c + plain_offset, PBC_G_SIZE, cipher_c + cipher_offset, 3 * PBC_G_SIZE,
+			  (ibe_private_prepared_ptr) (intptr_t) prepared);
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    sign_handle
+ * Signature: ([B[B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_sign_1handle(JNIEnv* env, jobject obj,
+						jbyteArray sigma_out,// 输出签名，长度128字节
+						jbyteArray message_in,// 待签名的消息哈希
+						jbyteArray alpha_in,// 系统主密钥，长度20字节
+						jlong pairing) {
+  size_t result = 0;
+  byte sigma_c[PBC_G_SIZE];
+  byte message_c[MAX_PAIRING_STR_LENGTH];
+  byte alpha_c[PBC_ZR_SIZE];
+  jsize message_length;
+
+  message_length = (*env)->GetArrayLength(env, message_in);
+  if (message_length <= 0 || message_length > MAX_PAIRING_STR_LENGTH)
+    return -1;
+  (*env)->GetByteArrayRegion(env, message_in, 0, message_length, message_c);
+  (*env)->GetByteArrayRegion(env, alpha_in, 0, PBC_ZR_SIZE, alpha_c);
+
+  memset(sigma_c, 0, PBC_G_SIZE);
+  result = sign_handle(sigma_c, PBC_G_SIZE, message_c, message_length, alpha_c, PBC_ZR_SIZE, (ibe_pairing_ptr) (intptr_t) pairing);
+
+  if (result == 0)
+    (*env)->SetByteArrayRegion(env, sigma_out, 0, PBC_G_SIZE, sigma_c);
+
+  memset(alpha_c, 0, PBC_ZR_SIZE);
+  return result;
+}
+
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    verify_handle
+ * Signature: ([B[B[B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_verify_1handle(JNIEnv* env, jobject obj,
+						jbyteArray sigma_in,// 签名，长度128字节
+						jbyteArray message_in,// 消息哈希
+						jbyteArray g_in,// 签名者参数g，长度128字节
+						jbyteArray g1_in,// 签名者参数g1，长度128字节
+						jlong pairing) {
+  byte sigma_c[PBC_G_SIZE];
+  byte message_c[MAX_PAIRING_STR_LENGTH];
+  byte g_c[PBC_G_SIZE];
+  byte g1_c[PBC_G_SIZE];
+  jsize message_length;
+
+  message_length = (*env)->GetArrayLength(env, message_in);
+  if (message_length <= 0 || message_length > MAX_PAIRING_STR_LENGTH)
+    return -1;
+  (*env)->GetByteArrayRegion(env, message_in, 0, message_length, message_c);
+  (*env)->GetByteArrayRegion(env, sigma_in, 0, PBC_G_SIZE, sigma_c);
+  (*env)->GetByteArrayRegion(env, g_in, 0, PBC_G_SIZE, g_c);
+  (*env)->GetByteArrayRegion(env, g1_in, 0, PBC_G_SIZE, g1_c);
+
+  return verify_handle(sigma_c, PBC_G_SIZE, message_c, message_length, g_c, PBC_G_SIZE, g1_c, PBC_G_SIZE, (ibe_pairing_ptr) (intptr_t) pairing);
+}
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    derive_handle
+ * Signature: ([B[B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_derive_1handle(JNIEnv* env, jobject obj,
+						jbyteArray alpha_out,// 新系统主密钥，长度20字节
+						jbyteArray g1_out,// 新系统参数g1，长度128字节
+						jbyteArray g_in,// 原系统参数g，长度128字节
+						jlong pairing) {
+  size_t result = 0;
+  byte alpha_c[PBC_ZR_SIZE];
+  byte g1_c[PBC_G_SIZE];
+  byte g_c[PBC_G_SIZE];
+
+  (*env)->GetByteArrayRegion(env, g_in, 0, PBC_G_SIZE, g_c);
+  result = derive_handle(alpha_c, PBC_ZR_SIZE, g1_c, PBC_G_SIZE, g_c, PBC_G_SIZE, (ibe_pairing_ptr) (intptr_t) pairing);
+  if (result == 0) {
+    (*env)->SetByteArrayRegion(env, alpha_out, 0, PBC_ZR_SIZE, alpha_c);
+    (*env)->SetByteArrayRegion(env, g1_out, 0, PBC_G_SIZE, g1_c);
+  }
+  memset(alpha_c, 0, PBC_ZR_SIZE);
+  return result;
+}
+
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    derive_prepared
+ * Signature: ([B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_derive_1prepared(JNIEnv* env, jobject obj,
+						jbyteArray alpha_out,// 新系统主密钥，长度20字节
+						jbyteArray g1_out,// 新系统参数g1，长度128字节
+						jlong prepared) {
+  size_t result = 0;
+  byte alpha_c[PBC_ZR_SIZE];
+  byte g1_c[PBC_G_SIZE];
+
+  result = derive_prepared(alpha_c, PBC_ZR_SIZE, g1_c, PBC_G_SIZE, (ibe_public_prepared_ptr) (intptr_t) prepared);
+  if (result == 0) {
+    (*env)->SetByteArrayRegion(env, alpha_out, 0, PBC_ZR_SIZE, alpha_c);
+    (*env)->SetByteArrayRegion(env, g1_out, 0, PBC_G_SIZE, g1_c);
+  }
+  memset(alpha_c, 0, PBC_ZR_SIZE);
+  return result;
+}
+
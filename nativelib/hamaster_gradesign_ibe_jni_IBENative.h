@@ -61,6 +61,271 @@ JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_decrypt_1str(JN
 						jbyteArray hID_in,// 接收方私钥hID，长度128字节
 						jbyteArray pairing_str_in);
 
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    pairing_open
+ * Signature: ([B)J
+ */
+JNIEXPORT jlong JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_pairing_1open(JNIEnv* env, jobject obj,
+						jbyteArray pairing_str_in);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    pairing_close
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_pairing_1close(JNIEnv* env, jobject obj,
+						jlong pairing);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    setup_handle
+ * Signature: ([B[B[B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_setup_1handle(JNIEnv* env, jobject obj,
+						jbyteArray alpha_out,// 系统主密钥，长度20字节
+						jbyteArray g_out,// 参数g，长度128字节
+						jbyteArray g1_out,// 参数g1，长度128字节
+						jbyteArray h_out,// 参数h，长度128字节
+						jlong pairing);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    keygen_handle
+ * Signature: ([B[B[B[B[B[BJZ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_keygen_1handle(JNIEnv* env, jobject obj,
+						jbyteArray hID_out,// 私钥hID参数，长度128字节
+						jbyteArray rID_out,// 私钥rID参数，长度20字节
+						jbyteArray user_in,// 用户身份，如电子邮件地址
+						jbyteArray alpha_in,// 系统主密钥，长度20字节
+						jbyteArray g_in,// 参数g，长度128字节
+						jbyteArray h_in,// 参数h，长度128字节
+						jlong pairing,
+						jboolean random_rID);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    encrypt_handle
+ * Signature: ([B[B[B[B[B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_encrypt_1handle(JNIEnv* env, jobject obj,
+						jbyteArray cipher_buffer_out,// 输出密文，长度384字节，按照uvw顺序排列
+						jbyteArray plain_in,// 明文，长度128字节
+						jbyteArray g_in,// 接收方参数g，长度128字节
+						jbyteArray g1_in,// 接收方参数g1，长度128字节
+						jbyteArray h_in,// 接收方参数h，长度128字节
+						jbyteArray alice_in,// 接收方身份
+						jlong pairing);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    decrypt_handle
+ * Signature: ([B[B[B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_decrypt_1handle(JNIEnv* env, jobject obj,
+						jbyteArray plain_buffer_out,// 输出明文，长度128字节
+						jbyteArray cipher_in,// 输入密文，长度384字节，按照uvw顺序排列
+						jbyteArray rID_in,// 接收方私钥rID，长度20字节
+						jbyteArray hID_in,// 接收方私钥hID，长度128字节
+						jlong pairing);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    public_prepare
+ * Signature: ([B[B[BZJ)J
+ */
+JNIEXPORT jlong JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_public_1prepare(JNIEnv* env, jobject obj,
+						jbyteArray g_in,// 参数g，长度128字节
+						jbyteArray g1_in,// 参数g1，长度128字节
+						jbyteArray h_in,// 参数h，长度128字节
+						jboolean fixed_base,// 是否建立固定底数幂运算表
+						jlong pairing);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    public_memory
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_public_1memory(JNIEnv* env, jobject obj,
+						jlong prepared);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    public_release
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_public_1release(JNIEnv* env, jobject obj,
+						jlong prepared);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    encrypt_prepared
+ * Signature: ([B[B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_encrypt_1prepared(JNIEnv* env, jobject obj,
+						jbyteArray cipher_buffer_out,// 输出密文，长度384字节，按照uvw顺序排列
+						jbyteArray plain_in,// 明文，长度128字节
+						jbyteArray alice_in,// 接收方身份
+						jlong prepared);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    encrypt_randomness
+ * Signature: ([BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_encrypt_1randomness(JNIEnv* env, jobject obj,
+						jbyteArray randomness_out,// 输出随机量，长度512字节
+						jlong prepared);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    encrypt_with_randomness
+ * Signature: ([B[B[B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_encrypt_1with_1randomness(JNIEnv* env, jobject obj,
+						jbyteArray cipher_buffer_out,// 输出密文，长度384字节，按照uvw顺序排列
+						jbyteArray plain_in,// 明文，长度128字节
+						jbyteArray alice_in,// 接收方身份
+						jbyteArray randomness_in,// 预先生成的随机量，长度512字节
+						jlong prepared);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    private_prepare
+ * Signature: ([B[BJ)J
+ */
+JNIEXPORT jlong JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_private_1prepare(JNIEnv* env, jobject obj,
+						jbyteArray rID_in,// 私钥rID，长度20字节
+						jbyteArray hID_in,// 私钥hID，长度128字节
+						jlong pairing);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    private_release
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_private_1release(JNIEnv* env, jobject obj,
+						jlong prepared);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    decrypt_prepared
+ * Signature: ([B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_decrypt_1prepared(JNIEnv* env, jobject obj,
+						jbyteArray plain_buffer_out,// 输出明文，长度128字节
+						jbyteArray cipher_in,// 输入密文，长度384字节，按照uvw顺序排列
+						jlong prepared);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    keygen_batch
+ * Signature: ([[B[[B[[B[B[B[BJ[I)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_keygen_1batch(JNIEnv* env, jobject obj,
+						jobjectArray hID_out,// 私钥hID参数，每个长度128字节
+						jobjectArray rID_out,// 私钥rID参数，每个长度20字节
+						jobjectArray users_in,// 用户身份
+						jbyteArray alpha_in,// 系统主密钥，长度20字节
+						jbyteArray g_in,// 参数g，长度128字节
+						jbyteArray h_in,// 参数h，长度128字节
+						jlong pairing,
+						jintArray result_out);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    encrypt_batch
+ * Signature: ([[B[[B[[BJ[I)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_encrypt_1batch(JNIEnv* env, jobject obj,
+						jobjectArray cipher_buffer_out,// 输出密文，每个长度384字节
+						jobjectArray plains_in,// 明文，每个长度不超过128字节
+						jobjectArray alices_in,// 接收方身份
+						jlong prepared,
+						jintArray result_out);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    decrypt_batch
+ * Signature: ([[B[[BJ[I)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_decrypt_1batch(JNIEnv* env, jobject obj,
+						jobjectArray plain_buffer_out,// 输出明文，每个长度128字节
+						jobjectArray ciphers_in,// 输入密文，每个长度384字节
+						jlong prepared,
+						jintArray result_out);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    encrypt_direct
+ * Signature: (Ljava/nio/ByteBuffer;ILjava/nio/ByteBuffer;II[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_encrypt_1direct(JNIEnv* env, jobject obj,
+						jobject cipher_buffer_out,// 输出密文，直接缓冲区，长度384字节
+						jint cipher_offset,
+						jobject plain_in,// 明文，直接缓冲区，长度不超过128字节
+						jint plain_offset,
+						jint plain_length,
+						jbyteArray alice_in,// 接收方身份
+						jlong prepared);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    decrypt_direct
+ * Signature: (Ljava/nio/ByteBuffer;ILjava/nio/ByteBuffer;IJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_decrypt_1direct(JNIEnv* env, jobject obj,
+						jobject plain_buffer_out,// 输出明文，直接缓冲区，长度128字节
+						jint plain_offset,
+						jobject cipher_in,// 输入密文，直接缓冲区，长度384字节
+						jint cipher_offset,
+						jlong prepared);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    sign_handle
+ * Signature: ([B[B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_sign_1handle(JNIEnv* env, jobject obj,
+						jbyteArray sigma_out,// 输出签名，长度128字节
+						jbyteArray message_in,// 待签名的消息哈希
+						jbyteArray alpha_in,// 系统主密钥，长度20字节
+						jlong pairing);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    verify_handle
+ * Signature: ([B[B[B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_verify_1handle(JNIEnv* env, jobject obj,
+						jbyteArray sigma_in,// 签名，长度128字节
+						jbyteArray message_in,// 消息哈希
+						jbyteArray g_in,// 签名者参数g，长度128字节
+						jbyteArray g1_in,// 签名者参数g1，长度128字节
+						jlong pairing);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    derive_handle
+ * Signature: ([B[B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_derive_1handle(JNIEnv* env, jobject obj,
+						jbyteArray alpha_out,// 新系统主密钥，长度20字节
+						jbyteArray g1_out,// 新系统参数g1，长度128字节
+						jbyteArray g_in,// 原系统参数g，长度128字节
+						jlong pairing);
+
+/*
+ * Class:     hamaster_gradesign_ibe_jni_IBENative
+ * Method:    derive_prepared
+ * Signature: ([B[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_hamaster_gradesign_ibe_jni_IBENative_derive_1prepared(JNIEnv* env, jobject obj,
+						jbyteArray alpha_out,// 新系统主密钥，长度20字节
+						jbyteArray g1_out,// 新系统参数g1，长度128字节
+						jlong prepared);
+
 #ifdef __cplusplus
 }
 #endif
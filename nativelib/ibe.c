@@ -1,5 +1,12 @@
 #include "ibe.h"
 #include "string.h"
+#include <errno.h>
+#if defined(__APPLE__)
+#include <stdlib.h>
+#else
+#include <sys/types.h>
+#include <sys/random.h>
+#endif
 
 void setup_t(element_t alpha, element_t g, element_t g1, element_t h,
 	     pairing_t pairing) {    
@@ -34,6 +41,9 @@ void keygen_t(element_t hID, element_t user, element_t rID,
     element_random(e1);
     element_random(e2);
     element_random(e3);
+    element_clear(e1);
+    element_clear(e2);
+    element_clear(e3);
 }
 
 void encrypt_t(element_t cipher_u, element_t cipher_v, element_t cipher_w,
@@ -82,6 +92,14 @@ void encrypt_t(element_t cipher_u, element_t cipher_v, element_t cipher_w,
     element_random(e6);
     element_random(eg);
     element_random(random_s);
+    element_clear(e1);
+    element_clear(e2);
+    element_clear(e3);
+    element_clear(e4);
+    element_clear(e5);
+    element_clear(e6);
+    element_clear(eg);
+    element_clear(random_s);
 }
 
 void decrypt_t(element_t decrypted_message,
@@ -102,72 +120,269 @@ void decrypt_t(element_t decrypted_message,
     element_random(e1);
     element_random(e2);
     element_random(e3);
+    element_clear(e1);
+    element_clear(e2);
+    element_clear(e3);
 }
 
-size_t setup_str(byte* alpha_out, size_t alpha_size,
-		 byte* g_out, size_t g_size,
-		 byte* g1_out, size_t g1_size,
-		 byte* h_out, size_t h_size,
-		 char* pairing_str_in, size_t pairing_str_length) {
-    pairing_t p;
+void encrypt_prepared_t(element_t cipher_u, element_t cipher_v, element_t cipher_w,
+			element_t user, element_t message,
+			ibe_public_prepared_ptr prepared) {
+    element_t e3;
+    element_t e4;
+    element_t e5;
+    element_t e6;
+    element_t random_s;
+    pairing_ptr pairing = prepared->pairing->pairing;
+
+    element_init_G1(cipher_u, pairing);
+    element_init_GT(cipher_v, pairing);
+    element_init_GT(cipher_w, pairing);
+    element_init_Zr(e5, pairing);
+    element_init_G1(e3, pairing);
+    element_init_G1(e4, pairing);
+    element_init_GT(e6, pairing);
+    element_init_Zr(random_s, pairing);
+    element_random(random_s);
+    element_mul(e5, random_s, user);
+    if (prepared->fixed_base) {
+        element_pp_pow_zn(e3, random_s, prepared->g1_pp);
+        element_pp_pow_zn(e4, e5, prepared->g_pp);
+        element_pp_pow_zn(cipher_v, random_s, prepared->egg_pp);
+        element_pp_pow_zn(e6, random_s, prepared->egh_inv_pp);
+    } else {
+        element_pow_zn(e3, prepared->g1, random_s);
+        element_pow_zn(e4, prepared->g, e5);
+        element_pow_zn(cipher_v, prepared->egg, random_s);
+        element_pow_zn(e6, prepared->egh_inv, random_s);
+    }
+    element_invert(e4, e4);
+    element_mul(cipher_u, e3, e4);
+    element_mul(cipher_w, message, e6);
+
+    element_random(e3);
+    element_random(e4);
+    element_random(e5);
+    element_random(e6);
+    element_random(random_s);
+    element_clear(e3);
+    element_clear(e4);
+    element_clear(e5);
+    element_clear(e6);
+    element_clear(random_s);
+}
+
+void decrypt_prepared_t(element_t decrypted_message,
+			element_t cipher_u, element_t cipher_v, element_t cipher_w,
+			ibe_private_prepared_ptr prepared) {
+    element_t e1;
+    element_t e2;
+    element_t e3;
+    pairing_ptr pairing = prepared->pairing->pairing;
+
+    element_init_GT(e1, pairing);
+    element_init_GT(e2, pairing);
+    element_init_GT(e3, pairing);
+    pairing_pp_apply(e1, cipher_u, prepared->hID_pp);
+    element_pow_zn(e2, cipher_v, prepared->rID);
+    element_mul(e3, cipher_w, e1);
+    element_mul(decrypted_message, e3, e2);
+
+    element_random(e1);
+    element_random(e2);
+    element_random(e3);
+    element_clear(e1);
+    element_clear(e2);
+    element_clear(e3);
+}
+
+static int random_bytes(byte* buffer, size_t length) {
+#if defined(__APPLE__)
+    arc4random_buf(buffer, length);
+    return 0;
+#else
+    size_t done = 0;
+    ssize_t count;
+    while (done < length) {
+        count = getrandom(buffer + done, length - done, 0);
+        if (count < 0) {
+            if (errno == EINTR)
+                continue;
+            return -1;
+        }
+        done += count;
+    }
+    return 0;
+#endif
+}
+
+/*
+ * 生成[0, limit)范围内的随机数，多取128位再取模以减小偏差
+ * 不使用任何全局状态，可以被多个线程同时调用
+ */
+static void thread_safe_random(mpz_t z, mpz_t limit, void* data) {
+    byte buffer[MAX_PAIRING_STR_LENGTH];
+    size_t length = (mpz_sizeinbase(limit, 2) + 7) / 8 + 16;
+
+    if (length > sizeof(buffer))
+        length = sizeof(buffer);
+    // 无法取得随机数时不能退回到可预测的随机数
+    if (random_bytes(buffer, length))
+        abort();
+    mpz_import(z, length, 1, 1, 0, 0, buffer);
+    mpz_mod(z, z, limit);
+    memset(buffer, 0, length);
+}
+
+void ibe_random_init(void) {
+    pbc_random_set_function(thread_safe_random, NULL);
+}
+
+ibe_pairing_ptr pairing_open(char* pairing_str_in, size_t pairing_str_length) {
+    ibe_pairing_ptr handle;
+    size_t length;
+
+    if (pairing_str_in == NULL || pairing_str_length > MAX_PAIRING_STR_LENGTH)
+        return NULL;
+    length = strnlen(pairing_str_in, pairing_str_length);
+    if (length == 0)
+        return NULL;
+
+    handle = (ibe_pairing_ptr) malloc(sizeof(ibe_pairing));
+    if (handle == NULL)
+        return NULL;
+    if (pairing_init_set_buf(handle->pairing, pairing_str_in, length)) {
+        free(handle);
+        return NULL;
+    }
+    return handle;
+}
+
+void pairing_close(ibe_pairing_ptr pairing) {
+    if (pairing == NULL)
+        return;
+    pairing_clear(pairing->pairing);
+    free(pairing);
+}
+
+size_t setup_handle(byte* alpha_out, size_t alpha_size,
+		    byte* g_out, size_t g_size,
+		    byte* g1_out, size_t g1_size,
+		    byte* h_out, size_t h_size,
+		    ibe_pairing_ptr pairing) {
     element_t alpha;
     element_t g;
     element_t g1;
     element_t h;
-    int size;
 
-    if (strlen(pairing_str_in) > pairing_str_length ||
-	pairing_str_length > MAX_PAIRING_STR_LENGTH)
+    if (pairing == NULL)
         return -1;
+    if (alpha_size < PBC_ZR_SIZE)
+        return PBC_ZR_SIZE - alpha_size;
+    if (g_size < PBC_G_SIZE)
+        return PBC_G_SIZE - g_size;
+    if (g1_size < PBC_G_SIZE)
+        return PBC_G_SIZE - g1_size;
+    if (h_size < PBC_G_SIZE)
+        return PBC_G_SIZE - h_size;
 
-    pairing_init_set_str(p, pairing_str_in);
-    setup_t(alpha, g, g1, h, p);
+    setup_t(alpha, g, g1, h, pairing->pairing);
 
-    size = element_length_in_bytes(alpha);
-    if (alpha_size < size)
-        return size - alpha_size;
     element_to_bytes(alpha_out, alpha);
-    element_random(alpha);
-
-    size = element_length_in_bytes(g);
-    if (g_size < size)
-        return size - g_size;
     element_to_bytes(g_out, g);
+    element_to_bytes(g1_out, g1);
+    element_to_bytes(h_out, h);
+    element_random(alpha);
     element_random(g);
+    element_random(g1);
+    element_random(h);
+    element_clear(alpha);
+    element_clear(g);
+    element_clear(g1);
+    element_clear(h);
+    return 0;
+}
+
+static void derive_t(element_t alpha, element_t g1, ibe_public_prepared_ptr prepared, element_t g) {
+    element_random(alpha);
+    if (prepared != NULL && prepared->fixed_base)
+        element_pp_pow_zn(g1, alpha, prepared->g_pp);
+    else
+        element_pow_zn(g1, g, alpha);
+}
 
-    size = element_length_in_bytes(g1);
-    if (g1_size < size)
-        return size - g1_size;
+static void derive_write(byte* alpha_out, byte* g1_out, element_t alpha, element_t g1) {
+    element_to_bytes(alpha_out, alpha);
     element_to_bytes(g1_out, g1);
-    element_random(g1);
+    element_random(alpha); // 擦除内存中敏感数据，不保证擦除前不被窃取
+    element_clear(alpha);
+    element_clear(g1);
+}
 
-    size = element_length_in_bytes(h);
-    if (h_size < size)
-        return size - h_size;
-    element_to_bytes(h_out, h);
-    element_random(h);    
+size_t derive_handle(byte* alpha_out, size_t alpha_size,
+		     byte* g1_out, size_t g1_size,
+		     byte* g_in, size_t g_size,
+		     ibe_pairing_ptr pairing) {
+    element_t alpha;
+    element_t g;
+    element_t g1;
+
+    if (pairing == NULL)
+        return -1;
+    if (alpha_size < PBC_ZR_SIZE)
+        return PBC_ZR_SIZE - alpha_size;
+    if (g1_size < PBC_G_SIZE)
+        return PBC_G_SIZE - g1_size;
+    if (g_size < PBC_G_SIZE)
+        return PBC_G_SIZE - g_size;
+
+    element_init_Zr(alpha, pairing->pairing);
+    element_init_G1(g, pairing->pairing);
+    element_init_G1(g1, pairing->pairing);
+    element_from_bytes(g, g_in);
+    derive_t(alpha, g1, NULL, g);
+    derive_write(alpha_out, g1_out, alpha, g1);
+    element_clear(g);
     return 0;
 }
 
-size_t keygen_str(byte* hID_out, size_t hID_size,
-		  byte* rID_out, size_t rID_size,
-		  byte* user_in, size_t user_size,
-		  byte* alpha_in, size_t alpha_size,
-		  byte* g_in, size_t g_size,
-		  byte* h_in, size_t h_size,
-		  int random_rID,
-		  char* pairing_str_in, size_t pairing_str_length) {
-    pairing_t p;
+size_t derive_prepared(byte* alpha_out, size_t alpha_size,
+		       byte* g1_out, size_t g1_size,
+		       ibe_public_prepared_ptr prepared) {
+    element_t alpha;
+    element_t g1;
+
+    if (prepared == NULL)
+        return -1;
+    if (alpha_size < PBC_ZR_SIZE)
+        return PBC_ZR_SIZE - alpha_size;
+    if (g1_size < PBC_G_SIZE)
+        return PBC_G_SIZE - g1_size;
+
+    element_init_Zr(alpha, prepared->pairing->pairing);
+    element_init_G1(g1, prepared->pairing->pairing);
+    derive_t(alpha, g1, prepared, prepared->g);
+    derive_write(alpha_out, g1_out, alpha, g1);
+    return 0;
+}
+
+size_t keygen_handle(byte* hID_out, size_t hID_size,
+		     byte* rID_out, size_t rID_size,
+		     byte* user_in, size_t user_size,
+		     byte* alpha_in, size_t alpha_size,
+		     byte* g_in, size_t g_size,
+		     byte* h_in, size_t h_size,
+		     int random_rID,
+		     ibe_pairing_ptr pairing) {
     element_t user;
     element_t rID;
     element_t hID;
     element_t alpha;
     element_t g;
     element_t h;
-    int size;
+    pairing_ptr p;
 
-    if (strlen(pairing_str_in) > pairing_str_length ||
-	pairing_str_length > MAX_PAIRING_STR_LENGTH)
+    if (pairing == NULL)
         return -1;
     if (alpha_size < PBC_ZR_SIZE)
         return PBC_ZR_SIZE - alpha_size;
@@ -175,11 +390,14 @@ size_t keygen_str(byte* hID_out, size_t hID_size,
         return PBC_G_SIZE - g_size;
     if (h_size < PBC_G_SIZE)
         return PBC_G_SIZE - h_size;
+    if (hID_size < PBC_G_SIZE)
+        return PBC_G_SIZE - hID_size;
+    if (random_rID && rID_size < PBC_ZR_SIZE)
+        return PBC_ZR_SIZE - rID_size;
 
-    pairing_init_set_str(p, pairing_str_in);
+    p = pairing->pairing;
     element_init_Zr(user, p);
     element_init_Zr(rID, p);
-    element_init_G2(hID, p);
     element_init_Zr(alpha, p);
     element_init_G1(g, p);
     element_init_G2(h, p);
@@ -200,30 +418,28 @@ size_t keygen_str(byte* hID_out, size_t hID_size,
     element_random(alpha);
     element_random(g);
     element_random(h);
+    element_clear(user);
+    element_clear(alpha);
+    element_clear(g);
+    element_clear(h);
 
-    size = element_length_in_bytes(hID);
-    if (hID_size < size)
-        return hID_size - size;
     element_to_bytes(hID_out, hID);
     element_random(hID);
-    if (random_rID) {
-      size = element_length_in_bytes(rID);
-      if (rID_size < size)
-        return rID_size - size;
+    element_clear(hID);
+    if (random_rID)
       element_to_bytes(rID_out, rID);
-      element_random(rID);
-    }
+    element_random(rID);
+    element_clear(rID);
     return 0;
 }
 
-size_t encrypt_str(byte* cipher_buffer_out, size_t cipher_size,
-		   byte* plain_in, size_t plain_size,
-		   byte* g_in, size_t g_size,
-		   byte* g1_in, size_t g1_size,
-		   byte* h_in, size_t h_size,
-		   byte* alice_in, size_t alice_size,
-		   char* pairing_str_in, size_t pairing_str_length) {
-    pairing_t p;
+size_t encrypt_handle(byte* cipher_buffer_out, size_t cipher_size,
+		      byte* plain_in, size_t plain_size,
+		      byte* g_in, size_t g_size,
+		      byte* g1_in, size_t g1_size,
+		      byte* h_in, size_t h_size,
+		      byte* alice_in, size_t alice_size,
+		      ibe_pairing_ptr pairing) {
     element_t u;
     element_t v;
     element_t w;
@@ -232,11 +448,10 @@ size_t encrypt_str(byte* cipher_buffer_out, size_t cipher_size,
     element_t g1;
     element_t h;
     element_t alice;
-    int size;
+    pairing_ptr p;
     byte* cipher0 = cipher_buffer_out;
 
-    if (strlen(pairing_str_in) > pairing_str_length ||
-	pairing_str_length > MAX_PAIRING_STR_LENGTH)
+    if (pairing == NULL)
         return -1;
     if (plain_size > PBC_G_SIZE)
         return plain_size - PBC_G_SIZE; // 一次最多可以加密126字节
@@ -246,11 +461,10 @@ size_t encrypt_str(byte* cipher_buffer_out, size_t cipher_size,
         return PBC_G_SIZE - g1_size;
     if (h_size < PBC_G_SIZE)
         return PBC_G_SIZE - h_size;
+    if (cipher_size < PBC_G_SIZE * 3)
+        return PBC_G_SIZE * 3 - cipher_size;
 
-    pairing_init_set_str(p, pairing_str_in);
-    element_init_G1(u, p);
-    element_init_GT(v, p);
-    element_init_GT(w, p);
+    p = pairing->pairing;
     element_init_GT(plain, p);
     element_init_G1(g, p);
     element_init_G1(g1, p);
@@ -264,6 +478,7 @@ size_t encrypt_str(byte* cipher_buffer_out, size_t cipher_size,
         memset(tmp, 0, PBC_G_SIZE);
 	memcpy(tmp, plain_in, plain_size);
 	element_from_bytes(plain, tmp);
+	memset(tmp, 0, PBC_G_SIZE);
     }
     element_from_bytes(g, g_in);
     element_from_bytes(g1, g1_in);
@@ -273,41 +488,36 @@ size_t encrypt_str(byte* cipher_buffer_out, size_t cipher_size,
     encrypt_t(u, v, w, alice, plain, g, g1, h, p);
     element_random(alice);
     element_random(plain);
-    element_random(g);
-    element_random(g1);
-    element_random(h);
+    element_clear(alice);
+    element_clear(plain);
+    element_clear(g);
+    element_clear(g1);
+    element_clear(h);
 
-    size = element_length_in_bytes(u);
-    size += element_length_in_bytes(v);
-    size += element_length_in_bytes(w);
-    if (size > cipher_size)
-        return size - cipher_size;
     cipher0 += element_to_bytes(cipher0, u);
-    element_random(u);
     cipher0 += element_to_bytes(cipher0, v);
-    element_random(v);
     element_to_bytes(cipher0, w);
-    element_random(w);
+    element_clear(u);
+    element_clear(v);
+    element_clear(w);
     return 0;
 }
 
-size_t decrypt_str(byte* plain_buffer_out, size_t plain_size,
-		   byte* cipher_in, size_t cipher_size,
-		   byte* rID_in, size_t rID_size,
-		   byte* hID_in, size_t hID_size,
-		   char* pairing_str_in, size_t pairing_str_length) {
-    pairing_t p;
+size_t decrypt_handle(byte* plain_buffer_out, size_t plain_size,
+		      byte* cipher_in, size_t cipher_size,
+		      byte* rID_in, size_t rID_size,
+		      byte* hID_in, size_t hID_size,
+		      ibe_pairing_ptr pairing) {
     element_t plain;
     element_t u;
     element_t v;
     element_t w;
     element_t rID;
     element_t hID;
-    int size;
+    pairing_ptr p;
     byte* cipher0 = cipher_in;
 
-    if (strlen(pairing_str_in) > pairing_str_length ||
-	pairing_str_length > MAX_PAIRING_STR_LENGTH)
+    if (pairing == NULL)
         return -1;
     if (cipher_size < PBC_G_SIZE * 3)
         return PBC_G_SIZE * 3 - cipher_size;
@@ -315,8 +525,10 @@ size_t decrypt_str(byte* plain_buffer_out, size_t plain_size,
         return PBC_ZR_SIZE - rID_size;
     if (hID_size < PBC_G_SIZE)
         return PBC_G_SIZE - hID_size;
+    if (plain_size < PBC_G_SIZE)
+        return PBC_G_SIZE - plain_size;
 
-    pairing_init_set_str(p, pairing_str_in);
+    p = pairing->pairing;
     element_init_GT(plain, p);
     element_init_G1(u, p);
     element_init_GT(v, p);
@@ -330,16 +542,603 @@ size_t decrypt_str(byte* plain_buffer_out, size_t plain_size,
     element_from_bytes(rID, rID_in);
     element_from_bytes(hID, hID_in);
     decrypt_t(plain, u, v, w, hID, rID, p);
-    element_random(u);
-    element_random(v);
-    element_random(w);
     element_random(hID); // 擦除内存中敏感数据，不保证擦除前不被窃取
     element_random(rID);
+    element_clear(u);
+    element_clear(v);
+    element_clear(w);
+    element_clear(hID);
+    element_clear(rID);
 
-    size = element_length_in_bytes(plain);
-    if (size > plain_size)
-        return size - plain_size;
     element_to_bytes(plain_buffer_out, plain);
     element_random(plain);
+    element_clear(plain);
     return 0;
 }
+
+/*
+ * PBC默认的固定底数幂运算表按5比特分窗，每个窗口保存2^5个元素
+ * 这里按同样的方式估算一张表的大小
+ */
+size_t pp_table_size(element_t base, pairing_ptr p) {
+    const int k = 5;
+    size_t lookups = mpz_sizeinbase(p->r, 2) / k + 1;
+    return lookups * (1 << k) * element_length_in_bytes(base);
+}
+
+ibe_public_prepared_ptr public_prepare(byte* g_in, size_t g_size,
+				       byte* g1_in, size_t g1_size,
+				       byte* h_in, size_t h_size,
+				       int fixed_base,
+				       ibe_pairing_ptr pairing) {
+    ibe_public_prepared_ptr prepared;
+    element_t eg;
+    pairing_ptr p;
+
+    if (pairing == NULL)
+        return NULL;
+    if (g_size < PBC_G_SIZE || g1_size < PBC_G_SIZE || h_size < PBC_G_SIZE)
+        return NULL;
+
+    prepared = (ibe_public_prepared_ptr) malloc(sizeof(ibe_public_prepared));
+    if (prepared == NULL)
+        return NULL;
+    p = pairing->pairing;
+    prepared->pairing = pairing;
+    element_init_G1(prepared->g, p);
+    element_init_G1(prepared->g1, p);
+    element_init_G2(prepared->h, p);
+    element_init_GT(prepared->egg, p);
+    element_init_GT(prepared->egh_inv, p);
+    element_from_bytes(prepared->g, g_in);
+    element_from_bytes(prepared->g1, g1_in);
+    element_from_bytes(prepared->h, h_in);
+
+    element_init_G2(eg, p);
+    element_set(eg, prepared->g);
+    pairing_apply(prepared->egg, prepared->g, eg, p);
+    element_clear(eg);
+    pairing_apply(prepared->egh_inv, prepared->g, prepared->h, p);
+    element_invert(prepared->egh_inv, prepared->egh_inv);
+
+    prepared->fixed_base = fixed_base;
+    prepared->memory = sizeof(ibe_public_prepared);
+    prepared->memory += element_length_in_bytes(prepared->g) * 3;
+    prepared->memory += element_length_in_bytes(prepared->egg) * 2;
+    if (fixed_base) {
+        element_pp_init(prepared->g_pp, prepared->g);
+        element_pp_init(prepared->g1_pp, prepared->g1);
+        element_pp_init(prepared->egg_pp, prepared->egg);
+        element_pp_init(prepared->egh_inv_pp, prepared->egh_inv);
+        prepared->memory += pp_table_size(prepared->g, p);
+        prepared->memory += pp_table_size(prepared->g1, p);
+        prepared->memory += pp_table_size(prepared->egg, p);
+        prepared->memory += pp_table_size(prepared->egh_inv, p);
+    }
+    return prepared;
+}
+
+size_t public_memory(ibe_public_prepared_ptr prepared) {
+    if (prepared == NULL)
+        return 0;
+    return prepared->memory;
+}
+
+void public_release(ibe_public_prepared_ptr prepared) {
+    if (prepared == NULL)
+        return;
+    if (prepared->fixed_base) {
+        element_pp_clear(prepared->g_pp);
+        element_pp_clear(prepared->g1_pp);
+        element_pp_clear(prepared->egg_pp);
+        element_pp_clear(prepared->egh_inv_pp);
+    }
+    element_clear(prepared->g);
+    element_clear(prepared->g1);
+    element_clear(prepared->h);
+    element_clear(prepared->egg);
+    element_clear(prepared->egh_inv);
+    free(prepared);
+}
+
+size_t encrypt_prepared(byte* cipher_buffer_out, size_t cipher_size,
+			byte* plain_in, size_t plain_size,
+			byte* alice_in, size_t alice_size,
+			ibe_public_prepared_ptr prepared) {
+    element_t u;
+    element_t v;
+    element_t w;
+    element_t plain;
+    element_t alice;
+    pairing_ptr p;
+    byte* cipher0 = cipher_buffer_out;
+
+    if (prepared == NULL)
+        return -1;
+    if (plain_size > PBC_G_SIZE)
+        return plain_size - PBC_G_SIZE;
+    if (cipher_size < PBC_G_SIZE * 3)
+        return PBC_G_SIZE * 3 - cipher_size;
+
+    p = prepared->pairing->pairing;
+    element_init_GT(plain, p);
+    element_init_Zr(alice, p);
+
+    if (plain_size == PBC_G_SIZE) {
+        element_from_bytes(plain, plain_in);
+    } else {
+        byte tmp[PBC_G_SIZE];
+        memset(tmp, 0, PBC_G_SIZE);
+	memcpy(tmp, plain_in, plain_size);
+	element_from_bytes(plain, tmp);
+	memset(tmp, 0, PBC_G_SIZE);
+    }
+    element_from_hash(alice, alice_in, alice_size);
+
+    encrypt_prepared_t(u, v, w, alice, plain, prepared);
+    element_random(alice);
+    element_random(plain);
+    element_clear(alice);
+    element_clear(plain);
+
+    cipher0 += element_to_bytes(cipher0, u);
+    cipher0 += element_to_bytes(cipher0, v);
+    element_to_bytes(cipher0, w);
+    element_clear(u);
+    element_clear(v);
+    element_clear(w);
+    return 0;
+}
+
+size_t encrypt_randomness(byte* randomness_out, size_t randomness_size,
+			  ibe_public_prepared_ptr prepared) {
+    element_t random_s;
+    element_t g1s;
+    element_t gs;
+    element_t eggs;
+    element_t egh_inv_s;
+    pairing_ptr p;
+    byte* randomness0 = randomness_out;
+
+    if (prepared == NULL)
+        return -1;
+    if (randomness_size < ENCRYPT_RANDOMNESS_SIZE)
+        return ENCRYPT_RANDOMNESS_SIZE - randomness_size;
+
+    p = prepared->pairing->pairing;
+    element_init_Zr(random_s, p);
+    element_init_G1(g1s, p);
+    element_init_G1(gs, p);
+    element_init_GT(eggs, p);
+    element_init_GT(egh_inv_s, p);
+    element_random(random_s);
+    if (prepared->fixed_base) {
+        element_pp_pow_zn(g1s, random_s, prepared->g1_pp);
+        element_pp_pow_zn(gs, random_s, prepared->g_pp);
+        element_pp_pow_zn(eggs, random_s, prepared->egg_pp);
+        element_pp_pow_zn(egh_inv_s, random_s, prepared->egh_inv_pp);
+    } else {
+        element_pow_zn(g1s, prepared->g1, random_s);
+        element_pow_zn(gs, prepared->g, random_s);
+        element_pow_zn(eggs, prepared->egg, random_s);
+        element_pow_zn(egh_inv_s, prepared->egh_inv, random_s);
+    }
+    element_random(random_s);
+    element_clear(random_s);
+
+    randomness0 += element_to_bytes(randomness0, g1s);
+    randomness0 += element_to_bytes(randomness0, gs);
+    randomness0 += element_to_bytes(randomness0, eggs);
+    element_to_bytes(randomness0, egh_inv_s);
+    element_random(g1s);
+    element_random(gs);
+    element_random(eggs);
+    element_random(egh_inv_s);
+    element_clear(g1s);
+    element_clear(gs);
+    element_clear(eggs);
+    element_clear(egh_inv_s);
+    return 0;
+}
+
+size_t encrypt_with_randomness(byte* cipher_buffer_out, size_t cipher_size,
+			       byte* plain_in, size_t plain_size,
+			       byte* alice_in, size_t alice_size,
+			       byte* randomness_in, size_t randomness_size,
+			       ibe_public_prepared_ptr prepared) {
+    element_t u;
+    element_t v;
+    element_t w;
+    element_t plain;
+    element_t alice;
+    element_t gs;
+    element_t egh_inv_s;
+    pairing_ptr p;
+    byte* cipher0 = cipher_buffer_out;
+    byte* randomness0 = randomness_in;
+
+    if (prepared == NULL)
+        return -1;
+    if (plain_size > PBC_G_SIZE)
+        return plain_size - PBC_G_SIZE;
+    if (cipher_size < PBC_G_SIZE * 3)
+        return PBC_G_SIZE * 3 - cipher_size;
+    if (randomness_size < ENCRYPT_RANDOMNESS_SIZE)
+        return ENCRYPT_RANDOMNESS_SIZE - randomness_size;
+
+    p = prepared->pairing->pairing;
+    element_init_GT(plain, p);
+    element_init_Zr(alice, p);
+    element_init_G1(u, p);
+    element_init_G1(gs, p);
+    element_init_GT(v, p);
+    element_init_GT(egh_inv_s, p);
+    element_init_GT(w, p);
+
+    if (plain_size == PBC_G_SIZE) {
+        element_from_bytes(plain, plain_in);
+    } else {
+        byte tmp[PBC_G_SIZE];
+        memset(tmp, 0, PBC_G_SIZE);
+	memcpy(tmp, plain_in, plain_size);
+	element_from_bytes(plain, tmp);
+	memset(tmp, 0, PBC_G_SIZE);
+    }
+    element_from_hash(alice, alice_in, alice_size);
+
+    // u = g1^s * (g^s)^-ID, v = e(g,g)^s, w = m * e(g,h)^-s
+    randomness0 += element_from_bytes(u, randomness0);
+    randomness0 += element_from_bytes(gs, randomness0);
+    randomness0 += element_from_bytes(v, randomness0);
+    element_from_bytes(egh_inv_s, randomness0);
+    element_pow_zn(gs, gs, alice);
+    element_invert(gs, gs);
+    element_mul(u, u, gs);
+    element_mul(w, plain, egh_inv_s);
+
+    element_random(alice);
+    element_random(plain);
+    element_random(gs);
+    element_random(egh_inv_s);
+    element_clear(alice);
+    element_clear(plain);
+    element_clear(gs);
+    element_clear(egh_inv_s);
+
+    cipher0 += element_to_bytes(cipher0, u);
+    cipher0 += element_to_bytes(cipher0, v);
+    element_to_bytes(cipher0, w);
+    element_clear(u);
+    element_clear(v);
+    element_clear(w);
+    return 0;
+}
+
+ibe_private_prepared_ptr private_prepare(byte* rID_in, size_t rID_size,
+					 byte* hID_in, size_t hID_size,
+					 ibe_pairing_ptr pairing) {
+    ibe_private_prepared_ptr prepared;
+    element_t hID;
+    pairing_ptr p;
+
+    if (pairing == NULL)
+        return NULL;
+    if (rID_size < PBC_ZR_SIZE || hID_size < PBC_G_SIZE)
+        return NULL;
+
+    prepared = (ibe_private_prepared_ptr) malloc(sizeof(ibe_private_prepared));
+    if (prepared == NULL)
+        return NULL;
+    p = pairing->pairing;
+    prepared->pairing = pairing;
+    element_init_Zr(prepared->rID, p);
+    element_from_bytes(prepared->rID, rID_in);
+
+    element_init_G2(hID, p);
+    element_from_bytes(hID, hID_in);
+    pairing_pp_init(prepared->hID_pp, hID, p);
+    element_random(hID); // 擦除内存中敏感数据，不保证擦除前不被窃取
+    element_clear(hID);
+    return prepared;
+}
+
+void private_release(ibe_private_prepared_ptr prepared) {
+    if (prepared == NULL)
+        return;
+    pairing_pp_clear(prepared->hID_pp);
+    element_random(prepared->rID);
+    element_clear(prepared->rID);
+    free(prepared);
+}
+
+size_t decrypt_prepared(byte* plain_buffer_out, size_t plain_size,
+			byte* cipher_in, size_t cipher_size,
+			ibe_private_prepared_ptr prepared) {
+    element_t plain;
+    element_t u;
+    element_t v;
+    element_t w;
+    pairing_ptr p;
+    byte* cipher0 = cipher_in;
+
+    if (prepared == NULL)
+        return -1;
+    if (cipher_size < PBC_G_SIZE * 3)
+        return PBC_G_SIZE * 3 - cipher_size;
+    if (plain_size < PBC_G_SIZE)
+        return PBC_G_SIZE - plain_size;
+
+    p = prepared->pairing->pairing;
+    element_init_GT(plain, p);
+    element_init_G1(u, p);
+    element_init_GT(v, p);
+    element_init_GT(w, p);
+
+    cipher0 += element_from_bytes(u, cipher0);
+    cipher0 += element_from_bytes(v, cipher0);
+    element_from_bytes(w, cipher0);
+    decrypt_prepared_t(plain, u, v, w, prepared);
+    element_clear(u);
+    element_clear(v);
+    element_clear(w);
+
+    element_to_bytes(plain_buffer_out, plain);
+    element_random(plain);
+    element_clear(plain);
+    return 0;
+}
+
+size_t keygen_batch(byte** hID_out, byte** rID_out,
+		    byte** users_in, size_t* user_sizes,
+		    size_t count,
+		    byte* alpha_in, size_t alpha_size,
+		    byte* g_in, size_t g_size,
+		    byte* h_in, size_t h_size,
+		    ibe_pairing_ptr pairing,
+		    int* results) {
+    element_t user;
+    element_t rID;
+    element_t hID;
+    element_t alpha;
+    element_t g;
+    element_t h;
+    pairing_ptr p;
+    size_t i;
+
+    if (pairing == NULL || results == NULL)
+        return -1;
+    if (alpha_size < PBC_ZR_SIZE || g_size < PBC_G_SIZE || h_size < PBC_G_SIZE)
+        return -1;
+
+    p = pairing->pairing;
+    element_init_Zr(alpha, p);
+    element_init_G1(g, p);
+    element_init_G2(h, p);
+    element_from_bytes(alpha, alpha_in);
+    element_from_bytes(g, g_in);
+    element_from_bytes(h, h_in);
+    element_init_Zr(user, p);
+    element_init_Zr(rID, p);
+
+    for (i = 0; i < count; i++) {
+        element_from_hash(user, users_in[i], user_sizes[i]);
+        element_random(rID);
+        keygen_t(hID, user, rID, alpha, g, h, p);
+        element_to_bytes(hID_out[i], hID);
+        element_to_bytes(rID_out[i], rID);
+        element_random(hID);
+        element_clear(hID);
+        results[i] = 0;
+    }
+
+    element_random(user);
+    element_random(rID);
+    element_random(alpha);
+    element_clear(user);
+    element_clear(rID);
+    element_clear(alpha);
+    element_clear(g);
+    element_clear(h);
+    return 0;
+}
+
+size_t encrypt_batch(byte** cipher_buffer_out,
+		     byte** plains_in, size_t* plain_sizes,
+		     byte** alices_in, size_t* alice_sizes,
+		     size_t count,
+		     ibe_public_prepared_ptr prepared,
+		     int* results) {
+    size_t failures = 0;
+    size_t i;
+
+    if (prepared == NULL || results == NULL)
+        return -1;
+    for (i = 0; i < count; i++) {
+        results[i] = (int) encrypt_prepared(cipher_buffer_out[i], PBC_G_SIZE * 3, plains_in[i], plain_sizes[i],
+					    alices_in[i], alice_sizes[i], prepared);
+        if (results[i])
+            failures++;
+    }
+    return failures;
+}
+
+size_t decrypt_batch(byte** plain_buffer_out,
+		     byte** ciphers_in, size_t* cipher_sizes,
+		     size_t count,
+		     ibe_private_prepared_ptr prepared,
+		     int* results) {
+    size_t failures = 0;
+    size_t i;
+
+    if (prepared == NULL || results == NULL)
+        return -1;
+    for (i = 0; i < count; i++) {
+        results[i] = (int) decrypt_prepared(plain_buffer_out[i], PBC_G_SIZE, ciphers_in[i], cipher_sizes[i], prepared);
+        if (results[i])
+            failures++;
+    }
+    return failures;
+}
+
+size_t sign_handle(byte* sigma_out, size_t sigma_size,
+		   byte* message_in, size_t message_size,
+		   byte* alpha_in, size_t alpha_size,
+		   ibe_pairing_ptr pairing) {
+    element_t m;
+    element_t alpha;
+    element_t sigma;
+    pairing_ptr p;
+
+    if (pairing == NULL || message_in == NULL || message_size == 0)
+        return -1;
+    if (sigma_size < PBC_G_SIZE)
+        return PBC_G_SIZE - sigma_size;
+    if (alpha_size < PBC_ZR_SIZE)
+        return PBC_ZR_SIZE - alpha_size;
+
+    p = pairing->pairing;
+    element_init_G1(m, p);
+    element_init_G1(sigma, p);
+    element_init_Zr(alpha, p);
+
+    element_from_hash(m, message_in, message_size);
+    element_from_bytes(alpha, alpha_in);
+    element_pow_zn(sigma, m, alpha);
+    element_to_bytes(sigma_out, sigma);
+
+    element_random(alpha); // 擦除内存中敏感数据，不保证擦除前不被窃取
+    element_clear(alpha);
+    element_clear(sigma);
+    element_clear(m);
+    return 0;
+}
+
+size_t verify_handle(byte* sigma_in, size_t sigma_size,
+		     byte* message_in, size_t message_size,
+		     byte* g_in, size_t g_size,
+		     byte* g1_in, size_t g1_size,
+		     ibe_pairing_ptr pairing) {
+    element_t m;
+    element_t sigma;
+    element_t g;
+    element_t g1;
+    element_t t;
+    element_t left;
+    element_t right;
+    pairing_ptr p;
+    size_t result;
+
+    if (pairing == NULL || message_in == NULL || message_size == 0)
+        return -1;
+    if (sigma_size < PBC_G_SIZE)
+        return PBC_G_SIZE - sigma_size;
+    if (g_size < PBC_G_SIZE)
+        return PBC_G_SIZE - g_size;
+    if (g1_size < PBC_G_SIZE)
+        return PBC_G_SIZE - g1_size;
+
+    p = pairing->pairing;
+    element_init_G1(m, p);
+    element_init_G1(sigma, p);
+    element_init_G1(g, p);
+    element_init_G1(g1, p);
+    element_init_G1(t, p);
+    element_init_GT(left, p);
+    element_init_GT(right, p);
+
+    element_from_hash(m, message_in, message_size);
+    element_from_bytes(sigma, sigma_in);
+    element_from_bytes(g, g_in);
+    element_from_bytes(g1, g1_in);
+
+    // 签名必须是r阶子群中的非单位元
+    element_pow_mpz(t, sigma, p->r);
+    if (element_is1(sigma) || !element_is1(t)) {
+        result = 1;
+    } else {
+        pairing_apply(left, g, sigma, p);
+        pairing_apply(right, g1, m, p);
+        result = element_cmp(left, right) ? 1 : 0;
+    }
+
+    element_clear(m);
+    element_clear(sigma);
+    element_clear(g);
+    element_clear(g1);
+    element_clear(t);
+    element_clear(left);
+    element_clear(right);
+    return result;
+}
+
+size_t setup_str(byte* alpha_out, size_t alpha_size,
+		 byte* g_out, size_t g_size,
+		 byte* g1_out, size_t g1_size,
+		 byte* h_out, size_t h_size,
+		 char* pairing_str_in, size_t pairing_str_length) {
+    ibe_pairing_ptr pairing;
+    size_t result;
+
+    pairing = pairing_open(pairing_str_in, pairing_str_length);
+    if (pairing == NULL)
+        return -1;
+    result = setup_handle(alpha_out, alpha_size, g_out, g_size, g1_out, g1_size, h_out, h_size, pairing);
+    pairing_close(pairing);
+    return result;
+}
+
+size_t keygen_str(byte* hID_out, size_t hID_size,
+		  byte* rID_out, size_t rID_size,
+		  byte* user_in, size_t user_size,
+		  byte* alpha_in, size_t alpha_size,
+		  byte* g_in, size_t g_size,
+		  byte* h_in, size_t h_size,
+		  int random_rID,
+		  char* pairing_str_in, size_t pairing_str_length) {
+    ibe_pairing_ptr pairing;
+    size_t result;
+
+    pairing = pairing_open(pairing_str_in, pairing_str_length);
+    if (pairing == NULL)
+        return -1;
+    result = keygen_handle(hID_out, hID_size, rID_out, rID_size, user_in, user_size,
+			   alpha_in, alpha_size, g_in, g_size, h_in, h_size, random_rID, pairing);
+    pairing_close(pairing);
+    return result;
+}
+
+size_t encrypt_str(byte* cipher_buffer_out, size_t cipher_size,
+		   byte* plain_in, size_t plain_size,
+		   byte* g_in, size_t g_size,
+		   byte* g1_in, size_t g1_size,
+		   byte* h_in, size_t h_size,
+		   byte* alice_in, size_t alice_size,
+		   char* pairing_str_in, size_t pairing_str_length) {
+    ibe_pairing_ptr pairing;
+    size_t result;
+
+    pairing = pairing_open(pairing_str_in, pairing_str_length);
+    if (pairing == NULL)
+        return -1;
+    result = encrypt_handle(cipher_buffer_out, cipher_size, plain_in, plain_size, g_in, g_size,
+			    g1_in, g1_size, h_in, h_size, alice_in, alice_size, pairing);
+    pairing_close(pairing);
+    return result;
+}
+
+size_t decrypt_str(byte* plain_buffer_out, size_t plain_size,
+		   byte* cipher_in, size_t cipher_size,
+		   byte* rID_in, size_t rID_size,
+		   byte* hID_in, size_t hID_size,
+		   char* pairing_str_in, size_t pairing_str_length) {
+    ibe_pairing_ptr pairing;
+    size_t result;
+
+    pairing = pairing_open(pairing_str_in, pairing_str_length);
+    if (pairing == NULL)
+        return -1;
+    result = decrypt_handle(plain_buffer_out, plain_size, cipher_in, cipher_size,
+			    rID_in, rID_size, hID_in, hID_size, pairing);
+    pairing_close(pairing);
+    return result;
+}
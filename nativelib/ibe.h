@@ -7,9 +7,254 @@
 #define PBC_G_SIZE 128
 #define PBC_ZR_SIZE 20
 #define MAX_PAIRING_STR_LENGTH 512
+#define ENCRYPT_RANDOMNESS_SIZE (PBC_G_SIZE * 4)
 
 typedef unsigned char byte;
 
+/*
+ * 已解析的椭圆曲线参数句柄
+ * 解析配对参数的开销远大于单次运算，同一系统的多次运算应复用同一个句柄
+ */
+typedef struct {
+    pairing_t pairing;
+} ibe_pairing;
+
+typedef ibe_pairing* ibe_pairing_ptr;
+
+/*
+ * 将PBC的随机数来源替换为线程安全的系统随机数（Linux使用getrandom，OS X使用arc4random_buf）
+ * PBC默认的随机数来源是全局共享的，多线程同时调用element_random时并不安全
+ * 必须在任何其它函数之前、且只在单线程环境中调用一次，JNI库在JNI_OnLoad中调用
+ *
+ * 并发约定：
+ * 1. 调用本函数后，同一个ibe_pairing_ptr可以被多个线程同时用于setup、keygen、encrypt和decrypt
+ * 2. 预处理的公共参数和私钥在建立后只读，可以被多个线程同时使用
+ * 3. pairing_close、public_release和private_release不能与使用同一句柄的其它调用并发执行
+ */
+void ibe_random_init(void);
+
+/*
+ * 解析椭圆曲线参数，返回可复用的句柄，失败时返回NULL
+ */
+ibe_pairing_ptr pairing_open(char* pairing_str_in, size_t pairing_str_length);
+
+/*
+ * 释放椭圆曲线参数句柄，调用后句柄不可再使用
+ */
+void pairing_close(ibe_pairing_ptr pairing);
+
+/*
+ * 预处理的系统公共参数，缓存与明文和接收方无关的配对结果e(g,g)和e(g,h)^-1
+ * 使用该结构加密时不再需要计算配对
+ */
+typedef struct {
+    ibe_pairing_ptr pairing;
+    element_t g;
+    element_t g1;
+    element_t h;
+    element_t egg;     // e(g,g)
+    element_t egh_inv; // e(g,h)^-1
+    int fixed_base;    // 是否使用固定底数预计算表
+    element_pp_t g_pp;
+    element_pp_t g1_pp;
+    element_pp_t egg_pp;
+    element_pp_t egh_inv_pp;
+    size_t memory;     // 预计算表占用内存的估计值，单位字节
+} ibe_public_prepared;
+
+typedef ibe_public_prepared* ibe_public_prepared_ptr;
+
+/*
+ * 预处理系统公共参数，失败时返回NULL
+ * fixed_base非0时为g、g1、e(g,g)和e(g,h)^-1建立固定底数幂运算表，加密速度更快但占用更多内存
+ * 返回的结构引用pairing，在其释放前pairing不能被释放
+ */
+ibe_public_prepared_ptr public_prepare(byte* g_in, size_t g_size,   // 参数g，长度128字节
+				       byte* g1_in, size_t g1_size, // 参数g1，长度128字节
+				       byte* h_in, size_t h_size,   // 参数h，长度128字节
+				       int fixed_base,              // 是否建立固定底数幂运算表
+				       ibe_pairing_ptr pairing);
+
+/*
+ * 预处理系统公共参数占用内存的估计值，单位字节
+ */
+size_t public_memory(ibe_public_prepared_ptr prepared);
+
+/*
+ * 释放预处理的系统公共参数
+ */
+void public_release(ibe_public_prepared_ptr prepared);
+
+/*
+ * 使用预处理的系统公共参数加密数据
+ */
+size_t encrypt_prepared(byte* cipher_buffer_out, size_t cipher_size, // 输出密文，长度384字节，按照uvw顺序排列
+			byte* plain_in, size_t plain_size,           // 明文，长度128字节
+			byte* alice_in, size_t alice_size,           // 接收方身份，如电子邮件地址
+			ibe_public_prepared_ptr prepared);
+
+/*
+ * 预先生成一次加密所需的随机量，与明文和接收方身份无关，可以在后台提前计算
+ * 输出依次为g1^s、g^s、e(g,g)^s和e(g,h)^-s，随机数s本身不输出
+ * 每份随机量只能用于一次加密，用后应擦除
+ */
+size_t encrypt_randomness(byte* randomness_out, size_t randomness_size, // 输出随机量，长度512字节
+			  ibe_public_prepared_ptr prepared);
+
+/*
+ * 使用预先生成的随机量加密数据，只需计算一次G1上的幂运算
+ */
+size_t encrypt_with_randomness(byte* cipher_buffer_out, size_t cipher_size, // 输出密文，长度384字节，按照uvw顺序排列
+			       byte* plain_in, size_t plain_size,           // 明文，长度128字节
+			       byte* alice_in, size_t alice_size,           // 接收方身份，如电子邮件地址
+			       byte* randomness_in, size_t randomness_size, // encrypt_randomness的输出，长度512字节
+			       ibe_public_prepared_ptr prepared);
+
+/*
+ * 预处理的用户私钥，以hID为固定参数预先计算Miller循环，用同一私钥多次解密时更快
+ * 依赖type a配对的对称性e(u,hID)=e(hID,u)
+ */
+typedef struct {
+    ibe_pairing_ptr pairing;
+    element_t rID;
+    pairing_pp_t hID_pp;
+} ibe_private_prepared;
+
+typedef ibe_private_prepared* ibe_private_prepared_ptr;
+
+/*
+ * 预处理用户私钥，失败时返回NULL
+ * 返回的结构引用pairing，在其释放前pairing不能被释放
+ */
+ibe_private_prepared_ptr private_prepare(byte* rID_in, size_t rID_size, // 私钥rID，长度20字节
+					 byte* hID_in, size_t hID_size, // 私钥hID，长度128字节
+					 ibe_pairing_ptr pairing);
+
+/*
+ * 释放预处理的用户私钥
+ */
+void private_release(ibe_private_prepared_ptr prepared);
+
+/*
+ * 使用预处理的用户私钥解密数据
+ */
+size_t decrypt_prepared(byte* plain_buffer_out, size_t plain_size, // 输出明文，长度128字节
+			byte* cipher_in, size_t cipher_size,       // 输入密文，长度384字节，按照uvw顺序排列
+			ibe_private_prepared_ptr prepared);
+
+/*
+ * 批量为用户生成私钥，系统参数只解码一次
+ * 每个hID_out[i]长度为128字节，rID_out[i]长度为20字节
+ * results[i]保存每个用户的结果，返回失败的数量，参数错误时返回-1
+ */
+size_t keygen_batch(byte** hID_out, byte** rID_out,           // 私钥输出
+		    byte** users_in, size_t* user_sizes,      // 用户身份及其长度
+		    size_t count,                             // 用户数量
+		    byte* alpha_in, size_t alpha_size,        // 系统主密钥，长度20字节
+		    byte* g_in, size_t g_size,                // 参数g，长度128字节
+		    byte* h_in, size_t h_size,                // 参数h，长度128字节
+		    ibe_pairing_ptr pairing,
+		    int* results);
+
+/*
+ * 使用预处理的系统公共参数批量加密数据
+ * 每个cipher_buffer_out[i]长度为384字节
+ * results[i]保存每条数据的结果，返回失败的数量，参数错误时返回-1
+ */
+size_t encrypt_batch(byte** cipher_buffer_out,                // 密文输出
+		     byte** plains_in, size_t* plain_sizes,   // 明文及其长度
+		     byte** alices_in, size_t* alice_sizes,   // 接收方身份及其长度
+		     size_t count,                            // 数据数量
+		     ibe_public_prepared_ptr prepared,
+		     int* results);
+
+/*
+ * 使用预处理的用户私钥批量解密数据
+ * 每个plain_buffer_out[i]长度为128字节
+ * results[i]保存每条数据的结果，返回失败的数量，参数错误时返回-1
+ */
+size_t decrypt_batch(byte** plain_buffer_out,                 // 明文输出
+		     byte** ciphers_in, size_t* cipher_sizes, // 密文及其长度
+		     size_t count,                            // 数据数量
+		     ibe_private_prepared_ptr prepared,
+		     int* results);
+
+/*
+ * 使用已解析的椭圆曲线参数生成系统参数
+ */
+size_t setup_handle(byte* alpha_out, size_t alpha_size, // 系统主密钥，长度20字节
+		    byte* g_out, size_t g_size,         // 参数g，长度128字节
+		    byte* g1_out, size_t g1_size,       // 参数g1，长度128字节
+		    byte* h_out, size_t h_size,         // 参数h，长度128字节
+		    ibe_pairing_ptr pairing);
+
+/*
+ * 由已有系统派生新的系统参数：随机生成主密钥alpha，g1 = g^alpha，g和h沿用原系统
+ * 只需一次幂运算，不必像setup那样重新生成g和h，用于批量签发证书
+ */
+size_t derive_handle(byte* alpha_out, size_t alpha_size, // 新系统主密钥，长度20字节
+		     byte* g1_out, size_t g1_size,       // 新系统参数g1，长度128字节
+		     byte* g_in, size_t g_size,          // 原系统参数g，长度128字节
+		     ibe_pairing_ptr pairing);
+
+/*
+ * 同derive_handle，使用预处理的原系统公共参数，有固定底数幂运算表时更快
+ */
+size_t derive_prepared(byte* alpha_out, size_t alpha_size, // 新系统主密钥，长度20字节
+		       byte* g1_out, size_t g1_size,       // 新系统参数g1，长度128字节
+		       ibe_public_prepared_ptr prepared);
+
+/*
+ * 使用已解析的椭圆曲线参数为用户生成私钥
+ */
+size_t keygen_handle(byte* hID_out, size_t hID_size,    // 私钥hID参数，长度128字节
+		     byte* rID_out, size_t rID_size,    // 私钥rID参数，长度20字节
+		     byte* user_in, size_t user_size,   // 用户身份，如电子邮件地址
+		     byte* alpha_in, size_t alpha_size, // 系统主密钥，长度20字节
+		     byte* g_in, size_t g_size,         // 参数g，长度128字节
+		     byte* h_in, size_t h_size,         // 参数h，长度128字节
+		     int random_rID,                    // 是否随机生成rID
+		     ibe_pairing_ptr pairing);
+
+/*
+ * 使用已解析的椭圆曲线参数加密数据
+ */
+size_t encrypt_handle(byte* cipher_buffer_out, size_t cipher_size, // 输出密文，长度384字节，按照uvw顺序排列
+		      byte* plain_in, size_t plain_size,           // 明文，长度128字节
+		      byte* g_in, size_t g_size,                   // 接收方参数g，长度128字节
+		      byte* g1_in, size_t g1_size,                 // 接收方参数g1，长度128字节
+		      byte* h_in, size_t h_size,                   // 接收方参数h，长度128字节
+		      byte* alice_in, size_t alice_size,           // 接收方身份，如电子邮件地址
+		      ibe_pairing_ptr pairing);
+
+/*
+ * 使用已解析的椭圆曲线参数解密数据
+ */
+size_t decrypt_handle(byte* plain_buffer_out, size_t plain_size, // 输出明文，长度128字节
+		      byte* cipher_in, size_t cipher_size,       // 输入密文，长度384字节，按照uvw顺序排列
+		      byte* rID_in, size_t rID_size,             // 接收方私钥rID，长度20字节
+		      byte* hID_in, size_t hID_size,             // 接收方私钥hID，长度128字节
+		      ibe_pairing_ptr pairing);
+
+/*
+ * 基于配对的短签名，签名者为持有系统主密钥alpha的一方
+ * M = H(message)，签名sigma = M^alpha，验证e(g, sigma) == e(g1, M)
+ * message应为调用方对签名者身份和数据摘要计算的哈希值
+ */
+size_t sign_handle(byte* sigma_out, size_t sigma_size,     // 输出签名，长度128字节
+		   byte* message_in, size_t message_size,  // 待签名的消息哈希
+		   byte* alpha_in, size_t alpha_size,      // 系统主密钥，长度20字节
+		   ibe_pairing_ptr pairing);
+
+/*
+ * 验证sign_handle生成的签名，签名有效时返回0，无效时返回1，参数错误时返回-1或缺少的字节数
+ */
+size_t verify_handle(byte* sigma_in, size_t sigma_size,     // 签名，长度128字节
+		     byte* message_in, size_t message_size, // 消息哈希
+		     byte* g_in, size_t g_size,             // 签名者参数g，长度128字节
+		     byte* g1_in, size_t g1_size,           // 签名者参数g1，长度128字节
+		     ibe_pairing_ptr pairing);
+
 /*
  * 生成系统参数
  */
@@ -30,6 +30,7 @@ int main(int argc, char** argv) {
   byte dec[PBC_G_SIZE];
   int i = 0;
  
+  ibe_random_init();
   setup_str(alpha, 20, g, 128, g1, 128, h, 128, pairing_str, strlen(pairing_str));
 
   printf("setup:\nalpha:\n");
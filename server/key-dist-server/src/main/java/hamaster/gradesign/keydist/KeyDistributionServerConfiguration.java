@@ -1,9 +1,14 @@
 package hamaster.gradesign.keydist;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.jdbc.DataSourceBuilder;
 import org.springframework.context.annotation.Bean;
@@ -45,4 +50,18 @@ public class KeyDistributionServerConfiguration {
         txManager.setEntityManagerFactory(entityManagerFactory);
         return txManager;
     }
+
+    /**
+     * Worker threads of the ID issuance queue, each one keeps one identity
+     * generation job in flight on the key generation server
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService issuanceWorkers(@Value("${hamaster.gradesign.keydist.req.workers:2}") int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "ibe-issuance-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 }
@@ -19,9 +19,9 @@ import org.springframework.web.bind.annotation.RestController;
 import hamaster.gradesgin.ibe.IBEConstraints;
 import hamaster.gradesgin.ibe.IBEPrivateKey;
 import hamaster.gradesgin.ibe.IBEPublicParameter;
-import hamaster.gradesgin.ibe.core.IBEEngine;
 import hamaster.gradesgin.ibs.IBSCertificate;
 import hamaster.gradesgin.ibs.IBSSignature;
+import hamaster.gradesgin.ibs.core.IBSEngine;
 import hamaster.gradesgin.util.Hash;
 import hamaster.gradesgin.util.Hex;
 import hamaster.gradesign.keydist.aop.UserAuth;
@@ -232,7 +232,7 @@ public class ClientRestController {
         if (signature == null)
             return signedErrorMessage(1, "Invalid request signature");
         byte[] hash = Hash.sha512(String.format("%s-%s", username, uuid));
-        if (IBEEngine.verify(signature, hash)) {
+        if (IBSEngine.verify(signature, hash)) {
             User user = userService.loginWithToken(username, uuid);
             if (user != null)
                 return signedErrorMessage(0, "Valid username and UUID");
@@ -244,7 +244,7 @@ public class ClientRestController {
     private Map<String, String> signedErrorMessage(int code, String message) {
         Map<String, String> resp = errorMessage(code, message);
         byte[] hash = Hash.sha512(String.format("%d-%s", code, message));
-        IBSSignature signature = IBEEngine.sign(client.serverCertificate(), hash, "SHA-512");
+        IBSSignature signature = client.signWithServerCertificate(hash, "SHA-512");
         resp.put("signature", Hex.hex(signature.toByteArray()));
         return resp;
     }
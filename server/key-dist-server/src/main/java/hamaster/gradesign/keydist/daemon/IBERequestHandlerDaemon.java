@@ -4,106 +4,79 @@ import static java.util.Objects.requireNonNull;
 
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.web.client.RestTemplateBuilder;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestTemplate;
 
-import hamaster.gradesgin.ibe.core.IBEEngine;
-import hamaster.gradesgin.ibs.IBSCertificate;
-import hamaster.gradesgin.ibs.IBSSignature;
 import hamaster.gradesign.keydist.entity.IDRequest;
 import hamaster.gradesign.keydist.service.IDRequestService;
-import hamaster.gradesign.keygen.IBECSR;
 
+/**
+ * 定期扫描未处理的身份请求并放入IDIssuanceQueue<br>
+ * 新激活的请求已由IBEMailParameterGenerator直接放入队列，这里只恢复队列已满、
+ * 处理失败或服务器重启前遗留的请求，以及其他分发服务器退出后租约已过期的请求
+ */
 @Component("ibeRequestHandlerDaemon")
 public class IBERequestHandlerDaemon implements Runnable {
 
     private Logger logger = LoggerFactory.getLogger(getClass());
 
-    final private static long YEAR = 31536000000l;
-
     private IDRequestService idRequestService;
 
-    private RestTemplate restTemplate;
-
-    private KeyGenClient system;
+    private IDIssuanceQueue issuanceQueue;
 
     /**
-     * 处理请求间隔 单位毫秒
+     * 扫描间隔 单位毫秒
      */
-    @Value("${hamaster.gradesign.keydist.req.interval:60000}")
+    @Value("${hamaster.gradesign.keydist.req.interval:300000}")
     private long interval;
 
     /**
-     * 每次处理的请求数量
+     * 每次扫描的请求数量
      */
-    @Value("${hamaster.gradesign.keydist.req.idbat:50}")
+    @Value("${hamaster.gradesign.keydist.req.sweepbat:500}")
     private int batchSize;
 
     private volatile boolean running;
 
     @Autowired
-    public IBERequestHandlerDaemon(RestTemplateBuilder restTemplateBuilder, IDRequestService idRequestDAO, KeyGenClient system) {
+    public IBERequestHandlerDaemon(IDRequestService idRequestDAO, IDIssuanceQueue issuanceQueue) {
         running = true;
-        this.restTemplate = requireNonNull(restTemplateBuilder).build();
         this.idRequestService = requireNonNull(idRequestDAO);
-        this.system = requireNonNull(system);
+        this.issuanceQueue = requireNonNull(issuanceQueue);
     }
 
     @Override
     public void run() {
         logger.info("IBERequestHandler started at {}", new Date().toString());
+        issuanceQueue.start();
         while (running) {
+            try {
+                sweep();
+            } catch (Exception e) {
+                logger.error("Failed to sweep unhandled ID requests", e);
+            }
             try {
                 Thread.sleep(interval);
             } catch (InterruptedException e) {}
-            List<IDRequest> userWork = idRequestService.listUnhandledRequests(batchSize);
-            if (userWork.size() == 0)
-                continue;
-            logger.info("Submitting {} ID requests", userWork.size());
-            List<IBECSR> work = new ArrayList<IBECSR>(userWork.size());
-            for (IDRequest idRequest : userWork) {
-                IBECSR csr = convert(idRequest);
-                work.add(csr);
-            }
-            Map<String, Integer> results = generateIdentityDescriptions(work);
-            logger.info("{} responses received for ID requests", results.size());
-            idRequestService.requestHandled(results);
         }
         logger.info("IBERequestHandler extied at {}", new Date().toString());
     }
 
-    @SuppressWarnings({"unchecked", "rawtypes"})
-    private Map<String, Integer> generateIdentityDescriptions(List<IBECSR> work) {
-        ResponseEntity<Map> response = restTemplate.postForEntity(String.format("%s/genidsync", system.getKeyGenServereURL()), work, Map.class);
-        if (response.hasBody())
-            return response.getBody();
-        return new HashMap<String, Integer>();
-    }
-
-    private IBECSR convert(IDRequest request) {
-        IBECSR csr = new IBECSR();
-        csr.setApplicationDate(request.getApplicationDate());
-        csr.setIbeSystemId(request.getIbeSystemId());
-        csr.setIdentityString(request.getIdentityString());
-        csr.setPassword(request.getPasswordToKeyGen());
-        csr.setPeriod(YEAR); // TODO a year
-        csr.setRequestId(request.getRequestId());
-        IBSCertificate certificate = system.serverCertificate();
-        if (certificate != null) {
-            IBSSignature signature = IBEEngine.sign(certificate, csr.getDigest(), "SHA-512");
-            csr.setSignature(signature.toByteArray());
-        }
-        return csr;
+    private void sweep() {
+        List<IDRequest> userWork = idRequestService.listUnhandledRequests(batchSize);
+        if (userWork.size() == 0)
+            return;
+        List<Integer> ids = new ArrayList<Integer>(userWork.size());
+        for (IDRequest idRequest : userWork)
+            ids.add(idRequest.getRequestId());
+        int added = issuanceQueue.offerAll(ids);
+        if (added > 0)
+            logger.info("Recovered {} unhandled ID requests", added);
     }
 
     public void stopHandler() {
@@ -0,0 +1,356 @@
+package hamaster.gradesign.keydist.daemon;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import hamaster.gradesgin.ibs.IBSCertificate;
+import hamaster.gradesgin.ibs.IBSSignature;
+import hamaster.gradesign.keydist.entity.IDRequest;
+import hamaster.gradesign.keydist.service.IDRequestService;
+import hamaster.gradesign.keygen.IBECSR;
+import hamaster.gradesign.keygen.IDGenerationJob;
+import hamaster.gradesign.keygen.SimpleRESTResponse;
+
+/**
+ * 身份请求的处理队列 请求激活后立即放入队列，由多个工作线程持续取出并提交给密钥生成服务器<br>
+ * 队列里只有请求序号，请求本身保存在IBE_ID_REQUEST表中；队列满或服务器重启时丢失的请求
+ * 仍是APPLICATION_STARTED状态，由IBERequestHandlerDaemon定期扫描后重新放入队列<br>
+ * 每个工作线程先阻塞等待一个请求，再取走队列中已有的请求凑成一批，空闲时单个请求立即提交，繁忙时自动变成整批提交<br>
+ * 提交前先在数据库中领取请求并持有一段时间的租约，多个分发服务器同时运行时同一请求只会被处理一次；
+ * 处理期间定期延长租约，服务器退出后租约过期的请求由其他服务器的扫描重新领取<br>
+ * 任务被密钥生成服务器接受后，只有得到结果或确认任务不存在时才交还请求，避免重复签发
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+@Component
+public class IDIssuanceQueue {
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private IDRequestService idRequestService;
+
+    private RestTemplate restTemplate;
+
+    private KeyGenClient system;
+
+    private ExecutorService workers;
+
+    private BlockingQueue<Integer> queue;
+
+    /**
+     * 在队列中或正在处理的请求 避免扫描时重复放入
+     */
+    private Set<Integer> pending;
+
+    /**
+     * 工作线程数量 即同时向密钥生成服务器提交的任务数量
+     */
+    @Value("${hamaster.gradesign.keydist.req.workers:2}")
+    private int workerCount;
+
+    /**
+     * 每批最多提交的请求数量
+     */
+    @Value("${hamaster.gradesign.keydist.req.idbat:50}")
+    private int batchSize;
+
+    /**
+     * 查询生成任务进度的间隔 也是密钥生成服务器繁忙时重试的间隔 单位毫秒
+     */
+    @Value("${hamaster.gradesign.keydist.req.poll:1000}")
+    private long pollInterval;
+
+    /**
+     * 领取请求的租约时长 单位毫秒
+     */
+    @Value("${hamaster.gradesign.keydist.req.lease:600000}")
+    private long lease;
+
+    /**
+     * 签发的身份证书有效期 从申请日期开始计算 单位毫秒 默认一年
+     */
+    @Value("${hamaster.gradesign.keydist.req.period:31536000000}")
+    private long period;
+
+    /**
+     * 本实例的领取者标识 服务器ID加上随机后缀 使用相同配置启动的多个实例也互不相同
+     */
+    private String leaseOwner;
+
+    private volatile boolean running;
+
+    @Autowired
+    public IDIssuanceQueue(RestTemplateBuilder restTemplateBuilder, IDRequestService idRequestService, KeyGenClient system,
+            @Qualifier("issuanceWorkers") ExecutorService workers, @Value("${hamaster.gradesign.keydist.req.queue:1000}") int capacity,
+            @Value("${hamaster.gradesign.keydist.server_id}") String serverId) {
+        this.restTemplate = requireNonNull(restTemplateBuilder).build();
+        this.idRequestService = requireNonNull(idRequestService);
+        this.system = requireNonNull(system);
+        this.workers = requireNonNull(workers);
+        this.queue = new LinkedBlockingQueue<Integer>(capacity);
+        this.pending = ConcurrentHashMap.newKeySet();
+        this.leaseOwner = requireNonNull(serverId) + "/" + UUID.randomUUID().toString();
+    }
+
+    /**
+     * 启动工作线程 需要在KeyGenClient初始化之后调用
+     */
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        for (int i = 0; i < workerCount; i++)
+            workers.execute(this::drain);
+        logger.info("{} ID issuance workers started", workerCount);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * 将请求放入队列
+     * @param requestId 请求序号
+     * @return 请求已在队列中或放入成功时返回true 队列已满时返回false
+     */
+    public boolean offer(Integer requestId) {
+        if (!pending.add(requireNonNull(requestId)))
+            return true;
+        if (queue.offer(requestId))
+            return true;
+        pending.remove(requestId);
+        return false;
+    }
+
+    /**
+     * 将多个请求放入队列
+     * @param requestIds 请求序号
+     * @return 新放入队列的请求数量
+     */
+    public int offerAll(Collection<Integer> requestIds) {
+        int added = 0;
+        for (Integer requestId : requestIds) {
+            if (pending.contains(requestId))
+                continue;
+            if (!offer(requestId))
+                break;
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * @return 在队列中或正在处理的请求数量
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    private void drain() {
+        while (running) {
+            List<Integer> batch = new ArrayList<Integer>(batchSize);
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            try {
+                process(batch);
+            } catch (Exception e) {
+                // 请求仍是APPLICATION_STARTED状态 由扫描重新放入队列
+                logger.error("Failed to issue {} ID requests", batch.size(), e);
+            } finally {
+                pending.removeAll(batch);
+            }
+        }
+    }
+
+    private void process(List<Integer> batch) {
+        List<IDRequest> userWork = idRequestService.claim(batch, leaseOwner, lease);
+        if (userWork.isEmpty())
+            return;
+        List<Integer> claimed = new ArrayList<Integer>(userWork.size());
+        List<IBECSR> work = new ArrayList<IBECSR>(userWork.size());
+        for (IDRequest idRequest : userWork) {
+            claimed.add(idRequest.getRequestId());
+            work.add(convert(idRequest));
+        }
+        logger.info("Submitting {} ID requests", work.size());
+        Lease renewal = new Lease(claimed);
+        String job;
+        try {
+            job = submit(work, renewal);
+        } catch (HttpStatusCodeException e) {
+            // 密钥生成服务器拒绝了任务 请求交还给扫描 不必等租约过期
+            idRequestService.release(claimed, leaseOwner);
+            throw e;
+        }
+        if (job == null) {
+            idRequestService.release(claimed, leaseOwner);
+            return;
+        }
+        // 任务已被接受 只有得到结果或确认任务不存在后才能交还请求，否则密钥生成服务器可能仍在生成，
+        // 交还后重新提交会重复签发；查询失败或服务器退出时保留租约，由租约过期后的扫描重新领取
+        Map<String, Integer> results = poll(job, renewal);
+        if (results == null) {
+            logger.warn("ID generation job {} was not finished, {} ID requests are left to lease expiry", job, claimed.size());
+            return;
+        }
+        try {
+            if (!results.isEmpty()) {
+                logger.info("{} responses received for ID requests", results.size());
+                idRequestService.requestHandled(results, leaseOwner);
+            }
+        } finally {
+            // 没有结果的请求交还给扫描 不必等租约过期
+            idRequestService.release(claimed, leaseOwner);
+        }
+    }
+
+    /**
+     * 提交异步生成任务 密钥生成服务器繁忙时等待后重试 不需要在整个生成过程中保持HTTP连接
+     * @return 任务序号 服务器没有接受任务或服务器退出时返回null
+     * @throws HttpStatusCodeException 密钥生成服务器拒绝了任务
+     * @throws RestClientException 提交失败且无法确定任务是否被接受
+     */
+    private String submit(List<IBECSR> work, Lease renewal) {
+        while (running) {
+            ResponseEntity<SimpleRESTResponse> response;
+            try {
+                response = restTemplate.postForEntity(String.format("%s/genid", system.getKeyGenServereURL()), work, SimpleRESTResponse.class);
+            } catch (HttpClientErrorException e) {
+                if (e.getStatusCode() != HttpStatus.TOO_MANY_REQUESTS)
+                    throw e;
+                logger.debug("Key generation server is busy, resubmitting {} ID requests later", work.size());
+                try {
+                    Thread.sleep(pollInterval);
+                } catch (InterruptedException ie) {
+                    return null;
+                }
+                renewal.renew();
+                continue;
+            }
+            if (!response.hasBody() || response.getBody().getPayload() == null)
+                return null;
+            return response.getBody().getPayload().toString();
+        }
+        return null;
+    }
+
+    /**
+     * 等待已接受的任务完成 查询暂时失败时继续查询，连续失败超过一个租约时长后放弃
+     * @return 生成结果 任务不存在时返回空的结果 服务器退出或放弃查询时返回null
+     */
+    private Map<String, Integer> poll(String job, Lease renewal) {
+        long lastContact = System.currentTimeMillis();
+        while (running) {
+            try {
+                Thread.sleep(pollInterval);
+            } catch (InterruptedException e) {
+                return null;
+            }
+            renewal.renew();
+            IDGenerationJob status;
+            try {
+                status = restTemplate.getForObject(String.format("%s/genid/{job}", system.getKeyGenServereURL()), IDGenerationJob.class, job);
+            } catch (HttpClientErrorException e) {
+                if (e.getStatusCode() != HttpStatus.NOT_FOUND)
+                    throw e;
+                // 密钥生成服务器重启后任务丢失 请求保持未处理状态
+                logger.info("ID generation job {} no longer exists", job);
+                return new HashMap<String, Integer>();
+            } catch (ResourceAccessException | HttpServerErrorException e) {
+                if (System.currentTimeMillis() - lastContact > lease) {
+                    logger.error("Failed to query ID generation job {}", job, e);
+                    return null;
+                }
+                logger.debug("Failed to query ID generation job {}, retrying", job, e);
+                continue;
+            }
+            lastContact = System.currentTimeMillis();
+            if (status == null)
+                return new HashMap<String, Integer>();
+            if (IDGenerationJob.STATUS_DONE.equals(status.getStatus()) || IDGenerationJob.STATUS_FAILED.equals(status.getStatus()))
+                return status.getResults() == null ? new HashMap<String, Integer>() : status.getResults();
+        }
+        return null;
+    }
+
+    /**
+     * 租约过半时延长租约 避免长时间运行的生成任务被其他服务器重新领取
+     */
+    private final class Lease {
+
+        final List<Integer> requestIds;
+        long renewAt;
+
+        Lease(List<Integer> requestIds) {
+            this.requestIds = requestIds;
+            this.renewAt = System.currentTimeMillis() + lease / 2;
+        }
+
+        void renew() {
+            long now = System.currentTimeMillis();
+            if (now < renewAt)
+                return;
+            int renewed = idRequestService.renewLease(requestIds, leaseOwner, lease);
+            if (renewed < requestIds.size())
+                logger.warn("{} of {} ID request leases were lost", requestIds.size() - renewed, requestIds.size());
+            renewAt = now + lease / 2;
+        }
+    }
+
+    private IBECSR convert(IDRequest request) {
+        IBECSR csr = new IBECSR();
+        csr.setApplicationDate(request.getApplicationDate());
+        csr.setIbeSystemId(request.getIbeSystemId());
+        csr.setIdentityString(request.getIdentityString());
+        csr.setPassword(request.getPasswordToKeyGen());
+        csr.setPeriod(period);
+        csr.setRequestId(request.getRequestId());
+        IBSCertificate certificate = system.serverCertificate();
+        if (certificate != null) {
+            IBSSignature signature = system.signWithServerCertificate(csr.getDigest(), "SHA-512");
+            csr.setSignature(signature.toByteArray());
+        }
+        return csr;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+}
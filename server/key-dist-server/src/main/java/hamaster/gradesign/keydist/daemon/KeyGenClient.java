@@ -24,6 +24,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.lang3.SystemUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
@@ -36,7 +37,7 @@ import hamaster.gradesgin.ibe.IBECipherText;
 import hamaster.gradesgin.ibe.IBEPlainText;
 import hamaster.gradesgin.ibe.IBEPrivateKey;
 import hamaster.gradesgin.ibe.IBEPublicParameter;
-import hamaster.gradesgin.ibe.core.IBEEngine;
+import hamaster.gradesgin.ibe.core.IBEContext;
 import hamaster.gradesgin.ibs.IBSCertificate;
 import hamaster.gradesgin.ibs.IBSSignature;
 import hamaster.gradesgin.util.Hash;
@@ -50,7 +51,7 @@ import hamaster.gradesign.keygen.SimpleRESTResponse;
 import hamaster.gradesign.keygen.entity.IdentityDescriptionEntity;
 
 @Service
-public class KeyGenClient {
+public class KeyGenClient implements DisposableBean {
 
     @Value("${hamaster.gradesign.keydist.genserver}")
     private String keyGenServereURL;
@@ -67,18 +68,23 @@ public class KeyGenClient {
     @Value("${hamaster.gradesign.keydist.server_key_dir}")
     private String serverKeyLocation;
 
+    @Value("${hamaster.gradesign.keydist.fixed_base:true}")
+    private Boolean fixedBaseTables;
+
     private final static String SERVER_KEY_FILE = "ibedist.key";
     private final static String SERVER_KEY_FILE_CONTENT = "content";
     private final static String SERVER_KEY_FILE_CRYPT_KEY = "key";
 
     private Integer currentSystemID;
     private IBSCertificate serverCertificate;
+    private IBEContext serverContext;
     private IBEPrivateKey serverPrivateKey;
     private Encoder base64;
     private RestTemplate restTemplate;
 
     private Map<Integer, String> systemIDs;
     private Map<Integer, IBEPublicParameter> systemParameters;
+    private Map<Integer, IBEContext> systemContexts;
 
     private final static Logger logger = LoggerFactory.getLogger(KeyGenClient.class);
 
@@ -89,6 +95,7 @@ public class KeyGenClient {
         currentSystemID = -1;
         systemIDs = new ConcurrentHashMap<Integer, String>();
         systemParameters = new ConcurrentHashMap<Integer, IBEPublicParameter>();
+        systemContexts = new ConcurrentHashMap<Integer, IBEContext>();
     }
 
     public void init() {
@@ -174,6 +181,11 @@ public class KeyGenClient {
             }
             serverPrivateKey = id == null ? null : id.getPrivateKey();
             serverCertificate = id == null ? null : id.getCertificate();
+            // the context is shared by request threads, so it holds its own pairing handle
+            IBEContext stale = serverContext;
+            serverContext = serverCertificate == null ? null : IBEContext.create(serverCertificate.getPublicParameter(), serverCertificate.getMasterKey(), false);
+            if (stale != null)
+                stale.close();
             if (serverPrivateKey != null && serverCertificate != null)
                 logger.info("Successfully loaded server private key");
         }
@@ -246,7 +258,7 @@ public class KeyGenClient {
         }
         byte[] sessionKey = randomKey(64);
         IBEPlainText plain = IBEPlainText.newIbePlainTextFormSignificantBytes(sessionKey);
-        IBECipherText cipher = IBEEngine.encrypt(getKeyGenServerPublicParameter(currentSystemID), plain, getSystemIDStr(currentSystemID));
+        IBECipherText cipher = getSystemContext(currentSystemID).encrypt(plain, getSystemIDStr(currentSystemID));
         IBECSR request = new IBECSR();
         request.setApplicationDate(new Date());
         request.setIdentityString(serverID);
@@ -289,7 +301,7 @@ public class KeyGenClient {
         content.append('/');
         content.append(id);
         byte[] digest = Hash.sha512(content.toString().getBytes());
-        IBSSignature signature = IBEEngine.sign(serverCertificate, digest, "SHA-512");
+        IBSSignature signature = signWithServerCertificate(digest, "SHA-512");
         ResponseEntity<SimpleRESTResponse> response = restTemplate.getForEntity(String.format("%s/getid/%s/%s?sig=%s", keyGenServereURL, systemStr, id, Hex.hex(signature.toByteArray())), SimpleRESTResponse.class);
         if (response.hasBody()) {
             SimpleRESTResponse resp = response.getBody();
@@ -308,7 +320,7 @@ public class KeyGenClient {
 
     public byte[] encryptSessionKeyForSystem(byte[] idPwdBin, int ibeSystemId) {
         IBEPlainText plainText = IBEPlainText.newIbePlainTextFormSignificantBytes(idPwdBin);
-        IBECipherText cipher = IBEEngine.encrypt(systemParameters.get(ibeSystemId), plainText , systemIDs.get(ibeSystemId));
+        IBECipherText cipher = getSystemContext(ibeSystemId).encrypt(plainText, systemIDs.get(ibeSystemId));
         return cipher.toByteArray();
     }
     
@@ -335,6 +347,47 @@ public class KeyGenClient {
         return systemParameters.get(systemID);
     }
 
+    /**
+     * Sign a digest with the server certificate, the decoded certificate
+     * context is reused by all callers.
+     * @return the signature, or null if the server certificate is not loaded
+     */
+    public IBSSignature signWithServerCertificate(byte[] digest, String hash) {
+        if (serverContext == null)
+            prepareServerKeys();
+        IBEContext context = serverContext;
+        IBSCertificate certificate = serverCertificate;
+        if (context == null || certificate == null)
+            return null;
+        return context.sign(certificate.getOwnerString(), digest, hash);
+    }
+
+    /**
+     * Contexts are created once per system so that encryption does not
+     * decode the public parameter or compute pairings on every request.
+     */
+    public IBEContext getSystemContext(Integer systemID) {
+        return systemContexts.computeIfAbsent(systemID, id -> {
+            IBEPublicParameter parameter = systemParameters.get(id);
+            if (parameter == null)
+                return null;
+            IBEContext context = IBEContext.create(parameter, null, fixedBaseTables);
+            if (context != null)
+                logger.info("Prepared context for system {}, fixed-base tables: {}, native memory: {} bytes", id,
+                        context.getPreparedPublicParameter().isFixedBase(), context.getPreparedPublicParameter().memoryUsage());
+            return context;
+        });
+    }
+
+    @Override
+    public void destroy() {
+        for (IBEContext context : systemContexts.values())
+            context.close();
+        systemContexts.clear();
+        if (serverContext != null)
+            serverContext.close();
+    }
+
     public Integer getCurrentSystemID() {
         return currentSystemID;
     }
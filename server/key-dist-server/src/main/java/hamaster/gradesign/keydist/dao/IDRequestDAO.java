@@ -1,5 +1,6 @@
 package hamaster.gradesign.keydist.dao;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -23,6 +24,15 @@ public interface IDRequestDAO extends JpaRepository<IDRequest, Integer> {
 
     List<IDRequest> findAllByStatus(int status, Pageable page);
 
+    /**
+     * 查找未处理或处理租约已过期的申请
+     */
+    @Query("select i from IDRequest i where i.status = :s or (i.status = :p and i.leaseUntil < :t)")
+    List<IDRequest> findAllClaimable(@Param("s") int started, @Param("p") int processing, @Param("t") long now, Pageable page);
+
+    @Query("select i from IDRequest i where i.requestId in :r and i.status = :p and i.leaseOwner = :o")
+    List<IDRequest> findAllClaimedBy(@Param("r") Collection<Integer> requestIds, @Param("p") int processing, @Param("o") String owner);
+
     @Query("select i from IDRequest i where i.applicant = :o and i.status = :s")
     List<IDRequest> findAllByUserAndStatus(@Param("o") User owner, @Param("s") int status, Pageable page);
 
@@ -85,6 +85,18 @@ public class IDRequest implements Serializable, Cloneable {
     @Column(nullable = false, name = "APPLICATION_STATUS")
     private Integer status;
 
+    /**
+     * 正在处理申请的分发服务器 只在APPLICATION_PROCESSING状态时有值
+     */
+    @Column(name = "LEASE_OWNER", length = 128)
+    private String leaseOwner;
+
+    /**
+     * 处理租约的过期时间 过期后其他分发服务器可以重新领取该申请
+     */
+    @Column(name = "LEASE_UNTIL")
+    private Long leaseUntil;
+
     public IDRequest() {
     }
 
@@ -195,6 +207,24 @@ public class IDRequest implements Serializable, Cloneable {
         return this.passwordToKeyGen;
     }
 
+    @JsonIgnore
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public void setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
+    @JsonIgnore
+    public Long getLeaseUntil() {
+        return leaseUntil;
+    }
+
+    public void setLeaseUntil(Long leaseUntil) {
+        this.leaseUntil = leaseUntil;
+    }
+
     /*
      * (non-Javadoc)
      * @see java.lang.Object#clone()
@@ -210,6 +240,8 @@ public class IDRequest implements Serializable, Cloneable {
         copy.applicationDate = this.applicationDate;
         copy.status = this.status;
         copy.passwordToKeyGen = this.passwordToKeyGen;
+        copy.leaseOwner = this.leaseOwner;
+        copy.leaseUntil = this.leaseUntil;
         return copy;
     }
 
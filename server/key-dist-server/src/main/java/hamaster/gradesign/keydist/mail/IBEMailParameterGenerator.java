@@ -11,11 +11,12 @@ import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import hamaster.gradesgin.ibe.core.IBEEngine;
 import hamaster.gradesgin.ibs.IBSSignature;
+import hamaster.gradesgin.ibs.core.IBSEngine;
 import hamaster.gradesgin.util.Hash;
 import hamaster.gradesign.keydist.client.Base64Encoder;
 import hamaster.gradesign.keydist.client.Encoder;
+import hamaster.gradesign.keydist.daemon.IDIssuanceQueue;
 import hamaster.gradesign.keydist.daemon.KeyGenClient;
 import hamaster.gradesign.keydist.dao.UserDAO;
 import hamaster.gradesign.keydist.entity.IDRequest;
@@ -34,19 +35,21 @@ public class IBEMailParameterGenerator {
     private UserDAO userDAO;
     private IDRequestService requestDAO;
     private KeyGenClient system;
+    private IDIssuanceQueue issuanceQueue;
 
     @Autowired
-    public IBEMailParameterGenerator(UserDAO userDAO, IDRequestService requestDAO, KeyGenClient system) {
+    public IBEMailParameterGenerator(UserDAO userDAO, IDRequestService requestDAO, KeyGenClient system, IDIssuanceQueue issuanceQueue) {
         this.userDAO = requireNonNull(userDAO);
         this.requestDAO = requireNonNull(requestDAO);
         this.system = requireNonNull(system);
+        this.issuanceQueue = requireNonNull(issuanceQueue);
     }
 
     public Properties sign(ActivationContent content) {
         Properties props = new Properties();
         byte[] bs = ActivationContent.toBytes(content);
         byte[] digest = Hash.sha512(bs);
-        IBSSignature signature = IBEEngine.sign(system.serverCertificate(), digest, "SHA-512");
+        IBSSignature signature = system.signWithServerCertificate(digest, "SHA-512");
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
             signature.writeExternal(out);
@@ -79,7 +82,7 @@ public class IBEMailParameterGenerator {
         } catch (IOException e) {
         } catch (ClassNotFoundException e) {
         }
-        boolean b0 = IBEEngine.verify(sign, digest);
+        boolean b0 = IBSEngine.verify(sign, digest);
         if (!b0)
             return 1;// 错误
         ActivationContent activationContent = ActivationContent.fromBytes(content);
@@ -93,6 +96,8 @@ public class IBEMailParameterGenerator {
                     return 3;//已经激活
                 request.setStatus(IBECSR.APPLICATION_STARTED);
                 requestDAO.save(request);
+                // 队列已满时由IBERequestHandlerDaemon扫描后放入
+                issuanceQueue.offer(request.getRequestId());
             } else if (activationContent.getType() == ActivationContent.ACTIVE_USER) {
                 if (applicant.getStatus() != User.USER_REG)
                     return 3;
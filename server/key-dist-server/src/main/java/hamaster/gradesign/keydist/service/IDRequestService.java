@@ -1,5 +1,6 @@
 package hamaster.gradesign.keydist.service;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -41,17 +42,44 @@ public interface IDRequestService {
     }
 
     /**
-     * 获取未处理的请求列表
+     * 获取未处理的请求列表 包括处理租约已过期的请求
      * @param amount 获取数量
      * @return 请求列表
      */
     List<IDRequest> listUnhandledRequests(int amount);
 
     /**
-     * 将处理后的请求写回数据库
-     * @param requests
+     * 领取请求 一条UPDATE语句把未处理或租约已过期的请求改为APPLICATION_PROCESSING状态，
+     * 多个分发服务器同时领取同一请求时只有一个能成功
+     * @param requestIds 要领取的请求序号
+     * @param owner 领取者 每个分发服务器实例唯一
+     * @param leaseMillis 租约时长 单位毫秒
+     * @return 领取成功的请求
      */
-    void requestHandled(Map<String, Integer> results);
+    List<IDRequest> claim(Collection<Integer> requestIds, String owner, long leaseMillis);
+
+    /**
+     * 延长仍由owner持有的租约
+     * @param requestIds 请求序号
+     * @param owner 领取者
+     * @param leaseMillis 从现在起的租约时长 单位毫秒
+     * @return 延长的请求数量
+     */
+    int renewLease(Collection<Integer> requestIds, String owner, long leaseMillis);
+
+    /**
+     * 放弃仍由owner持有的请求 请求恢复为APPLICATION_STARTED状态
+     * @param requestIds 请求序号
+     * @param owner 领取者
+     */
+    void release(Collection<Integer> requestIds, String owner);
+
+    /**
+     * 将处理后的请求写回数据库 只更新仍由owner持有的请求
+     * @param results 身份字符串和处理结果
+     * @param owner 领取者
+     */
+    void requestHandled(Map<String, Integer> results, String owner);
 
     /**
      * 获取某一用户所有身份请求的数量
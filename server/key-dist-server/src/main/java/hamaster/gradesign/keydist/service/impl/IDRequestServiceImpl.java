@@ -3,6 +3,8 @@ package hamaster.gradesign.keydist.service.impl;
 import static java.util.Objects.requireNonNull;
 
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -14,6 +16,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.jdbc.core.SqlParameter;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.object.BatchSqlUpdate;
 import org.springframework.stereotype.Service;
 
@@ -30,6 +34,7 @@ public class IDRequestServiceImpl implements IDRequestService {
 
     private IDRequestDAO idRequestRepo;
     private DataSource dataSource;
+    private NamedParameterJdbcTemplate jdbcTemplate;
 
     @Value("${ibe.key.dist.batch_size:100}")
     private int batchSize;
@@ -38,6 +43,7 @@ public class IDRequestServiceImpl implements IDRequestService {
     public IDRequestServiceImpl(IDRequestDAO idRequestRepo, DataSource dataSource) {
         this.idRequestRepo = requireNonNull(idRequestRepo);
         this.dataSource = requireNonNull(dataSource);
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
     }
 
     @Override
@@ -62,17 +68,67 @@ public class IDRequestServiceImpl implements IDRequestService {
 
     @Override
     public List<IDRequest> listUnhandledRequests(int amount) {
-        return idRequestRepo.findAllByStatus(IBECSR.APPLICATION_STARTED, PageRequest.of(0, amount));
+        return idRequestRepo.findAllClaimable(IBECSR.APPLICATION_STARTED, IBECSR.APPLICATION_PROCESSING, System.currentTimeMillis(), PageRequest.of(0, amount));
     }
 
     @Override
-    public void requestHandled(Map<String, Integer> results) {
-        BatchSqlUpdate sql = new BatchSqlUpdate(dataSource, "update ibe_id_request set application_status=? where identity_string=? and application_status<2");
+    public List<IDRequest> claim(Collection<Integer> requestIds, String owner, long leaseMillis) {
+        if (requestIds.isEmpty())
+            return new ArrayList<IDRequest>();
+        long now = System.currentTimeMillis();
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("processing", IBECSR.APPLICATION_PROCESSING)
+                .addValue("started", IBECSR.APPLICATION_STARTED)
+                .addValue("owner", requireNonNull(owner))
+                .addValue("until", now + leaseMillis)
+                .addValue("now", now)
+                .addValue("ids", requestIds);
+        int claimed = jdbcTemplate.update("update ibe_id_request set application_status=:processing, lease_owner=:owner, lease_until=:until "
+                + "where request_id in (:ids) and (application_status=:started or (application_status=:processing and lease_until<:now))", params);
+        if (claimed == 0)
+            return new ArrayList<IDRequest>();
+        return idRequestRepo.findAllClaimedBy(requestIds, IBECSR.APPLICATION_PROCESSING, owner);
+    }
+
+    @Override
+    public int renewLease(Collection<Integer> requestIds, String owner, long leaseMillis) {
+        if (requestIds.isEmpty())
+            return 0;
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("processing", IBECSR.APPLICATION_PROCESSING)
+                .addValue("owner", requireNonNull(owner))
+                .addValue("until", System.currentTimeMillis() + leaseMillis)
+                .addValue("ids", requestIds);
+        return jdbcTemplate.update("update ibe_id_request set lease_until=:until "
+                + "where request_id in (:ids) and application_status=:processing and lease_owner=:owner", params);
+    }
+
+    @Override
+    public void release(Collection<Integer> requestIds, String owner) {
+        if (requestIds.isEmpty())
+            return;
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("processing", IBECSR.APPLICATION_PROCESSING)
+                .addValue("started", IBECSR.APPLICATION_STARTED)
+                .addValue("owner", requireNonNull(owner))
+                .addValue("ids", requestIds);
+        jdbcTemplate.update("update ibe_id_request set application_status=:started, lease_owner=null, lease_until=null "
+                + "where request_id in (:ids) and application_status=:processing and lease_owner=:owner", params);
+    }
+
+    @Override
+    public void requestHandled(Map<String, Integer> results, String owner) {
+        if (results.isEmpty())
+            return;
+        BatchSqlUpdate sql = new BatchSqlUpdate(dataSource, "update ibe_id_request set application_status=?, lease_owner=null, lease_until=null "
+                + "where identity_string=? and application_status=? and lease_owner=?");
         sql.setBatchSize(batchSize > results.size() ? results.size() : batchSize);
         sql.declareParameter(new SqlParameter(Types.INTEGER));
         sql.declareParameter(new SqlParameter(Types.VARCHAR));
+        sql.declareParameter(new SqlParameter(Types.INTEGER));
+        sql.declareParameter(new SqlParameter(Types.VARCHAR));
         for (String id : results.keySet()) {
-            sql.update(results.get(id), id);
+            sql.update(results.get(id), id, IBECSR.APPLICATION_PROCESSING, owner);
         }
         sql.flush();
     }
@@ -0,0 +1,162 @@
+package hamaster.gradesign.keydist.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.lang.reflect.Proxy;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+
+import hamaster.gradesgin.ibs.IBSCertificate;
+import hamaster.gradesign.keydist.client.HexEncoder;
+import hamaster.gradesign.keydist.daemon.IDIssuanceQueue;
+import hamaster.gradesign.keydist.daemon.KeyGenClient;
+import hamaster.gradesign.keydist.entity.IDRequest;
+import hamaster.gradesign.keydist.service.IDRequestService;
+
+/**
+ * 身份请求处理队列交还请求的时机 密钥生成服务器由MockRestServiceServer模拟
+ */
+public class TestIDIssuanceQueue {
+
+    final static String KEYGEN = "http://keygen";
+
+    List<String> calls;
+    MockRestServiceServer server;
+    ExecutorService workers;
+    IDIssuanceQueue queue;
+
+    @BeforeEach
+    public void setUp() {
+        calls = new CopyOnWriteArrayList<String>();
+        workers = Executors.newSingleThreadExecutor();
+        MockRestServiceServer[] bound = new MockRestServiceServer[1];
+        RestTemplateBuilder builder = new RestTemplateBuilder(restTemplate -> bound[0] = MockRestServiceServer.bindTo(restTemplate).build());
+        queue = new IDIssuanceQueue(builder, requestService(), new StubKeyGenClient(), workers, 16, "test");
+        server = bound[0];
+        ReflectionTestUtils.setField(queue, "workerCount", 1);
+        ReflectionTestUtils.setField(queue, "batchSize", 10);
+        ReflectionTestUtils.setField(queue, "pollInterval", 1L);
+        ReflectionTestUtils.setField(queue, "lease", 50L);
+        ReflectionTestUtils.setField(queue, "period", 31536000000L);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        queue.stop();
+        workers.shutdownNow();
+    }
+
+    @Test
+    public void testPollFailureKeepsLease() throws InterruptedException {
+        server.expect(requestTo(KEYGEN + "/genid")).andExpect(method(HttpMethod.POST))
+                .andRespond(withSuccess("{\"resultCode\":0,\"payload\":\"job-1\"}", MediaType.APPLICATION_JSON));
+        server.expect(ExpectedCount.manyTimes(), requestTo(KEYGEN + "/genid/job-1")).andExpect(method(HttpMethod.GET))
+                .andRespond(request -> {
+                    throw new SocketTimeoutException("Read timed out");
+                });
+        issue(1);
+        assertEquals(Collections.singletonList("claim"), calls.subList(0, 1));
+        // 任务可能仍在密钥生成服务器上运行 请求不能交还
+        assertFalse(calls.contains("release"), calls.toString());
+        assertFalse(calls.contains("requestHandled"), calls.toString());
+    }
+
+    @Test
+    public void testUnknownJobReleasesRequests() throws InterruptedException {
+        server.expect(requestTo(KEYGEN + "/genid")).andExpect(method(HttpMethod.POST))
+                .andRespond(withSuccess("{\"resultCode\":0,\"payload\":\"job-2\"}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(KEYGEN + "/genid/job-2")).andExpect(method(HttpMethod.GET))
+                .andRespond(withStatus(HttpStatus.NOT_FOUND));
+        issue(2);
+        assertTrue(calls.contains("release"), calls.toString());
+        assertFalse(calls.contains("requestHandled"), calls.toString());
+    }
+
+    @Test
+    public void testRejectedJobReleasesRequests() throws InterruptedException {
+        server.expect(requestTo(KEYGEN + "/genid")).andExpect(method(HttpMethod.POST))
+                .andRespond(withStatus(HttpStatus.BAD_REQUEST));
+        issue(3);
+        assertTrue(calls.contains("release"), calls.toString());
+    }
+
+    /**
+     * 放入一个请求并等待处理结束
+     */
+    private void issue(Integer requestId) throws InterruptedException {
+        queue.start();
+        assertTrue(queue.offer(requestId));
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (queue.size() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, queue.size());
+    }
+
+    private IDRequestService requestService() {
+        return (IDRequestService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { IDRequestService.class },
+                (proxy, method, args) -> {
+                    calls.add(method.getName());
+                    switch (method.getName()) {
+                    case "claim":
+                        List<IDRequest> claimed = new ArrayList<IDRequest>();
+                        for (Object requestId : (Collection<?>) args[0]) {
+                            IDRequest request = new IDRequest();
+                            request.setRequestId((Integer) requestId);
+                            request.setIdentityString(requestId + "@gradesign.hamaster");
+                            request.setIbeSystemId(0);
+                            request.setApplicationDate(new Date());
+                            claimed.add(request);
+                        }
+                        return claimed;
+                    case "renewLease":
+                        return ((Collection<?>) args[0]).size();
+                    default:
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * 没有服务器证书的密钥生成服务器客户端 请求不签名
+     */
+    final static class StubKeyGenClient extends KeyGenClient {
+
+        StubKeyGenClient() {
+            super(new RestTemplateBuilder(), new HexEncoder());
+        }
+
+        @Override
+        public IBSCertificate serverCertificate() {
+            return null;
+        }
+
+        @Override
+        public String getKeyGenServereURL() {
+            return KEYGEN;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package hamaster.gradesign.keygen;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * 异步批量生成身份描述任务的状态
+ * Status of an asynchronous identity generation batch
+ */
+public class IDGenerationJob implements Serializable {
+    private static final long serialVersionUID = 2390167541638730312L;
+
+    final public static String STATUS_QUEUED = "QUEUED";
+    final public static String STATUS_RUNNING = "RUNNING";
+    final public static String STATUS_DONE = "DONE";
+    final public static String STATUS_FAILED = "FAILED";
+
+    /**
+     * 任务序号
+     */
+    private String jobId;
+
+    /**
+     * 任务状态 QUEUED RUNNING DONE FAILED之一
+     */
+    private String status;
+
+    /**
+     * 请求的身份数量
+     */
+    private int total;
+
+    /**
+     * 已处理的身份数量
+     */
+    private int processed;
+
+    /**
+     * 已处理身份的结果 值为IBECSR.APPLICATION_*
+     */
+    private Map<String, Integer> results;
+
+    private Date submitted;
+
+    private Date finished;
+
+    public IDGenerationJob() {
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public int getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(int processed) {
+        this.processed = processed;
+    }
+
+    public Map<String, Integer> getResults() {
+        return results;
+    }
+
+    public void setResults(Map<String, Integer> results) {
+        this.results = results;
+    }
+
+    public Date getSubmitted() {
+        return submitted;
+    }
+
+    public void setSubmitted(Date submitted) {
+        this.submitted = submitted;
+    }
+
+    public Date getFinished() {
+        return finished;
+    }
+
+    public void setFinished(Date finished) {
+        this.finished = finished;
+    }
+
+    @Override
+    public String toString() {
+        return "IDGenerationJob [jobId=" + jobId + ", status=" + status + ", total=" + total + ", processed="
+                + processed + ", submitted=" + submitted + ", finished=" + finished + "]";
+    }
+}
@@ -1,9 +1,16 @@
 package hamaster.gradesign.keygen;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.jdbc.DataSourceBuilder;
 import org.springframework.context.annotation.Bean;
@@ -13,6 +20,11 @@ import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
 import org.springframework.transaction.PlatformTransactionManager;
 
+import hamaster.gradesgin.ibe.core.IBEEngine;
+import hamaster.gradesgin.ibe.core.IBEMaterialPool;
+import hamaster.gradesign.keygen.entity.IBESystemEntity;
+import hamaster.gradesign.keygen.idmgmt.IBESystemCache;
+
 @Configuration
 public class KeyGenServerConfiguration {
 
@@ -43,4 +55,62 @@ public class KeyGenServerConfiguration {
         txManager.setEntityManagerFactory(entityManagerFactory);
         return txManager;
     }
+
+    /**
+     * Pre-generates system parameters, certificate keys and encryption
+     * randomness in the background so registration spikes do not wait on them
+     */
+    @Bean(destroyMethod = "close")
+    public IBEMaterialPool materialPool(@Value("${ibe.material.pool.capacity:64}") int capacity,
+            @Value("${ibe.material.pool.low-watermark:16}") int lowWatermark,
+            @Value("${ibe.material.pool.threads:1}") int threads) {
+        IBEMaterialPool pool = new IBEMaterialPool(capacity, lowWatermark, threads);
+        IBEEngine.setMaterialPool(pool);
+        return pool;
+    }
+
+    /**
+     * Keeps decrypted IBE systems in memory so key generation does not AES
+     * decrypt and deserialize the system on every request
+     */
+    @Bean(destroyMethod = "clear")
+    public IBESystemCache systemCache(@Value("${ibe.system.cache.size:32}") int maxSize,
+            @Value("${ibe.system.cache.ttl:600000}") long ttlMillis) {
+        IBESystemCache cache = new IBESystemCache(maxSize, ttlMillis);
+        IBESystemEntity.setSystemCache(cache);
+        return cache;
+    }
+
+    /**
+     * Bounded pool for the per-user certificate generation and capsule
+     * encryption of identity batches, sized to the number of cores by default.
+     * When the queue is full the submitting request thread runs the task itself.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService identityWorkers(@Value("${ibe.keygen.workers:0}") int threads) {
+        int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(size * 16), r -> {
+                    Thread thread = new Thread(r, "ibe-keygen-worker-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Shared queue for asynchronous identity generation jobs, submissions are
+     * rejected when the queue is full so the /genid endpoint can answer 429
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService identityJobs(@Value("${ibe.keygen.jobs.threads:1}") int threads,
+            @Value("${ibe.keygen.jobs.queue:16}") int queue) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queue), r -> {
+                    Thread thread = new Thread(r, "ibe-keygen-job-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
 }
@@ -16,6 +16,7 @@ import org.springframework.web.bind.annotation.RestController;
 import hamaster.gradesgin.ibe.IBEPublicParameter;
 import hamaster.gradesign.keygen.SimpleRESTResponse;
 import hamaster.gradesign.keygen.idmgmt.IBESystemBean;
+import hamaster.gradesign.keygen.idmgmt.IBESystemCache;
 
 @RestController
 public class IBESystemController {
@@ -24,9 +25,12 @@ public class IBESystemController {
 
     private IBESystemBean ibeSystem;
 
+    private IBESystemCache systemCache;
+
     @Autowired
-    public IBESystemController(IBESystemBean ibeSystem) {
+    public IBESystemController(IBESystemBean ibeSystem, IBESystemCache systemCache) {
         this.ibeSystem = requireNonNull(ibeSystem);
+        this.systemCache = requireNonNull(systemCache);
     }
 
     // generate a demo system for testing
@@ -52,6 +56,11 @@ public class IBESystemController {
         return ibeSystem.listAllParameters();
     }
 
+    @GetMapping("/system/cache")
+    public Map<String, Long> systemCacheStatistics() {
+        return systemCache.statistics();
+    }
+
     @GetMapping("/system/{owner}/number")
     public SimpleRESTResponse getSystemIDNumber(@PathVariable(value = "owner", required = true) String owner) {
         SimpleRESTResponse resp = new SimpleRESTResponse();
@@ -5,10 +5,10 @@ import static java.util.Objects.requireNonNull;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -17,13 +17,15 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import hamaster.gradesgin.ibe.IBEConstraints;
-import hamaster.gradesgin.ibe.core.IBEEngine;
 import hamaster.gradesgin.ibs.IBSSignature;
+import hamaster.gradesgin.ibs.core.IBSEngine;
 import hamaster.gradesgin.util.Hash;
 import hamaster.gradesgin.util.Hex;
 import hamaster.gradesign.keygen.IBECSR;
+import hamaster.gradesign.keygen.IDGenerationJob;
 import hamaster.gradesign.keygen.SimpleRESTResponse;
 import hamaster.gradesign.keygen.entity.IdentityDescriptionEntity;
+import hamaster.gradesign.keygen.idmgmt.IDGenerationJobBean;
 import hamaster.gradesign.keygen.idmgmt.IdentityDescriptionBean;
 
 @RestController
@@ -31,14 +33,39 @@ public class IdentityDescriptionController {
 
     private IdentityDescriptionBean identityDescriptionBean;
 
+    private IDGenerationJobBean jobBean;
+
     @Autowired
-    public IdentityDescriptionController(IdentityDescriptionBean identityDescriptionBean) {
+    public IdentityDescriptionController(IdentityDescriptionBean identityDescriptionBean, IDGenerationJobBean jobBean) {
         this.identityDescriptionBean = requireNonNull(identityDescriptionBean);
+        this.jobBean = requireNonNull(jobBean);
     }
 
+    /**
+     * Queue a batch of ID requests, the payload of the response is the job id
+     * to poll with GET /genid/{job}. Answers 429 when the job queue is full.
+     */
     @PostMapping("/genid")
-    public CompletableFuture<Map<String, Integer>> processIDGeneration(@RequestBody(required = true) List<IBECSR> requests) throws InterruptedException, ExecutionException {
-        return CompletableFuture.completedFuture(identityDescriptionBean.generateIdentityDescriptionsSync(requests));
+    public ResponseEntity<SimpleRESTResponse> processIDGeneration(@RequestBody(required = true) List<IBECSR> requests) {
+        SimpleRESTResponse resp = new SimpleRESTResponse();
+        IDGenerationJob job = jobBean.submit(requests);
+        if (job == null) {
+            resp.setResultCode(1);
+            resp.setMessage("ID generation queue is full, retry later");
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(resp);
+        }
+        resp.setResultCode(0);
+        resp.setMessage(String.format("%d ID requests queued", job.getTotal()));
+        resp.setPayload(job.getJobId());
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(resp);
+    }
+
+    @GetMapping("/genid/{job}")
+    public ResponseEntity<IDGenerationJob> getIDGenerationJob(@PathVariable(value = "job", required = true) String job) {
+        IDGenerationJob status = jobBean.get(job);
+        if (status == null)
+            return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(status);
     }
 
     @PostMapping("/singleid")
@@ -81,7 +108,7 @@ public class IdentityDescriptionController {
         byte[] digest = Hash.sha512(content.toString().getBytes());
         try {
             IBSSignature signature = IBEConstraints.fromByteArray(Hex.unhex(distServerSig), IBSSignature.class);
-            if (IBEEngine.verify(signature, digest)) {
+            if (IBSEngine.verify(signature, digest)) {
                 IdentityDescriptionEntity entity = identityDescriptionBean.get(id, system);
                 resp.setPayload(entity);
                 resp.setResultCode(0);
@@ -21,6 +21,7 @@ import hamaster.gradesgin.util.IBECapsule;
 import hamaster.gradesgin.util.IBECapsuleAESImpl;
 import hamaster.gradesgin.util.MemoryUtil;
 import hamaster.gradesign.keygen.IBESystem;
+import hamaster.gradesign.keygen.idmgmt.IBESystemCache;
 
 /**
  * 储存一个IBE系统参数的表
@@ -67,6 +68,11 @@ public class IBESystemEntity implements Serializable {
     @Column(nullable = false, name = "SYSTEM_KEY", length = 1024)
     private String systemKeyHash;
 
+    /**
+     * 解密后的系统缓存 为null时每次都解密
+     */
+    private static volatile IBESystemCache systemCache;
+
     public IBESystemEntity() {
     }
 
@@ -102,13 +108,29 @@ public class IBESystemEntity implements Serializable {
         this.systemKeyHash = systemKeyHash;
     }
 
+    /**
+     * 设置解密后的系统缓存
+     * @param cache 缓存 为null时关闭缓存
+     */
+    public static void setSystemCache(IBESystemCache cache) {
+        systemCache = cache;
+    }
+
     /**
      * 获取密码保护的IBESystem对象
      * 加密方式为AES256_CBC_PKCS5Padding
+     * 设置了缓存时优先使用缓存中已解密的系统
      * @param cryptionKey 加密用的密钥
      * @return IBESystem对象
      */
     public IBESystem getSystem(byte[] cryptionKey) {
+        IBESystemCache cache = systemCache;
+        if (cache == null || systemId == null)
+            return decryptSystem(cryptionKey);
+        return cache.get(systemId, cryptionKey, () -> decryptSystem(cryptionKey));
+    }
+
+    private IBESystem decryptSystem(byte[] cryptionKey) {
         synchronized (this) {
             IBESystem system;
             if (encryptedIBESystem == null)
@@ -151,6 +173,9 @@ public class IBESystemEntity implements Serializable {
                 return;
             }
         }
+        IBESystemCache cache = systemCache;
+        if (cache != null && systemId != null)
+            cache.invalidate(systemId);
     }
 
     public byte[] getPublicParameter() {
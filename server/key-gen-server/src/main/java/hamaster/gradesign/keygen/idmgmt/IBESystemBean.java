@@ -4,6 +4,9 @@ import java.util.Map;
 
 import hamaster.gradesgin.ibe.IBEPrivateKey;
 import hamaster.gradesgin.ibe.IBEPublicParameter;
+import hamaster.gradesgin.ibe.core.IBEContext;
+import hamaster.gradesgin.ibe.core.IBEPreparedPrivateKey;
+import hamaster.gradesgin.ibe.core.IBEPreparedPublicParameter;
 import hamaster.gradesign.keygen.IBESystem;
 
 public interface IBESystemBean {
@@ -23,6 +26,30 @@ public interface IBESystemBean {
 
     IBEPrivateKey getPrivateKeyForSystem(Integer systemID);
 
+    /**
+     * Get the decoded context of a system including its master key, the
+     * context is created once and shared by all callers
+     * @param systemID system ID
+     * @return the context, or null if the system does not exist
+     */
+    IBEContext getContextForSystem(Integer systemID);
+
+    /**
+     * Get the server private key of a system prepared for repeated decryption,
+     * the key is prepared once and shared by all callers
+     * @param systemID system ID
+     * @return the prepared key, or null if the system does not exist
+     */
+    IBEPreparedPrivateKey getPreparedPrivateKeyForSystem(Integer systemID);
+
+    /**
+     * Get the public parameter of the system root certificate prepared with
+     * fixed base tables, used to issue user certificates in batches
+     * @param systemID system ID
+     * @return the prepared parameter, or null if the system does not exist
+     */
+    IBEPreparedPublicParameter getPreparedCertificateParameterForSystem(Integer systemID);
+
     /**
      * 获取IBE系统编号和名称的对应关系
      * @param page 分页页码 从0开始
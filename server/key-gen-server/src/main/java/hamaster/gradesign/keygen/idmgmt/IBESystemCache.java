@@ -0,0 +1,253 @@
+package hamaster.gradesign.keygen.idmgmt;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import hamaster.gradesgin.ibe.IBESystemParameter;
+import hamaster.gradesgin.ibs.IBSCertificate;
+import hamaster.gradesign.keygen.IBESystem;
+
+/**
+ * 解密后的IBE系统缓存 以系统ID为索引<br>
+ * 避免每次生成密钥都要AES解密并反序列化整个IBESystem<br>
+ * 条目在超过存活时间或超过最大数量时被淘汰，淘汰时主密钥和访问密码被清零；
+ * 调用方得到的总是主密钥的副本，清零缓存中的条目不会影响正在使用的调用方<br>
+ * 条目被淘汰或失效后通知监听者，由系统派生的对象应随之释放
+ * @author <a href="mailto:wangyeee@gmail.com">Wang Ye</a>
+ */
+public class IBESystemCache {
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LinkedHashMap<Integer, Entry> entries;
+
+    /**
+     * 每次失效时增加 加载期间发生过失效的结果不放入缓存
+     */
+    private long generation;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+    private final List<Consumer<Integer>> listeners;
+
+    /**
+     * @param maxSize 最多缓存的系统数量
+     * @param ttlMillis 条目的存活时间 单位毫秒
+     */
+    public IBESystemCache(int maxSize, long ttlMillis) {
+        if (maxSize <= 0 || ttlMillis <= 0)
+            throw new IllegalArgumentException("maxSize and ttlMillis must be positive");
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+        this.listeners = new CopyOnWriteArrayList<Consumer<Integer>>();
+    }
+
+    /**
+     * 添加淘汰监听者 条目超时、超过最大数量、失效或清除时以系统ID调用 调用时不持有缓存的锁
+     * @param listener 监听者
+     */
+    public void addEvictionListener(Consumer<Integer> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 获取解密后的系统 未命中时调用loader解密并放入缓存
+     * @param systemId 系统ID
+     * @param cryptionKey 系统访问密码 与缓存条目的密码不同时视为未命中
+     * @param loader 解密系统
+     * @return IBESystem对象 loader返回null时返回null
+     */
+    public IBESystem get(Integer systemId, byte[] cryptionKey, Supplier<IBESystem> loader) {
+        long loadGeneration;
+        boolean expired = false;
+        synchronized (entries) {
+            Entry entry = entries.get(systemId);
+            if (entry != null && entry.expiresAt - System.currentTimeMillis() <= 0) {
+                entries.remove(systemId);
+                entry.destroy();
+                evictions.incrementAndGet();
+                entry = null;
+                expired = true;
+            }
+            if (entry != null && MessageDigest.isEqual(entry.cryptionKey, cryptionKey)) {
+                hits.incrementAndGet();
+                return copy(entry.system);
+            }
+            loadGeneration = generation;
+        }
+        if (expired)
+            notifyEvicted(Collections.singletonList(systemId));
+        misses.incrementAndGet();
+        IBESystem system = loader.get();
+        if (system == null || cryptionKey == null)
+            return system;
+        List<Integer> evicted;
+        synchronized (entries) {
+            if (generation != loadGeneration)
+                return system;
+            Entry old = entries.put(systemId, new Entry(copy(system), cryptionKey.clone(), System.currentTimeMillis() + ttlMillis));
+            if (old != null)
+                old.destroy();
+            evicted = evictEldest();
+        }
+        notifyEvicted(evicted);
+        return system;
+    }
+
+    /**
+     * 系统被修改后使缓存的条目失效
+     * @param systemId 系统ID
+     */
+    public void invalidate(Integer systemId) {
+        synchronized (entries) {
+            generation++;
+            Entry entry = entries.remove(systemId);
+            if (entry != null)
+                entry.destroy();
+        }
+        // 没有缓存条目时监听者仍可能持有由旧系统派生的对象
+        notifyEvicted(Collections.singletonList(systemId));
+    }
+
+    /**
+     * 清零并清除所有条目
+     */
+    public void clear() {
+        List<Integer> evicted;
+        synchronized (entries) {
+            generation++;
+            evicted = new ArrayList<Integer>(entries.keySet());
+            for (Entry entry : entries.values())
+                entry.destroy();
+            entries.clear();
+        }
+        notifyEvicted(evicted);
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return 命中、未命中、淘汰次数和当前条目数量
+     */
+    public Map<String, Long> statistics() {
+        Map<String, Long> stats = new HashMap<String, Long>();
+        stats.put("hits", getHitCount());
+        stats.put("misses", getMissCount());
+        stats.put("evictions", getEvictionCount());
+        stats.put("size", (long) size());
+        return stats;
+    }
+
+    /**
+     * @return 被淘汰的系统ID
+     */
+    private List<Integer> evictEldest() {
+        List<Integer> evicted = new ArrayList<Integer>();
+        Iterator<Map.Entry<Integer, Entry>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxSize && iterator.hasNext()) {
+            Map.Entry<Integer, Entry> entry = iterator.next();
+            iterator.remove();
+            entry.getValue().destroy();
+            evictions.incrementAndGet();
+            evicted.add(entry.getKey());
+        }
+        return evicted;
+    }
+
+    private void notifyEvicted(List<Integer> systemIds) {
+        for (Integer systemId : systemIds) {
+            for (Consumer<Integer> listener : listeners)
+                listener.accept(systemId);
+        }
+    }
+
+    /**
+     * 复制系统 主密钥和访问密码使用新的数组 公共参数和签名共用
+     */
+    static IBESystem copy(IBESystem system) {
+        IBESystem copy = new IBESystem();
+        IBESystemParameter parameter = system.getParameter();
+        if (parameter != null) {
+            IBESystemParameter p = new IBESystemParameter();
+            p.setPublicParameter(parameter.getPublicParameter());
+            p.setMasterKey(clone(parameter.getMasterKey()));
+            copy.setParameter(p);
+        }
+        IBSCertificate certificate = system.getCertificate();
+        if (certificate != null) {
+            IBSCertificate c = new IBSCertificate();
+            c.setPublicParameter(certificate.getPublicParameter());
+            c.setMasterKey(clone(certificate.getMasterKey()));
+            c.setOwnerString(certificate.getOwnerString());
+            c.setSignature(certificate.getSignature());
+            c.setNoEarlyThan(certificate.getNoEarlyThan());
+            c.setNoLateThan(certificate.getNoLateThan());
+            copy.setCertificate(c);
+        }
+        copy.setCryptionKey(clone(system.getCryptionKey()));
+        return copy;
+    }
+
+    private static byte[] clone(byte[] data) {
+        return data == null ? null : data.clone();
+    }
+
+    private static void zero(byte[] data) {
+        if (data != null)
+            Arrays.fill(data, (byte) 0);
+    }
+
+    private final static class Entry {
+
+        final IBESystem system;
+        final byte[] cryptionKey;
+        final long expiresAt;
+
+        Entry(IBESystem system, byte[] cryptionKey, long expiresAt) {
+            this.system = system;
+            this.cryptionKey = cryptionKey;
+            this.expiresAt = expiresAt;
+        }
+
+        void destroy() {
+            if (system.getParameter() != null)
+                zero(system.getParameter().getMasterKey());
+            if (system.getCertificate() != null)
+                zero(system.getCertificate().getMasterKey());
+            zero(system.getCryptionKey());
+            zero(cryptionKey);
+        }
+    }
+}
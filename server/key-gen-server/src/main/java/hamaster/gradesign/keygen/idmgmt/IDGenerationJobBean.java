@@ -0,0 +1,23 @@
+package hamaster.gradesign.keygen.idmgmt;
+
+import java.util.List;
+
+import hamaster.gradesign.keygen.IBECSR;
+import hamaster.gradesign.keygen.IDGenerationJob;
+
+public interface IDGenerationJobBean {
+
+    /**
+     * 提交批量生成身份描述的任务
+     * @param requests 身份文件请求
+     * @return 任务状态 任务队列已满时返回null
+     */
+    IDGenerationJob submit(List<IBECSR> requests);
+
+    /**
+     * 查询任务的进度和已处理身份的结果
+     * @param jobId 任务序号
+     * @return 任务状态 任务不存在或已过期时返回null
+     */
+    IDGenerationJob get(String jobId);
+}
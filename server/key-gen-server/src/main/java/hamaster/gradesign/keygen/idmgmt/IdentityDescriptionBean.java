@@ -22,18 +22,17 @@ public interface IdentityDescriptionBean {
 
     boolean isCSRSignatureValid(IBECSR csr);
 
-    /**
-     * 批量为用户生成身份描述文件
-     * @param requests 身份文件请求
-     * @return 异步请求处理结果
-     */
-    @Async
-    Future<Map<String, Integer>> generateIdentityDescriptions(List<IBECSR> requests);
-
     IdentityDescriptionEntity generateSingleIdentityDescriptionEntity(IBECSR request);
 
     Map<String, Integer> generateIdentityDescriptionsSync(List<IBECSR> requests);
 
+    /**
+     * 批量为用户生成身份描述文件 每个系统的请求保存后将结果加入results
+     * @param requests 身份文件请求
+     * @param results 处理结果 可以在处理过程中被其他线程读取
+     */
+    void generateIdentityDescriptionsSync(List<IBECSR> requests, Map<String, Integer> results);
+
     /**
      * 修改身份信息的加密密钥
      * @param id 要修改的身份信息序号
@@ -5,13 +5,15 @@ import static java.util.Objects.requireNonNull;
 import java.io.IOException;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
-import javax.persistence.EntityNotFoundException;
-
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -20,51 +22,159 @@ import org.springframework.stereotype.Service;
 import hamaster.gradesgin.ibe.IBEPrivateKey;
 import hamaster.gradesgin.ibe.IBEPublicParameter;
 import hamaster.gradesgin.ibe.IBESystemParameter;
+import hamaster.gradesgin.ibe.core.IBEContext;
 import hamaster.gradesgin.ibe.core.IBEEngine;
+import hamaster.gradesgin.ibe.core.IBEPreparedPrivateKey;
+import hamaster.gradesgin.ibe.core.IBEPreparedPublicParameter;
 import hamaster.gradesgin.ibs.IBSCertificate;
 import hamaster.gradesgin.util.Hash;
 import hamaster.gradesgin.util.Hex;
 import hamaster.gradesign.keygen.IBESystem;
 import hamaster.gradesign.keygen.entity.IBESystemEntity;
 import hamaster.gradesign.keygen.idmgmt.IBESystemBean;
+import hamaster.gradesign.keygen.idmgmt.IBESystemCache;
 import hamaster.gradesign.keygen.key.SecureKeyIO;
 import hamaster.gradesign.keygen.repo.IBESystemRepository;
 
 @Service
-public class IBESystemBeanImpl implements IBESystemBean {
+public class IBESystemBeanImpl implements IBESystemBean, DisposableBean {
 
     private IBESystemRepository repo;
     private SecureKeyIO secureKeyIO;
 
     private Map<Integer, IBEPrivateKey> serverPrivateKeys;
+    private Map<Integer, IBEContext> systemContexts;
+    private Map<Integer, IBEPreparedPrivateKey> preparedServerKeys;
+    private Map<Integer, IBEPreparedPublicParameter> preparedCertificateParameters;
+
+    /**
+     * 每个系统被淘汰的次数 加载期间系统被淘汰时加载结果不放入缓存
+     */
+    private Map<Integer, Long> evictions;
+    private IBESystemCache systemCache;
 
     @Autowired
-    public IBESystemBeanImpl(IBESystemRepository repo, SecureKeyIO secureKeyIO) {
+    public IBESystemBeanImpl(IBESystemRepository repo, SecureKeyIO secureKeyIO, IBESystemCache systemCache) {
         this.repo = requireNonNull(repo);
         this.secureKeyIO = requireNonNull(secureKeyIO);
+        this.systemCache = requireNonNull(systemCache);
         this.serverPrivateKeys = new ConcurrentHashMap<Integer, IBEPrivateKey>();
+        this.systemContexts = new ConcurrentHashMap<Integer, IBEContext>();
+        this.preparedServerKeys = new ConcurrentHashMap<Integer, IBEPreparedPrivateKey>();
+        this.preparedCertificateParameters = new ConcurrentHashMap<Integer, IBEPreparedPublicParameter>();
+        this.evictions = new ConcurrentHashMap<Integer, Long>();
+        // 由系统派生的本地对象与解密后的系统一起淘汰
+        systemCache.addEvictionListener(this::evict);
     }
 
     @Override
     public IBEPrivateKey getPrivateKeyForSystem(Integer systemID) {
-        String publicKey = null;
-        IBESystem system = null;
         IBEPrivateKey key = serverPrivateKeys.get(systemID);
         if (key != null)
             return key;
-        try {
-            IBESystemEntity entity = repo.getOne(systemID);
-            publicKey = entity.getSystemOwner();
-            system = entity.getSystem(secureKeyIO.getSystemAccessPassword(systemID));
-        } catch (EntityNotFoundException e) {
-            e.printStackTrace();
+        long generation = evictions.getOrDefault(systemID, 0L);
+        IBEContext context = getContextForSystem(systemID);
+        if (context == null)
             return null;
-        }
-        key = IBEEngine.keygen(system.getParameter(), publicKey);
-        serverPrivateKeys.put(systemID, key);
+        Optional<IBESystemEntity> entity = repo.findById(systemID);
+        if (!entity.isPresent())
+            return null;
+        key = context.keygen(entity.get().getSystemOwner());
+        if (key != null && evictions.getOrDefault(systemID, 0L) == generation)
+            serverPrivateKeys.put(systemID, key);
         return key;
     }
 
+    @Override
+    public IBEContext getContextForSystem(Integer systemID) {
+        return cached(systemContexts, systemID, id -> {
+            IBESystem system = loadSystem(id);
+            return system == null ? null : IBEContext.create(system.getParameter());
+        });
+    }
+
+    @Override
+    public IBEPreparedPrivateKey getPreparedPrivateKeyForSystem(Integer systemID) {
+        return cached(preparedServerKeys, systemID, id -> {
+            IBEPrivateKey key = getPrivateKeyForSystem(id);
+            return key == null ? null : IBEEngine.prepare(key);
+        });
+    }
+
+    @Override
+    public IBEPreparedPublicParameter getPreparedCertificateParameterForSystem(Integer systemID) {
+        return cached(preparedCertificateParameters, systemID, id -> {
+            IBESystem system = loadSystem(id);
+            return system == null ? null : IBEEngine.prepare(system.getCertificate().getPublicParameter(), true);
+        });
+    }
+
+    /**
+     * findById loads the entity, a getOne proxy cannot be read on job threads without a session
+     */
+    private IBESystem loadSystem(Integer systemID) {
+        Optional<IBESystemEntity> entity = repo.findById(systemID);
+        if (!entity.isPresent())
+            return null;
+        return entity.get().getSystem(secureKeyIO.getSystemAccessPassword(systemID));
+    }
+
+    /**
+     * 从缓存获取由系统派生的本地对象 没有时加载并放入缓存<br>
+     * 加载在computeIfAbsent之外进行，解密系统可能触发系统缓存淘汰并回调evict修改这些缓存；
+     * 并发加载时只保留先放入的对象，加载期间系统被淘汰时丢弃结果重新加载
+     */
+    private <T extends AutoCloseable> T cached(Map<Integer, T> cache, Integer systemID, Function<Integer, T> loader) {
+        while (true) {
+            T value = cache.get(systemID);
+            if (value != null)
+                return value;
+            long generation = evictions.getOrDefault(systemID, 0L);
+            value = loader.apply(systemID);
+            if (value == null)
+                return null;
+            T existing = cache.putIfAbsent(systemID, value);
+            if (existing != null) {
+                close(value);
+                return existing;
+            }
+            if (evictions.getOrDefault(systemID, 0L) == generation)
+                return value;
+            if (cache.remove(systemID, value))
+                close(value);
+        }
+    }
+
+    /**
+     * 系统被淘汰或修改后释放由它派生的对象 正在进行的运算完成后才释放本地内存
+     * @param systemID 系统ID
+     */
+    private void evict(Integer systemID) {
+        evictions.merge(systemID, 1L, Long::sum);
+        serverPrivateKeys.remove(systemID);
+        close(preparedServerKeys.remove(systemID));
+        close(preparedCertificateParameters.remove(systemID));
+        close(systemContexts.remove(systemID));
+    }
+
+    private static void close(AutoCloseable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (Exception e) {
+        }
+    }
+
+    @Override
+    public void destroy() {
+        Set<Integer> systemIDs = new HashSet<Integer>(systemContexts.keySet());
+        systemIDs.addAll(preparedServerKeys.keySet());
+        systemIDs.addAll(preparedCertificateParameters.keySet());
+        for (Integer systemID : systemIDs)
+            evict(systemID);
+    }
+
     @Override
     public IBESystem createIBSSystem(String owner, byte[] pairing, byte[] password) {
         IBESystemParameter systemParameter = IBEEngine.setup(pairing);
@@ -89,6 +199,8 @@ public class IBESystemBeanImpl implements IBESystemBean {
         int systemID = 0;
         String pairing = "type a q 8780710799663312522437781984754049815806883199414208211028653399266475630880222957078625179422662221423155858769582317459277713367317481324925129998224791 h 12016012264891146079388821366740534204802954401251311822919615131047207289359704531102844802183906537786776 r 730750818665451621361119245571504901405976559617 exp2 159 exp1 107 sign1 1 sign0 1 ";
         IBESystem demo = createIBSSystem(owner, pairing.getBytes(), secureKeyIO.getSystemAccessPassword(systemID));
+        // 丢弃旧系统的解密结果 监听者随之释放派生的对象
+        systemCache.invalidate(systemID);
         serverPrivateKeys.put(systemID, IBEEngine.keygen(demo.getParameter(), owner));
     }
 
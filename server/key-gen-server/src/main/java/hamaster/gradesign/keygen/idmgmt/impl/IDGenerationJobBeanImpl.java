@@ -0,0 +1,132 @@
+package hamaster.gradesign.keygen.idmgmt.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import hamaster.gradesign.keygen.IBECSR;
+import hamaster.gradesign.keygen.IDGenerationJob;
+import hamaster.gradesign.keygen.idmgmt.IDGenerationJobBean;
+import hamaster.gradesign.keygen.idmgmt.IdentityDescriptionBean;
+
+/**
+ * 在共用的有界线程池中执行批量生成身份描述的任务 完成的任务保留一段时间供查询
+ */
+@Service
+public class IDGenerationJobBeanImpl implements IDGenerationJobBean {
+
+    private final static Logger logger = LoggerFactory.getLogger(IDGenerationJobBeanImpl.class);
+
+    private IdentityDescriptionBean identityDescriptionBean;
+
+    private ExecutorService jobs;
+
+    private Map<String, Job> running;
+
+    /**
+     * 完成的任务保留时间 单位毫秒
+     */
+    @Value("${ibe.keygen.jobs.retention:3600000}")
+    private long retention;
+
+    @Autowired
+    public IDGenerationJobBeanImpl(IdentityDescriptionBean identityDescriptionBean,
+            @Qualifier("identityJobs") ExecutorService jobs) {
+        this.identityDescriptionBean = requireNonNull(identityDescriptionBean);
+        this.jobs = requireNonNull(jobs);
+        this.running = new ConcurrentHashMap<String, Job>();
+    }
+
+    @Override
+    public IDGenerationJob submit(List<IBECSR> requests) {
+        purgeFinished();
+        Job job = new Job(UUID.randomUUID().toString(), new ArrayList<IBECSR>(requests));
+        running.put(job.jobId, job);
+        try {
+            jobs.execute(job);
+        } catch (RejectedExecutionException e) {
+            running.remove(job.jobId);
+            return null;
+        }
+        return job.snapshot();
+    }
+
+    @Override
+    public IDGenerationJob get(String jobId) {
+        purgeFinished();
+        Job job = running.get(jobId);
+        return job == null ? null : job.snapshot();
+    }
+
+    private void purgeFinished() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Job> iterator = running.values().iterator(); iterator.hasNext();) {
+            Date finished = iterator.next().finished;
+            if (finished != null && now - finished.getTime() > retention)
+                iterator.remove();
+        }
+    }
+
+    private final class Job implements Runnable {
+
+        final String jobId;
+        final List<IBECSR> requests;
+        final Date submitted;
+        final Map<String, Integer> results;
+        volatile String status;
+        volatile Date finished;
+
+        Job(String jobId, List<IBECSR> requests) {
+            this.jobId = jobId;
+            this.requests = requests;
+            this.submitted = new Date();
+            this.results = new ConcurrentHashMap<String, Integer>();
+            this.status = IDGenerationJob.STATUS_QUEUED;
+        }
+
+        @Override
+        public void run() {
+            status = IDGenerationJob.STATUS_RUNNING;
+            try {
+                identityDescriptionBean.generateIdentityDescriptionsSync(requests, results);
+                finished = new Date();
+                status = IDGenerationJob.STATUS_DONE;
+            } catch (Exception e) {
+                logger.error("ID generation job {} failed", jobId, e);
+                for (IBECSR csr : requests)
+                    results.putIfAbsent(csr.getIdentityString(), IBECSR.APPLICATION_ERROR);
+                finished = new Date();
+                status = IDGenerationJob.STATUS_FAILED;
+            }
+        }
+
+        IDGenerationJob snapshot() {
+            IDGenerationJob job = new IDGenerationJob();
+            job.setJobId(jobId);
+            job.setStatus(status);
+            job.setTotal(requests.size());
+            Map<String, Integer> copy = new HashMap<String, Integer>(results);
+            job.setResults(copy);
+            job.setProcessed(copy.size());
+            job.setSubmitted(submitted);
+            job.setFinished(finished);
+            return job;
+        }
+    }
+}
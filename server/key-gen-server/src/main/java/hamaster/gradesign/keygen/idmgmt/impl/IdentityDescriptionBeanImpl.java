@@ -3,28 +3,35 @@ package hamaster.gradesign.keygen.idmgmt.impl;
 import static java.util.Objects.requireNonNull;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.data.domain.Example;
 import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import hamaster.gradesgin.ibe.IBECipherText;
 import hamaster.gradesgin.ibe.IBEConstraints;
 import hamaster.gradesgin.ibe.IBEPlainText;
 import hamaster.gradesgin.ibe.IBEPrivateKey;
+import hamaster.gradesgin.ibe.core.IBEContext;
 import hamaster.gradesgin.ibe.core.IBEEngine;
+import hamaster.gradesgin.ibe.core.IBEPreparedPrivateKey;
+import hamaster.gradesgin.ibe.core.IBEPreparedPublicParameter;
 import hamaster.gradesgin.ibs.IBSCertificate;
 import hamaster.gradesgin.ibs.IBSSignature;
+import hamaster.gradesgin.ibs.core.IBSEngine;
 import hamaster.gradesgin.util.Hash;
 import hamaster.gradesgin.util.Hex;
 import hamaster.gradesign.keygen.IBECSR;
@@ -44,18 +51,30 @@ import hamaster.gradesign.keygen.repo.IdentityDescriptionRepository;
 @Service
 public class IdentityDescriptionBeanImpl implements IdentityDescriptionBean {
 
+    /**
+     * Number of identity descriptions persisted per saveAll call
+     */
+    final static int SAVE_BATCH_SIZE = 64;
+
     private IdentityDescriptionRepository idRepo;
     private IBESystemRepository sysRepo;
     private SecureKeyIO secureKeyIO;
     private IBESystemBean systemBean;
+    private ExecutorService workers;
+    private TransactionTemplate transactions;
 
     @Autowired
     public IdentityDescriptionBeanImpl(IdentityDescriptionRepository repo,
-            IBESystemRepository sysRepo, SecureKeyIO secureKeyIO, IBESystemBean systemBean) {
+            IBESystemRepository sysRepo, SecureKeyIO secureKeyIO, IBESystemBean systemBean,
+            @Qualifier("identityWorkers") ExecutorService identityWorkers,
+            PlatformTransactionManager transactionManager) {
         this.idRepo = requireNonNull(repo);
         this.sysRepo = requireNonNull(sysRepo);
         this.secureKeyIO = requireNonNull(secureKeyIO);
         this.systemBean = requireNonNull(systemBean);
+        this.workers = requireNonNull(identityWorkers);
+        this.transactions = new TransactionTemplate(requireNonNull(transactionManager));
+        this.transactions.setReadOnly(true);
     }
 
     /*
@@ -92,32 +111,112 @@ public class IdentityDescriptionBeanImpl implements IdentityDescriptionBean {
     }
 
     @Override
-    public Future<Map<String, Integer>> generateIdentityDescriptions(List<IBECSR> requests) {
-        ExecutorService executor = Executors.newFixedThreadPool(1);
-        Future<Map<String, Integer>> future = executor.submit(() -> generateIdentityDescriptionsSync(requests));
-        return future;
+    public Map<String, Integer> generateIdentityDescriptionsSync(List<IBECSR> requests) {
+        Map<String, Integer> map = new HashMap<String, Integer>(requests.size());
+        generateIdentityDescriptionsSync(requests, map);
+        return map;
     }
 
     @Override
-    public Map<String, Integer> generateIdentityDescriptionsSync(List<IBECSR> requests) {
-        Collection<IdentityDescriptionEntity> objs = new ArrayList<IdentityDescriptionEntity>(requests.size());
-        Map<String, Integer> map = new HashMap<String, Integer>(requests.size());
-        for (IBECSR csr : requests) {
+    public void generateIdentityDescriptionsSync(List<IBECSR> requests, Map<String, Integer> results) {
+        // requests of the same system share one decoded system and one native batch call
+        Map<Integer, List<IBECSR>> bySystem = new LinkedHashMap<Integer, List<IBECSR>>();
+        for (IBECSR csr : requests)
+            bySystem.computeIfAbsent(csr.getIbeSystemId(), k -> new ArrayList<IBECSR>()).add(csr);
+        for (Map.Entry<Integer, List<IBECSR>> entry : bySystem.entrySet()) {
+            List<IdentityDescriptionEntity> objs = new ArrayList<IdentityDescriptionEntity>(entry.getValue().size());
+            Map<String, Integer> map = new HashMap<String, Integer>(entry.getValue().size());
             try {
-                IdentityDescriptionEntity id = generateIdentityDescriptionForUser(
-                        csr.getIdentityString(),
-                        csr.getPassword(),
-                        csr.getIbeSystemId(),
-                        csr.getApplicationDate(),
-                        csr.getPeriod());
-                objs.add(id);
-                map.put(csr.getIdentityString(), IBECSR.APPLICATION_APPROVED);
+                generateIdentityDescriptionsForSystem(entry.getKey(), entry.getValue(), objs, map);
             } catch (Exception e) {
+                for (IBECSR csr : entry.getValue())
+                    map.putIfAbsent(csr.getIdentityString(), IBECSR.APPLICATION_ERROR);
+            }
+            // results of a system are published only after they are persisted
+            saveInChunks(objs, map);
+            results.putAll(map);
+        }
+    }
+
+    /**
+     * Persist the generated identity descriptions with chunked saveAll calls,
+     * owners of a chunk that fails to save are reported as errors.
+     */
+    private void saveInChunks(List<IdentityDescriptionEntity> objs, Map<String, Integer> map) {
+        for (int from = 0; from < objs.size(); from += SAVE_BATCH_SIZE) {
+            List<IdentityDescriptionEntity> chunk = objs.subList(from, Math.min(from + SAVE_BATCH_SIZE, objs.size()));
+            try {
+                idRepo.saveAll(chunk);
+            } catch (Exception e) {
+                for (IdentityDescriptionEntity id : chunk)
+                    map.put(id.getIdOwner(), IBECSR.APPLICATION_ERROR);
+            }
+        }
+    }
+
+    /**
+     * Generate identity descriptions for requests of a single system, private keys
+     * and session keys are processed with the batch IBE APIs, certificates and
+     * encrypted identity descriptions are built in parallel on the worker pool.
+     */
+    private void generateIdentityDescriptionsForSystem(Integer systemId, List<IBECSR> requests,
+            List<IdentityDescriptionEntity> objs, Map<String, Integer> map) {
+        OpenedSystem opened = openSystem(systemId);
+        if (opened == null) {
+            for (IBECSR csr : requests)
                 map.put(csr.getIdentityString(), IBECSR.APPLICATION_ERROR);
+            return;
+        }
+        IBESystemEntity system = opened.entity;
+        IBESystem sys = opened.system;
+        IBEPreparedPublicParameter certificateParameter = opened.certificateParameter;
+        List<IBECSR> valid = new ArrayList<IBECSR>(requests.size());
+        List<IBECipherText> passwords = new ArrayList<IBECipherText>(requests.size());
+        for (IBECSR csr : requests) {
+            IBECipherText password = csr.getPassword() == null ? null : IBEConstraints.fromByteArray(csr.getPassword(), IBECipherText.class);
+            if (password == null) {
+                map.put(csr.getIdentityString(), IBECSR.APPLICATION_ERROR);
+                continue;
+            }
+            valid.add(csr);
+            passwords.add(password);
+        }
+        String[] owners = new String[valid.size()];
+        for (int i = 0; i < owners.length; i++)
+            owners[i] = valid.get(i).getIdentityString();
+        IBEPrivateKey[] privateKeys = systemBean.getContextForSystem(systemId).keygen(owners);
+        IBEPlainText[] sessionKeys = IBEEngine.decrypt(passwords.toArray(new IBECipherText[passwords.size()]),
+                systemBean.getPreparedPrivateKeyForSystem(systemId));
+        List<Future<IdentityDescriptionEntity>> futures = new ArrayList<Future<IdentityDescriptionEntity>>(owners.length);
+        for (int i = 0; i < owners.length; i++) {
+            IBECSR csr = valid.get(i);
+            if (privateKeys[i] == null || sessionKeys[i] == null) {
+                futures.add(null);
+                continue;
+            }
+            String owner = owners[i];
+            IBEPrivateKey privateKey = privateKeys[i];
+            IBEPlainText sessionKey = sessionKeys[i];
+            futures.add(workers.submit(() -> buildIdentityDescription(owner, privateKey, sys, system, certificateParameter,
+                    IBEPlainText.getSignificantBytes(sessionKey), csr.getApplicationDate(), csr.getPeriod())));
+        }
+        // collect on the calling thread, the result map is not shared with the workers
+        for (int i = 0; i < owners.length; i++) {
+            Future<IdentityDescriptionEntity> future = futures.get(i);
+            if (future == null) {
+                map.put(owners[i], IBECSR.APPLICATION_ERROR);
+                continue;
+            }
+            try {
+                objs.add(future.get());
+                map.put(owners[i], IBECSR.APPLICATION_APPROVED);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                map.put(owners[i], IBECSR.APPLICATION_ERROR);
+            } catch (ExecutionException e) {
+                map.put(owners[i], IBECSR.APPLICATION_ERROR);
             }
         }
-        idRepo.saveAll(objs);
-        return map;
     }
 
     @Override
@@ -128,7 +227,7 @@ public class IdentityDescriptionBeanImpl implements IdentityDescriptionBean {
             return true;
         }
         IBSSignature signature = IBEConstraints.fromByteArray(csr.getSignature(), IBSSignature.class);
-        return IBEEngine.verify(signature, csr.getDigest());
+        return IBSEngine.verify(signature, csr.getDigest());
     }
 
     @Override
@@ -154,17 +253,48 @@ public class IdentityDescriptionBeanImpl implements IdentityDescriptionBean {
 
     private IdentityDescriptionEntity generateIdentityDescriptionForUser(String owner,
             byte[] userPassword, Integer systemId, Date validAfter, long period) {
-        IdentityDescription id = new IdentityDescription();
-        IBESystemEntity system = sysRepo.getOne(systemId);
-        String sha512 = Hex.hex(Hash.sha512(secureKeyIO.getSystemAccessPassword(systemId)));
-        if (!system.getSystemKeyHash().equalsIgnoreCase(sha512)) {
+        OpenedSystem opened = openSystem(systemId);
+        if (opened == null)
             return null;
-        }
-        IBESystem sys = system.getSystem(secureKeyIO.getSystemAccessPassword(systemId));
 
         // 声称私钥和签名证书
-        IBEPrivateKey privateKey = IBEEngine.keygen(sys.getParameter(), owner);
-        IBSCertificate certificate = IBEEngine.generateCertificate(owner, sys.getCertificate(), validAfter, period);
+        IBEContext context = systemBean.getContextForSystem(systemId);
+        if (context == null)
+            return null;
+        IBEPrivateKey privateKey = context.keygen(owner);
+        byte[] sessionKey = decryptSessionKeyWithServerKey(userPassword, systemBean.getPreparedPrivateKeyForSystem(systemId));
+        return buildIdentityDescription(owner, privateKey, opened.system, opened.entity, opened.certificateParameter,
+                sessionKey, validAfter, period);
+    }
+
+    /**
+     * Load and decrypt a system inside a read only transaction, the entity is
+     * fully loaded so it can be used on job and worker threads after the
+     * transaction completes. The prepared certificate parameter is resolved in
+     * the same transaction so the workers never touch the repository.
+     * @return the loaded system, null if it does not exist or the access password does not match
+     */
+    private OpenedSystem openSystem(Integer systemId) {
+        return transactions.execute(status -> {
+            IBESystemEntity system = sysRepo.findById(systemId).orElse(null);
+            if (system == null)
+                return null;
+            String sha512 = Hex.hex(Hash.sha512(secureKeyIO.getSystemAccessPassword(systemId)));
+            if (!system.getSystemKeyHash().equalsIgnoreCase(sha512)) {
+                return null;
+            }
+            IBESystem sys = system.getSystem(secureKeyIO.getSystemAccessPassword(systemId));
+            if (sys == null)
+                return null;
+            IBEPreparedPublicParameter certificateParameter = systemBean.getPreparedCertificateParameterForSystem(systemId);
+            return certificateParameter == null ? null : new OpenedSystem(system, sys, certificateParameter);
+        });
+    }
+
+    private IdentityDescriptionEntity buildIdentityDescription(String owner, IBEPrivateKey privateKey, IBESystem sys,
+            IBESystemEntity system, IBEPreparedPublicParameter certificateParameter, byte[] sessionKey, Date validAfter, long period) {
+        IdentityDescription id = new IdentityDescription();
+        IBSCertificate certificate = IBEEngine.generateCertificate(owner, sys.getCertificate(), certificateParameter, validAfter, period);
         id.setSystemPublicParameter(sys.getParameter().getPublicParameter());
         id.setPrivateKey(privateKey);
         id.setCertificate(certificate);
@@ -173,7 +303,7 @@ public class IdentityDescriptionBeanImpl implements IdentityDescriptionBean {
         IdentityDescriptionEntity idCon = new IdentityDescriptionEntity();
         idCon.setIdOwner(owner);
         idCon.setSystem(system);
-        idCon.setIdentityDescription(id, decryptSessionKeyWithServerKey(userPassword, systemBean.getPrivateKeyForSystem(systemId)));
+        idCon.setIdentityDescription(id, sessionKey);
         return idCon;
     }
 
@@ -181,12 +311,25 @@ public class IdentityDescriptionBeanImpl implements IdentityDescriptionBean {
      * Any session key (AES 256) sent to the key generation server is encrypted
      * with the server private IBE key, this method decrypts the key contents.<br>
      * @param sessionKey The encrypted session key
-     * @param serverPrivateKey the IBE private key for the given system
+     * @param serverPrivateKey the prepared IBE private key for the given system
      * @return the session key in plain text
      */
-    private byte[] decryptSessionKeyWithServerKey(byte[] sessionKey, IBEPrivateKey serverPrivateKey) {
+    private byte[] decryptSessionKeyWithServerKey(byte[] sessionKey, IBEPreparedPrivateKey serverPrivateKey) {
         IBECipherText cipher = IBEConstraints.fromByteArray(sessionKey, IBECipherText.class);
         IBEPlainText plain = IBEEngine.decrypt(cipher, serverPrivateKey);
         return IBEPlainText.getSignificantBytes(plain);
     }
+
+    private final static class OpenedSystem {
+
+        final IBESystemEntity entity;
+        final IBESystem system;
+        final IBEPreparedPublicParameter certificateParameter;
+
+        OpenedSystem(IBESystemEntity entity, IBESystem system, IBEPreparedPublicParameter certificateParameter) {
+            this.entity = entity;
+            this.system = system;
+            this.certificateParameter = certificateParameter;
+        }
+    }
 }
@@ -0,0 +1,203 @@
+package hamaster.gradesign.keygen.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.LazyInitializationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+
+import hamaster.gradesgin.ibe.IBECipherText;
+import hamaster.gradesgin.ibe.IBEPlainText;
+import hamaster.gradesgin.ibe.core.IBEContext;
+import hamaster.gradesgin.ibe.core.IBEEngine;
+import hamaster.gradesign.keygen.IBECSR;
+import hamaster.gradesign.keygen.IBESystem;
+import hamaster.gradesign.keygen.IDGenerationJob;
+import hamaster.gradesign.keygen.entity.IBESystemEntity;
+import hamaster.gradesign.keygen.entity.IdentityDescriptionEntity;
+import hamaster.gradesign.keygen.idmgmt.IBESystemCache;
+import hamaster.gradesign.keygen.idmgmt.impl.IBESystemBeanImpl;
+import hamaster.gradesign.keygen.idmgmt.impl.IDGenerationJobBeanImpl;
+import hamaster.gradesign.keygen.idmgmt.impl.IdentityDescriptionBeanImpl;
+import hamaster.gradesign.keygen.key.DummySecureKeyIOImpl;
+import hamaster.gradesign.keygen.key.SecureKeyIO;
+import hamaster.gradesign.keygen.repo.IBESystemRepository;
+import hamaster.gradesign.keygen.repo.IdentityDescriptionRepository;
+
+/**
+ * 在任务线程池上完整执行一次身份生成任务<br>
+ * 仓库只保存内存中的对象，getOne返回的代理在任务线程上没有会话，读取时抛出LazyInitializationException；
+ * 工作线程访问仓库时抛出IllegalStateException
+ */
+public class TestIDGenerationJob {
+
+    final static String PAIRING = "type a q 8780710799663312522437781984754049815806883199414208211028653399266475630880222957078625179422662221423155858769582317459277713367317481324925129998224791 h 12016012264891146079388821366740534204802954401251311822919615131047207289359704531102844802183906537786776 r 730750818665451621361119245571504901405976559617 exp2 159 exp1 107 sign1 1 sign0 1 ";
+
+    final static String OWNER = "IBE_SERVER";
+
+    final static String WORKER = "ibe-keygen-worker";
+
+    Map<Integer, IBESystemEntity> systems;
+    List<IdentityDescriptionEntity> saved;
+    SecureKeyIO secureKeyIO;
+    IBESystemCache systemCache;
+    IBESystemBeanImpl systemBean;
+    ExecutorService workers;
+    ExecutorService jobs;
+    IDGenerationJobBeanImpl jobBean;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        systems = new ConcurrentHashMap<Integer, IBESystemEntity>();
+        saved = Collections.synchronizedList(new ArrayList<IdentityDescriptionEntity>());
+        secureKeyIO = new DummySecureKeyIOImpl();
+        IBESystemRepository sysRepo = systemRepository();
+        systemCache = new IBESystemCache(4, 60000L);
+        systemBean = new IBESystemBeanImpl(sysRepo, secureKeyIO, systemCache);
+        workers = Executors.newFixedThreadPool(2, r -> new Thread(r, WORKER));
+        jobs = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(4));
+        IdentityDescriptionBeanImpl idBean = new IdentityDescriptionBeanImpl(identityRepository(), sysRepo,
+                secureKeyIO, systemBean, workers, new InMemoryTransactionManager());
+        jobBean = new IDGenerationJobBeanImpl(idBean, jobs);
+        Field retention = IDGenerationJobBeanImpl.class.getDeclaredField("retention");
+        retention.setAccessible(true);
+        retention.setLong(jobBean, 60000L);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        jobs.shutdown();
+        workers.shutdown();
+        systemBean.destroy();
+    }
+
+    @Test
+    public void testJobRunsOnExecutor() throws Exception {
+        IBESystem system = systemBean.createIBSSystem(OWNER, PAIRING.getBytes(), secureKeyIO.getSystemAccessPassword(0));
+        byte[] sessionKey = "session-key-of-alice".getBytes();
+        IBECipherText password = IBEEngine.encrypt(system.getParameter().getPublicParameter(),
+                IBEPlainText.newIbePlainTextFormSignificantBytes(sessionKey), OWNER);
+        IBECSR csr = new IBECSR();
+        csr.setIbeSystemId(0);
+        csr.setIdentityString("alice@example.com");
+        csr.setApplicationDate(new Date());
+        csr.setPeriod(31536000000L);
+        csr.setPassword(password.toByteArray());
+        csr.setRequestId(1);
+
+        IDGenerationJob job = jobBean.submit(Collections.singletonList(csr));
+        assertNotNull(job);
+        long deadline = System.currentTimeMillis() + 60000L;
+        while (!IDGenerationJob.STATUS_DONE.equals(job.getStatus()) && !IDGenerationJob.STATUS_FAILED.equals(job.getStatus())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            job = jobBean.get(job.getJobId());
+        }
+        assertEquals(IDGenerationJob.STATUS_DONE, job.getStatus());
+        assertEquals(Integer.valueOf(IBECSR.APPLICATION_APPROVED), job.getResults().get("alice@example.com"));
+        assertEquals(1, saved.size());
+        assertEquals("alice@example.com", saved.get(0).getIdOwner());
+        assertSame(systems.get(0), saved.get(0).getSystem());
+        assertNotNull(saved.get(0).getIdentityDescription(sessionKey));
+    }
+
+    @Test
+    public void testInvalidateClosesContext() {
+        systemBean.createIBSSystem(OWNER, PAIRING.getBytes(), secureKeyIO.getSystemAccessPassword(0));
+        IBEContext context = systemBean.getContextForSystem(0);
+        assertNotNull(context);
+        systemCache.invalidate(0);
+        assertTrue(context.isClosed());
+        IBEContext reloaded = systemBean.getContextForSystem(0);
+        assertNotSame(context, reloaded);
+        assertFalse(reloaded.isClosed());
+    }
+
+    private IBESystemRepository systemRepository() {
+        AtomicInteger ids = new AtomicInteger();
+        return (IBESystemRepository) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { IBESystemRepository.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "save":
+                        IBESystemEntity entity = (IBESystemEntity) args[0];
+                        if (entity.getSystemId() == null)
+                            entity.setSystemId(ids.getAndIncrement());
+                        systems.put(entity.getSystemId(), entity);
+                        return entity;
+                    case "findById":
+                        // 工作线程只使用调用线程准备好的对象
+                        if (WORKER.equals(Thread.currentThread().getName()))
+                            throw new IllegalStateException("repository accessed from a worker thread");
+                        return Optional.ofNullable(systems.get(args[0]));
+                    case "getOne":
+                        throw new LazyInitializationException("could not initialize proxy - no Session");
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private IdentityDescriptionRepository identityRepository() {
+        return (IdentityDescriptionRepository) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { IdentityDescriptionRepository.class },
+                (proxy, method, args) -> {
+                    if ("saveAll".equals(method.getName())) {
+                        List<IdentityDescriptionEntity> list = new ArrayList<IdentityDescriptionEntity>();
+                        for (Object obj : (Iterable<?>) args[0])
+                            list.add((IdentityDescriptionEntity) obj);
+                        saved.addAll(list);
+                        return list;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    /**
+     * 只维护事务同步状态的事务管理器
+     */
+    final static class InMemoryTransactionManager extends AbstractPlatformTransactionManager {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+    }
+}